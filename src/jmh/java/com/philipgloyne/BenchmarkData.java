@@ -0,0 +1,45 @@
+package com.philipgloyne;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic inputs shared by the benchmarks so runs are comparable between commits.
+ */
+final class BenchmarkData {
+
+    static final int TX_LENGTH = 64;
+
+    private BenchmarkData() {
+    }
+
+    static List<byte[]> transactions(int count) {
+        SplittableRandom random = new SplittableRandom(42);
+        List<byte[]> txs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            txs.add(transaction(random));
+        }
+        return txs;
+    }
+
+    static byte[] transaction(SplittableRandom random) {
+        byte[] tx = new byte[TX_LENGTH];
+        for (int i = 0; i < TX_LENGTH; i += 8) {
+            long bits = random.nextLong();
+            for (int b = 0; b < 8; b++) {
+                tx[i + b] = (byte) (bits >>> (b * 8));
+            }
+        }
+        return tx;
+    }
+
+    static TreeBuilder builder(String name, HashAlgorithm hashFn) {
+        return switch (name) {
+            case "basic" -> new BasicTreeBuilder(hashFn);
+            case "fast" -> new FastTreeBuilder(hashFn);
+            case "forkjoin" -> new ForkJoinTreeBuilder(hashFn);
+            default -> throw new IllegalArgumentException("unknown builder " + name);
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of durability: updateTx against a DurableMerkleTree forcing the log every commitEvery records, next to a plain
+ * in-memory MerkleTree, and recovery of a tree (checkpoint plus a tail of tailRecords updates) next to rebuilding it
+ * from its transactions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class DurableTreeBenchmark {
+
+    @Param({"262144"})
+    int leafCount;
+
+    @Param({"1", "16", "256"})
+    int commitEvery;
+
+    @Param({"10000"})
+    int tailRecords;
+
+    private final SHA256D hashFn = new SHA256D();
+    private List<byte[]> txs;
+    private Path dir;
+    private Path recoveryDir;
+    private MerkleTree plainTree;
+    private DurableMerkleTree durableTree;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        txs = BenchmarkData.transactions(leafCount);
+        random = new SplittableRandom(11);
+        plainTree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        dir = Files.createTempDirectory("durable-tree");
+        durableTree = DurableMerkleTree.create(dir.resolve("tree"), new BasicTreeBuilder(hashFn), hashFn, txs,
+                commitEvery, Integer.MAX_VALUE);
+
+        recoveryDir = dir.resolve("recovery");
+        try (DurableMerkleTree tree = DurableMerkleTree.create(recoveryDir, new BasicTreeBuilder(hashFn), hashFn, txs,
+                256, Integer.MAX_VALUE)) {
+            for (int i = 0; i < tailRecords; i++) {
+                int index = random.nextInt(leafCount);
+                tree.updateTx(index, txs.get(index));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        durableTree.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public MerkleTree plainUpdateTx() {
+        int index = random.nextInt(leafCount);
+        plainTree.updateTx(index, txs.get(index));
+        return plainTree;
+    }
+
+    @Benchmark
+    public MerkleTree durableUpdateTx() {
+        int index = random.nextInt(leafCount);
+        durableTree.updateTx(index, txs.get(index));
+        return durableTree;
+    }
+
+    @Benchmark
+    public byte[] recover() throws IOException {
+        try (DurableMerkleTree tree = DurableMerkleTree.open(recoveryDir, commitEvery, Integer.MAX_VALUE)) {
+            return tree.getRoot();
+        }
+    }
+
+    @Benchmark
+    public byte[] rebuild() {
+        return new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs).getRoot();
+    }
+}
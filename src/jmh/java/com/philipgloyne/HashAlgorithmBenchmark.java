@@ -0,0 +1,79 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each built in HashAlgorithm: hashing a single node pair, a level's worth of pairs through hashPairs, building a
+ * tree and the latency of creating and verifying a proof. SHA256D-scalar and BLAKE3-scalar hash batches one at a
+ * time rather than in SIMD lanes by VectorSHA256 and VectorBLAKE3.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class HashAlgorithmBenchmark {
+
+    private static final int LEVEL_PAIRS = 1024;
+
+    @Param({"SHA256D", "SHA256D-scalar", "SHA256", "BLAKE3", "BLAKE3-scalar", "XXH128"})
+    String algorithm;
+
+    @Param({"1048576"})
+    int leafCount;
+
+    private HashAlgorithm hashFn;
+    private List<byte[]> txs;
+    private TreeBuilder treeBuilder;
+    private MerkleTree tree;
+    private byte[] pair;
+    private byte[] out;
+    private byte[] level;
+    private byte[] parents;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hashFn = switch (algorithm) {
+            case "SHA256D-scalar" -> new SHA256D(false);
+            case "BLAKE3-scalar" -> new BLAKE3(false);
+            default -> HashAlgorithm.forName(algorithm);
+        };
+        txs = BenchmarkData.transactions(leafCount);
+        treeBuilder = new ForkJoinTreeBuilder(hashFn);
+        tree = new MerkleTree(treeBuilder, hashFn, txs);
+        pair = new byte[2 * hashFn.digestLength()];
+        out = new byte[hashFn.digestLength()];
+        level = new byte[2 * LEVEL_PAIRS * hashFn.digestLength()];
+        parents = new byte[LEVEL_PAIRS * hashFn.digestLength()];
+    }
+
+    @Benchmark
+    public byte[] hashPair() {
+        hashFn.hashPairInto(pair, 0, out.length, pair, out.length, out.length, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEVEL_PAIRS)
+    public byte[] hashPairs() {
+        hashFn.hashPairs(level, 0, parents, 0, LEVEL_PAIRS);
+        return parents;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public NodeStore build() {
+        return treeBuilder.build(txs);
+    }
+
+    @Benchmark
+    public boolean proveAndVerify() {
+        int index = ThreadLocalRandom.current().nextInt(leafCount);
+        return ProofVerifier.verify(tree.getRoot(), txs.get(index), index, leafCount, tree.createProof(index), hashFn);
+    }
+}
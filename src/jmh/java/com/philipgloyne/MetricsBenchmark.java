@@ -0,0 +1,71 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of instrumentation on the hottest operations: proofs into a reused buffer, updates, and proofs through a
+ * ThreadSafeMerkleTree's read lock, with no metrics (TreeMetrics.NONE) and with a MetricsRecorder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class MetricsBenchmark {
+
+    @Param({"65536"})
+    int leafCount;
+
+    @Param({"none", "recorder"})
+    String metrics;
+
+    private final SHA256D hashFn = new SHA256D();
+    private List<byte[]> txs;
+    private MerkleTree tree;
+    private ThreadSafeMerkleTree threadSafeTree;
+    private SplittableRandom random;
+    private byte[][] proofBuffer;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        txs = BenchmarkData.transactions(leafCount);
+        tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        threadSafeTree = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        if (metrics.equals("recorder")) {
+            MetricsRecorder recorder = new MetricsRecorder();
+            tree.setMetrics(recorder);
+            threadSafeTree.setMetrics(recorder);
+        }
+        random = new SplittableRandom(7);
+        proofBuffer = new byte[tree.getHeight()][hashFn.digestLength()];
+    }
+
+    @Setup(Level.Invocation)
+    public void pickLeaf() {
+        index = random.nextInt(leafCount);
+    }
+
+    @Benchmark
+    public byte[][] createProofInto() {
+        tree.createProof(index, proofBuffer);
+        return proofBuffer;
+    }
+
+    @Benchmark
+    public byte[][] threadSafeCreateProofInto() {
+        threadSafeTree.createProof(index, proofBuffer);
+        return proofBuffer;
+    }
+
+    @Benchmark
+    public MerkleTree updateTx() {
+        tree.updateTx(index, txs.get(index));
+        return tree;
+    }
+}
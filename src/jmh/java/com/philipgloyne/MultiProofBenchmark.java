@@ -0,0 +1,77 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One multiproof against the equivalent number of single proofs, for creating and verifying the proof of a batch of
+ * leaves. Both verifiers recompute the root without the tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class MultiProofBenchmark {
+
+    @Param({"65536", "1048576"})
+    int leafCount;
+
+    @Param({"16", "256"})
+    int batchSize;
+
+    private final SHA256D hashFn = new SHA256D();
+    private MerkleTree tree;
+    private int[] indexes;
+    private List<byte[]> leaves;
+    private MultiProof multiProof;
+    private List<List<byte[]>> singleProofs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<byte[]> txs = BenchmarkData.transactions(leafCount);
+        tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        indexes = new SplittableRandom(3).ints(batchSize, 0, leafCount).sorted().distinct().toArray();
+        leaves = new ArrayList<>();
+        singleProofs = new ArrayList<>();
+        for (int index : indexes) {
+            leaves.add(txs.get(index));
+            singleProofs.add(tree.createProof(index));
+        }
+        multiProof = tree.createMultiProof(indexes);
+    }
+
+    @Benchmark
+    public MultiProof createMultiProof() {
+        return tree.createMultiProof(indexes);
+    }
+
+    @Benchmark
+    public List<List<byte[]>> createSingleProofs() {
+        List<List<byte[]>> proofs = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            proofs.add(tree.createProof(index));
+        }
+        return proofs;
+    }
+
+    @Benchmark
+    public boolean verifyMultiProof() {
+        return MultiProofVerifier.verify(tree.getRoot(), leaves, multiProof, hashFn);
+    }
+
+    @Benchmark
+    public boolean verifySingleProofs() {
+        boolean valid = true;
+        for (int i = 0; i < indexes.length; i++) {
+            valid &= ProofVerifier.verify(
+                    tree.getRoot(), leaves.get(i), indexes[i], leafCount, singleProofs.get(i), hashFn);
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,53 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ForkJoinTreeBuilder builds and single leaf updates under each NodeHashing convention. HASH_LEAVES_ONCE computes
+ * about 2n digests for a build over n leaves against 3n, and log n + 1 for an update against 2 log n + 1.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class NodeHashingBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    @Param({"REHASH_CHILDREN", "HASH_LEAVES_ONCE"})
+    NodeHashing hashing;
+
+    private List<byte[]> txs;
+    private TreeBuilder treeBuilder;
+    private MerkleTree tree;
+    private byte[] tx;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SHA256D hashFn = new SHA256D();
+        txs = BenchmarkData.transactions(leafCount);
+        treeBuilder = new ForkJoinTreeBuilder(hashFn, ForkJoinPool.commonPool(), false, hashing);
+        tree = new MerkleTree(treeBuilder, hashFn, txs);
+        tx = "updated".getBytes();
+    }
+
+    @Benchmark
+    public NodeStore build() {
+        return treeBuilder.build(txs);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] update() {
+        tree.updateTx(ThreadLocalRandom.current().nextInt(leafCount), tx);
+        return tree.getRoot();
+    }
+}
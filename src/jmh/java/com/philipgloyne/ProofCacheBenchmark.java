@@ -0,0 +1,74 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proof latency of a ThreadSafeMerkleTree with and without a proof cache under skewed reads: hotShare of the proofs
+ * are for the last hotLeaves leaves, as when recent transactions are looked up most. A writer updates random leaves
+ * alongside. Sampled so percentiles (p99) can be compared, not just the mean. A hit hands back the cached proof
+ * without reading or copying a node, a proof a write has touched re-reads only the node that changed.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ProofCacheBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    @Param({"none", "cached"})
+    String cache;
+
+    @Param({"buffer", "persistent"})
+    String store;
+
+    @Param({"1024"})
+    int hotLeaves;
+
+    @Param({"0.9"})
+    double hotShare;
+
+    private ThreadSafeMerkleTree tree;
+    private List<byte[]> txs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SHA256D hashFn = new SHA256D();
+        txs = BenchmarkData.transactions(leafCount);
+        TreeBuilder builder = new BasicTreeBuilder(hashFn);
+        if (store.equals("persistent")) builder = PersistentNodeStore.persistent(builder, hashFn);
+        tree = new ThreadSafeMerkleTree(builder, hashFn, txs);
+        if (cache.equals("cached")) tree.enableProofCache(2 * hotLeaves);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (tree.getProofCache() != null) System.out.println(tree.getProofCache());
+    }
+
+    @Benchmark
+    @Group("skewed")
+    @GroupThreads(3)
+    public List<byte[]> proof() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextDouble() < hotShare
+                ? leafCount - 1 - random.nextInt(hotLeaves)
+                : random.nextInt(leafCount);
+        return tree.createProof(index);
+    }
+
+    @Benchmark
+    @Group("skewed")
+    @GroupThreads(1)
+    public void update() {
+        int index = ThreadLocalRandom.current().nextInt(leafCount);
+        tree.updateTx(index, txs.get(index));
+    }
+}
@@ -0,0 +1,70 @@
+package com.philipgloyne;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a proof through the wire: encoding straight from the tree into a reused buffer and verifying the
+ * bytes in place, next to Java serialization of createProof's list and verifying what it deserializes to. The
+ * encoded sizes of both are printed at the end of the trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ProofCodecBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    private final SHA256D hashFn = new SHA256D();
+    private List<byte[]> txs;
+    private MerkleTree tree;
+    private byte[] root;
+    private ByteBuffer buffer;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        txs = BenchmarkData.transactions(leafCount);
+        tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        root = tree.getRoot();
+        buffer = ByteBuffer.allocate(ProofCodec.maxLength(leafCount, hashFn.digestLength(), 256));
+        random = new SplittableRandom(17);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        int index = leafCount / 3;
+        buffer.clear();
+        tree.encodeProof(index, buffer);
+        System.out.println("encoded " + buffer.position() + " bytes, serialized "
+                + SerializationUtils.serialize(new ArrayList<>(tree.createProof(index))).length + " bytes");
+    }
+
+    @Benchmark
+    public boolean encoded() {
+        int index = random.nextInt(leafCount);
+        buffer.clear();
+        tree.encodeProof(index, buffer);
+        buffer.flip();
+        return ProofVerifier.verify(root, txs.get(index), ProofCodec.decode(buffer), hashFn);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public boolean serialized() {
+        int index = random.nextInt(leafCount);
+        byte[] bytes = SerializationUtils.serialize(new ArrayList<>(tree.createProof(index)));
+        List<byte[]> proof = (List<byte[]>) SerializationUtils.deserialize(bytes);
+        return ProofVerifier.verify(root, txs.get(index), index, leafCount, proof, hashFn);
+    }
+}
@@ -0,0 +1,71 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for ProofServer: client threads request proofs of random leaves over localhost HTTP from a
+ * ThreadSafeMerkleTree while a writer updates it directly. Run in both throughput and sample mode, the latter giving
+ * p99. maxBatch 1 answers every request in its own pass over the tree, the server's batching off. The mean batch size
+ * is printed at the end of the trial.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ProofServerBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    @Param({"1", "64"})
+    int maxBatch;
+
+    private ThreadSafeMerkleTree tree;
+    private ProofServer server;
+    private HttpClient client;
+    private String base;
+    private byte[] tx;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SHA256D hashFn = new SHA256D();
+        tree = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, BenchmarkData.transactions(leafCount));
+        server = ProofServer.start(new InetSocketAddress("localhost", 0), tree, maxBatch);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        base = "http://localhost:" + server.address().getPort() + "/proof?index=";
+        tx = "updated".getBytes();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%d requests in %d batches%n", server.requestCount(), server.batchCount());
+        server.close();
+    }
+
+    @Benchmark
+    @Group("served")
+    @GroupThreads(16)
+    public byte[] proof() throws IOException, InterruptedException {
+        int index = ThreadLocalRandom.current().nextInt(leafCount);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + index)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Benchmark
+    @Group("served")
+    @GroupThreads(1)
+    public void update() {
+        tree.updateTx(ThreadLocalRandom.current().nextInt(leafCount), tx);
+    }
+}
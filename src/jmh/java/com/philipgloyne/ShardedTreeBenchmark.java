@@ -0,0 +1,61 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write throughput of concurrent updateTx calls on ThreadSafeMerkleTree ("locked"), where they queue on one write
+ * lock, against ShardedMerkleTree ("sharded"). Run with -t to vary the writer count, e.g. -t 8.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ShardedTreeBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    @Param({"locked", "sharded"})
+    String tree;
+
+    @Param({"65536"})
+    int shardSize;
+
+    private ThreadSafeMerkleTree locked;
+    private ShardedMerkleTree sharded;
+    private List<byte[]> txs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SHA256D hashFn = new SHA256D();
+        txs = BenchmarkData.transactions(leafCount);
+        if (tree.equals("sharded")) {
+            sharded = new ShardedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, shardSize, txs);
+        } else {
+            locked = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        }
+    }
+
+    @Benchmark
+    public void updateTx() {
+        int index = ThreadLocalRandom.current().nextInt(leafCount);
+        if (sharded != null) {
+            sharded.updateTx(index, txs.get(index));
+        } else {
+            locked.updateTx(index, txs.get(index));
+        }
+    }
+
+    @Benchmark
+    public List<byte[]> createProof() {
+        int index = ThreadLocalRandom.current().nextInt(leafCount);
+        return sharded != null ? sharded.createProof(index) : locked.createProof(index);
+    }
+}
@@ -0,0 +1,86 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SparseMerkleTree puts, batched puts and proofs of present and absent keys, over a tree of keyCount live keys.
+ * Keys are random, as hashes are, or sequential ids differing only in their last bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class SparseTreeBenchmark {
+
+    private static final int BATCH = 1024;
+
+    @Param({"10000", "100000"})
+    int keyCount;
+
+    @Param({"random", "sequential"})
+    String keyOrder;
+
+    private SparseMerkleTree tree;
+    private List<byte[]> keys;
+    private List<byte[]> values;
+    private HashAlgorithm hashFn;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hashFn = new SHA256D();
+        SplittableRandom random = new SplittableRandom(42);
+        keys = new ArrayList<>(keyCount);
+        values = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            byte[] key = new byte[32];
+            if (keyOrder.equals("sequential")) {
+                key[28] = (byte) (i >>> 24);
+                key[29] = (byte) (i >>> 16);
+                key[30] = (byte) (i >>> 8);
+                key[31] = (byte) i;
+            } else {
+                random.nextBytes(key);
+            }
+            keys.add(key);
+            values.add(BenchmarkData.transaction(random));
+        }
+        tree = new SparseMerkleTree(hashFn);
+        tree.putAll(keys, values);
+    }
+
+    @Benchmark
+    public byte[] put() {
+        int index = ThreadLocalRandom.current().nextInt(keyCount);
+        tree.put(keys.get(index), values.get(index));
+        return tree.getRoot();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public byte[] putAll() {
+        int from = ThreadLocalRandom.current().nextInt(keyCount - BATCH);
+        tree.putAll(keys.subList(from, from + BATCH), values.subList(from, from + BATCH));
+        return tree.getRoot();
+    }
+
+    @Benchmark
+    public boolean proveAndVerifyPresent() {
+        SparseMerkleProof proof = tree.createProof(keys.get(ThreadLocalRandom.current().nextInt(keyCount)));
+        return SparseProofVerifier.verify(tree.getRoot(), proof, hashFn);
+    }
+
+    @Benchmark
+    public boolean proveAndVerifyAbsent() {
+        byte[] key = new byte[32];
+        ThreadLocalRandom.current().nextBytes(key);
+        return SparseProofVerifier.verify(tree.getRoot(), tree.createProof(key), hashFn);
+    }
+}
@@ -0,0 +1,69 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThreadSafeMerkleTree ("locked") and ConcurrentMerkleTree ("concurrent") under mixed readers (createProof) and
+ * writers (updateTx). Each group runs the readers and writers at the same time, JMH reports them separately so reader
+ * latency can be compared against the write load. Other mixes can be run with -tg, e.g. -tg 7,1.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Group)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ThreadSafeTreeBenchmark {
+
+    @Param({"65536", "1048576"})
+    int leafCount;
+
+    @Param({"locked", "concurrent"})
+    String tree;
+
+    private MerkleTree merkleTree;
+    private List<byte[]> txs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SHA256D hashFn = new SHA256D();
+        txs = BenchmarkData.transactions(leafCount);
+        merkleTree = tree.equals("concurrent")
+                ? new ConcurrentMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs)
+                : new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(3)
+    public List<byte[]> readHeavyProof() {
+        return merkleTree.createProof(ThreadLocalRandom.current().nextInt(leafCount));
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public void readHeavyUpdate() {
+        int index = ThreadLocalRandom.current().nextInt(leafCount);
+        merkleTree.updateTx(index, txs.get(index));
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public List<byte[]> balancedProof() {
+        return merkleTree.createProof(ThreadLocalRandom.current().nextInt(leafCount));
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public void balancedUpdate() {
+        int index = ThreadLocalRandom.current().nextInt(leafCount);
+        merkleTree.updateTx(index, txs.get(index));
+    }
+}
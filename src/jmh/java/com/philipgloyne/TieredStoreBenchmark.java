@@ -0,0 +1,62 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * createProof on a saved tree opened mapped ("mapped") against opened with pinned top levels and a node cache
+ * ("tiered"). The cache budget is a share of the tree's internal nodes, picking the leaf uniformly is the worst
+ * case for it. Cache counters are printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class TieredStoreBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    @Param({"mapped", "tiered"})
+    String store;
+
+    @Param({"10"})
+    int pinnedLevels;
+
+    @Param({"0.05", "0.5"})
+    double cacheShare;
+
+    private Path file;
+    private MerkleTree tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SHA256D hashFn = new SHA256D();
+        List<byte[]> txs = BenchmarkData.transactions(leafCount);
+        file = Files.createTempFile("tiered", ".tree");
+        new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs).save(file);
+
+        long cacheBytes = (long) (cacheShare * leafCount * (hashFn.digestLength() + TieredNodeStore.ENTRY_OVERHEAD));
+        tree = store.equals("tiered") ? MerkleTree.open(file, pinnedLevels, cacheBytes) : MerkleTree.open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (tree.getCacheStats() != null) System.out.println(tree.getCacheStats());
+        tree = null;
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public List<byte[]> createProof() {
+        return tree.createProof(ThreadLocalRandom.current().nextInt(leafCount));
+    }
+}
@@ -0,0 +1,38 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build throughput of each TreeBuilder from 1K to 16M leaves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class TreeBuildBenchmark {
+
+    @Param({"1024", "16384", "262144", "1048576", "16777216"})
+    int leafCount;
+
+    @Param({"basic", "fast", "forkjoin"})
+    String builder;
+
+    private List<byte[]> txs;
+    private TreeBuilder treeBuilder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        txs = BenchmarkData.transactions(leafCount);
+        treeBuilder = BenchmarkData.builder(builder, new SHA256D());
+    }
+
+    @Benchmark
+    public NodeStore build() {
+        return treeBuilder.build(txs);
+    }
+}
@@ -0,0 +1,133 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the single tree operations, proofs, validation, updates and appends, and of verifying a proof
+ * without the tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class TreeOperationBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    int leafCount;
+
+    private final SHA256D hashFn = new SHA256D();
+    private List<byte[]> txs;
+    private MerkleTree tree;
+    private SplittableRandom random;
+    private int index;
+    private byte[] tx;
+    private List<byte[]> proof;
+    private byte[][] proofBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        txs = BenchmarkData.transactions(leafCount);
+        tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        random = new SplittableRandom(7);
+        proofBuffer = new byte[tree.getHeight()][hashFn.digestLength()];
+    }
+
+    @Setup(Level.Invocation)
+    public void pickLeaf() {
+        index = random.nextInt(leafCount);
+        tx = txs.get(index);
+        proof = tree.createProof(index);
+    }
+
+    @Benchmark
+    public List<byte[]> createProof() {
+        return tree.createProof(index);
+    }
+
+    @Benchmark
+    public byte[][] createProofInto() {
+        tree.createProof(index, proofBuffer);
+        return proofBuffer;
+    }
+
+    @Benchmark
+    public boolean validateProofTx() {
+        return tree.validateProofTx(index, proof, tx);
+    }
+
+    @Benchmark
+    public boolean verifyProof() {
+        return ProofVerifier.verify(tree.getRoot(), tx, index, leafCount, proof, hashFn);
+    }
+
+    @Benchmark
+    public byte[] updateTx() {
+        tree.updateTx(index, tx);
+        return tree.getRoot();
+    }
+
+    /**
+     * A block of 1024 random updates, applied one by one or as a single batch.
+     */
+    @State(Scope.Benchmark)
+    public static class UpdateBatchState {
+
+        Map<Integer, byte[]> updates;
+
+        @Setup(Level.Trial)
+        public void setUp(TreeOperationBenchmark benchmark) {
+            SplittableRandom random = new SplittableRandom(13);
+            updates = new HashMap<>();
+            while (updates.size() < Math.min(1024, benchmark.leafCount)) {
+                int index = random.nextInt(benchmark.leafCount);
+                updates.put(index, benchmark.txs.get(index));
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] updateTxBlock(UpdateBatchState state) {
+        state.updates.forEach(tree::updateTx);
+        return tree.getRoot();
+    }
+
+    @Benchmark
+    public byte[] updateTxsBatch(UpdateBatchState state) {
+        tree.updateTxs(state.updates);
+        return tree.getRoot();
+    }
+
+    /**
+     * Appends grow the tree, so each iteration starts again from leafCount leaves.
+     */
+    @State(Scope.Benchmark)
+    public static class AppendState {
+
+        private final SplittableRandom random = new SplittableRandom(11);
+        MerkleTree tree;
+
+        @Setup(Level.Iteration)
+        public void setUp(TreeOperationBenchmark benchmark) {
+            SHA256D hashFn = new SHA256D();
+            tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, benchmark.txs);
+        }
+
+        byte[] nextTx() {
+            return BenchmarkData.transaction(random);
+        }
+    }
+
+    @Benchmark
+    public byte[] addTx(AppendState state) {
+        state.tree.addTx(state.nextTx());
+        return state.tree.getRoot();
+    }
+}
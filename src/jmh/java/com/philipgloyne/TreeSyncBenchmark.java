@@ -0,0 +1,63 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the leaves that differ between two replicas, by TreeSync session ("sync") against comparing every leaf
+ * ("scan"). The session's cost follows the number of differing leaves, the scan's the number of leaves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class TreeSyncBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    @Param({"1", "100", "10000"})
+    int differences;
+
+    @Param({"256"})
+    int batchSize;
+
+    private MerkleTree local;
+    private MerkleTree remote;
+    private List<byte[]> localTxs;
+    private List<byte[]> remoteTxs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SHA256D hashFn = new SHA256D();
+        localTxs = BenchmarkData.transactions(leafCount);
+        remoteTxs = new ArrayList<>(localTxs);
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < differences; i++) {
+            remoteTxs.set(random.nextInt(leafCount), ("changed" + i).getBytes());
+        }
+        local = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, localTxs);
+        remote = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, remoteTxs);
+    }
+
+    @Benchmark
+    public List<LeafRange> sync() {
+        return TreeSync.reconcile(local, remote, batchSize).differences();
+    }
+
+    @Benchmark
+    public int scan() {
+        int differing = 0;
+        for (int i = 0; i < leafCount; i++) {
+            if (!Arrays.equals(localTxs.get(i), remoteTxs.get(i))) differing++;
+        }
+        return differing;
+    }
+}
@@ -0,0 +1,58 @@
+package com.philipgloyne;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single leaf updates of a plain MerkleTree against a VersionedMerkleTree keeping every version, and proofs against
+ * a random past version. The gc profiler's allocation per update, less the plain tree's, is the memory a version
+ * adds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class VersionedTreeBenchmark {
+
+    @Param({"1048576"})
+    int leafCount;
+
+    private MerkleTree plain;
+    private VersionedMerkleTree versioned;
+    private byte[] tx;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        SHA256D hashFn = new SHA256D();
+        List<byte[]> txs = BenchmarkData.transactions(leafCount);
+        plain = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        versioned = new VersionedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        tx = "updated".getBytes();
+        for (int i = 0; i < 1000; i++) {
+            versioned.updateTx(ThreadLocalRandom.current().nextInt(leafCount), tx);
+        }
+    }
+
+    @Benchmark
+    public byte[] updatePlain() {
+        plain.updateTx(ThreadLocalRandom.current().nextInt(leafCount), tx);
+        return plain.getRoot();
+    }
+
+    @Benchmark
+    public byte[] updateVersioned() {
+        versioned.updateTx(ThreadLocalRandom.current().nextInt(leafCount), tx);
+        return versioned.getRoot();
+    }
+
+    @Benchmark
+    public List<byte[]> proofAtPastVersion() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return versioned.createProof(random.nextInt(leafCount), random.nextLong(versioned.getVersion() + 1));
+    }
+}
@@ -0,0 +1,683 @@
+package com.philipgloyne;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * BLAKE3 with a 32 byte digest, in plain Java. A node (two 32 byte children) is a single compression against three
+ * for SHA256D. Hashing state is cached per thread so digests allocate nothing but their output.
+ * <p>
+ * Batches (digestAll, hashPairs) of messages up to a chunk long, every node among them, are hashed in SIMD lanes by
+ * VectorBLAKE3 when the JVM is started with --add-modules jdk.incubator.vector, otherwise one at a time.
+ * <p>
+ * Only for trees whose leaves aren't chosen by an adversary, see the README.
+ */
+public class BLAKE3 implements HashAlgorithm {
+
+    private static final int DIGEST_LENGTH = 32;
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_LEN = 1024;
+
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 2;
+    private static final int PARENT = 4;
+    private static final int ROOT = 8;
+
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final ThreadLocal<Hasher> HASHER = ThreadLocal.withInitial(Hasher::new);
+
+    private static final boolean VECTOR_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorBLAKE3.LANES > 0;
+
+    private final boolean vector;
+
+    public BLAKE3() {
+        this(VECTOR_AVAILABLE);
+    }
+
+    /**
+     * @param vector - hash batches with VectorBLAKE3, only honoured when the vector module is available
+     */
+    BLAKE3(boolean vector) {
+        this.vector = vector && VECTOR_AVAILABLE;
+    }
+
+    @Override
+    public byte[] hash(byte[] input) {
+        byte[] out = new byte[DIGEST_LENGTH];
+        digestInto(input, 0, input.length, out, 0);
+        return out;
+    }
+
+    @Override
+    public int digestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public byte[] hashPair(byte[] left, byte[] right) {
+        byte[] out = new byte[DIGEST_LENGTH];
+        hashPairInto(left, 0, left.length, right, 0, right.length, out, 0);
+        return out;
+    }
+
+    @Override
+    public int digestInto(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        Hasher hasher = HASHER.get();
+        hasher.reset();
+        hasher.update(input, offset, length);
+        hasher.finish(out, outOffset);
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public int hashPairInto(byte[] left, int leftOffset, int leftLength,
+                            byte[] right, int rightOffset, int rightLength,
+                            byte[] out, int outOffset) {
+        Hasher hasher = HASHER.get();
+        if (leftLength + rightLength == BLOCK_LEN) {
+            // two 32 byte nodes fill exactly one block of a single chunk, compressed straight from the inputs
+            System.arraycopy(left, leftOffset, hasher.buf, 0, leftLength);
+            System.arraycopy(right, rightOffset, hasher.buf, leftLength, rightLength);
+            words(hasher.buf, BLOCK_LEN, hasher.block);
+            compress(IV, hasher.block, 0, BLOCK_LEN, CHUNK_START | CHUNK_END | ROOT, hasher.node);
+            bytes(hasher.node, out, outOffset);
+            return DIGEST_LENGTH;
+        }
+
+        hasher.reset();
+        hasher.update(left, leftOffset, leftLength);
+        hasher.update(right, rightOffset, rightLength);
+        hasher.finish(out, outOffset);
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public void digestAll(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int count) {
+        int done = vector ? VectorBLAKE3.digestAll(src, srcOffset, length, dst, dstOffset, count) : 0;
+        for (int i = done; i < count; i++) {
+            digestInto(src, srcOffset + i * length, length, dst, dstOffset + i * DIGEST_LENGTH);
+        }
+    }
+
+    /**
+     * Incremental hashing of one input, chunk by chunk, merging completed chunks into parents as soon as their
+     * sibling is complete so the stack holds at most one chaining value per tree level.
+     */
+    private static final class Hasher {
+
+        private final int[] cv = new int[8];
+        private final int[] block = new int[16];
+        private final int[] node = new int[8];
+        private final byte[] buf = new byte[BLOCK_LEN];
+        private final int[][] stack = new int[54][8];
+        private int stackSize;
+        private int bufLen;
+        private int blocksCompressed;
+        private long chunkCounter;
+
+        void reset() {
+            System.arraycopy(IV, 0, cv, 0, 8);
+            stackSize = 0;
+            bufLen = 0;
+            blocksCompressed = 0;
+            chunkCounter = 0;
+        }
+
+        void update(byte[] input, int offset, int length) {
+            while (length > 0) {
+                if (blocksCompressed * BLOCK_LEN + bufLen == CHUNK_LEN) {
+                    // more input is coming so the full chunk isn't the root
+                    compressBuffer(CHUNK_END, node);
+                    pushChunk(node, ++chunkCounter);
+                    System.arraycopy(IV, 0, cv, 0, 8);
+                    blocksCompressed = 0;
+                    bufLen = 0;
+                }
+                if (bufLen == BLOCK_LEN) {
+                    compressBuffer(0, cv);
+                    blocksCompressed++;
+                    bufLen = 0;
+                }
+                int take = Math.min(BLOCK_LEN - bufLen, length);
+                System.arraycopy(input, offset, buf, bufLen, take);
+                bufLen += take;
+                offset += take;
+                length -= take;
+            }
+        }
+
+        void finish(byte[] out, int outOffset) {
+            if (stackSize == 0) {
+                compressBuffer(CHUNK_END | ROOT, node);
+            } else {
+                compressBuffer(CHUNK_END, node);
+                for (int i = stackSize - 1; i >= 0; i--) {
+                    System.arraycopy(stack[i], 0, block, 0, 8);
+                    System.arraycopy(node, 0, block, 8, 8);
+                    compress(IV, block, 0, BLOCK_LEN, i == 0 ? PARENT | ROOT : PARENT, node);
+                }
+            }
+            bytes(node, out, outOffset);
+        }
+
+        private void compressBuffer(int flags, int[] dst) {
+            words(buf, bufLen, block);
+            if (blocksCompressed == 0) {
+                flags |= CHUNK_START;
+            }
+            compress(cv, block, chunkCounter, bufLen, flags, dst);
+        }
+
+        private void pushChunk(int[] chunkCv, long totalChunks) {
+            while ((totalChunks & 1) == 0) {
+                int[] left = stack[--stackSize];
+                System.arraycopy(left, 0, block, 0, 8);
+                System.arraycopy(chunkCv, 0, block, 8, 8);
+                compress(IV, block, 0, BLOCK_LEN, PARENT, chunkCv);
+                totalChunks >>= 1;
+            }
+            System.arraycopy(chunkCv, 0, stack[stackSize++], 0, 8);
+        }
+    }
+
+    /**
+     * Little endian words of the first length bytes of src, zero padded to a full block.
+     */
+    private static void words(byte[] src, int length, int[] dst) {
+        Arrays.fill(src, length, BLOCK_LEN, (byte) 0);
+        for (int i = 0; i < 16; i++) {
+            dst[i] = (int) INT.get(src, i * 4);
+        }
+    }
+
+    private static void bytes(int[] words, byte[] out, int offset) {
+        for (int i = 0; i < 8; i++) {
+            INT.set(out, offset + i * 4, words[i]);
+        }
+    }
+
+    /**
+     * The compression function, writing the first 8 words of its output (the chaining value) to out, which may be
+     * cv. The message schedule is unrolled into the seven rounds.
+     */
+    private static void compress(int[] cv, int[] m, long counter, int blockLen, int flags, int[] out) {
+        int s0 = cv[0], s1 = cv[1], s2 = cv[2], s3 = cv[3], s4 = cv[4], s5 = cv[5], s6 = cv[6], s7 = cv[7];
+        int s8 = IV[0], s9 = IV[1], s10 = IV[2], s11 = IV[3];
+        int s12 = (int) counter, s13 = (int) (counter >>> 32), s14 = blockLen, s15 = flags;
+        int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        int m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11], m12 = m[12], m13 = m[13], m14 = m[14], m15 = m[15];
+
+        // round 1
+        s0 += s4 + m0;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m1;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m2;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m3;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m4;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m5;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m6;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m7;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m8;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m9;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m10;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m11;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m12;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m13;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m14;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m15;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // round 2
+        s0 += s4 + m2;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m6;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m3;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m10;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m7;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m0;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m4;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m13;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m1;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m11;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m12;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m5;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m9;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m14;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m15;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m8;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // round 3
+        s0 += s4 + m3;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m4;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m10;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m12;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m13;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m2;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m7;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m14;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m6;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m5;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m9;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m0;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m11;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m15;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m8;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m1;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // round 4
+        s0 += s4 + m10;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m7;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m12;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m9;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m14;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m3;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m13;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m15;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m4;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m0;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m11;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m2;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m5;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m8;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m1;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m6;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // round 5
+        s0 += s4 + m12;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m13;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m9;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m11;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m15;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m10;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m14;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m8;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m7;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m2;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m5;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m3;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m0;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m1;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m6;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m4;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // round 6
+        s0 += s4 + m9;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m14;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m11;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m5;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m8;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m12;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m15;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m1;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m13;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m3;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m0;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m10;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m2;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m6;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m4;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m7;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // round 7
+        s0 += s4 + m11;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m15;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m5;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m0;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m1;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m9;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m8;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m6;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m14;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m10;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m2;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m12;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m3;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m4;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m7;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m13;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+        out[0] = s0 ^ s8;
+        out[1] = s1 ^ s9;
+        out[2] = s2 ^ s10;
+        out[3] = s3 ^ s11;
+        out[4] = s4 ^ s12;
+        out[5] = s5 ^ s13;
+        out[6] = s6 ^ s14;
+        out[7] = s7 ^ s15;
+    }
+}
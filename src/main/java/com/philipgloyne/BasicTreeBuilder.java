@@ -1,48 +1,60 @@
 package com.philipgloyne;
 
-import org.apache.commons.lang3.ArrayUtils;
-
-import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Builds a MerkleTree and returns underlying data structure (Arraylist)
+ * Builds a MerkleTree and returns underlying data structure (NodeStore)
  */
 public class BasicTreeBuilder implements TreeBuilder {
 
     private final HashAlgorithm hashFn;
+    private final NodeHasher nodeHasher;
+    private final boolean offHeap;
+    private final TreeMetrics metrics;
 
     public BasicTreeBuilder(HashAlgorithm hashFn) {
-        this.hashFn = hashFn;
+        this(hashFn, false);
     }
 
-    public List<byte[]> build(List<byte[]> txs) {
-        if (txs.size() == 0) return List.of("".getBytes());
-        if (txs.size() == 1) return List.of(hashFn.hash(txs.get(0)));
-
-        List<byte[]> levels = new ArrayList<>(txs);
-        List<byte[]> currentLvl = txs;
-        while (currentLvl.size() > 1) {
-            List<byte[]> nextLvl = new ArrayList<>();
+    /**
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     */
+    public BasicTreeBuilder(HashAlgorithm hashFn, boolean offHeap) {
+        this(hashFn, offHeap, TreeMetrics.NONE);
+    }
 
-            for (int i = 0; i < currentLvl.size(); i += 2) {
+    /**
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     * @param metrics - told the time taken by each level and by the whole build
+     */
+    public BasicTreeBuilder(HashAlgorithm hashFn, boolean offHeap, TreeMetrics metrics) {
+        this.hashFn = hashFn;
+        this.nodeHasher = new NodeHasher(hashFn);
+        this.offHeap = offHeap;
+        this.metrics = metrics;
+    }
 
-                byte[] hash1 = hashFn.hash(currentLvl.get(i));
-                byte[] hash2 = (i + 1 < currentLvl.size())
-                        ? hashFn.hash(currentLvl.get(i + 1))
-                        : "".getBytes();
+    public NodeStore build(List<byte[]> txs) {
+        if (txs.size() == 0) return new ListNodeStore(List.of("".getBytes()), 1);
+        if (txs.size() == 1) return new ListNodeStore(List.of(txs.get(0), hashFn.hash(txs.get(0))), 2);
 
-                byte[] parentHash = hashFn.hash(ArrayUtils.addAll(hash1, hash2));
+        boolean timed = metrics != TreeMetrics.NONE;
+        long buildStart = timed ? System.nanoTime() : 0;
+        NodeStore levels = NodeStore.allocate(txs, TreeBuilder.nodeCount(txs.size()), hashFn, offHeap);
+        int levelStart = 0;
+        int levelSize = txs.size();
+        for (int level = 1; levelSize > 1; level++) {
+            int nextStart = levelStart + levelSize;
+            long start = timed ? System.nanoTime() : 0;
 
-                nextLvl.add(parentHash);
-                levels.add(parentHash);
-            }
+            nodeHasher.combineRange(levels, levelStart, levelSize, nextStart, 0, (levelSize + 1) >> 1, levelStart == 0);
 
-            currentLvl = nextLvl;
+            if (timed) metrics.levelBuilt(level, (levelSize + 1) >> 1, System.nanoTime() - start);
+            levelStart = nextStart;
+            levelSize = (levelSize + 1) >> 1;
         }
 
-        // System.out.println("buildTree: " + Arrays.toString(levels.toArray()));
-
+        if (timed) metrics.treeBuilt(txs.size(), System.nanoTime() - buildStart);
         return levels;
     }
 
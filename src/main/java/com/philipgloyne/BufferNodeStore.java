@@ -0,0 +1,152 @@
+package com.philipgloyne;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Node store that packs every internal node into fixed width slots of a ByteBuffer, on or off heap, rather than
+ * allocating an array per node. Leaves are raw transactions of any length so they are kept as the list supplied,
+ * which may be padded with nulls to leave room for appended leaves.
+ * <p>
+ * A single ByteBuffer is limited to 2GB, so slots are split across chunks of 2^20 nodes which also keeps direct
+ * allocations a reasonable size.
+ */
+public class BufferNodeStore implements NodeStore {
+
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+
+    private final List<byte[]> leaves;
+    private final int leafCount;
+    private final int size;
+    private final int width;
+    private final boolean direct;
+    private final ByteBuffer[] chunks;
+
+    public BufferNodeStore(List<byte[]> leaves, int size, int width, boolean direct) {
+        this.leaves = new ArrayList<>(leaves);
+        this.leafCount = leaves.size();
+        this.size = size;
+        this.width = width;
+        this.direct = direct;
+
+        int slots = size - leafCount;
+        this.chunks = new ByteBuffer[(slots + CHUNK_SLOTS - 1) >> CHUNK_SHIFT];
+        for (int i = 0; i < chunks.length; i++) {
+            int chunkBytes = Math.min(CHUNK_SLOTS, slots - (i << CHUNK_SHIFT)) * width;
+            chunks[i] = direct ? ByteBuffer.allocateDirect(chunkBytes) : ByteBuffer.allocate(chunkBytes);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public byte[] get(int index) {
+        if (index < leafCount) return leaves.get(index);
+
+        byte[] value = new byte[width];
+        int slot = slot(index);
+        chunk(slot).get(offset(slot), value, 0, width);
+        return value;
+    }
+
+    @Override
+    public void set(int index, byte[] value) {
+        if (index < leafCount) {
+            leaves.set(index, value);
+            return;
+        }
+        write(index, value, 0, value.length);
+    }
+
+    @Override
+    public int read(int index, byte[] dst, int offset) {
+        if (index < leafCount) return NodeStore.super.read(index, dst, offset);
+
+        int slot = slot(index);
+        chunk(slot).get(offset(slot), dst, offset, width);
+        return width;
+    }
+
+    @Override
+    public void read(int index, ByteBuffer dst) {
+        if (index < leafCount) {
+            NodeStore.super.read(index, dst);
+            return;
+        }
+        if (dst.remaining() < width) throw new BufferOverflowException();
+
+        int slot = slot(index);
+        dst.put(dst.position(), chunk(slot), offset(slot), width);
+        dst.position(dst.position() + width);
+    }
+
+    @Override
+    public void write(int index, byte[] src, int offset, int length) {
+        if (index < leafCount) {
+            NodeStore.super.write(index, src, offset, length);
+            return;
+        }
+        if (length != width) {
+            throw new IllegalArgumentException("expected a " + width + " byte node but was " + length);
+        }
+
+        int slot = slot(index);
+        chunk(slot).put(offset(slot), src, offset, width);
+    }
+
+    @Override
+    public void copy(int index, NodeStore dst, int dstIndex) {
+        if (index >= leafCount && dst instanceof BufferNodeStore buffer && buffer.width == width
+                && dstIndex >= buffer.leafCount) {
+            int slot = slot(index);
+            int dstSlot = buffer.slot(dstIndex);
+            buffer.chunk(dstSlot).put(buffer.offset(dstSlot), chunk(slot), offset(slot), width);
+            return;
+        }
+        NodeStore.super.copy(index, dst, dstIndex);
+    }
+
+    @Override
+    public NodeStore newStore(List<byte[]> leaves, int size) {
+        return new BufferNodeStore(leaves, size, width, direct);
+    }
+
+    @Override
+    public boolean matches(int index, byte[] value) {
+        if (index < leafCount) return Arrays.equals(leaves.get(index), value);
+        if (value.length != width) return false;
+
+        int slot = slot(index);
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        for (int i = 0; i < width; i++) {
+            if (chunk.get(offset + i) != value[i]) return false;
+        }
+        return true;
+    }
+
+    private int slot(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException(index);
+        return index - leafCount;
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks[slot >>> CHUNK_SHIFT];
+    }
+
+    private int offset(int slot) {
+        return (slot & CHUNK_MASK) * width;
+    }
+}
@@ -0,0 +1,146 @@
+package com.philipgloyne;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Allows a MerkleTree to be shared between threads without reads ever blocking. Readers work on an immutable
+ * snapshot of the tree fetched with a single volatile read, so a proof and the root it leads to always come from
+ * the same version. Writers are serialised with each other, they update a PersistentNodeStore that copies only the
+ * pages on the rewritten paths and publish the result as the next snapshot when the update is complete.
+ * <p>
+ * Compared to ThreadSafeMerkleTree, reads pay a trie lookup per node rather than a lock, in exchange proof latency
+ * doesn't depend on how long the current write takes.
+ */
+public class ConcurrentMerkleTree extends MerkleTree {
+
+    private volatile MerkleTree current;
+
+    public ConcurrentMerkleTree(TreeBuilder builder, HashAlgorithm hashFn, List<byte[]> txs) {
+        super(PersistentNodeStore.persistent(builder, hashFn), hashFn, txs);
+        this.current = super.snapshot();
+    }
+
+    /**
+     * The latest published version of the tree, read only. Use it to make several reads against the same root.
+     */
+    @Override
+    public MerkleTree snapshot() {
+        return current;
+    }
+
+    @Override
+    public void save(Path path) throws IOException {
+        current.save(path);
+    }
+
+    @Override
+    public void read(Consumer<MerkleTree> reads) {
+        reads.accept(current);
+    }
+
+    @Override
+    int leafCount() {
+        return current.leafCount();
+    }
+
+    @Override
+    public byte[] getRoot() {
+        return current.getRoot();
+    }
+
+    @Override
+    public List<byte[]> createProof(int index) {
+        return current.createProof(index);
+    }
+
+    @Override
+    public int createProof(int index, byte[][] proof) {
+        return current.createProof(index, proof);
+    }
+
+    @Override
+    public void encodeProof(int index, ByteBuffer dst) {
+        current.encodeProof(index, dst);
+    }
+
+    @Override
+    public void encodeProofBundle(int index, ByteBuffer dst) {
+        current.encodeProofBundle(index, dst);
+    }
+
+    /**
+     * Not supported, proofs are read from snapshots which a cache in front of the writable tree would never see.
+     */
+    @Override
+    public void enableProofCache(int maxProofs) {
+        throw new UnsupportedOperationException("proofs are served from snapshots, which aren't cached");
+    }
+
+    /**
+     * Snapshots take the metrics of the tree they were taken from, so a new version is published carrying them.
+     */
+    @Override
+    public synchronized void setMetrics(TreeMetrics metrics) {
+        super.setMetrics(metrics);
+        current = super.snapshot();
+    }
+
+    @Override
+    public int getHeight() {
+        return current.getHeight();
+    }
+
+    @Override
+    public MultiProof createMultiProof(int... indexes) {
+        return current.createMultiProof(indexes);
+    }
+
+    @Override
+    public boolean validateProof(int index, List<byte[]> proof) {
+        return current.validateProof(index, proof);
+    }
+
+    @Override
+    public boolean validateProofTx(int index, List<byte[]> proof, byte[] tx) {
+        return current.validateProofTx(index, proof, tx);
+    }
+
+    /**
+     * Compares the current version against other, later writes to this tree don't affect the result.
+     */
+    @Override
+    public List<LeafRange> diff(MerkleTree other) {
+        return current.diff(other);
+    }
+
+    @Override
+    public TreeSync.Response respond(TreeSync.Request request) {
+        return current.respond(request);
+    }
+
+    @Override
+    public synchronized void updateTx(int index, byte[] value) {
+        super.updateTx(index, value);
+        current = super.snapshot();
+    }
+
+    /**
+     * The whole batch is published as one version, readers never see part of it.
+     */
+    @Override
+    public synchronized void updateTxs(Map<Integer, byte[]> txs, boolean parallel) {
+        super.updateTxs(txs, parallel);
+        current = super.snapshot();
+    }
+
+    @Override
+    public synchronized void addTxs(List<byte[]> txs) {
+        super.addTxs(txs);
+        current = super.snapshot();
+    }
+}
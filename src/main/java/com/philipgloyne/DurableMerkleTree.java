@@ -0,0 +1,352 @@
+package com.philipgloyne;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * A MerkleTree whose mutations survive a crash without rebuilding from the transactions. Each updateTx, updateTxs and
+ * addTx is written to a write-ahead log (TreeLog) before it is applied, numbered with a sequence number. Every
+ * checkpointEvery records the tree is saved as a checkpoint in the TreeFile format and the log starts a new segment,
+ * older checkpoints and segments are then deleted. {@link #open} loads the newest checkpoint into memory and replays
+ * the records after it, so recovery costs one sequential read of the tree plus the log tail.
+ * <p>
+ * Records are forced to disk in groups of commitEvery: with 1 every mutation is durable when it returns, with more a
+ * crash loses at most the last commitEvery - 1 records but each fsync is shared by that many mutations. A batch
+ * (updateTxs, addTxs) is logged whole and recovered whole or not at all. {@link #sync()} commits whatever is pending.
+ * Recovery always yields a prefix of the mutations in order, never part of a batch or a torn record.
+ * <p>
+ * The directory holds checkpoint-&lt;sequence&gt; files, named for the last record they include, and
+ * log-&lt;sequence&gt; segments, named for the first record they hold. Checkpoints are written to a temporary file and
+ * renamed into place, so a crash mid-checkpoint leaves the previous one. Needs a fixed width hash algorithm. Not thread
+ * safe, as MerkleTree. An I/O failure while logging is thrown as UncheckedIOException, after which the tree in memory
+ * may be ahead of the log and should be reopened.
+ */
+public class DurableMerkleTree extends MerkleTree implements Closeable {
+
+    private static final String CHECKPOINT = "checkpoint-";
+    private static final String LOG = "log-";
+    private static final String TEMPORARY = ".tmp";
+
+    private final Path dir;
+    private final int commitEvery;
+    private final int checkpointEvery;
+    private TreeLog log;
+    private int leafCount;
+    // last record logged, and the last one included in the newest checkpoint
+    private long sequence;
+    private long checkpointSequence;
+    // set while MerkleTree applies a batch that was logged as a whole
+    private boolean batching;
+    // records read back from the log and not yet applied, a run of updates or of appends is replayed as one batch
+    // so shared ancestors are hashed once
+    private Map<Integer, byte[]> replayedUpdates = new HashMap<>();
+    private List<byte[]> replayedAppends = new ArrayList<>();
+
+    private DurableMerkleTree(Path dir, TreeBuilder builder, HashAlgorithm hashFn, NodeStore values, int leafCount,
+                              int commitEvery, int checkpointEvery) {
+        super(builder, hashFn, values, leafCount);
+        if (commitEvery < 1) throw new IllegalArgumentException("commitEvery must be positive");
+        if (checkpointEvery < 1) throw new IllegalArgumentException("checkpointEvery must be positive");
+        this.dir = dir;
+        this.leafCount = leafCount;
+        this.commitEvery = commitEvery;
+        this.checkpointEvery = checkpointEvery;
+    }
+
+    /**
+     * Builds a tree over txs in dir, which must not already hold one, and writes its first checkpoint.
+     *
+     * @param commitEvery     - records per fsync, 1 to make every mutation durable before it returns
+     * @param checkpointEvery - records between checkpoints, Integer.MAX_VALUE to only checkpoint when asked
+     * @throws IOException              if dir can't be written or already holds a tree
+     * @throws IllegalArgumentException if builder doesn't follow NodeHashing.REHASH_CHILDREN, the only nodes a
+     *                                  checkpoint records
+     */
+    public static DurableMerkleTree create(Path dir, TreeBuilder builder, HashAlgorithm hashFn, List<byte[]> txs,
+                                           int commitEvery, int checkpointEvery) throws IOException {
+        if (hashFn.digestLength() <= 0) {
+            throw new IllegalArgumentException("checkpoints need a fixed width hash algorithm");
+        }
+        if (builder.hashing() != NodeHashing.REHASH_CHILDREN) {
+            throw new IllegalArgumentException("checkpoints need " + NodeHashing.REHASH_CHILDREN + " nodes");
+        }
+        Files.createDirectories(dir);
+        if (!files(dir, CHECKPOINT).isEmpty() || !files(dir, LOG).isEmpty()) {
+            throw new IOException(dir + " already holds a tree");
+        }
+
+        DurableMerkleTree tree = new DurableMerkleTree(dir, builder, hashFn, builder.build(txs), txs.size(),
+                commitEvery, checkpointEvery);
+        // an empty tree has no nodes to save, its log alone describes it
+        if (!txs.isEmpty()) tree.writeCheckpoint();
+        tree.log = TreeLog.create(dir.resolve(LOG + 1), hashFn.name(), 1);
+        syncDirectory(dir);
+        return tree;
+    }
+
+    /**
+     * Recovers the tree in dir: loads the newest checkpoint and replays the log records after it. A torn record at
+     * the end of the log, left by a crash mid-write, is cut off.
+     *
+     * @throws IOException if dir holds no tree or its log is missing records
+     */
+    public static DurableMerkleTree open(Path dir, int commitEvery, int checkpointEvery) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path temporary : (Iterable<Path>) paths.filter(p -> p.toString().endsWith(TEMPORARY))::iterator) {
+                Files.delete(temporary);
+            }
+        }
+        TreeMap<Long, Path> checkpoints = files(dir, CHECKPOINT);
+        TreeMap<Long, Path> segments = files(dir, LOG);
+        if (checkpoints.isEmpty() && segments.isEmpty()) throw new IOException(dir + " holds no tree");
+
+        DurableMerkleTree tree;
+        if (checkpoints.isEmpty()) {
+            HashAlgorithm hashFn = HashAlgorithm.forName(TreeLog.algorithm(segments.firstEntry().getValue()));
+            BasicTreeBuilder builder = new BasicTreeBuilder(hashFn);
+            tree = new DurableMerkleTree(dir, builder, hashFn, builder.build(List.of()), 0, commitEvery,
+                    checkpointEvery);
+        } else {
+            TreeFile file = TreeFile.open(checkpoints.lastEntry().getValue());
+            tree = new DurableMerkleTree(dir, new BasicTreeBuilder(file.hashFn), file.hashFn, load(file),
+                    file.leafCount, commitEvery, checkpointEvery);
+            tree.sequence = checkpoints.lastKey();
+            tree.checkpointSequence = tree.sequence;
+        }
+
+        TreeLog.Segment last = null;
+        for (Path segment : segments.values()) {
+            last = TreeLog.read(segment, tree::replay);
+        }
+        tree.applyReplayed();
+        tree.replayedUpdates = null;
+        tree.replayedAppends = null;
+        if (last == null) {
+            tree.log = TreeLog.create(dir.resolve(LOG + (tree.sequence + 1)), tree.getHashAlgorithm().name(),
+                    tree.sequence + 1);
+            syncDirectory(dir);
+        } else {
+            tree.log = TreeLog.reopen(segments.lastEntry().getValue(), last.end);
+        }
+        return tree;
+    }
+
+    /**
+     * Sequence number of the last mutation logged, committed or not.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Sequence number of the last mutation included in the newest checkpoint.
+     */
+    public long getCheckpointSequence() {
+        return checkpointSequence;
+    }
+
+    @Override
+    public void updateTx(int index, byte[] value) {
+        if (batching) {
+            super.updateTx(index, value);
+            return;
+        }
+        Objects.checkIndex(index, leafCount);
+        log.add(TreeLog.UPDATE, sequence + 1, index, value, true);
+        sequence++;
+        super.updateTx(index, value);
+        logged();
+    }
+
+    /**
+     * The whole batch is logged before any of it is applied and committed with a single fsync.
+     */
+    @Override
+    public void updateTxs(Map<Integer, byte[]> txs, boolean parallel) {
+        for (int index : txs.keySet()) {
+            Objects.checkIndex(index, leafCount);
+        }
+        int remaining = txs.size();
+        for (Map.Entry<Integer, byte[]> tx : txs.entrySet()) {
+            log.add(TreeLog.UPDATE, sequence + 1, tx.getKey(), tx.getValue(), --remaining == 0);
+            sequence++;
+        }
+        batching = true;
+        try {
+            super.updateTxs(txs, parallel);
+        } finally {
+            batching = false;
+        }
+        if (!txs.isEmpty()) logged();
+    }
+
+    /**
+     * The whole batch is logged before any of it is applied and committed with a single fsync.
+     */
+    @Override
+    public void addTxs(List<byte[]> txs) {
+        for (int i = 0; i < txs.size(); i++) {
+            log.add(TreeLog.APPEND, sequence + 1, leafCount + i, txs.get(i), i == txs.size() - 1);
+            sequence++;
+        }
+        super.addTxs(txs);
+        leafCount += txs.size();
+        if (!txs.isEmpty()) logged();
+    }
+
+    /**
+     * Forces every mutation logged so far to disk.
+     */
+    public void sync() throws IOException {
+        log.commit();
+    }
+
+    /**
+     * Saves the tree as a checkpoint covering every mutation so far, starts a new log segment and deletes the
+     * checkpoints and segments it replaces. Does nothing if there have been no mutations since the last one.
+     */
+    public void checkpoint() throws IOException {
+        log.commit();
+        if (sequence == checkpointSequence) return;
+
+        writeCheckpoint();
+        log.close();
+        log = TreeLog.create(dir.resolve(LOG + (sequence + 1)), getHashAlgorithm().name(), sequence + 1);
+        syncDirectory(dir);
+
+        for (Map.Entry<Long, Path> old : files(dir, CHECKPOINT).headMap(sequence).entrySet()) {
+            Files.delete(old.getValue());
+        }
+        for (Map.Entry<Long, Path> old : files(dir, LOG).headMap(sequence + 1).entrySet()) {
+            Files.delete(old.getValue());
+        }
+    }
+
+    /**
+     * Commits any pending mutations and closes the log, the tree can't be changed afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            log.commit();
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Commits once commitEvery records are pending and checkpoints once checkpointEvery have been logged since the
+     * last checkpoint.
+     */
+    private void logged() {
+        try {
+            if (sequence - checkpointSequence >= checkpointEvery) {
+                checkpoint();
+            } else if (log.pending() >= commitEvery) {
+                log.commit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path checkpoint = dir.resolve(CHECKPOINT + sequence);
+        Path temporary = dir.resolve(CHECKPOINT + sequence + TEMPORARY);
+        save(temporary);
+        Files.move(temporary, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(dir);
+        checkpointSequence = sequence;
+    }
+
+    /**
+     * Applies a record read back from the log, skipping those the checkpoint already includes.
+     */
+    private void replay(byte type, long recordSequence, int index, byte[] value) throws IOException {
+        if (recordSequence <= sequence) return;
+        if (recordSequence != sequence + 1) {
+            throw new IOException(dir + " log is missing records " + (sequence + 1) + " to " + (recordSequence - 1));
+        }
+
+        if (type == TreeLog.UPDATE && index >= 0 && index < leafCount) {
+            if (!replayedAppends.isEmpty()) applyReplayed();
+            replayedUpdates.put(index, value);
+        } else if (type == TreeLog.APPEND && index == leafCount) {
+            if (!replayedUpdates.isEmpty()) applyReplayed();
+            replayedAppends.add(value);
+            leafCount++;
+        } else {
+            throw new IOException(dir + " log record " + recordSequence + " doesn't fit the tree");
+        }
+        sequence = recordSequence;
+    }
+
+    private void applyReplayed() {
+        batching = true;
+        try {
+            super.updateTxs(replayedUpdates, false);
+        } finally {
+            batching = false;
+        }
+        super.addTxs(replayedAppends);
+        replayedUpdates.clear();
+        replayedAppends.clear();
+    }
+
+    /**
+     * Copies a checkpoint into memory, where the tree can grow.
+     */
+    private static NodeStore load(TreeFile file) {
+        List<byte[]> leaves = new ArrayList<>(file.leafCount);
+        for (int i = 0; i < file.leafCount; i++) {
+            leaves.add(file.store.get(i));
+        }
+        int size = TreeBuilder.nodeCount(file.leafCount);
+        NodeStore values = NodeStore.allocate(leaves, size, file.hashFn, false);
+        for (int i = file.leafCount; i < size; i++) {
+            file.store.copy(i, values, i);
+        }
+        return values;
+    }
+
+    /**
+     * Files in dir named prefix followed by a sequence number, by number.
+     */
+    private static TreeMap<Long, Path> files(Path dir, String prefix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+")) {
+                    files.put(Long.parseLong(name.substring(prefix.length())), path);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Makes renames and new files in dir durable. Not every platform can open a directory, there the rename is as
+     * durable as the file system makes it.
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories can't be forced here
+        }
+    }
+}
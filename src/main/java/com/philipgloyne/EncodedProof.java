@@ -0,0 +1,176 @@
+package com.philipgloyne;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A proof or bundle in the format of ProofCodec, read in place: decoding finds where each part starts and leaves the
+ * bytes where they are, ProofVerifier then hashes straight out of them. Accessors returning arrays copy.
+ */
+public final class EncodedProof {
+
+    final byte[] data;
+    final int width;
+    final int leafCount;
+    final int index;
+    // offsets into data, root and leaf are -1 outside a bundle, sibling is -1 when the leaf has none
+    final int root;
+    final int leaf;
+    final int leafLength;
+    final int sibling;
+    final int siblingLength;
+    final int hashes;
+    final int hashCount;
+    private final int length;
+
+    private EncodedProof(byte[] data, int width, int leafCount, int index, int root, int leaf, int leafLength,
+                         int sibling, int siblingLength, int hashes, int hashCount, int length) {
+        this.data = data;
+        this.width = width;
+        this.leafCount = leafCount;
+        this.index = index;
+        this.root = root;
+        this.leaf = leaf;
+        this.leafLength = leafLength;
+        this.sibling = sibling;
+        this.siblingLength = siblingLength;
+        this.hashes = hashes;
+        this.hashCount = hashCount;
+        this.length = length;
+    }
+
+    /**
+     * See ProofCodec.decode.
+     */
+    static EncodedProof read(ByteBuffer src) {
+        int start = src.position();
+        int limit = src.limit();
+        int pos = skip(start, 3, limit);
+        int version = src.get(start) & 0xFF;
+        if (version != ProofCodec.VERSION) {
+            throw new IllegalArgumentException("unsupported encoded proof version " + version);
+        }
+        int kind = src.get(start + 1);
+        if (kind == ProofCodec.MULTI) throw new IllegalArgumentException("a multiproof, see decodeMultiProof");
+        if (kind != ProofCodec.PROOF && kind != ProofCodec.BUNDLE) {
+            throw new IllegalArgumentException("unknown encoded proof kind " + kind);
+        }
+        int width = src.get(start + 2) & 0xFF;
+        if (width == 0) throw new IllegalArgumentException("encoded proof has no hash width");
+
+        int[] value = new int[1];
+        pos = ProofCodec.getVarint(src, pos, limit, value);
+        int leafCount = value[0];
+        pos = ProofCodec.getVarint(src, pos, limit, value);
+        int index = value[0];
+        if (index >= leafCount) {
+            throw new IllegalArgumentException("index " + index + " is outside a tree of " + leafCount + " leaves");
+        }
+
+        int root = -1;
+        int leaf = -1;
+        int leafLength = 0;
+        if (kind == ProofCodec.BUNDLE) {
+            root = pos;
+            pos = ProofCodec.getVarint(src, skip(pos, width, limit), limit, value);
+            leaf = pos;
+            leafLength = value[0];
+            pos = skip(pos, leafLength, limit);
+        }
+        int sibling = -1;
+        int siblingLength = 0;
+        if ((index ^ 1) < leafCount) {
+            pos = ProofCodec.getVarint(src, pos, limit, value);
+            sibling = pos;
+            siblingLength = value[0];
+            pos = skip(pos, siblingLength, limit);
+        }
+        int hashes = pos;
+        int hashCount = ProofCodec.proofLength(index, leafCount) - (sibling < 0 ? 0 : 1);
+        pos = skip(pos, hashCount * width, limit);
+
+        // offsets are relative to the backing array, which is the buffer's own unless it has to be copied
+        byte[] data;
+        int base;
+        if (src.hasArray()) {
+            data = src.array();
+            base = src.arrayOffset();
+        } else {
+            data = new byte[pos - start];
+            src.get(start, data);
+            base = -start;
+        }
+        src.position(pos);
+        return new EncodedProof(data, width, leafCount, index, root < 0 ? -1 : base + root,
+                leaf < 0 ? -1 : base + leaf, leafLength, sibling < 0 ? -1 : base + sibling, siblingLength,
+                base + hashes, hashCount, pos - start);
+    }
+
+    private static int skip(int pos, int bytes, int limit) {
+        if (bytes < 0 || limit - pos < bytes) throw new IllegalArgumentException("encoded proof is truncated");
+        return pos + bytes;
+    }
+
+    public boolean isBundle() {
+        return root >= 0;
+    }
+
+    /**
+     * Hash width of the algorithm the proof was encoded for.
+     */
+    public int width() {
+        return width;
+    }
+
+    public int leafCount() {
+        return leafCount;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    /**
+     * Bytes the encoding takes up.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Number of entries in the proof.
+     */
+    public int size() {
+        return hashCount + (sibling < 0 ? 0 : 1);
+    }
+
+    /**
+     * @throws IllegalStateException unless this is a bundle
+     */
+    public byte[] root() {
+        if (root < 0) throw new IllegalStateException("not a bundle");
+        return Arrays.copyOfRange(data, root, root + width);
+    }
+
+    /**
+     * @throws IllegalStateException unless this is a bundle
+     */
+    public byte[] leaf() {
+        if (leaf < 0) throw new IllegalStateException("not a bundle");
+        return Arrays.copyOfRange(data, leaf, leaf + leafLength);
+    }
+
+    /**
+     * The proof as MerkleTree.createProof returns it.
+     */
+    public List<byte[]> proof() {
+        List<byte[]> proof = new ArrayList<>(size());
+        if (sibling >= 0) proof.add(Arrays.copyOfRange(data, sibling, sibling + siblingLength));
+        for (int i = 0; i < hashCount; i++) {
+            proof.add(Arrays.copyOfRange(data, hashes + i * width, hashes + (i + 1) * width));
+        }
+        return List.copyOf(proof);
+    }
+}
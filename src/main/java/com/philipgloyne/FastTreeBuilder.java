@@ -1,7 +1,5 @@
 package com.philipgloyne;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
@@ -13,61 +11,81 @@ import java.util.concurrent.*;
 public class FastTreeBuilder implements TreeBuilder {
 
     private final HashAlgorithm hashFn;
+    private final NodeHasher nodeHasher;
+    private final boolean offHeap;
+    private final TreeMetrics metrics;
 
     public FastTreeBuilder(HashAlgorithm hashFn) {
+        this(hashFn, false);
+    }
+
+    /**
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     */
+    public FastTreeBuilder(HashAlgorithm hashFn, boolean offHeap) {
+        this(hashFn, offHeap, TreeMetrics.NONE);
+    }
+
+    /**
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     * @param metrics - told the time taken by each level and by the whole build
+     */
+    public FastTreeBuilder(HashAlgorithm hashFn, boolean offHeap, TreeMetrics metrics) {
         this.hashFn = hashFn;
+        this.nodeHasher = new NodeHasher(hashFn);
+        this.offHeap = offHeap;
+        this.metrics = metrics;
     }
 
     private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
 
     @Override
-    public List<byte[]> build(List<byte[]> txs) {
-        if (txs.size() == 0) return List.of("".getBytes());
-        if (txs.size() == 1) return List.of(hashFn.hash(txs.get(0)));
-
-        List<byte[]> levels = new ArrayList<>(txs);
-        List<byte[]> currentLvl = txs;
+    public NodeStore build(List<byte[]> txs) {
+        if (txs.size() == 0) return new ListNodeStore(List.of("".getBytes()), 1);
+        if (txs.size() == 1) return new ListNodeStore(List.of(txs.get(0), hashFn.hash(txs.get(0))), 2);
+
+        boolean timed = metrics != TreeMetrics.NONE;
+        long buildStart = timed ? System.nanoTime() : 0;
+        NodeStore levels = NodeStore.allocate(txs, TreeBuilder.nodeCount(txs.size()), hashFn, offHeap);
+        int levelStart = 0;
+        int levelSize = txs.size();
         ExecutorService executorService = Executors.newFixedThreadPool(POOL_SIZE);
 
-        while (currentLvl.size() > 1) {
-            List<byte[]> nextLvl = new ArrayList<>();
-            List<Future<byte[]>> futures = new ArrayList<>();
+        for (int level = 1; levelSize > 1; level++) {
+            int nextStart = levelStart + levelSize;
+            long start = timed ? System.nanoTime() : 0;
+            List<Future<?>> futures = new ArrayList<>();
 
-            for (int i = 0; i < currentLvl.size(); i += 2) {
-                final int finalI = i;
+            int parents = (levelSize + 1) >> 1;
+            for (int i = 0; i < parents; i += NodeHasher.BATCH) {
+                final int from = i;
+                final int finalStart = levelStart;
+                final int finalSize = levelSize;
 
-                List<byte[]> finalCurrentLvl = currentLvl;
-                Callable<byte[]> task = () -> {
-                    byte[] hash1 = hashFn.hash(finalCurrentLvl.get(finalI));
-                    byte[] hash2 = (finalI + 1 < finalCurrentLvl.size())
-                            ? hashFn.hash(finalCurrentLvl.get(finalI + 1))
-                            : "".getBytes();
-                    return hashFn.hash(ArrayUtils.addAll(hash1, hash2));
-                };
+                // each task hashes a batch of parents straight into their own slots of the store
+                Runnable task = () -> nodeHasher.combineRange(levels, finalStart, finalSize, nextStart, from,
+                        Math.min(from + NodeHasher.BATCH, parents), finalStart == 0);
 
-                Future<byte[]> future = executorService.submit(task);
-                futures.add(future);
+                futures.add(executorService.submit(task));
             }
 
-            for (Future<byte[]> future : futures) {
+            for (Future<?> future : futures) {
                 try {
-                    byte[] parentHash = future.get();
-                    nextLvl.add(parentHash);
-                    levels.add(parentHash);
+                    future.get();
                 } catch (InterruptedException | ExecutionException e) {
                     e.printStackTrace();
                     // Handle exceptions as needed
                 }
             }
 
-            currentLvl = nextLvl;
+            if (timed) metrics.levelBuilt(level, parents, System.nanoTime() - start);
+            levelStart = nextStart;
+            levelSize = (levelSize + 1) >> 1;
         }
 
         executorService.shutdown();
-
-        // System.out.println("buildTree: " + Arrays.toString(levels.toArray()));
+        if (timed) metrics.treeBuilt(txs.size(), System.nanoTime() - buildStart);
 
         return levels;
     }
 }
-
@@ -0,0 +1,224 @@
+package com.philipgloyne;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tree builder that splits the leaves into subtrees and builds each subtree bottom-up within a single fork/join task.
+ * Subtrees are joined as their parents are hashed, so there is no barrier between levels and the number of tasks
+ * depends on the core count rather than the number of nodes. Produces the same layout as BasicTreeBuilder and any
+ * failure while hashing is rethrown to the caller of build.
+ * <p>
+ * Built HASH_LEAVES_ONCE the transactions are first hashed in parallel chunks, then the subtrees combine those hashes
+ * without hashing any node twice, see NodeHashing.
+ */
+public class ForkJoinTreeBuilder implements TreeBuilder {
+
+    /**
+     * Leaves below a task before it stops splitting and builds its subtree sequentially.
+     */
+    private static final int DEFAULT_SUBTREE_LEAVES = 1 << 12;
+
+    private final HashAlgorithm hashFn;
+    private final NodeHashing hashing;
+    private final NodeHasher nodeHasher;
+    private final ForkJoinPool pool;
+    private final boolean offHeap;
+    private final int subtreeLeaves;
+    private final TreeMetrics metrics;
+
+    public ForkJoinTreeBuilder(HashAlgorithm hashFn) {
+        this(hashFn, ForkJoinPool.commonPool());
+    }
+
+    public ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool) {
+        this(hashFn, pool, false);
+    }
+
+    /**
+     * @param pool    - shared pool the build runs on, the builder never shuts it down
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     */
+    public ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool, boolean offHeap) {
+        this(hashFn, pool, offHeap, NodeHashing.REHASH_CHILDREN, TreeMetrics.NONE);
+    }
+
+    /**
+     * @param pool    - shared pool the build runs on, the builder never shuts it down
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     * @param metrics - told the time taken by each build, levels aren't built one at a time so aren't reported
+     */
+    public ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool, boolean offHeap, TreeMetrics metrics) {
+        this(hashFn, pool, offHeap, NodeHashing.REHASH_CHILDREN, metrics);
+    }
+
+    /**
+     * @param pool    - shared pool the build runs on, the builder never shuts it down
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     * @param hashing - convention of the built nodes, which trees built with this builder keep to
+     */
+    public ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool, boolean offHeap, NodeHashing hashing) {
+        this(hashFn, pool, offHeap, hashing, TreeMetrics.NONE);
+    }
+
+    /**
+     * @param pool    - shared pool the build runs on, the builder never shuts it down
+     * @param offHeap - place fixed width nodes in direct memory, outside the garbage collected heap
+     * @param hashing - convention of the built nodes, which trees built with this builder keep to
+     * @param metrics - told the time taken by each build, levels aren't built one at a time so aren't reported
+     */
+    public ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool, boolean offHeap, NodeHashing hashing,
+                               TreeMetrics metrics) {
+        this(hashFn, pool, offHeap, DEFAULT_SUBTREE_LEAVES, hashing, metrics);
+    }
+
+    ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool, boolean offHeap, int subtreeLeaves) {
+        this(hashFn, pool, offHeap, subtreeLeaves, NodeHashing.REHASH_CHILDREN, TreeMetrics.NONE);
+    }
+
+    ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool, boolean offHeap, int subtreeLeaves,
+                        NodeHashing hashing) {
+        this(hashFn, pool, offHeap, subtreeLeaves, hashing, TreeMetrics.NONE);
+    }
+
+    private ForkJoinTreeBuilder(HashAlgorithm hashFn, ForkJoinPool pool, boolean offHeap, int subtreeLeaves,
+                                NodeHashing hashing, TreeMetrics metrics) {
+        this.hashFn = hashFn;
+        this.hashing = hashing;
+        this.nodeHasher = new NodeHasher(hashFn, hashing);
+        this.pool = pool;
+        this.offHeap = offHeap;
+        this.subtreeLeaves = subtreeLeaves;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public NodeHashing hashing() {
+        return hashing;
+    }
+
+    @Override
+    public NodeStore build(List<byte[]> txs) {
+        if (txs.size() == 0) return new ListNodeStore(List.of("".getBytes()), 1);
+        if (hashing == NodeHashing.HASH_LEAVES_ONCE) return buildHashedLeaves(txs);
+        if (txs.size() == 1) return new ListNodeStore(List.of(txs.get(0), hashFn.hash(txs.get(0))), 2);
+
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
+        NodeStore levels = NodeStore.allocate(txs, TreeBuilder.nodeCount(txs.size()), hashFn, offHeap);
+        TreeLayout layout = TreeLayout.of(txs.size());
+        pool.invoke(new SubtreeTask(levels, layout, layout.height(), 0, 1));
+
+        if (timed) metrics.treeBuilt(txs.size(), System.nanoTime() - start);
+        return levels;
+    }
+
+    private NodeStore buildHashedLeaves(List<byte[]> txs) {
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
+        byte[][] leaves = new byte[txs.size()][];
+        pool.invoke(new LeafTask(txs, leaves, 0, txs.size()));
+
+        NodeStore levels;
+        if (txs.size() == 1) {
+            levels = new ListNodeStore(List.of(leaves[0], hashing.parent(hashFn, leaves[0], null)), 2);
+        } else {
+            levels = NodeStore.allocate(Arrays.asList(leaves), TreeBuilder.nodeCount(txs.size()), hashFn, offHeap);
+            TreeLayout layout = TreeLayout.of(txs.size());
+            pool.invoke(new SubtreeTask(levels, layout, layout.height(), 0, 1));
+        }
+
+        if (timed) metrics.treeBuilt(txs.size(), System.nanoTime() - start);
+        return levels;
+    }
+
+    /**
+     * Hashes the transactions [from, to) into their leaves.
+     */
+    private class LeafTask extends RecursiveAction {
+
+        private final List<byte[]> txs;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+
+        LeafTask(List<byte[]> txs, byte[][] leaves, int from, int to) {
+            this.txs = txs;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= subtreeLeaves) {
+                nodeHasher.hashLeaves(txs, from, to, leaves);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafTask(txs, leaves, from, mid), new LeafTask(txs, leaves, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Computes the nodes [from, to) of a level along with every node beneath them.
+     */
+    private class SubtreeTask extends RecursiveAction {
+
+        private final NodeStore levels;
+        private final TreeLayout layout;
+        private final int level;
+        private final int from;
+        private final int to;
+
+        SubtreeTask(NodeStore levels, TreeLayout layout, int level, int from, int to) {
+            this.levels = levels;
+            this.layout = layout;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (((long) (to - from) << level) <= subtreeLeaves) {
+                buildSequentially();
+            } else if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(subtree(level, from, mid), subtree(level, mid, to));
+            } else {
+                // a single node too big to build alone, build its children in parallel then hash them together
+                int left = from << 1;
+                if (left + 1 < layout.size(level - 1)) {
+                    invokeAll(subtree(level - 1, left, left + 1), subtree(level - 1, left + 1, left + 2));
+                } else {
+                    subtree(level - 1, left, left + 1).compute();
+                }
+                combine(level, from);
+            }
+        }
+
+        private void buildSequentially() {
+            for (int lvl = 1; lvl <= level; lvl++) {
+                int shift = level - lvl;
+                int lo = from << shift;
+                int hi = (int) Math.min((long) to << shift, layout.size(lvl));
+                nodeHasher.combineRange(levels, layout.start(lvl - 1), layout.size(lvl - 1), layout.start(lvl), lo, hi,
+                        lvl == 1);
+            }
+        }
+
+        private void combine(int lvl, int index) {
+            int childStart = layout.start(lvl - 1);
+            int left = index << 1;
+            int right = (left + 1 < layout.size(lvl - 1)) ? childStart + left + 1 : -1;
+            nodeHasher.combine(levels, childStart + left, right, layout.node(lvl, index), lvl == 1);
+        }
+
+        private SubtreeTask subtree(int lvl, int lo, int hi) {
+            return new SubtreeTask(levels, layout, lvl, lo, hi);
+        }
+    }
+}
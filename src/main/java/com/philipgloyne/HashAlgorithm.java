@@ -1,6 +1,96 @@
 package com.philipgloyne;
 
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.Arrays;
+
 public interface HashAlgorithm {
 
     byte[] hash(byte[] input);
+
+    /**
+     * Length in bytes of every digest this algorithm produces, or -1 when the output length varies with the input
+     * (e.g. an identity hash used in tests). Builders use this to decide whether nodes can be packed into a
+     * fixed-width {@link BufferNodeStore}.
+     */
+    default int digestLength() {
+        return -1;
+    }
+
+    /**
+     * Name a tree records its algorithm under, e.g. in the header of a tree file, see {@link #forName(String)}.
+     */
+    default String name() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * The built in algorithm recorded under name.
+     *
+     * @throws IllegalArgumentException if there is no built in algorithm of that name
+     */
+    static HashAlgorithm forName(String name) {
+        return switch (name) {
+            case "SHA256D" -> new SHA256D();
+            case "SHA256" -> new SHA256();
+            case "BLAKE3" -> new BLAKE3();
+            case "XXH128" -> new XXH128();
+            default -> throw new IllegalArgumentException("unknown hash algorithm " + name);
+        };
+    }
+
+    /**
+     * Hash of left followed by right. Implementations should feed both halves to the digest in turn rather than
+     * concatenating them, the default is only there so existing algorithms keep working.
+     */
+    default byte[] hashPair(byte[] left, byte[] right) {
+        return hash(ArrayUtils.addAll(left, right));
+    }
+
+    /**
+     * Hashes length bytes of input from offset, writing the digest into out at outOffset.
+     *
+     * @return number of bytes written
+     */
+    default int digestInto(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        byte[] digest = hash(Arrays.copyOfRange(input, offset, offset + length));
+        System.arraycopy(digest, 0, out, outOffset, digest.length);
+        return digest.length;
+    }
+
+    /**
+     * Hash of the left range followed by the right range, written into out at outOffset. The output may overlap
+     * neither input for the default implementation.
+     *
+     * @return number of bytes written
+     */
+    default int hashPairInto(byte[] left, int leftOffset, int leftLength,
+                             byte[] right, int rightOffset, int rightLength,
+                             byte[] out, int outOffset) {
+        byte[] digest = hashPair(
+                Arrays.copyOfRange(left, leftOffset, leftOffset + leftLength),
+                Arrays.copyOfRange(right, rightOffset, rightOffset + rightLength));
+        System.arraycopy(digest, 0, out, outOffset, digest.length);
+        return digest.length;
+    }
+
+    /**
+     * Hashes count messages of length bytes laid out back to back in src from srcOffset, writing the digests back to
+     * back into dst from dstOffset. A tree level is such a batch, algorithms able to hash several messages at once
+     * (see SHA256) override this, the default hashes them one at a time.
+     */
+    default void digestAll(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int count) {
+        int width = digestLength();
+        for (int i = 0; i < count; i++) {
+            digestInto(src, srcOffset + i * length, length, dst, dstOffset + i * width);
+        }
+    }
+
+    /**
+     * Hashes count pairs of digestLength() byte nodes laid out back to back in src, writing the parents back to back
+     * into dst, e.g. a whole level of children in one call. Only for fixed width algorithms.
+     */
+    default void hashPairs(byte[] src, int srcOffset, byte[] dst, int dstOffset, int count) {
+        digestAll(src, srcOffset, 2 * digestLength(), dst, dstOffset, count);
+    }
 }
@@ -0,0 +1,48 @@
+package com.philipgloyne;
+
+/**
+ * A run of consecutive leaf indexes, start inclusive and end exclusive.
+ */
+public final class LeafRange {
+
+    private final int start;
+    private final int end;
+
+    public LeafRange(int start, int end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("invalid range [" + start + ", " + end + ")");
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LeafRange)) return false;
+        LeafRange that = (LeafRange) o;
+        return start == that.start && end == that.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * start + end;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
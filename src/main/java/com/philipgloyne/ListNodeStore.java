@@ -0,0 +1,46 @@
+package com.philipgloyne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Node store with one array per node, needed when node values don't share a width (e.g. IdentityHash in tests).
+ */
+public class ListNodeStore implements NodeStore {
+
+    private final List<byte[]> nodes;
+
+    public ListNodeStore(List<byte[]> leaves, int size) {
+        this.nodes = new ArrayList<>(size);
+        this.nodes.addAll(leaves);
+        while (nodes.size() < size) {
+            nodes.add(null);
+        }
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public byte[] get(int index) {
+        return nodes.get(index);
+    }
+
+    @Override
+    public void set(int index, byte[] value) {
+        nodes.set(index, value);
+    }
+
+    @Override
+    public NodeStore newStore(List<byte[]> leaves, int size) {
+        return new ListNodeStore(leaves, size);
+    }
+
+    @Override
+    public boolean matches(int index, byte[] value) {
+        return Arrays.equals(nodes.get(index), value);
+    }
+}
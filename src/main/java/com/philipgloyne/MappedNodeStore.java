@@ -0,0 +1,311 @@
+package com.philipgloyne;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Node store over a memory mapped tree file (see TreeFile), reads and writes go straight to the page cache.
+ * <p>
+ * Internal nodes sit in fixed width slots. Leaves vary in length, so each has a slot in the leaf table holding the
+ * offset of its record in the leaf heap at the end of the file, a record being an int capacity, an int length and
+ * capacity bytes. A leaf that fits its record is rewritten in place, a longer one is appended to the heap as a new
+ * record and its table slot pointed at it, so leaves of any length can be written. Every region is mapped in chunks
+ * of at most 1GB as a single mapping is limited to 2GB, and heap records never cross a chunk. Writes mark their chunk
+ * dirty and {@link #flush()} forces dirty chunks to disk, the heap before the table that points into it.
+ */
+final class MappedNodeStore implements NodeStore {
+
+    static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    /**
+     * Bytes of a heap record before the leaf: its capacity and length.
+     */
+    static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final Path path;
+    private final int leafCount;
+    private final int size;
+    private final int width;
+    private final boolean writable;
+    private final Region table;
+    private final Region nodes;
+    private final Heap heap;
+
+    MappedNodeStore(Path path, FileChannel channel, long tableOffset, long nodeOffset, long heapOffset,
+                    int leafCount, int size, int width, boolean writable) throws IOException {
+        this.path = path;
+        this.leafCount = leafCount;
+        this.size = size;
+        this.width = width;
+        this.writable = writable;
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        this.table = new Region(channel, mode, tableOffset, leafCount, Long.BYTES);
+        this.nodes = new Region(channel, mode, nodeOffset, size - leafCount, width);
+        this.heap = new Heap(channel, mode, heapOffset, channel.size());
+    }
+
+    /**
+     * Where a record of recordBytes goes when the heap starting at heapOffset ends at end: at the end, unless that
+     * would cross into the next chunk, then at the start of it.
+     *
+     * @throws IllegalArgumentException if the record is larger than a chunk
+     */
+    static long place(long heapOffset, long end, long recordBytes) {
+        if (recordBytes > MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("leaf of " + (recordBytes - RECORD_HEADER_BYTES)
+                    + " bytes exceeds the largest a tree file holds");
+        }
+        long used = (end - heapOffset) % MAX_CHUNK_BYTES;
+        return used + recordBytes <= MAX_CHUNK_BYTES ? end : end - used + MAX_CHUNK_BYTES;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte[] get(int index) {
+        if (index < leafCount) {
+            long record = record(index);
+            MappedByteBuffer chunk = heap.chunk(record);
+            int offset = heap.offset(record);
+            byte[] leaf = new byte[chunk.getInt(offset + Integer.BYTES)];
+            chunk.get(offset + RECORD_HEADER_BYTES, leaf, 0, leaf.length);
+            return leaf;
+        }
+
+        byte[] value = new byte[width];
+        read(index, value, 0);
+        return value;
+    }
+
+    @Override
+    public void set(int index, byte[] value) {
+        write(index, value, 0, value.length);
+    }
+
+    @Override
+    public int read(int index, byte[] dst, int offset) {
+        if (index < leafCount) return NodeStore.super.read(index, dst, offset);
+
+        int slot = slot(index);
+        nodes.chunk(slot).get(nodes.offset(slot), dst, offset, width);
+        return width;
+    }
+
+    @Override
+    public void write(int index, byte[] src, int offset, int length) {
+        if (!writable) throw new UnsupportedOperationException("the tree file was opened read only");
+        if (index < leafCount) {
+            writeLeaf(index, src, offset, length);
+            return;
+        }
+        if (length != width) {
+            throw new IllegalArgumentException("expected a " + width + " byte node but was " + length);
+        }
+
+        int slot = slot(index);
+        nodes.chunk(slot).put(nodes.offset(slot), src, offset, width);
+        nodes.markDirty(slot);
+    }
+
+    @Override
+    public boolean matches(int index, byte[] value) {
+        if (index < leafCount) return Arrays.equals(get(index), value);
+        if (value.length != width) return false;
+
+        int slot = slot(index);
+        MappedByteBuffer chunk = nodes.chunk(slot);
+        int offset = nodes.offset(slot);
+        for (int i = 0; i < width; i++) {
+            if (chunk.get(offset + i) != value[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        heap.force();
+        table.force();
+        nodes.force();
+    }
+
+    /**
+     * A mapped file has a fixed shape, appending to it would need the file rewritten with room for the new levels.
+     */
+    @Override
+    public NodeStore newStore(List<byte[]> leaves, int size) {
+        throw new UnsupportedOperationException("trees opened from a file can't grow, rebuild and save them instead");
+    }
+
+    private void writeLeaf(int index, byte[] src, int offset, int length) {
+        long record = record(index);
+        MappedByteBuffer chunk = heap.chunk(record);
+        int recordOffset = heap.offset(record);
+        if (length > chunk.getInt(recordOffset)) {
+            // the old record is left behind, the heap only grows until the tree is saved again
+            try {
+                record = heap.append(path, RECORD_HEADER_BYTES + length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunk = heap.chunk(record);
+            recordOffset = heap.offset(record);
+            table.chunk(index).putLong(table.offset(index), record);
+            table.markDirty(index);
+        }
+        chunk.putInt(recordOffset + Integer.BYTES, length);
+        chunk.put(recordOffset + RECORD_HEADER_BYTES, src, offset, length);
+        heap.markDirty(record);
+    }
+
+    /**
+     * File offset of the heap record of a leaf.
+     *
+     * @throws IllegalStateException if the leaf table points outside the heap, the file is corrupt
+     */
+    private long record(int leaf) {
+        long record = table.chunk(leaf).getLong(table.offset(leaf));
+        if (!heap.holds(record)) {
+            throw new IllegalStateException(path + " has a corrupt leaf table entry for leaf " + leaf);
+        }
+        return record;
+    }
+
+    private int slot(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException(index);
+        return index - leafCount;
+    }
+
+    /**
+     * Consecutive fixed size slots mapped in chunks that never split a slot.
+     */
+    private static final class Region {
+
+        private final MappedByteBuffer[] chunks;
+        private final boolean[] dirty;
+        private final int slotSize;
+        private final int slotsPerChunk;
+
+        Region(FileChannel channel, FileChannel.MapMode mode, long offset, int slots, int slotSize)
+                throws IOException {
+            this.slotSize = slotSize;
+            this.slotsPerChunk = Math.max(1, MAX_CHUNK_BYTES / slotSize);
+            int chunkCount = (slots + slotsPerChunk - 1) / slotsPerChunk;
+            this.chunks = new MappedByteBuffer[chunkCount];
+            this.dirty = new boolean[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                int chunkSlots = Math.min(slotsPerChunk, slots - i * slotsPerChunk);
+                long chunkOffset = offset + (long) i * slotsPerChunk * slotSize;
+                chunks[i] = channel.map(mode, chunkOffset, (long) chunkSlots * slotSize);
+            }
+        }
+
+        MappedByteBuffer chunk(int slot) {
+            return chunks[slot / slotsPerChunk];
+        }
+
+        int offset(int slot) {
+            return (slot % slotsPerChunk) * slotSize;
+        }
+
+        void markDirty(int slot) {
+            dirty[slot / slotsPerChunk] = true;
+        }
+
+        void force() {
+            for (int i = 0; i < chunks.length; i++) {
+                if (dirty[i]) {
+                    dirty[i] = false;
+                    chunks[i].force();
+                }
+            }
+        }
+    }
+
+    /**
+     * Leaf records from offset to the end of the file, mapped in chunks of MAX_CHUNK_BYTES, the last one only as far
+     * as the file goes. Appending maps the last chunk again to take in the new record, growing the file.
+     */
+    private static final class Heap {
+
+        private final FileChannel.MapMode mode;
+        private final long offset;
+        private MappedByteBuffer[] chunks;
+        private boolean[] dirty;
+        private long end;
+
+        Heap(FileChannel channel, FileChannel.MapMode mode, long offset, long end) throws IOException {
+            this.mode = mode;
+            this.offset = offset;
+            this.end = end;
+            int chunkCount = (int) ((end - offset + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+            this.chunks = new MappedByteBuffer[chunkCount];
+            this.dirty = new boolean[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long chunkOffset = offset + (long) i * MAX_CHUNK_BYTES;
+                chunks[i] = channel.map(mode, chunkOffset, Math.min(MAX_CHUNK_BYTES, end - chunkOffset));
+            }
+        }
+
+        boolean holds(long record) {
+            if (record < offset || record > end - RECORD_HEADER_BYTES) return false;
+            MappedByteBuffer chunk = chunk(record);
+            int at = offset(record);
+            int capacity = chunk.getInt(at);
+            int length = chunk.getInt(at + Integer.BYTES);
+            return capacity >= 0 && length >= 0 && length <= capacity
+                    && (long) at + RECORD_HEADER_BYTES + capacity <= chunk.capacity();
+        }
+
+        MappedByteBuffer chunk(long record) {
+            return chunks[(int) ((record - offset) / MAX_CHUNK_BYTES)];
+        }
+
+        int offset(long record) {
+            return (int) ((record - offset) % MAX_CHUNK_BYTES);
+        }
+
+        void markDirty(long record) {
+            dirty[(int) ((record - offset) / MAX_CHUNK_BYTES)] = true;
+        }
+
+        /**
+         * Makes room for a record of recordBytes at the end of the heap.
+         *
+         * @return file offset of the record
+         */
+        long append(Path path, int recordBytes) throws IOException {
+            long record = place(offset, end, recordBytes);
+            int chunk = (int) ((record - offset) / MAX_CHUNK_BYTES);
+            long chunkOffset = offset + (long) chunk * MAX_CHUNK_BYTES;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunk + 1);
+                dirty = Arrays.copyOf(dirty, chunk + 1);
+            }
+            // mapping past the end of the file extends it, the mapping it replaces is unmapped once unreachable
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                chunks[chunk] = channel.map(mode, chunkOffset, record + recordBytes - chunkOffset);
+            }
+            chunks[chunk].putInt(offset(record), recordBytes - RECORD_HEADER_BYTES);
+            end = record + recordBytes;
+            return record;
+        }
+
+        void force() {
+            for (int i = 0; i < chunks.length; i++) {
+                if (dirty[i]) {
+                    dirty[i] = false;
+                    chunks[i].force();
+                }
+            }
+        }
+    }
+}
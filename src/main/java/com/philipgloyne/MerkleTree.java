@@ -1,39 +1,347 @@
 package com.philipgloyne;
 
-import org.apache.commons.lang3.ArrayUtils;
-
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class MerkleTree {
 
+    /**
+     * Dirty nodes in a level before a parallel batch update hands the level to the ForkJoinPool.
+     */
+    private static final int PARALLEL_UPDATE_THRESHOLD = 1 << 10;
+
     private final TreeBuilder builder;
     private final HashAlgorithm hashFn;
-    private int txSize;
-    private List<byte[]> values;
+    private final NodeHashing hashing;
+    private final NodeHasher nodeHasher;
+    private NodeStore values;
+    // levels are laid out with spare capacity so appending a leaf never moves the levels above it
+    private TreeLayout layout;
+    private ProofCache proofCache;
+    private TreeMetrics metrics = TreeMetrics.NONE;
 
     public MerkleTree(TreeBuilder builder, HashAlgorithm hashFn, List<byte[]> txs) {
         this.builder = builder;
         this.hashFn = hashFn;
-        this.txSize = txs.size();
-        this.values = builder.build(txs);
+        this.hashing = builder.hashing();
+        this.nodeHasher = new NodeHasher(hashFn, hashing);
+        rebuild(txs);
+    }
+
+    /**
+     * Tree over nodes that already exist, such as a mapped file, laid out densely for txSize leaves.
+     */
+    MerkleTree(TreeBuilder builder, HashAlgorithm hashFn, NodeStore values, int txSize) {
+        this.builder = builder;
+        this.hashFn = hashFn;
+        this.hashing = builder.hashing();
+        this.nodeHasher = new NodeHasher(hashFn, hashing);
+        use(values, txSize);
+    }
+
+    private MerkleTree(MerkleTree tree, NodeStore values, ProofCache proofCache) {
+        this.builder = tree.builder;
+        this.hashFn = tree.hashFn;
+        this.hashing = tree.hashing;
+        this.nodeHasher = tree.nodeHasher;
+        this.values = values;
+        this.layout = tree.layout;
+        this.metrics = tree.metrics;
+        this.proofCache = proofCache;
+    }
+
+    /**
+     * Opens a tree written by {@link #save(Path)}. The file is memory mapped rather than read, so the tree is ready
+     * as soon as the header is checked and proofs are served from the page cache. Updates are written in place and
+     * forced to disk before updateTx returns. The tree can't grow, addTx throws UnsupportedOperationException. A file
+     * that isn't writable is opened read only, updates then throw UnsupportedOperationException too.
+     *
+     * @throws IOException if the file can't be mapped or isn't a tree file
+     */
+    public static MerkleTree open(Path path) throws IOException {
+        TreeFile file = TreeFile.open(path);
+        return new MerkleTree(new BasicTreeBuilder(file.hashFn), file.hashFn, file.store, file.leafCount);
+    }
+
+    /**
+     * Opens a tree written by {@link #save(Path)} for serving proofs from a file larger than memory. The top
+     * pinnedLevels levels are read into the heap up front and every other node goes through a cache of at most
+     * cacheBytes, see {@link TieredNodeStore}. Otherwise behaves as {@link #open(Path)}.
+     *
+     * @throws IOException if the file can't be mapped or isn't a tree file
+     */
+    public static MerkleTree open(Path path, int pinnedLevels, long cacheBytes) throws IOException {
+        TreeFile file = TreeFile.open(path);
+        NodeStore store = new TieredNodeStore(file.store, file.leafCount, file.hashFn.digestLength(), pinnedLevels,
+                cacheBytes);
+        return new MerkleTree(new BasicTreeBuilder(file.hashFn), file.hashFn, store, file.leafCount);
+    }
+
+    /**
+     * Writes the tree to path in the TreeFile format, see {@link #open(Path)}. Needs a fixed width hash algorithm.
+     *
+     * @throws UnsupportedOperationException unless the tree follows NodeHashing.REHASH_CHILDREN, which is all a file
+     *                                       records
+     */
+    public void save(Path path) throws IOException {
+        if (hashing != NodeHashing.REHASH_CHILDREN) {
+            throw new UnsupportedOperationException("only " + NodeHashing.REHASH_CHILDREN + " trees can be saved");
+        }
+        TreeFile.write(path, hashFn, values, layout);
+    }
+
+    /**
+     * The tree as it is now, unaffected by later updates. O(1), the snapshot shares every node with this tree until
+     * it is next written. Only trees whose nodes are in a PersistentNodeStore can be snapshot, and the snapshot
+     * itself is read only.
+     */
+    MerkleTree snapshot() {
+        return new MerkleTree(this, ((PersistentNodeStore) values).snapshot(), null);
+    }
+
+    /**
+     * Runs several reads against one version of the tree, a thread safe tree locks once for all of them rather than
+     * once per call. The tree handed to reads is only valid until it returns.
+     */
+    public void read(Consumer<MerkleTree> reads) {
+        reads.accept(this);
+    }
+
+    /**
+     * The tree as it is now sharing its nodes and proof cache, without any locking, for reads made while nothing
+     * writes the tree.
+     */
+    MerkleTree view() {
+        return new MerkleTree(this, values, proofCache);
+    }
+
+    int leafCount() {
+        return layout.leafCount();
+    }
+
+    /**
+     * The algorithm the tree is hashed with, recorded by name in saved trees so they are reopened with it.
+     */
+    public HashAlgorithm getHashAlgorithm() {
+        return hashFn;
+    }
+
+    /**
+     * The convention the tree's nodes follow, set by its builder. Proofs of the tree verify under it.
+     */
+    public NodeHashing getNodeHashing() {
+        return hashing;
+    }
+
+    /**
+     * Counters of the node cache for a tree opened with one, null for any other tree.
+     */
+    public NodeCacheStats getCacheStats() {
+        return values instanceof TieredNodeStore ? ((TieredNodeStore) values).stats() : null;
     }
 
     public byte[] getRoot() {
-        return values.get(values.size() - 1);
+        return values.get(layout.root());
     }
 
     /**
-     * The path of hashes required to prove a transaction at an index
+     * The path of hashes required to prove a transaction at an index. With the proof cache enabled the list and its
+     * hashes are shared with the cache and other callers, they must not be modified.
      *
      * @param index of tx
      * @return list of hashes which proves the transaction will lead to the merkle root
      */
     public List<byte[]> createProof(int index) {
-        return createProofIndexes(index).stream()
-                .map(i -> values.get(i))
-                .toList();
+        TreeMetrics metrics = this.metrics;
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
+
+        TreeLayout layout = this.layout;
+        List<byte[]> proof;
+        if (proofCache != null && index >= 0 && index < layout.leafCount()) {
+            proof = proofCache.proof(index, values, layout);
+        } else {
+            byte[][] nodes = new byte[layout.proofLength(index)][];
+            fillProof(layout, index, nodes);
+            proof = List.of(nodes);
+        }
+        if (timed) metrics.proofCreated(System.nanoTime() - start);
+        return proof;
+    }
+
+    /**
+     * Serves both createProof variants from a cache of recently requested proofs, up to maxProofs of them (rounded
+     * down to a power of two). A cached proof is returned as is until an update changes one of its nodes, and is then
+     * brought up to date re-reading only the nodes updates have changed since, so proofs are never stale. See
+     * ProofCache. Replaces any cache enabled before.
+     */
+    public void enableProofCache(int maxProofs) {
+        this.proofCache = new ProofCache(maxProofs);
+    }
+
+    /**
+     * The proof cache with its hit counts, null unless enabled.
+     */
+    public ProofCache getProofCache() {
+        return proofCache;
+    }
+
+    /**
+     * Reports proof and update latencies and digest counts to metrics, see TreeMetrics. Set it before the tree is
+     * shared between threads, or through a thread safe tree which publishes it under its lock.
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public TreeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Writes the proof for the transaction at index into proof, from the leaf's sibling up, without allocating
+     * anything but the sibling leaf. Hashes are copied into the arrays already in proof when they have the right
+     * length, any other entry is replaced with a new array. A proof has at most {@link #getHeight()} entries.
+     *
+     * @param index of tx
+     * @param proof - filled from 0, entries past the returned length are left alone
+     * @return number of entries written
+     * @throws IllegalArgumentException if proof is too short for the proof of index
+     */
+    public int createProof(int index, byte[][] proof) {
+        TreeMetrics metrics = this.metrics;
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
+
+        TreeLayout layout = this.layout;
+        int length = layout.proofLength(index);
+        if (proof.length < length) {
+            throw new IllegalArgumentException("proof of " + index + " needs " + length + " entries, not "
+                    + proof.length);
+        }
+        fillProof(layout, index, proof);
+        if (timed) metrics.proofCreated(System.nanoTime() - start);
+        return length;
+    }
+
+    /**
+     * Writes the proof for the transaction at index into dst in the format of ProofCodec, copying nodes straight from
+     * the store without building the proof first.
+     *
+     * @throws IllegalArgumentException if the hash algorithm isn't fixed width
+     * @throws BufferOverflowException  if dst is too small, its position is then left unchanged
+     */
+    public void encodeProof(int index, ByteBuffer dst) {
+        encode(index, dst, ProofCodec.PROOF);
+    }
+
+    /**
+     * Writes a bundle of the root, the transaction at index and its proof into dst in the format of ProofCodec, for a
+     * client holding nothing but the bytes, see ProofVerifier.verify(EncodedProof, HashAlgorithm).
+     *
+     * @throws IllegalArgumentException      if the hash algorithm isn't fixed width
+     * @throws BufferOverflowException       if dst is too small, its position is then left unchanged
+     * @throws UnsupportedOperationException for a HASH_LEAVES_ONCE tree, which only keeps the leaf hashes
+     */
+    public void encodeProofBundle(int index, ByteBuffer dst) {
+        if (hashing != NodeHashing.REHASH_CHILDREN) {
+            throw new UnsupportedOperationException("a " + hashing + " tree doesn't keep its transactions");
+        }
+        encode(index, dst, ProofCodec.BUNDLE);
+    }
+
+    private void encode(int index, ByteBuffer dst, int kind) {
+        TreeMetrics metrics = this.metrics;
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
+
+        TreeLayout layout = this.layout;
+        int width = ProofCodec.width(hashFn);
+        Objects.checkIndex(index, layout.leafCount());
+        int position = dst.position();
+        try {
+            ProofCodec.putHeader(dst, kind, width, layout.leafCount(), index);
+            if (kind == ProofCodec.BUNDLE) {
+                values.read(layout.root(), dst);
+                byte[] leaf = values.get(layout.node(0, index));
+                ProofCodec.putVarint(dst, leaf.length);
+                dst.put(leaf);
+            }
+            for (int level = 0; level < layout.height(); level++) {
+                int sibling = index ^ 1;
+                if (sibling < layout.size(level)) {
+                    if (level == 0) {
+                        byte[] leaf = values.get(layout.node(0, sibling));
+                        ProofCodec.putVarint(dst, leaf.length);
+                        dst.put(leaf);
+                    } else {
+                        values.read(layout.node(level, sibling), dst);
+                    }
+                }
+                index >>= 1;
+            }
+        } catch (BufferOverflowException e) {
+            dst.position(position);
+            throw e;
+        }
+        if (timed) metrics.proofCreated(System.nanoTime() - start);
+    }
+
+    /**
+     * Levels above the leaves, the number of entries in the longest proof.
+     */
+    public int getHeight() {
+        return layout.height();
+    }
+
+    /**
+     * A single proof for several transactions. Siblings shared between the paths, or that are themselves on another
+     * path, are only included once or not at all, see MultiProof.
+     *
+     * @param indexes of txs, in any order
+     * @return proof verifiable with MultiProofVerifier against the leaves in ascending index order
+     */
+    public MultiProof createMultiProof(int... indexes) {
+        int[] nodes = IntStream.of(indexes).sorted().distinct().toArray();
+        for (int index : nodes) {
+            Objects.checkIndex(index, layout.leafCount());
+        }
+
+        List<byte[]> hashes = new ArrayList<>();
+        boolean[] flags = new boolean[nodes.length * layout.height()];
+        int flagCount = 0;
+        int[] level = nodes.clone();
+        int count = level.length;
+
+        for (int lvl = 0; lvl < layout.height(); lvl++) {
+            int parents = 0;
+            for (int i = 0; i < count; i++) {
+                int node = level[i];
+                int sibling = (node % 2 == 0) ? node + 1 : node - 1;
+                if (sibling < layout.size(lvl)) {
+                    if (sibling == node + 1 && i + 1 < count && level[i + 1] == sibling) {
+                        flags[flagCount++] = true;
+                        i++;
+                    } else {
+                        flags[flagCount++] = false;
+                        hashes.add(values.get(layout.node(lvl, sibling)));
+                    }
+                }
+                level[parents++] = getParentIndex(node);
+            }
+            count = parents;
+        }
+
+        return new MultiProof(layout.leafCount(), nodes, hashes, Arrays.copyOf(flags, flagCount));
     }
 
     /**
@@ -44,60 +352,79 @@ public class MerkleTree {
      * @return
      */
     public boolean validateProof(int index, List<byte[]> proof) {
-        List<byte[]> expect = createProof(index);
-
-        if(expect.size() != proof.size()) return false;
+        TreeLayout layout = this.layout;
+        if (layout.proofLength(index) != proof.size()) return false;
 
-        for (int i = 0; i < expect.size(); i++) {
-            if (!Arrays.equals(expect.get(i), proof.get(i))) return false;
+        int[] expect = new int[proof.size()];
+        layout.proofNodes(index, expect);
+        for (int i = 0; i < expect.length; i++) {
+            if (!values.matches(expect[i], proof.get(i))) return false;
         }
         return true;
     }
 
+    /**
+     * TRUE if tx at index hashes up to the root of this tree through proof, see ProofVerifier.
+     */
     public boolean validateProofTx(int index, List<byte[]> proof, byte[] tx) {
-        return Arrays.equals(values.get(index), hashFn.hash(tx))
-                && validateProof(index, proof);
+        return ProofVerifier.verify(getRoot(), tx, index, layout.leafCount(), proof, hashFn, hashing);
     }
 
-    private List<Integer> createProofIndexes(int index) {
-        List<Integer> indexes = new ArrayList<Integer>();
-        int treeSize = values.size();
-        int treeHeight = (int) (Math.log(treeSize) / Math.log(2));
-        int levelStart = 0;
-        int levelSize = txSize;
-        int levelIndex = index;
+    /**
+     * Leaves that differ between this tree and other, found by descending only into subtrees whose hashes differ.
+     * Leaves past the end of the smaller tree count as different. Both trees must use the same hash algorithm.
+     *
+     * @return ascending, non-adjacent ranges of leaf indexes
+     */
+    public List<LeafRange> diff(MerkleTree other) {
+        return TreeSync.reconcile(this, other, Integer.MAX_VALUE).differences();
+    }
 
-        for (int level = 0; level < treeHeight; level++) {
-            int leftIndex = getLeftChildIndex(levelStart, levelIndex);
-            int rightIndex = getRightChildIndex(levelStart, levelIndex);
+    /**
+     * Answers a request from a replica's TreeSync session with the hashes of the nodes asked for.
+     *
+     * @throws IndexOutOfBoundsException if the request asks for nodes this tree doesn't have
+     */
+    public TreeSync.Response respond(TreeSync.Request request) {
+        TreeLayout layout = this.layout;
+        if (request.isRoot()) {
+            return new TreeSync.Response(hashFn.name(), layout.leafCount(), List.of(values.get(layout.root())));
+        }
 
-            if (rightIndex >= treeSize) {
-                break;
-            }
+        int level = Objects.checkIndex(request.level(), layout.levels());
+        int[] indexes = request.indexesUnsafe();
+        List<byte[]> hashes = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            byte[] node = values.get(layout.node(level, Objects.checkIndex(index, layout.size(level))));
+            hashes.add(level == 0 && hashing == NodeHashing.REHASH_CHILDREN ? hashFn.hash(node) : node);
+        }
+        return new TreeSync.Response(hashFn.name(), layout.leafCount(), hashes);
+    }
+
+    /**
+     * Copies the proof nodes of index into proof, reusing entries of the right length for fixed width nodes.
+     */
+    private void fillProof(TreeLayout layout, int index, byte[][] proof) {
+        int width = hashFn.digestLength();
+        if (proofCache != null && index >= 0 && index < layout.leafCount()) {
+            proofCache.fill(index, values, layout, width, proof);
+            return;
+        }
 
-            int levelMax = levelStart + levelSize;
-            if (rightIndex < levelMax) {
-                if (levelIndex % 2 == 0) {
-                    indexes.add(rightIndex);
+        int count = 0;
+        for (int level = 0; level < layout.height(); level++) {
+            int sibling = index ^ 1;
+            if (sibling < layout.size(level)) {
+                int node = layout.node(level, sibling);
+                if (level > 0 && width > 0 && proof[count] != null && proof[count].length == width) {
+                    values.read(node, proof[count], 0);
                 } else {
-                    indexes.add(leftIndex);
+                    proof[count] = values.get(node);
                 }
+                count++;
             }
-
-            levelIndex = getParentIndex(levelIndex);
-            levelStart += levelSize;
-            levelSize = (int) Math.ceil((levelSize + 1) >> 1);
+            index >>= 1;
         }
-        return indexes;
-    }
-
-    private int getLeftChildIndex(int levelStart, int indexInLevel) {
-        int offset = (indexInLevel % 2 == 0) ? indexInLevel : indexInLevel - 1;
-        return levelStart + offset;
-    }
-
-    private int getRightChildIndex(int levelStart, int indexInLevel) {
-        return getLeftChildIndex(levelStart, indexInLevel) + 1;
     }
 
     private int getParentIndex(int currentIndex) {
@@ -111,60 +438,212 @@ public class MerkleTree {
      * @param value - the new value of the transaction.
      */
     public void updateTx(int index, byte[] value) {
-        byte[] hash = hashFn.hash(value);
-        // update level 0
-        values.set(index, hash);
-        byte[] parentHash = (index % 2 == 0)
-                ? (index + 1 < txSize) ? hashFn.hash(ArrayUtils.addAll(hash, values.get(index + 1))) : hash
-                : hashFn.hash(ArrayUtils.addAll(values.get(index - 1), hash));
-
-        int treeSize = values.size();
-        int treeHeight = (int) (Math.log(treeSize) / Math.log(2));
-        int levelStart = txSize;
-        int levelSize = (int) Math.ceil((txSize + 1) >> 1);
-        int levelIndex = getParentIndex(index);
-
-        for (int level = 1; level < treeHeight; level++) {
-            int leftIndex = getLeftChildIndex(levelStart, levelIndex);
-            int rightIndex = getRightChildIndex(levelStart, levelIndex);
-
-            if (rightIndex >= treeSize) {
-                break;
-            }
+        TreeMetrics metrics = this.metrics;
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
 
-            int levelMax = levelStart + levelSize;
-            if (rightIndex < levelMax) {
-                if (levelIndex % 2 == 0) {
-                    values.set(leftIndex, parentHash);
-                    parentHash = hashFn.hash(ArrayUtils.addAll(parentHash, values.get(rightIndex)));
-                } else {
-                    values.set(rightIndex, parentHash);
-                    parentHash = hashFn.hash(ArrayUtils.addAll(values.get(leftIndex), parentHash));
+        Objects.checkIndex(index, layout.leafCount());
+        if (proofCache != null) proofCache.updated(index);
+        values.set(layout.node(0, index), hashing.leaf(hashFn, value));
+        long hashes = 1;
+        if (layout.leafCount() == 1 && hashing == NodeHashing.REHASH_CHILDREN) {
+            values.set(layout.root(), hashFn.hash(value));
+        } else {
+            hashes = rehash(index, index);
+        }
+        values.flush();
+        if (timed) metrics.updated(1, hashes, System.nanoTime() - start);
+    }
+
+    /**
+     * Updates many transactions at once. Each changed ancestor is rehashed exactly once, level by level, no matter
+     * how many of its leaves changed, rather than walking every leaf to the root in turn.
+     *
+     * @param txs - new transaction values by index
+     */
+    public void updateTxs(Map<Integer, byte[]> txs) {
+        updateTxs(txs, false);
+    }
+
+    /**
+     * @param txs      - new transaction values by index
+     * @param parallel - hash the dirty nodes of wide levels in parallel on the common ForkJoinPool
+     * @throws IndexOutOfBoundsException if any index is out of range, the tree is then left unchanged
+     */
+    public void updateTxs(Map<Integer, byte[]> txs, boolean parallel) {
+        if (txs.isEmpty()) return;
+        // every index is checked before the first leaf is written, so a bad one can't leave the tree half updated
+        for (int index : txs.keySet()) {
+            Objects.checkIndex(index, layout.leafCount());
+        }
+        if (layout.leafCount() < 2) {
+            txs.forEach(this::updateTx);
+            return;
+        }
+        TreeMetrics metrics = this.metrics;
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
+
+        int[] dirty = new int[txs.size()];
+        int count = 0;
+        for (Map.Entry<Integer, byte[]> tx : txs.entrySet()) {
+            int index = tx.getKey();
+            if (proofCache != null) proofCache.updated(index);
+            values.set(layout.node(0, index), hashing.leaf(hashFn, tx.getValue()));
+            dirty[count++] = index;
+        }
+        Arrays.sort(dirty);
+
+        long hashes = hashing.leafDigests(count);
+        for (int level = 1; level < layout.levels(); level++) {
+            // parents of sorted children are sorted too, so siblings sharing a parent are adjacent
+            int parents = 0;
+            for (int i = 0; i < count; i++) {
+                int parent = getParentIndex(dirty[i]);
+                if (parents == 0 || dirty[parents - 1] != parent) {
+                    dirty[parents++] = parent;
                 }
             }
+            count = parents;
+            // the last parent of a level may lack a right child
+            int children = 2 * count - (2 * dirty[count - 1] + 1 < layout.size(level - 1) ? 0 : 1);
+            hashes += hashing.parentDigests(count, children);
 
-            levelIndex = getParentIndex(levelIndex);
-            levelStart += levelSize;
-            levelSize = (int) Math.ceil((levelSize + 1) >> 1);
+            int lvl = level;
+            int dirtyCount = count;
+            if (parallel && count >= PARALLEL_UPDATE_THRESHOLD) {
+                int batches = (count + NodeHasher.BATCH - 1) / NodeHasher.BATCH;
+                IntStream.range(0, batches).parallel().forEach(b -> {
+                    int offset = b * NodeHasher.BATCH;
+                    combineAll(lvl, dirty, offset, Math.min(NodeHasher.BATCH, dirtyCount - offset));
+                });
+            } else {
+                combineAll(lvl, dirty, 0, count);
+            }
         }
-
-        // update root
-        byte[] rootHash = hashFn.hash(ArrayUtils.addAll(values.get(values.size() - 3), values.get(values.size() - 2)));
-        values.set(values.size() - 1, rootHash);
+        values.flush();
+        if (timed) metrics.updated(txs.size(), hashes, System.nanoTime() - start);
     }
 
     /**
-     * Add a new transaction to an existing tree.
-     * Reader: this in case we want a talking point regarding how computationally inefficient it is and the
-     * read vs write workload of this data structure (I have never used one in production).
+     * Add a new transaction to an existing tree. Only the nodes on the rightmost path, the ancestors of the new leaf,
+     * are rehashed. Levels are given spare capacity, doubling when it runs out, so the amortised cost of an append
+     * is O(log n) and the root matches a full rebuild.
      *
      * @param tx - the transaction to add
      */
     public void addTx(byte[] tx) {
-        List<byte[]> txs = values.subList(0, txSize);
-        txs.add(tx);
-        this.txSize = txs.size();
-        this.values = builder.build(txs);
+        addTxs(List.of(tx));
     }
-}
 
+    /**
+     * Appends transactions in order, rehashing each node on the new right edge of the tree once however many of
+     * its leaves were added.
+     *
+     * @param txs - the transactions to add
+     */
+    public void addTxs(List<byte[]> txs) {
+        if (txs.isEmpty()) return;
+        TreeMetrics metrics = this.metrics;
+        boolean timed = metrics != TreeMetrics.NONE;
+        long start = timed ? System.nanoTime() : 0;
+
+        if (proofCache != null) proofCache.appended();
+        // a single leaf tree's root doesn't follow the parent rule under REHASH_CHILDREN, so it's rebuilt instead
+        if (layout.leafCount() < 2 && hashing == NodeHashing.REHASH_CHILDREN) {
+            List<byte[]> all = leaves();
+            all.addAll(txs);
+            rebuild(all);
+            if (timed) metrics.appended(txs.size(), rehashCost(0, all.size() - 1), System.nanoTime() - start);
+            return;
+        }
+
+        int from = layout.leafCount();
+        int newSize = from + txs.size();
+        if (newSize > layout.capacity()) {
+            grow(Math.max(newSize, layout.capacity() * 2));
+        }
+        for (int i = 0; i < txs.size(); i++) {
+            values.set(layout.node(0, from + i), hashing.leaf(hashFn, txs.get(i)));
+        }
+        this.layout = layout.withLeafCount(newSize);
+        long hashes = rehash(from, newSize - 1);
+        values.flush();
+        if (timed) metrics.appended(txs.size(), hashes, System.nanoTime() - start);
+    }
+
+    /**
+     * Recomputes every ancestor of the leaves [from, to] once, level by level up to the root.
+     *
+     * @return digests computed
+     */
+    private long rehash(int from, int to) {
+        long hashes = rehashCost(from, to);
+        for (int level = 1; level < layout.levels(); level++) {
+            from = getParentIndex(from);
+            to = getParentIndex(to);
+            nodeHasher.combineRange(values, layout.start(level - 1), layout.size(level - 1), layout.start(level), from,
+                    to + 1, level == 1);
+        }
+        return hashes;
+    }
+
+    /**
+     * Digests computed storing the leaves [from, to] and rehashing their ancestors, see NodeHashing. A single leaf
+     * REHASH_CHILDREN tree only hashes its leaf.
+     */
+    private long rehashCost(int from, int to) {
+        if (layout.leafCount() == 1 && hashing == NodeHashing.REHASH_CHILDREN) return 1;
+        long hashes = hashing.leafDigests(to - from + 1);
+        for (int level = 1; level < layout.levels(); level++) {
+            int children = Math.min(2 * (to / 2) + 2, layout.size(level - 1)) - 2 * (from / 2);
+            from /= 2;
+            to /= 2;
+            hashes += hashing.parentDigests(to - from + 1, children);
+        }
+        return hashes;
+    }
+
+    private void combineAll(int level, int[] parents, int offset, int count) {
+        nodeHasher.combineAll(values, layout.start(level - 1), layout.size(level - 1), layout.start(level), parents,
+                offset, count, level == 1);
+    }
+
+    /**
+     * Moves the tree into a store laid out for capacity leaves.
+     */
+    private void grow(int capacity) {
+        List<byte[]> leaves = leaves();
+        while (leaves.size() < capacity) {
+            leaves.add(null);
+        }
+
+        TreeLayout grownLayout = TreeLayout.of(layout.leafCount(), capacity);
+        NodeStore grown = values.newStore(leaves, grownLayout.nodeCount());
+        for (int level = 1; level < layout.levels(); level++) {
+            for (int i = 0; i < layout.size(level); i++) {
+                values.copy(layout.node(level, i), grown, grownLayout.node(level, i));
+            }
+        }
+
+        this.values = grown;
+        this.layout = grownLayout;
+    }
+
+    private List<byte[]> leaves() {
+        List<byte[]> leaves = new ArrayList<>(layout.leafCount() + 1);
+        for (int i = 0; i < layout.leafCount(); i++) {
+            leaves.add(values.get(layout.node(0, i)));
+        }
+        return leaves;
+    }
+
+    private void rebuild(List<byte[]> txs) {
+        use(builder.build(txs), txs.size());
+    }
+
+    private void use(NodeStore values, int txSize) {
+        this.values = values;
+        this.layout = TreeLayout.of(txSize);
+    }
+}
@@ -0,0 +1,134 @@
+package com.philipgloyne;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TreeMetrics kept in memory: latency histograms of builds, proofs, updates, appends and lock waits, digests
+ * computed by updates and appends, and the time and nodes of each built level summed over every build. Shared
+ * freely between builders and trees, recording is lock free and allocates nothing.
+ */
+public final class MetricsRecorder implements TreeMetrics {
+
+    private static final int MAX_LEVELS = 64;
+
+    private final AtomicLongArray levelNanos = new AtomicLongArray(MAX_LEVELS);
+    private final AtomicLongArray levelNodes = new AtomicLongArray(MAX_LEVELS);
+    private final LatencyHistogram builds = new LatencyHistogram();
+    private final LatencyHistogram proofs = new LatencyHistogram();
+    private final LatencyHistogram updates = new LatencyHistogram();
+    private final LatencyHistogram appends = new LatencyHistogram();
+    private final LatencyHistogram readLockWaits = new LatencyHistogram();
+    private final LatencyHistogram writeLockWaits = new LatencyHistogram();
+    private final LongAdder updatedLeaves = new LongAdder();
+    private final LongAdder updateHashes = new LongAdder();
+    private final LongAdder appendedLeaves = new LongAdder();
+    private final LongAdder appendHashes = new LongAdder();
+
+    @Override
+    public void levelBuilt(int level, int nodes, long nanos) {
+        levelNanos.addAndGet(level, nanos);
+        levelNodes.addAndGet(level, nodes);
+    }
+
+    @Override
+    public void treeBuilt(int leaves, long nanos) {
+        builds.record(nanos);
+    }
+
+    @Override
+    public void proofCreated(long nanos) {
+        proofs.record(nanos);
+    }
+
+    @Override
+    public void updated(int leaves, long hashes, long nanos) {
+        updates.record(nanos);
+        updatedLeaves.add(leaves);
+        updateHashes.add(hashes);
+    }
+
+    @Override
+    public void appended(int leaves, long hashes, long nanos) {
+        appends.record(nanos);
+        appendedLeaves.add(leaves);
+        appendHashes.add(hashes);
+    }
+
+    @Override
+    public void lockWaited(boolean write, long nanos) {
+        (write ? writeLockWaits : readLockWaits).record(nanos);
+    }
+
+    /**
+     * Time spent building level, summed over every build.
+     */
+    public long levelNanos(int level) {
+        return levelNanos.get(level);
+    }
+
+    /**
+     * Nodes built at level, summed over every build.
+     */
+    public long levelNodes(int level) {
+        return levelNodes.get(level);
+    }
+
+    public LatencyHistogram builds() {
+        return builds;
+    }
+
+    public LatencyHistogram proofs() {
+        return proofs;
+    }
+
+    /**
+     * Latency of updateTx and updateTxs calls, a batch counting once.
+     */
+    public LatencyHistogram updates() {
+        return updates;
+    }
+
+    public LatencyHistogram appends() {
+        return appends;
+    }
+
+    public LatencyHistogram readLockWaits() {
+        return readLockWaits;
+    }
+
+    public LatencyHistogram writeLockWaits() {
+        return writeLockWaits;
+    }
+
+    public long updatedLeaves() {
+        return updatedLeaves.sum();
+    }
+
+    /**
+     * Digests computed by updates, leaves hashed on the way up included.
+     */
+    public long updateHashes() {
+        return updateHashes.sum();
+    }
+
+    public long appendedLeaves() {
+        return appendedLeaves.sum();
+    }
+
+    public long appendHashes() {
+        return appendHashes.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder levels = new StringBuilder();
+        for (int level = 1; level < MAX_LEVELS && levelNodes(level) > 0; level++) {
+            if (levels.length() > 0) levels.append(", ");
+            levels.append(level).append('=').append(levelNanos(level) / 1000).append("us/").append(levelNodes(level));
+        }
+        return "MetricsRecorder{builds=" + builds + ", levels=[" + levels + "], proofs=" + proofs + ", updates="
+                + updates + ", updateHashes=" + updateHashes() + ", appends=" + appends + ", appendHashes="
+                + appendHashes() + ", readLockWaits=" + readLockWaits + ", writeLockWaits=" + writeLockWaits + "}";
+    }
+}
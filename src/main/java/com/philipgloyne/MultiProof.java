@@ -0,0 +1,44 @@
+package com.philipgloyne;
+
+import java.util.List;
+
+/**
+ * Proof for several leaves of the same tree at once. Siblings that can be computed from the proven leaves are left
+ * out, so hashes holds only the nodes a verifier can't derive, in the order they are consumed. Working up the tree
+ * level by level, left to right, there is one flag per node that has a sibling: TRUE when the sibling is the next
+ * proven (or computed) node, FALSE when it is the next entry of hashes.
+ */
+public final class MultiProof {
+
+    private final int leafCount;
+    private final int[] indexes;
+    private final List<byte[]> hashes;
+    private final boolean[] flags;
+
+    /**
+     * @param leafCount - number of leaves in the tree, determines which nodes have no sibling
+     * @param indexes   - proven leaf indexes in ascending order
+     */
+    public MultiProof(int leafCount, int[] indexes, List<byte[]> hashes, boolean[] flags) {
+        this.leafCount = leafCount;
+        this.indexes = indexes.clone();
+        this.hashes = List.copyOf(hashes);
+        this.flags = flags.clone();
+    }
+
+    public int leafCount() {
+        return leafCount;
+    }
+
+    public int[] indexes() {
+        return indexes.clone();
+    }
+
+    public List<byte[]> hashes() {
+        return hashes;
+    }
+
+    public boolean[] flags() {
+        return flags.clone();
+    }
+}
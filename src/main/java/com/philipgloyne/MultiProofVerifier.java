@@ -0,0 +1,79 @@
+package com.philipgloyne;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recomputes a root from a set of leaves and their MultiProof, without access to the tree. Uses the same node
+ * convention as the builders, see NodeHasher, or the tree's NodeHashing where one is given.
+ */
+public final class MultiProofVerifier {
+
+    private MultiProofVerifier() {
+    }
+
+    /**
+     * TRUE if the leaves, given in the order of proof.indexes(), together with the proof hash up to root.
+     */
+    public static boolean verify(byte[] root, List<byte[]> leaves, MultiProof proof, HashAlgorithm hashFn) {
+        return verify(root, leaves, proof, hashFn, NodeHashing.REHASH_CHILDREN);
+    }
+
+    /**
+     * As verify for a tree whose nodes follow hashing.
+     */
+    public static boolean verify(byte[] root, List<byte[]> leaves, MultiProof proof, HashAlgorithm hashFn,
+                                 NodeHashing hashing) {
+        int[] nodes = proof.indexes();
+        int leafCount = proof.leafCount();
+        if (nodes.length == 0 || leaves.size() != nodes.length) return false;
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] < 0 || nodes[i] >= leafCount || (i > 0 && nodes[i] <= nodes[i - 1])) return false;
+        }
+        if (leafCount == 1) return Arrays.equals(root, hashing.singleLeafRoot(hashFn, leaves.get(0)));
+
+        List<byte[]> hashes = proof.hashes();
+        boolean[] flags = proof.flags();
+        byte[][] values = new byte[nodes.length][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = hashing.leaf(hashFn, leaves.get(i));
+        }
+        int[] levelSizes = TreeBuilder.levelSizes(leafCount);
+        int count = nodes.length;
+        int hashPos = 0;
+        int flagPos = 0;
+
+        for (int level = 0; level < levelSizes.length - 1; level++) {
+            int parents = 0;
+            for (int i = 0; i < count; i++) {
+                int node = nodes[i];
+                int sibling = (node % 2 == 0) ? node + 1 : node - 1;
+                byte[] value = values[i];
+                byte[] parent;
+
+                if (sibling >= levelSizes[level]) {
+                    parent = hashing.parent(hashFn, value, null);
+                } else {
+                    if (flagPos >= flags.length) return false;
+                    byte[] siblingValue;
+                    if (flags[flagPos++]) {
+                        if (i + 1 >= count || nodes[i + 1] != sibling) return false;
+                        siblingValue = values[++i];
+                    } else {
+                        if (hashPos >= hashes.size()) return false;
+                        siblingValue = hashes.get(hashPos++);
+                    }
+                    parent = (node % 2 == 0)
+                            ? hashing.parent(hashFn, value, siblingValue)
+                            : hashing.parent(hashFn, siblingValue, value);
+                }
+
+                nodes[parents] = node / 2;
+                values[parents++] = parent;
+            }
+            count = parents;
+        }
+
+        return hashPos == hashes.size() && flagPos == flags.length && Arrays.equals(root, values[0]);
+    }
+}
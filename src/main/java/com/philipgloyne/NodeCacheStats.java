@@ -0,0 +1,91 @@
+package com.philipgloyne;
+
+/**
+ * Counters of a {@link TieredNodeStore} at one point in time. Reads of pinned nodes and of leaves bypass the cache
+ * and are counted apart from the hits and misses of the levels in between.
+ */
+public final class NodeCacheStats {
+
+    private final long pinnedReads;
+    private final long leafReads;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int pinnedNodes;
+    private final long pinnedBytes;
+    private final int cachedNodes;
+    private final long cachedBytes;
+    private final long budgetBytes;
+
+    public NodeCacheStats(long pinnedReads, long leafReads, long hits, long misses, long evictions, int pinnedNodes,
+                          long pinnedBytes, int cachedNodes, long cachedBytes, long budgetBytes) {
+        this.pinnedReads = pinnedReads;
+        this.leafReads = leafReads;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.pinnedNodes = pinnedNodes;
+        this.pinnedBytes = pinnedBytes;
+        this.cachedNodes = cachedNodes;
+        this.cachedBytes = cachedBytes;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public long pinnedReads() {
+        return pinnedReads;
+    }
+
+    public long leafReads() {
+        return leafReads;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Share of cache lookups served without reading the backing store, NaN before the first lookup.
+     */
+    public double hitRate() {
+        return (double) hits / (hits + misses);
+    }
+
+    public int pinnedNodes() {
+        return pinnedNodes;
+    }
+
+    public long pinnedBytes() {
+        return pinnedBytes;
+    }
+
+    public int cachedNodes() {
+        return cachedNodes;
+    }
+
+    /**
+     * Bytes charged against the budget, node bytes plus {@link TieredNodeStore#ENTRY_OVERHEAD} per node.
+     */
+    public long cachedBytes() {
+        return cachedBytes;
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeCacheStats{pinnedReads=" + pinnedReads + ", leafReads=" + leafReads + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + ", pinnedNodes=" + pinnedNodes + ", pinnedBytes=" + pinnedBytes
+                + ", cachedNodes=" + cachedNodes + ", cachedBytes=" + cachedBytes + ", budgetBytes=" + budgetBytes
+                + "}";
+    }
+}
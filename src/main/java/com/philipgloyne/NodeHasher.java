@@ -0,0 +1,286 @@
+package com.philipgloyne;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes a parent node from its children in a NodeStore following a NodeHashing convention, by default the way the
+ * builders always have: parent = H(H(left) || H(right)), or H(H(left) || "") for a node without a right sibling.
+ * Under HASH_LEAVES_ONCE children are already hashes and go into the pair as they are.
+ * <p>
+ * Fixed width algorithms work through per-thread scratch space, so computing a parent allocates nothing and the
+ * pair is fed to the digest as two halves rather than concatenated. Runs of parents are hashed in batches through
+ * HashAlgorithm.digestAll and hashPairs, so algorithms that hash several messages at once see a whole batch.
+ */
+final class NodeHasher {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Parents hashed per batch.
+     */
+    static final int BATCH = 256;
+
+    /**
+     * Longest leaves that are copied together to be hashed as a batch, longer ones are hashed one at a time.
+     */
+    private static final int MAX_BATCHED_LEAF = 256;
+
+    private final HashAlgorithm hashFn;
+    private final NodeHashing hashing;
+    private final int width;
+    private final ThreadLocal<byte[]> scratch;
+    private final ThreadLocal<Batch> batch;
+
+    NodeHasher(HashAlgorithm hashFn) {
+        this(hashFn, NodeHashing.REHASH_CHILDREN);
+    }
+
+    NodeHasher(HashAlgorithm hashFn, NodeHashing hashing) {
+        this.hashFn = hashFn;
+        this.hashing = hashing;
+        this.width = hashFn.digestLength();
+        // [0, w) H(left) | [w, 2w) H(right) | [2w, 3w) node being read or the parent written
+        this.scratch = ThreadLocal.withInitial(() -> new byte[3 * Math.max(width, 0)]);
+        this.batch = ThreadLocal.withInitial(() -> new Batch(Math.max(width, 0)));
+    }
+
+    /**
+     * Writes the parent of left and right (-1 when left has no sibling) into the parent slot.
+     *
+     * @param leafChildren - children are raw leaves which are hashed directly rather than read into scratch space
+     */
+    void combine(NodeStore store, int left, int right, int parent, boolean leafChildren) {
+        if (width <= 0) {
+            store.set(parent, hashing.parent(hashFn, store.get(left), right >= 0 ? store.get(right) : null));
+            return;
+        }
+
+        byte[] buf = scratch.get();
+        boolean once = hashing == NodeHashing.HASH_LEAVES_ONCE;
+        if (once) {
+            store.read(left, buf, 0);
+        } else {
+            hashChild(store, left, leafChildren, buf, 0);
+        }
+        int rightLength = 0;
+        if (right >= 0) {
+            if (once) {
+                store.read(right, buf, width);
+            } else {
+                hashChild(store, right, leafChildren, buf, width);
+            }
+            rightLength = width;
+        }
+        hashFn.hashPairInto(buf, 0, width, buf, width, rightLength, buf, 2 * width);
+        store.write(parent, buf, 2 * width, width);
+    }
+
+    /**
+     * Writes the parents [from, to) of a level into the level starting at parentStart, the children being the
+     * childCount nodes from childStart.
+     *
+     * @param leafChildren - children are raw leaves which are hashed directly rather than read into scratch space
+     */
+    void combineRange(NodeStore store, int childStart, int childCount, int parentStart, int from, int to,
+                      boolean leafChildren) {
+        for (int lo = from; lo < to; lo += BATCH) {
+            int count = Math.min(BATCH, to - lo);
+            if (width <= 0) {
+                for (int i = lo; i < lo + count; i++) {
+                    combineChildren(store, childStart, childCount, parentStart, i, leafChildren);
+                }
+            } else {
+                combineBatch(store, childStart, childCount, parentStart, null, lo, count, leafChildren);
+            }
+        }
+    }
+
+    /**
+     * As combineRange for count parents listed in ascending order from parents[offset], e.g. the dirty nodes of a
+     * level in a batch update.
+     */
+    void combineAll(NodeStore store, int childStart, int childCount, int parentStart, int[] parents, int offset,
+                    int count, boolean leafChildren) {
+        for (int lo = offset; lo < offset + count; lo += BATCH) {
+            int batchCount = Math.min(BATCH, offset + count - lo);
+            if (width <= 0) {
+                for (int i = lo; i < lo + batchCount; i++) {
+                    combineChildren(store, childStart, childCount, parentStart, parents[i], leafChildren);
+                }
+            } else {
+                combineBatch(store, childStart, childCount, parentStart, parents, lo, batchCount, leafChildren);
+            }
+        }
+    }
+
+    private void combineChildren(NodeStore store, int childStart, int childCount, int parentStart, int parent,
+                                 boolean leafChildren) {
+        int left = parent * 2;
+        int right = (left + 1 < childCount) ? childStart + left + 1 : -1;
+        combine(store, childStart + left, right, parentStart + parent, leafChildren);
+    }
+
+    /**
+     * Hashes count parents, parents[first..] or the run from first when parents is null. Children are hashed in one
+     * digestAll and the pairs in one hashPairs call, only a last parent without a right child is hashed on its own.
+     */
+    private void combineBatch(NodeStore store, int childStart, int childCount, int parentStart, int[] parents,
+                              int first, int count, boolean leafChildren) {
+        Batch buf = batch.get();
+        boolean once = hashing == NodeHashing.HASH_LEAVES_ONCE;
+        int lone = -1;
+        for (int j = 0; j < count; j++) {
+            int parent = parents == null ? first + j : parents[first + j];
+            int left = parent * 2;
+            if (left + 1 >= childCount) {
+                lone = j;
+            }
+            if (once || !leafChildren) {
+                // children that are already hashes are read straight into the pairs
+                byte[] dst = once ? buf.hashed : buf.children;
+                store.read(childStart + left, dst, 2 * j * width);
+                if (left + 1 < childCount) {
+                    store.read(childStart + left + 1, dst, (2 * j + 1) * width);
+                }
+            }
+        }
+        if (!once && leafChildren) {
+            hashLeaves(store, childStart, childCount, parents, first, count, buf);
+        } else if (!once) {
+            // a missing right child leaves stale bytes in its slot, they are hashed but never used
+            hashFn.digestAll(buf.children, 0, width, buf.hashed, 0, 2 * count);
+        }
+
+        hashFn.hashPairs(buf.hashed, 0, buf.parents, 0, count);
+        if (lone >= 0) {
+            hashFn.hashPairInto(buf.hashed, 2 * lone * width, width, EMPTY, 0, 0, buf.parents, lone * width);
+        }
+        for (int j = 0; j < count; j++) {
+            int parent = parents == null ? first + j : parents[first + j];
+            store.write(parentStart + parent, buf.parents, j * width, width);
+        }
+    }
+
+    /**
+     * Leaf digests into the hashed slots. Leaves of the same length, as a level's transactions usually are, are
+     * copied together and hashed as one batch.
+     */
+    private void hashLeaves(NodeStore store, int childStart, int childCount, int[] parents, int first, int count,
+                            Batch buf) {
+        int length = -1;
+        boolean uniform = true;
+        for (int j = 0; j < count && uniform; j++) {
+            int left = (parents == null ? first + j : parents[first + j]) * 2;
+            for (int child = left; child < Math.min(left + 2, childCount); child++) {
+                int leafLength = store.get(childStart + child).length;
+                if (leafLength > MAX_BATCHED_LEAF || (length >= 0 && length != leafLength)) {
+                    uniform = false;
+                }
+                length = leafLength;
+            }
+        }
+
+        if (uniform) {
+            byte[] leaves = buf.leaves(2 * count * length);
+            for (int j = 0; j < count; j++) {
+                int left = (parents == null ? first + j : parents[first + j]) * 2;
+                for (int child = left; child < Math.min(left + 2, childCount); child++) {
+                    System.arraycopy(store.get(childStart + child), 0, leaves, (2 * j + child - left) * length, length);
+                }
+            }
+            hashFn.digestAll(leaves, 0, length, buf.hashed, 0, 2 * count);
+            return;
+        }
+
+        for (int j = 0; j < count; j++) {
+            int left = (parents == null ? first + j : parents[first + j]) * 2;
+            for (int child = left; child < Math.min(left + 2, childCount); child++) {
+                byte[] tx = store.get(childStart + child);
+                hashFn.digestInto(tx, 0, tx.length, buf.hashed, (2 * j + child - left) * width);
+            }
+        }
+    }
+
+    /**
+     * Leaf hashes of txs [from, to) into out, for HASH_LEAVES_ONCE builds. Runs of leaves of the same length are
+     * hashed BATCH at a time through digestAll.
+     */
+    void hashLeaves(List<byte[]> txs, int from, int to, byte[][] out) {
+        if (width <= 0) {
+            for (int i = from; i < to; i++) {
+                out[i] = hashFn.hash(txs.get(i));
+            }
+            return;
+        }
+
+        Batch buf = batch.get();
+        for (int lo = from; lo < to; lo += 2 * BATCH) {
+            int count = Math.min(2 * BATCH, to - lo);
+            int length = txs.get(lo).length;
+            boolean uniform = length <= MAX_BATCHED_LEAF;
+            for (int i = lo + 1; i < lo + count && uniform; i++) {
+                uniform = txs.get(i).length == length;
+            }
+            if (!uniform) {
+                for (int i = lo; i < lo + count; i++) {
+                    out[i] = hashFn.hash(txs.get(i));
+                }
+                continue;
+            }
+
+            byte[] leaves = buf.leaves(count * length);
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(txs.get(lo + i), 0, leaves, i * length, length);
+            }
+            hashFn.digestAll(leaves, 0, length, buf.hashed, 0, count);
+            for (int i = 0; i < count; i++) {
+                out[lo + i] = Arrays.copyOfRange(buf.hashed, i * width, (i + 1) * width);
+            }
+        }
+    }
+
+    /**
+     * Parent of two node values, right is null for a node without a sibling. For verifiers working on proof values
+     * rather than a store.
+     */
+    static byte[] parent(HashAlgorithm hashFn, byte[] left, byte[] right) {
+        byte[] hash2 = right != null ? hashFn.hash(right) : EMPTY;
+        return hashFn.hashPair(hashFn.hash(left), hash2);
+    }
+
+    private void hashChild(NodeStore store, int index, boolean leaf, byte[] buf, int outOffset) {
+        if (leaf) {
+            byte[] tx = store.get(index);
+            hashFn.digestInto(tx, 0, tx.length, buf, outOffset);
+        } else {
+            store.read(index, buf, 2 * width);
+            hashFn.digestInto(buf, 2 * width, width, buf, outOffset);
+        }
+    }
+
+
+    /**
+     * Per-thread space for a batch: children read from the store, their digests and the parents.
+     */
+    private static final class Batch {
+
+        private final byte[] children;
+        private final byte[] hashed;
+        private final byte[] parents;
+        private byte[] leaves = new byte[0];
+
+        Batch(int width) {
+            this.children = new byte[2 * BATCH * width];
+            this.hashed = new byte[2 * BATCH * width];
+            this.parents = new byte[BATCH * width];
+        }
+
+        byte[] leaves(int length) {
+            if (leaves.length < length) {
+                leaves = new byte[length];
+            }
+            return leaves;
+        }
+    }
+}
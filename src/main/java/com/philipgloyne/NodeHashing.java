@@ -0,0 +1,63 @@
+package com.philipgloyne;
+
+/**
+ * How a tree's nodes are derived from its transactions. A builder picks the convention (see
+ * {@link TreeBuilder#hashing()}), the tree then keeps to it in updates, appends and proofs, and a verifier has to be
+ * told the same one as it's told the hash algorithm.
+ */
+public enum NodeHashing {
+
+    /**
+     * Leaves are the transactions themselves and parent = H(H(left) || H(right)), H(H(left) || "") for a node without
+     * a sibling, so every node is hashed again as a child: three digests a parent. A single leaf tree's root is H(tx).
+     * Proofs start with the sibling transaction. The convention trees have always used and the only one tree files
+     * are saved in.
+     */
+    REHASH_CHILDREN,
+
+    /**
+     * Leaves are H(tx), each transaction hashed once as it's added, and parent = H(left || right), H(left || "") for
+     * a node without a sibling: one digest a node, about 2n for a build over n leaves rather than 3n. Every proof
+     * entry is a hash, the first the sibling's leaf hash. A single leaf tree follows the same rule, its root is
+     * H(H(tx) || "").
+     */
+    HASH_LEAVES_ONCE;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * The leaf node stored for tx.
+     */
+    byte[] leaf(HashAlgorithm hashFn, byte[] tx) {
+        return this == REHASH_CHILDREN ? tx : hashFn.hash(tx);
+    }
+
+    /**
+     * Parent of two node values, right is null for a node without a sibling.
+     */
+    byte[] parent(HashAlgorithm hashFn, byte[] left, byte[] right) {
+        if (this == REHASH_CHILDREN) return NodeHasher.parent(hashFn, left, right);
+        return hashFn.hashPair(left, right != null ? right : EMPTY);
+    }
+
+    /**
+     * Root of a tree whose only leaf is tx.
+     */
+    byte[] singleLeafRoot(HashAlgorithm hashFn, byte[] tx) {
+        return this == REHASH_CHILDREN ? hashFn.hash(tx) : parent(hashFn, hashFn.hash(tx), null);
+    }
+
+    /**
+     * Digests computed turning transactions into leaves.
+     */
+    long leafDigests(int leaves) {
+        return this == REHASH_CHILDREN ? 0 : leaves;
+    }
+
+    /**
+     * Digests computed hashing parents from their children.
+     */
+    long parentDigests(int parents, int children) {
+        return this == REHASH_CHILDREN ? parents + children : parents;
+    }
+}
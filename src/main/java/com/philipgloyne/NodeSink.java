@@ -0,0 +1,20 @@
+package com.philipgloyne;
+
+import java.io.IOException;
+
+/**
+ * Receives the nodes of a tree as a StreamingTreeBuilder completes them. Nodes of each level arrive in index order,
+ * but levels are interleaved, a parent arrives as soon as its children do.
+ */
+public interface NodeSink {
+
+    /**
+     * @param level - 0 for the leaves, which are the raw transactions
+     */
+    void node(int level, byte[] value) throws IOException;
+
+    /**
+     * Called once every node has been passed on.
+     */
+    void finish(int leafCount) throws IOException;
+}
@@ -0,0 +1,86 @@
+package com.philipgloyne;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The nodes of a tree addressed by their position in the level ordered layout, leaves first and the root last.
+ * Replaces the List&lt;byte[]&gt; that used to back a MerkleTree so fixed width hashes can live in one contiguous buffer.
+ */
+public interface NodeStore {
+
+    int size();
+
+    /**
+     * @param index of node
+     * @return the node value, implementations backed by a buffer return a copy
+     */
+    byte[] get(int index);
+
+    void set(int index, byte[] value);
+
+    /**
+     * Copies the node at index into dst at offset.
+     *
+     * @return length of the node
+     */
+    default int read(int index, byte[] dst, int offset) {
+        byte[] value = get(index);
+        System.arraycopy(value, 0, dst, offset, value.length);
+        return value.length;
+    }
+
+    /**
+     * Copies the node at index into dst at its position, moving the position past it.
+     *
+     * @throws java.nio.BufferOverflowException if it doesn't fit, dst is then left unchanged
+     */
+    default void read(int index, ByteBuffer dst) {
+        dst.put(get(index));
+    }
+
+    /**
+     * Stores length bytes of src from offset as the node at index.
+     */
+    default void write(int index, byte[] src, int offset, int length) {
+        set(index, Arrays.copyOfRange(src, offset, offset + length));
+    }
+
+    /**
+     * TRUE if the node at index equals value, compared in place without copying the node out.
+     */
+    boolean matches(int index, byte[] value);
+
+    /**
+     * Copies the node at index into dstIndex of dst.
+     */
+    default void copy(int index, NodeStore dst, int dstIndex) {
+        dst.set(dstIndex, get(index));
+    }
+
+    /**
+     * Makes writes since the last flush durable, a no-op for stores held in memory.
+     */
+    default void flush() {
+    }
+
+    /**
+     * An empty store of the same kind as this one (width, on or off heap) with room for size nodes, the first
+     * leaves.size() of which hold the leaves.
+     */
+    NodeStore newStore(List<byte[]> leaves, int size);
+
+    /**
+     * Creates a store of size nodes whose first leaves.size() positions hold the leaves. Fixed width hash algorithms
+     * get a {@link BufferNodeStore}, anything else falls back to a {@link ListNodeStore}.
+     *
+     * @param direct - allocate the buffer off-heap
+     */
+    static NodeStore allocate(List<byte[]> leaves, int size, HashAlgorithm hashFn, boolean direct) {
+        int width = hashFn.digestLength();
+        return width > 0
+                ? new BufferNodeStore(leaves, size, width, direct)
+                : new ListNodeStore(leaves, size);
+    }
+}
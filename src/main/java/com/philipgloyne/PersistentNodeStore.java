@@ -0,0 +1,290 @@
+package com.philipgloyne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Node store whose versions share structure. Nodes live in pages of 16 reached through a 32 way trie, a write copies
+ * only its page and the trie path above it, so taking a snapshot is O(1) and the version it captured stays intact for
+ * any reader still using it while writes carry on.
+ * <p>
+ * A store is either a read only snapshot or the writable head. The head remembers which pages and branches it copied
+ * since the last snapshot and writes those in place, so a batch touching one page many times copies it once. Access
+ * to the head is synchronized so parallel batch updates can share it, snapshots are never locked.
+ */
+final class PersistentNodeStore implements NodeStore {
+
+    private static final int PAGE_SHIFT = 4;
+    private static final int PAGE_NODES = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_NODES - 1;
+    private static final int BRANCH_SHIFT = 5;
+    private static final int BRANCH_NODES = 1 << BRANCH_SHIFT;
+    private static final int BRANCH_MASK = BRANCH_NODES - 1;
+
+    private final int leafCount;
+    private final int size;
+    private final int width;
+    private final boolean readOnly;
+    private final Trie leaves;
+    private final Trie nodes;
+    // pages and branches created or copied by the head since its last snapshot
+    private Set<Object> owned;
+
+    /**
+     * A writable store of size nodes, the first leaves.size() holding the leaves.
+     *
+     * @param width - of internal nodes, which are packed into byte pages, or -1 to keep an array per node
+     */
+    PersistentNodeStore(List<byte[]> leaves, int size, int width) {
+        this.leafCount = leaves.size();
+        this.size = size;
+        this.width = width;
+        this.readOnly = false;
+        this.owned = newOwnedSet();
+        this.leaves = new Trie(pages(leafCount), page -> new Object[PAGE_NODES], owned);
+        this.nodes = new Trie(pages(size - leafCount),
+                page -> width > 0 ? new byte[PAGE_NODES * width] : new Object[PAGE_NODES], owned);
+        for (int i = 0; i < leafCount; i++) {
+            leafPage(i, true)[i & PAGE_MASK] = leaves.get(i);
+        }
+    }
+
+    private PersistentNodeStore(PersistentNodeStore head) {
+        this.leafCount = head.leafCount;
+        this.size = head.size;
+        this.width = head.width;
+        this.readOnly = true;
+        this.leaves = new Trie(head.leaves);
+        this.nodes = new Trie(head.nodes);
+    }
+
+    /**
+     * Wraps builder so every tree it builds comes back in a PersistentNodeStore.
+     */
+    static TreeBuilder persistent(TreeBuilder builder, HashAlgorithm hashFn) {
+        return new TreeBuilder() {
+            @Override
+            public NodeStore build(List<byte[]> txs) {
+                return copyOf(builder.build(txs), txs.size(), hashFn.digestLength());
+            }
+
+            @Override
+            public NodeHashing hashing() {
+                return builder.hashing();
+            }
+        };
+    }
+
+    static PersistentNodeStore copyOf(NodeStore src, int leafCount, int width) {
+        List<byte[]> leaves = new ArrayList<>(leafCount);
+        for (int i = 0; i < leafCount; i++) {
+            leaves.add(src.get(i));
+        }
+
+        // the root of an empty tree is "" which doesn't fit a fixed width slot
+        PersistentNodeStore store = new PersistentNodeStore(leaves, src.size(), leafCount > 0 ? width : -1);
+        for (int i = leafCount; i < src.size(); i++) {
+            src.copy(i, store, i);
+        }
+        return store;
+    }
+
+    /**
+     * The nodes as they are now, read only and unaffected by later writes to this store.
+     */
+    synchronized PersistentNodeStore snapshot() {
+        if (readOnly) return this;
+
+        PersistentNodeStore snapshot = new PersistentNodeStore(this);
+        owned = newOwnedSet();
+        return snapshot;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte[] get(int index) {
+        if (readOnly) return getNode(index);
+        synchronized (this) {
+            return getNode(index);
+        }
+    }
+
+    @Override
+    public void set(int index, byte[] value) {
+        if (index >= leafCount && width > 0) {
+            write(index, value, 0, value.length);
+            return;
+        }
+        synchronized (this) {
+            checkWritable();
+            if (index < leafCount) {
+                leafPage(index, true)[index & PAGE_MASK] = value;
+            } else {
+                int slot = slot(index);
+                ((Object[]) nodes.writablePage(slot >>> PAGE_SHIFT, owned))[slot & PAGE_MASK] = value;
+            }
+        }
+    }
+
+    @Override
+    public int read(int index, byte[] dst, int offset) {
+        if (index < leafCount || width <= 0) return NodeStore.super.read(index, dst, offset);
+        if (readOnly) return readNode(index, dst, offset);
+        synchronized (this) {
+            return readNode(index, dst, offset);
+        }
+    }
+
+    @Override
+    public void write(int index, byte[] src, int offset, int length) {
+        if (index < leafCount || width <= 0) {
+            NodeStore.super.write(index, src, offset, length);
+            return;
+        }
+        if (length != width) {
+            throw new IllegalArgumentException("expected a " + width + " byte node but was " + length);
+        }
+        synchronized (this) {
+            checkWritable();
+            int slot = slot(index);
+            byte[] page = (byte[]) nodes.writablePage(slot >>> PAGE_SHIFT, owned);
+            System.arraycopy(src, offset, page, (slot & PAGE_MASK) * width, width);
+        }
+    }
+
+    @Override
+    public boolean matches(int index, byte[] value) {
+        if (index < leafCount || width <= 0) return Arrays.equals(get(index), value);
+        if (value.length != width) return false;
+
+        byte[] node = new byte[width];
+        read(index, node, 0);
+        return Arrays.equals(node, value);
+    }
+
+    @Override
+    public NodeStore newStore(List<byte[]> leaves, int size) {
+        return new PersistentNodeStore(leaves, size, width);
+    }
+
+    private byte[] getNode(int index) {
+        if (index < leafCount) return (byte[]) leafPage(index, false)[index & PAGE_MASK];
+
+        int slot = slot(index);
+        Object page = nodes.page(slot >>> PAGE_SHIFT);
+        if (width <= 0) return (byte[]) ((Object[]) page)[slot & PAGE_MASK];
+        return Arrays.copyOfRange((byte[]) page, (slot & PAGE_MASK) * width, ((slot & PAGE_MASK) + 1) * width);
+    }
+
+    private int readNode(int index, byte[] dst, int offset) {
+        int slot = slot(index);
+        byte[] page = (byte[]) nodes.page(slot >>> PAGE_SHIFT);
+        System.arraycopy(page, (slot & PAGE_MASK) * width, dst, offset, width);
+        return width;
+    }
+
+    private Object[] leafPage(int index, boolean writable) {
+        return (Object[]) (writable ? leaves.writablePage(index >>> PAGE_SHIFT, owned) : leaves.page(index >>> PAGE_SHIFT));
+    }
+
+    private int slot(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException(index);
+        return index - leafCount;
+    }
+
+    private void checkWritable() {
+        if (readOnly) throw new UnsupportedOperationException("snapshots are read only");
+    }
+
+    private static int pages(int nodes) {
+        return (nodes + PAGE_NODES - 1) >>> PAGE_SHIFT;
+    }
+
+    private static Set<Object> newOwnedSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Pages indexed through branches of 32, the root is a page itself when there is only one.
+     */
+    private static final class Trie {
+
+        private final int depth;
+        private Object root;
+
+        Trie(int pages, IntFunction<Object> newPage, Set<Object> owned) {
+            int depth = 0;
+            for (long capacity = 1; capacity < pages; capacity <<= BRANCH_SHIFT) {
+                depth++;
+            }
+            this.depth = depth;
+            this.root = build(depth, 0, Math.max(pages, 1), newPage, owned);
+        }
+
+        Trie(Trie other) {
+            this.depth = other.depth;
+            this.root = other.root;
+        }
+
+        Object page(int page) {
+            Object node = root;
+            for (int level = depth; level > 0; level--) {
+                node = ((Object[]) node)[(page >>> (BRANCH_SHIFT * (level - 1))) & BRANCH_MASK];
+            }
+            return node;
+        }
+
+        /**
+         * The page, copying it and the branches above it first unless this edit already owns them.
+         */
+        Object writablePage(int page, Set<Object> owned) {
+            if (!owned.contains(root)) {
+                root = copy(root);
+                owned.add(root);
+            }
+            Object node = root;
+            for (int level = depth; level > 0; level--) {
+                Object[] branch = (Object[]) node;
+                int slot = (page >>> (BRANCH_SHIFT * (level - 1))) & BRANCH_MASK;
+                Object child = branch[slot];
+                if (!owned.contains(child)) {
+                    child = copy(child);
+                    owned.add(child);
+                    branch[slot] = child;
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        private static Object build(int level, int firstPage, int pages, IntFunction<Object> newPage,
+                                    Set<Object> owned) {
+            Object node;
+            if (level == 0) {
+                node = newPage.apply(firstPage);
+            } else {
+                Object[] branch = new Object[BRANCH_NODES];
+                int span = 1 << (BRANCH_SHIFT * (level - 1));
+                for (int i = 0; i < BRANCH_NODES && firstPage + i * span < pages; i++) {
+                    branch[i] = build(level - 1, firstPage + i * span, pages, newPage, owned);
+                }
+                node = branch;
+            }
+            owned.add(node);
+            return node;
+        }
+
+        private static Object copy(Object node) {
+            return node instanceof byte[] page ? page.clone() : ((Object[]) node).clone();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.philipgloyne;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Proofs of recently requested leaves, kept so skewed read traffic doesn't walk the same paths over and over. Enabled
+ * per tree with {@link MerkleTree#enableProofCache(int)}.
+ * <p>
+ * A cached proof is an immutable list keyed by its leaf index and the tree version it was read at, and a hit returns
+ * that list itself, shared with every other caller asking for the same leaf at the same version. Writers don't touch
+ * the cache: an update logs the leaf it changed and bumps the version. Changing leaf i changes exactly one node of
+ * the proof of any other leaf j, the sibling at the level where the paths of i and j meet, and none of the proof of
+ * i. So a proof found older than the tree replays the updates since it was read and publishes a new list re-reading
+ * only the nodes at the levels they touched, sharing the rest. Appends change the shape of the right edge and may
+ * move the levels, proofs from before an append are read again in full, as are proofs older than the update log
+ * reaches back.
+ * <p>
+ * The cache is direct mapped, leaf i lives in slot i modulo the slot count, so a run of consecutive leaves (the
+ * common hot set, recent transactions) never collides and a colliding leaf simply replaces the one in its slot.
+ * Entries are never changed once published, so readers take no locks.
+ */
+public final class ProofCache {
+
+    /**
+     * Updates remembered for bringing cached proofs up to date, older proofs are read again.
+     */
+    static final int LOG_SIZE = 64;
+
+    private static final int APPENDED = -1;
+
+    private final int maxProofs;
+    private final AtomicReferenceArray<Entry> slots;
+    // leaf changed by each version, written only by the tree's writers and published through version
+    private final int[] log = new int[LOG_SIZE];
+    private volatile long version;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    ProofCache(int maxProofs) {
+        if (maxProofs < 1) throw new IllegalArgumentException("maxProofs must be positive");
+        // slots are a power of two no larger than asked for, so the bound holds
+        this.maxProofs = Integer.highestOneBit(maxProofs);
+        this.slots = new AtomicReferenceArray<>(this.maxProofs);
+    }
+
+    /**
+     * Most proofs held at once, the requested size rounded down to a power of two.
+     */
+    public int maxProofs() {
+        return maxProofs;
+    }
+
+    /**
+     * Proofs held now.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) size++;
+        }
+        return size;
+    }
+
+    /**
+     * Proofs served from the cache, including those that had some nodes re-read.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Proofs read in full, because they weren't cached or were too old to bring up to date.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Hits that re-read the nodes changed by updates since the proof was cached.
+     */
+    public long refreshes() {
+        return refreshes.sum();
+    }
+
+    /**
+     * Share of proofs served from the cache, NaN before the first proof.
+     */
+    public double hitRate() {
+        long hits = hits();
+        return (double) hits / (hits + misses());
+    }
+
+    @Override
+    public String toString() {
+        return "ProofCache{size=" + size() + ", maxProofs=" + maxProofs + ", hits=" + hits() + ", misses=" + misses()
+                + ", refreshes=" + refreshes() + "}";
+    }
+
+    /**
+     * Records that leaf was changed, must not run alongside {@link #proof} or {@link #fill}.
+     */
+    void updated(int leaf) {
+        log[(int) ((version + 1) % LOG_SIZE)] = leaf;
+        version = version + 1;
+    }
+
+    /**
+     * Records that leaves were appended (or the tree rebuilt), must not run alongside {@link #proof} or
+     * {@link #fill}.
+     */
+    void appended() {
+        updated(APPENDED);
+    }
+
+    /**
+     * The current proof of leaf index, shared with the cache and other callers.
+     */
+    List<byte[]> proof(int index, NodeStore values, TreeLayout layout) {
+        return lookup(index, values, layout).proof;
+    }
+
+    /**
+     * Copies the current proof of leaf index into the start of proof, which has room for at least
+     * layout.proofLength(index) nodes. Fixed width entries of the right length are reused, others replaced, as the
+     * caller owns the arrays they are copied rather than shared.
+     */
+    void fill(int index, NodeStore values, TreeLayout layout, int width, byte[][] proof) {
+        Entry entry = lookup(index, values, layout);
+        for (int i = 0; i < entry.nodes.length; i++) {
+            byte[] node = entry.nodes[i];
+            if (entry.levels[i] > 0 && width > 0 && proof[i] != null && proof[i].length == width) {
+                System.arraycopy(node, 0, proof[i], 0, width);
+            } else {
+                proof[i] = node.clone();
+            }
+        }
+    }
+
+    private Entry lookup(int index, NodeStore values, TreeLayout layout) {
+        long now = version;
+        int slot = index & (maxProofs - 1);
+        Entry cached = slots.get(slot);
+        Entry entry = cached != null && cached.index == index ? catchUp(cached, now, values) : null;
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            entry = read(index, values, layout, now);
+        }
+        if (entry != cached) slots.set(slot, entry);
+        return entry;
+    }
+
+    /**
+     * Brings entry up to version now by re-reading the levels changed since it was read.
+     *
+     * @return entry itself if nothing changed, a new entry sharing the unchanged nodes, or null if it can't be
+     * brought up to date, it is from before an append or the log no longer reaches back to it
+     */
+    private Entry catchUp(Entry entry, long now, NodeStore values) {
+        if (entry.version == now) return entry;
+        if (now - entry.version > LOG_SIZE) return null;
+
+        long stale = 0;
+        for (long v = entry.version + 1; v <= now; v++) {
+            int leaf = log[(int) (v % LOG_SIZE)];
+            if (leaf == APPENDED) return null;
+            if (leaf != entry.index) {
+                stale |= 1L << (31 - Integer.numberOfLeadingZeros(leaf ^ entry.index));
+            }
+        }
+
+        byte[][] nodes = entry.nodes;
+        if (stale != 0) {
+            refreshes.increment();
+            nodes = nodes.clone();
+            for (int i = 0; i < entry.levels.length; i++) {
+                if ((stale & (1L << entry.levels[i])) != 0) {
+                    nodes[i] = values.get(entry.positions[i]);
+                }
+            }
+        }
+        return new Entry(entry.index, now, entry.positions, entry.levels, nodes);
+    }
+
+    private static Entry read(int index, NodeStore values, TreeLayout layout, long version) {
+        int length = layout.proofLength(index);
+        int[] positions = new int[length];
+        int[] levels = new int[length];
+        byte[][] nodes = new byte[length][];
+
+        int count = 0;
+        int node = index;
+        for (int level = 0; level < layout.height(); level++) {
+            int sibling = node ^ 1;
+            if (sibling < layout.size(level)) {
+                positions[count] = layout.node(level, sibling);
+                levels[count] = level;
+                nodes[count] = values.get(positions[count]);
+                count++;
+            }
+            node >>= 1;
+        }
+        return new Entry(index, version, positions, levels, nodes);
+    }
+
+    /**
+     * The proof of index as of version, never changed once published. Positions and levels are shared by its
+     * refreshed copies, and nodes the refreshes didn't re-read.
+     */
+    private static final class Entry {
+
+        final int index;
+        final long version;
+        final int[] positions;
+        final int[] levels;
+        final byte[][] nodes;
+        final List<byte[]> proof;
+
+        Entry(int index, long version, int[] positions, int[] levels, byte[][] nodes) {
+            this.index = index;
+            this.version = version;
+            this.positions = positions;
+            this.levels = levels;
+            this.nodes = nodes;
+            this.proof = List.of(nodes);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.philipgloyne;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of single proofs, and of bundles carrying the root and the proven leaf along with the
+ * proof, for fixed width hash algorithms. Encoders write straight into a ByteBuffer and {@link #decode} reads one in
+ * place as an {@link EncodedProof}, which ProofVerifier checks without copying the hashes out.
+ * <pre>
+ * byte    format version
+ * byte    kind, 1 a proof, 2 a bundle, 3 a multiproof
+ * byte    hash width
+ * varint  leaf count
+ * varint  index of the proven leaf
+ * bundle only:
+ * width   root
+ * varint  length of the leaf, followed by the leaf
+ * proof:
+ * varint  length of the sibling leaf, followed by it, unless the leaf has no sibling
+ * width[] the rest of the proof from the level above the leaves up, one hash per level with a sibling
+ * </pre>
+ * A multiproof follows the leaf count with what MultiProof holds, its hashes may be leaves so each carries a length:
+ * <pre>
+ * varint  number of indexes, followed by them ascending, each as the difference from the one before
+ * varint  number of hashes, followed by each as a varint length and the bytes
+ * varint  number of flags, followed by them packed 8 to a byte, lowest bit first
+ * </pre>
+ * Varints are unsigned LEB128, 7 bits a byte low bits first. The number of hashes isn't written, it follows from the
+ * index and leaf count as it does for {@link MerkleTree#createProof(int)}.
+ */
+public final class ProofCodec {
+
+    static final int VERSION = 1;
+    static final int PROOF = 1;
+    static final int BUNDLE = 2;
+    static final int MULTI = 3;
+
+    private static final int HEADER_BYTES = 3;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private ProofCodec() {
+    }
+
+    /**
+     * Bytes needed for the largest proof or bundle of a tree with leafCount leaves whose leaves are at most
+     * maxLeafLength bytes, for sizing buffers.
+     */
+    public static int maxLength(int leafCount, int width, int maxLeafLength) {
+        int height = TreeBuilder.levelSizes(leafCount).length - 1;
+        // header, root, the leaf and its sibling, then a hash for every level above the leaves
+        return HEADER_BYTES + 2 * MAX_VARINT_BYTES + width + 2 * (MAX_VARINT_BYTES + maxLeafLength)
+                + Math.max(0, height - 1) * width;
+    }
+
+    /**
+     * Writes the proof of leaf index, as returned by MerkleTree.createProof, at the position of dst.
+     *
+     * @throws IllegalArgumentException if hashFn isn't fixed width or proof isn't the shape of a proof of index
+     * @throws BufferOverflowException  if dst is too small, its position is then left unchanged
+     */
+    public static void encode(ByteBuffer dst, int index, int leafCount, List<byte[]> proof, HashAlgorithm hashFn) {
+        int width = width(hashFn);
+        checkShape(index, leafCount, proof, width);
+        int start = dst.position();
+        try {
+            putHeader(dst, PROOF, width, leafCount, index);
+            putProof(dst, index, leafCount, proof);
+        } catch (BufferOverflowException e) {
+            dst.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a bundle of root, the leaf at index and its proof at the position of dst.
+     *
+     * @throws IllegalArgumentException if hashFn isn't fixed width or proof isn't the shape of a proof of index
+     * @throws BufferOverflowException  if dst is too small, its position is then left unchanged
+     */
+    public static void encodeBundle(ByteBuffer dst, byte[] root, byte[] leaf, int index, int leafCount,
+                                    List<byte[]> proof, HashAlgorithm hashFn) {
+        int width = width(hashFn);
+        checkShape(index, leafCount, proof, width);
+        if (root.length != width) throw new IllegalArgumentException("root isn't " + width + " bytes");
+        int start = dst.position();
+        try {
+            putHeader(dst, BUNDLE, width, leafCount, index);
+            dst.put(root);
+            putVarint(dst, leaf.length);
+            dst.put(leaf);
+            putProof(dst, index, leafCount, proof);
+        } catch (BufferOverflowException e) {
+            dst.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a multiproof at the position of dst.
+     *
+     * @throws IllegalArgumentException if hashFn isn't fixed width
+     * @throws BufferOverflowException  if dst is too small, its position is then left unchanged
+     */
+    public static void encodeMultiProof(ByteBuffer dst, MultiProof proof, HashAlgorithm hashFn) {
+        int width = width(hashFn);
+        int start = dst.position();
+        try {
+            int[] indexes = proof.indexes();
+            putHeader(dst, MULTI, width, proof.leafCount(), indexes.length);
+            int previous = 0;
+            for (int index : indexes) {
+                putVarint(dst, index - previous);
+                previous = index;
+            }
+            putVarint(dst, proof.hashes().size());
+            for (byte[] hash : proof.hashes()) {
+                putVarint(dst, hash.length);
+                dst.put(hash);
+            }
+            boolean[] flags = proof.flags();
+            putVarint(dst, flags.length);
+            for (int i = 0; i < flags.length; i += 8) {
+                int bits = 0;
+                for (int j = i; j < Math.min(i + 8, flags.length); j++) {
+                    if (flags[j]) bits |= 1 << (j - i);
+                }
+                dst.put((byte) bits);
+            }
+        } catch (BufferOverflowException e) {
+            dst.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the multiproof at the position of src and moves past it, unlike single proofs its hashes are copied out.
+     *
+     * @throws IllegalArgumentException if src doesn't hold a whole multiproof in a format this version understands
+     */
+    public static MultiProof decodeMultiProof(ByteBuffer src) {
+        int start = src.position();
+        int limit = src.limit();
+        if (limit - start < HEADER_BYTES || (src.get(start) & 0xFF) != VERSION || src.get(start + 1) != MULTI) {
+            throw new IllegalArgumentException("not an encoded multiproof of version " + VERSION);
+        }
+
+        int[] value = new int[1];
+        int pos = getVarint(src, start + HEADER_BYTES, limit, value);
+        int leafCount = value[0];
+        pos = getVarint(src, pos, limit, value);
+        // every entry takes at least a byte, which bounds the counts before anything is allocated for them
+        int[] indexes = new int[count(value[0], pos, limit)];
+        long previous = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            pos = getVarint(src, pos, limit, value);
+            previous += value[0];
+            if (previous >= leafCount) throw new IllegalArgumentException("multiproof index outside the tree");
+            indexes[i] = (int) previous;
+        }
+
+        pos = getVarint(src, pos, limit, value);
+        int hashCount = count(value[0], pos, limit);
+        List<byte[]> hashes = new ArrayList<>(hashCount);
+        for (int i = 0; i < hashCount; i++) {
+            pos = getVarint(src, pos, limit, value);
+            byte[] hash = new byte[count(value[0], pos, limit)];
+            src.get(pos, hash);
+            pos += hash.length;
+            hashes.add(hash);
+        }
+
+        pos = getVarint(src, pos, limit, value);
+        int flagBytes = count((int) ((value[0] + 7L) >> 3), pos, limit);
+        boolean[] flags = new boolean[value[0]];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = (src.get(pos + (i >> 3)) & (1 << (i & 7))) != 0;
+        }
+        src.position(pos + flagBytes);
+        return new MultiProof(leafCount, indexes, hashes, flags);
+    }
+
+    private static int count(int count, int pos, int limit) {
+        if (count > limit - pos) throw new IllegalArgumentException("encoded multiproof is truncated");
+        return count;
+    }
+
+    /**
+     * Reads the proof or bundle at the position of src and moves past it. A heap buffer is read in place, so the
+     * result is only valid until the buffer is reused, a direct one is copied.
+     *
+     * @throws IllegalArgumentException if src doesn't hold a whole proof in a format this version understands
+     */
+    public static EncodedProof decode(ByteBuffer src) {
+        return EncodedProof.read(src);
+    }
+
+    /**
+     * Hash width of hashFn, which must be fixed and fit a byte.
+     */
+    static int width(HashAlgorithm hashFn) {
+        int width = hashFn.digestLength();
+        if (width <= 0 || width > 255) {
+            throw new IllegalArgumentException("proofs can only be encoded for fixed width hash algorithms");
+        }
+        return width;
+    }
+
+    static void putHeader(ByteBuffer dst, int kind, int width, int leafCount, int index) {
+        dst.put((byte) VERSION);
+        dst.put((byte) kind);
+        dst.put((byte) width);
+        putVarint(dst, leafCount);
+        putVarint(dst, index);
+    }
+
+    /**
+     * Entries in the proof of index in a tree of leafCount leaves, counted without building the level sizes.
+     */
+    static int proofLength(int index, int leafCount) {
+        int count = 0;
+        for (int levelSize = leafCount; levelSize > 1; levelSize = (levelSize + 1) >> 1) {
+            if ((index ^ 1) < levelSize) count++;
+            index >>= 1;
+        }
+        return count;
+    }
+
+    static void putVarint(ByteBuffer dst, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    /**
+     * Reads the varint at position of src, not past limit, into value[0] and returns the position after it.
+     *
+     * @throws IllegalArgumentException if it runs past limit or doesn't fit an int
+     */
+    static int getVarint(ByteBuffer src, int position, int limit, int[] value) {
+        long result = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES && position < limit; i++) {
+            int b = src.get(position++);
+            result |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (result > Integer.MAX_VALUE) break;
+                value[0] = (int) result;
+                return position;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint in encoded proof");
+    }
+
+    private static void putProof(ByteBuffer dst, int index, int leafCount, List<byte[]> proof) {
+        int i = 0;
+        // only the sibling leaf can be of any length, so it alone carries one
+        if ((index ^ 1) < leafCount) {
+            putVarint(dst, proof.get(0).length);
+            dst.put(proof.get(i++));
+        }
+        for (; i < proof.size(); i++) {
+            dst.put(proof.get(i));
+        }
+    }
+
+    private static void checkShape(int index, int leafCount, List<byte[]> proof, int width) {
+        if (index < 0 || index >= leafCount) {
+            throw new IllegalArgumentException("index " + index + " is outside a tree of " + leafCount + " leaves");
+        }
+        int length = proofLength(index, leafCount);
+        if (proof.size() != length) {
+            throw new IllegalArgumentException("a proof of " + index + " in a tree of " + leafCount + " leaves has "
+                    + length + " entries, not " + proof.size());
+        }
+        for (int i = (index ^ 1) < leafCount ? 1 : 0; i < length; i++) {
+            if (proof.get(i).length != width) {
+                throw new IllegalArgumentException("proof entry " + i + " isn't " + width + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.philipgloyne;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Embeddable HTTP server for the proofs of a tree, built on the JDK's com.sun.net.httpserver:
+ * <pre>
+ * GET /root                      the root, with the leaf count in the Leaf-Count header
+ * GET /proof?index=i             a bundle of the root, leaf i and its proof, see ProofCodec
+ * GET /multiproof?index=i,j,...  a multiproof of the leaves, see ProofCodec.encodeMultiProof
+ * </pre>
+ * Each exchange gets a thread, a virtual thread where the runtime has them, which parks until its answer is ready.
+ * Answers are made by a single batching thread: it takes every request waiting, up to maxBatch, answers them in one
+ * {@link MerkleTree#read} pass, so a ThreadSafeMerkleTree is locked once per batch rather than once per request, and
+ * then wakes their threads. Batches are whatever arrived while the previous one was answered, nothing is held back
+ * waiting for a batch to fill, so a lone request is answered straight away. A pass that fails, even with an Error,
+ * fails only the requests of its batch and the batcher carries on.
+ */
+public final class ProofServer implements Closeable {
+
+    private static final int ROOT = 0;
+    private static final int PROOF = 1;
+    private static final int MULTI = 2;
+    private static final int SCRATCH_BYTES = 4096;
+    /**
+     * Longest a handler waits for its answer before giving up with 503, a backstop should the batcher stall.
+     */
+    private static final long ANSWER_TIMEOUT_SECONDS = 30;
+
+    private final MerkleTree tree;
+    private final HashAlgorithm hashFn;
+    private final int maxBatch;
+    private final BlockingQueue<Call> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final ExecutorService handlers;
+    private final HttpServer server;
+    private final Thread batcher;
+    private ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_BYTES);
+    private volatile boolean closed;
+
+    private ProofServer(InetSocketAddress address, MerkleTree tree, int maxBatch) throws IOException {
+        this.tree = tree;
+        this.hashFn = tree.getHashAlgorithm();
+        this.maxBatch = maxBatch;
+        ProofCodec.width(hashFn);
+        this.server = HttpServer.create(address, 0);
+        this.handlers = newHandlerExecutor();
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+        this.batcher = new Thread(this::serve, "proof-server-batcher");
+        batcher.setDaemon(true);
+    }
+
+    /**
+     * Starts serving tree at address, port 0 picks a free port, see {@link #address()}.
+     *
+     * @param tree     - must be safe to read while it's written to, a ThreadSafeMerkleTree or ConcurrentMerkleTree,
+     *                 unless nothing writes it while it's served
+     * @param maxBatch - most requests answered in one pass over the tree
+     * @throws IllegalArgumentException if the tree's hash algorithm isn't fixed width, which ProofCodec needs, or its
+     *                                  nodes don't keep the transactions a bundle carries (HASH_LEAVES_ONCE)
+     */
+    public static ProofServer start(InetSocketAddress address, MerkleTree tree, int maxBatch) throws IOException {
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be positive");
+        if (tree.getNodeHashing() != NodeHashing.REHASH_CHILDREN) {
+            throw new IllegalArgumentException("bundles need the transactions of a REHASH_CHILDREN tree");
+        }
+        ProofServer server = new ProofServer(address, tree, maxBatch);
+        server.batcher.start();
+        server.server.start();
+        return server;
+    }
+
+    /**
+     * The address the server is listening on.
+     */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    /**
+     * Requests answered so far, over {@link #batchCount()} the mean batch size.
+     */
+    public long requestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Passes made over the tree so far.
+     */
+    public long batchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Requests waiting for the next batch.
+     */
+    int waiting() {
+        return queue.size();
+    }
+
+    /**
+     * Stops listening and fails requests not yet answered, exchanges in progress are cut off.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        server.stop(0);
+        batcher.interrupt();
+        try {
+            batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failWaiting();
+        handlers.shutdown();
+    }
+
+    /**
+     * One virtual thread per exchange where the runtime has them (Java 21 on), otherwise a cached pool of daemon
+     * threads, looked up reflectively so the server builds and runs on either.
+     */
+    private static ExecutorService newHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "proof-server-handler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * A request waiting for the batcher, which fills in the result or error before completing done.
+     */
+    private static final class Call {
+
+        final int kind;
+        final int[] indexes;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        byte[] result;
+        int leafCount;
+        Throwable error;
+
+        Call(int kind, int[] indexes) {
+            this.kind = kind;
+            this.indexes = indexes;
+        }
+    }
+
+    private void serve() {
+        List<Call> batch = new ArrayList<>(Math.min(maxBatch, 1024));
+        try {
+            while (!closed) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+
+                try {
+                    tree.read(view -> {
+                        for (Call call : batch) {
+                            try {
+                                answer(view, call);
+                            } catch (RuntimeException e) {
+                                call.error = e;
+                            }
+                        }
+                    });
+                } catch (Throwable e) {
+                    // the pass itself failed, or an Error such as running out of memory growing the scratch
+                    // buffer: every call it didn't answer fails with it and the batcher carries on
+                    for (Call call : batch) {
+                        if (call.result == null && call.error == null) call.error = e;
+                    }
+                    scratch = ByteBuffer.allocate(SCRATCH_BYTES);
+                } finally {
+                    // woken after the pass so the tree isn't held while handlers are scheduled
+                    requests.addAndGet(batch.size());
+                    batches.incrementAndGet();
+                    for (Call call : batch) {
+                        call.done.complete(null);
+                    }
+                    batch.clear();
+                }
+            }
+        } finally {
+            // should the batcher ever stop, handlers fail fast rather than queueing calls nothing will answer
+            closed = true;
+            failWaiting();
+        }
+    }
+
+    private void answer(MerkleTree view, Call call) {
+        switch (call.kind) {
+            case ROOT -> {
+                call.leafCount = view.leafCount();
+                call.result = view.getRoot();
+            }
+            case PROOF -> call.result = encode(dst -> view.encodeProofBundle(call.indexes[0], dst));
+            default -> {
+                MultiProof proof = view.createMultiProof(call.indexes);
+                call.result = encode(dst -> ProofCodec.encodeMultiProof(dst, proof, hashFn));
+            }
+        }
+    }
+
+    /**
+     * Runs writer against the scratch buffer, doubling it until the answer fits, and copies the answer out.
+     */
+    private byte[] encode(Consumer<ByteBuffer> writer) {
+        while (true) {
+            scratch.clear();
+            try {
+                writer.accept(scratch);
+                return Arrays.copyOf(scratch.array(), scratch.position());
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(2 * scratch.capacity());
+            }
+        }
+    }
+
+    private void failWaiting() {
+        Call call;
+        while ((call = queue.poll()) != null) {
+            call.error = new IllegalStateException("server closed");
+            call.done.complete(null);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, "GET only");
+                return;
+            }
+            Call call;
+            try {
+                call = parse(exchange.getRequestURI());
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage());
+                return;
+            }
+            if (call == null) {
+                send(exchange, 404, "no such resource");
+                return;
+            }
+
+            queue.add(call);
+            // checked after queueing, a close that drained the queue before the call arrived is then seen here
+            if (closed) failWaiting();
+            try {
+                call.done.get(ANSWER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException | ExecutionException e) {
+                // never completed exceptionally, only an interrupt gets here
+                Thread.currentThread().interrupt();
+                send(exchange, 503, "interrupted");
+                return;
+            } catch (TimeoutException e) {
+                send(exchange, 503, "timed out waiting for an answer");
+                return;
+            }
+
+            if (call.error instanceof IndexOutOfBoundsException) {
+                send(exchange, 404, call.error.getMessage());
+            } else if (call.error instanceof IllegalStateException) {
+                send(exchange, 503, call.error.getMessage());
+            } else if (call.error != null) {
+                send(exchange, 500, String.valueOf(call.error));
+            } else {
+                if (call.kind == ROOT) {
+                    exchange.getResponseHeaders().set("Leaf-Count", Integer.toString(call.leafCount));
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.sendResponseHeaders(200, call.result.length);
+                exchange.getResponseBody().write(call.result);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The call for uri, null if there's no such resource.
+     *
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    private static Call parse(URI uri) {
+        String path = uri.getPath();
+        if (path.equals("/root")) return new Call(ROOT, null);
+        int kind = path.equals("/proof") ? PROOF : path.equals("/multiproof") ? MULTI : -1;
+        if (kind < 0) return null;
+
+        String query = uri.getRawQuery();
+        if (query == null || !query.startsWith("index=")) throw new IllegalArgumentException("expected ?index=");
+        String[] values = query.substring("index=".length()).split(",");
+        if (kind == PROOF && values.length != 1) throw new IllegalArgumentException("a proof is of one index");
+        int[] indexes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            indexes[i] = Integer.parseInt(values[i]);
+        }
+        return new Call(kind, indexes);
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,217 @@
+package com.philipgloyne;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies single proofs by hashing the leaf up to the root, so a verifier only needs the root and the leaf count,
+ * not the tree. Nodes are combined as the builders do (see NodeHasher), including the odd node at the end of a level
+ * that has no sibling and so no proof entry. Proofs of a tree built HASH_LEAVES_ONCE need the overloads taking its
+ * NodeHashing, the others assume REHASH_CHILDREN.
+ * <p>
+ * Fixed width algorithms work in one small scratch array per call through the *Into hashing methods.
+ */
+public final class ProofVerifier {
+
+    private ProofVerifier() {
+    }
+
+    /**
+     * TRUE if leaf at index of a tree with leafCount leaves hashes up to root through proof.
+     *
+     * @param proof - sibling path as returned by MerkleTree.createProof
+     */
+    public static boolean verify(byte[] root, byte[] leaf, int index, int leafCount, List<byte[]> proof,
+                                 HashAlgorithm hashFn) {
+        return verify(root, leaf, index, leafCount, proof, hashFn, NodeHashing.REHASH_CHILDREN);
+    }
+
+    /**
+     * As verify for a tree whose nodes follow hashing, see MerkleTree.getNodeHashing.
+     */
+    public static boolean verify(byte[] root, byte[] leaf, int index, int leafCount, List<byte[]> proof,
+                                 HashAlgorithm hashFn, NodeHashing hashing) {
+        if (index < 0 || index >= leafCount) return false;
+        if (leafCount == 1) return proof.isEmpty() && Arrays.equals(root, hashing.singleLeafRoot(hashFn, leaf));
+
+        int width = hashFn.digestLength();
+        if (width <= 0) return verifyVariableWidth(root, leaf, index, leafCount, proof, hashFn, hashing);
+
+        // under HASH_LEAVES_ONCE the node so far and the siblings are already hashes and are copied in as they are
+        boolean once = hashing == NodeHashing.HASH_LEAVES_ONCE;
+
+        // [0, w) H(left) | [w, 2w) H(right) | [2w, 3w) the node computed so far
+        byte[] buf = new byte[3 * width];
+        int node = index;
+        int levelSize = leafCount;
+        int proofPos = 0;
+
+        while (levelSize > 1) {
+            int self = (node % 2 == 0) ? 0 : width;
+            if (levelSize == leafCount) {
+                hashFn.digestInto(leaf, 0, leaf.length, buf, self);
+            } else if (once) {
+                System.arraycopy(buf, 2 * width, buf, self, width);
+            } else {
+                hashFn.digestInto(buf, 2 * width, width, buf, self);
+            }
+
+            int sibling = (node % 2 == 0) ? node + 1 : node - 1;
+            int rightLength = 0;
+            if (sibling < levelSize) {
+                if (proofPos == proof.size()) return false;
+                byte[] siblingValue = proof.get(proofPos++);
+                if (once) {
+                    if (siblingValue.length != width) return false;
+                    System.arraycopy(siblingValue, 0, buf, width - self, width);
+                } else {
+                    hashFn.digestInto(siblingValue, 0, siblingValue.length, buf, width - self);
+                }
+                rightLength = width;
+            }
+            hashFn.hashPairInto(buf, 0, width, buf, width, rightLength, buf, 2 * width);
+
+            node = node / 2;
+            levelSize = (levelSize + 1) >> 1;
+        }
+
+        return proofPos == proof.size() && Arrays.equals(root, 0, root.length, buf, 2 * width, 3 * width);
+    }
+
+    /**
+     * TRUE if leaf hashes up to root through an encoded proof, hashing the siblings in place, see ProofCodec.
+     */
+    public static boolean verify(byte[] root, byte[] leaf, EncodedProof proof, HashAlgorithm hashFn) {
+        return verify(root, leaf, proof, hashFn, NodeHashing.REHASH_CHILDREN);
+    }
+
+    /**
+     * As verify for an encoded proof of a tree whose nodes follow hashing.
+     */
+    public static boolean verify(byte[] root, byte[] leaf, EncodedProof proof, HashAlgorithm hashFn,
+                                 NodeHashing hashing) {
+        return verifyEncoded(root, 0, root.length, leaf, 0, leaf.length, proof, hashFn, hashing);
+    }
+
+    /**
+     * TRUE if the leaf of an encoded bundle hashes up to the root it carries. Only shows the bundle is consistent,
+     * the root still has to be one the caller trusts.
+     *
+     * @throws IllegalArgumentException unless bundle is a bundle
+     */
+    public static boolean verify(EncodedProof bundle, HashAlgorithm hashFn) {
+        return verify(bundle, hashFn, NodeHashing.REHASH_CHILDREN);
+    }
+
+    /**
+     * As verify for a bundle of a tree whose nodes follow hashing.
+     *
+     * @throws IllegalArgumentException unless bundle is a bundle
+     */
+    public static boolean verify(EncodedProof bundle, HashAlgorithm hashFn, NodeHashing hashing) {
+        if (!bundle.isBundle()) throw new IllegalArgumentException("not a bundle");
+        return verifyEncoded(bundle.data, bundle.root, bundle.width, bundle.data, bundle.leaf, bundle.leafLength,
+                bundle, hashFn, hashing);
+    }
+
+    /**
+     * Verifies many proofs of the same tree, spread over the common ForkJoinPool.
+     *
+     * @return whether each proof is valid, in the order given
+     */
+    public static boolean[] verifyAll(byte[] root, int leafCount, List<byte[]> leaves, int[] indexes,
+                                      List<List<byte[]>> proofs, HashAlgorithm hashFn) {
+        if (leaves.size() != indexes.length || proofs.size() != indexes.length) {
+            throw new IllegalArgumentException("expected a leaf and proof for each of " + indexes.length + " indexes");
+        }
+
+        boolean[] valid = new boolean[indexes.length];
+        IntStream.range(0, indexes.length).parallel().forEach(i ->
+                valid[i] = verify(root, leaves.get(i), indexes[i], leafCount, proofs.get(i), hashFn));
+        return valid;
+    }
+
+    private static boolean verifyEncoded(byte[] root, int rootOffset, int rootLength, byte[] leaf, int leafOffset,
+                                         int leafLength, EncodedProof proof, HashAlgorithm hashFn,
+                                         NodeHashing hashing) {
+        int width = hashFn.digestLength();
+        if (width != proof.width) return false;
+
+        boolean once = hashing == NodeHashing.HASH_LEAVES_ONCE;
+        byte[] data = proof.data;
+        byte[] buf = new byte[3 * width];
+        if (proof.leafCount == 1) {
+            if (once) {
+                hashFn.digestInto(leaf, leafOffset, leafLength, buf, 0);
+                hashFn.hashPairInto(buf, 0, width, buf, width, 0, buf, 2 * width);
+            } else {
+                hashFn.digestInto(leaf, leafOffset, leafLength, buf, 2 * width);
+            }
+        }
+        int node = proof.index;
+        int levelSize = proof.leafCount;
+        int hash = proof.hashes;
+
+        while (levelSize > 1) {
+            int self = (node % 2 == 0) ? 0 : width;
+            boolean leaves = levelSize == proof.leafCount;
+            if (leaves) {
+                hashFn.digestInto(leaf, leafOffset, leafLength, buf, self);
+            } else if (once) {
+                System.arraycopy(buf, 2 * width, buf, self, width);
+            } else {
+                hashFn.digestInto(buf, 2 * width, width, buf, self);
+            }
+
+            int rightLength = 0;
+            if ((node ^ 1) < levelSize) {
+                if (leaves && once) {
+                    if (proof.siblingLength != width) return false;
+                    System.arraycopy(data, proof.sibling, buf, width - self, width);
+                } else if (leaves) {
+                    hashFn.digestInto(data, proof.sibling, proof.siblingLength, buf, width - self);
+                } else if (once) {
+                    System.arraycopy(data, hash, buf, width - self, width);
+                    hash += width;
+                } else {
+                    hashFn.digestInto(data, hash, width, buf, width - self);
+                    hash += width;
+                }
+                rightLength = width;
+            }
+            hashFn.hashPairInto(buf, 0, width, buf, width, rightLength, buf, 2 * width);
+
+            node = node / 2;
+            levelSize = (levelSize + 1) >> 1;
+        }
+
+        return Arrays.equals(root, rootOffset, rootOffset + rootLength, buf, 2 * width, 3 * width);
+    }
+
+    private static boolean verifyVariableWidth(byte[] root, byte[] leaf, int index, int leafCount,
+                                               List<byte[]> proof, HashAlgorithm hashFn, NodeHashing hashing) {
+        byte[] value = hashing.leaf(hashFn, leaf);
+        int node = index;
+        int levelSize = leafCount;
+        int proofPos = 0;
+
+        while (levelSize > 1) {
+            int sibling = (node % 2 == 0) ? node + 1 : node - 1;
+            if (sibling >= levelSize) {
+                value = hashing.parent(hashFn, value, null);
+            } else {
+                if (proofPos == proof.size()) return false;
+                byte[] siblingValue = proof.get(proofPos++);
+                value = (node % 2 == 0)
+                        ? hashing.parent(hashFn, value, siblingValue)
+                        : hashing.parent(hashFn, siblingValue, value);
+            }
+
+            node = node / 2;
+            levelSize = (levelSize + 1) >> 1;
+        }
+
+        return proofPos == proof.size() && Arrays.equals(root, value);
+    }
+}
@@ -0,0 +1,113 @@
+package com.philipgloyne;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Single SHA-256, half the compressions of SHA256D. Digests are cached per thread so a hash costs no provider
+ * lookup, and the *Into variants write straight into the caller's buffer.
+ * <p>
+ * Batches (digestAll, hashPairs) are hashed in SIMD lanes by VectorSHA256 when the JVM is started with
+ * --add-modules jdk.incubator.vector, otherwise through MessageDigest one message at a time.
+ */
+public class SHA256 implements HashAlgorithm {
+
+    static final int DIGEST_LENGTH = 32;
+
+    private static final String SHA_256 = "SHA-256";
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(SHA256::newDigest);
+
+    private static final boolean VECTOR_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorSHA256.LANES > 0;
+
+    private final boolean vector;
+
+    public SHA256() {
+        this(VECTOR_AVAILABLE);
+    }
+
+    /**
+     * @param vector - hash batches with VectorSHA256, only honoured when the vector module is available
+     */
+    SHA256(boolean vector) {
+        this.vector = vector && VECTOR_AVAILABLE;
+    }
+
+    @Override
+    public byte[] hash(byte[] input) {
+        MessageDigest md = DIGEST.get();
+        md.update(input);
+        return finish(md, new byte[DIGEST_LENGTH], 0);
+    }
+
+    @Override
+    public int digestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public byte[] hashPair(byte[] left, byte[] right) {
+        MessageDigest md = DIGEST.get();
+        md.update(left);
+        md.update(right);
+        return finish(md, new byte[DIGEST_LENGTH], 0);
+    }
+
+    @Override
+    public int digestInto(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest md = DIGEST.get();
+        md.update(input, offset, length);
+        finish(md, out, outOffset);
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public int hashPairInto(byte[] left, int leftOffset, int leftLength,
+                            byte[] right, int rightOffset, int rightLength,
+                            byte[] out, int outOffset) {
+        MessageDigest md = DIGEST.get();
+        md.update(left, leftOffset, leftLength);
+        md.update(right, rightOffset, rightLength);
+        finish(md, out, outOffset);
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public void digestAll(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int count) {
+        int done = vector ? VectorSHA256.digestAll(src, srcOffset, length, dst, dstOffset, count, twice()) : 0;
+        for (int i = done; i < count; i++) {
+            digestInto(src, srcOffset + i * length, length, dst, dstOffset + i * DIGEST_LENGTH);
+        }
+    }
+
+    /**
+     * TRUE if every digest is hashed a second time, see SHA256D.
+     */
+    boolean twice() {
+        return false;
+    }
+
+    /**
+     * Completes the digest of everything fed to md into out, leaving md reset.
+     */
+    byte[] finish(MessageDigest md, byte[] out, int outOffset) {
+        try {
+            md.digest(out, outOffset, DIGEST_LENGTH);
+            return out;
+        } catch (DigestException e) {
+            // only thrown when out is too small for the digest
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            // should never happen, usually it would be safer to fail fast
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,20 +1,39 @@
 package com.philipgloyne;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
-public class SHA256D implements HashAlgorithm {
+/**
+ * Double SHA-256. Digests are cached per thread so a hash costs no provider lookup, and the *Into variants write
+ * straight into the caller's buffer.
+ */
+public class SHA256D extends SHA256 {
 
-    private final String SHA_256 = "SHA-256";
+    public SHA256D() {
+    }
+
+    SHA256D(boolean vector) {
+        super(vector);
+    }
+
+    @Override
+    boolean twice() {
+        return true;
+    }
 
+    /**
+     * Completes the first pass already fed to md and hashes its result again (SHA256d), leaving md reset.
+     */
     @Override
-    public byte[] hash(byte[] input) {
+    byte[] finish(MessageDigest md, byte[] out, int outOffset) {
         try {
-            MessageDigest md = MessageDigest.getInstance(SHA_256);
-            return md.digest(md.digest(input)); // SHA256d
-        } catch (NoSuchAlgorithmException e) {
-            // should never happen, usually it would be safer to fail fast
-            throw new RuntimeException(e);
+            md.digest(out, outOffset, DIGEST_LENGTH);
+            md.update(out, outOffset, DIGEST_LENGTH);
+            md.digest(out, outOffset, DIGEST_LENGTH);
+            return out;
+        } catch (DigestException e) {
+            // only thrown when out is too small for the digest
+            throw new IllegalArgumentException(e);
         }
     }
 }
@@ -0,0 +1,311 @@
+package com.philipgloyne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * A forest of MerkleTrees, one per shard of shardSize consecutive leaves, under a small top tree over the shard
+ * roots. Every shard has its own lock so updates to different shards run in parallel, and a batch is spread over the
+ * common ForkJoinPool a shard per task. Writers only publish their shard's new root, the top tree catches up on
+ * demand when a root or proof is asked for.
+ * <p>
+ * shardSize is a power of two and the last shard's root is carried up to the full shard height the way a lone node
+ * is (see NodeHasher), so the root and proofs are exactly those of a single MerkleTree over the same transactions and
+ * verify with ProofVerifier.
+ */
+public class ShardedMerkleTree {
+
+    private final TreeBuilder builder;
+    private final HashAlgorithm hashFn;
+    private final int shardSize;
+    private final int shardHeight;
+    // held for read by every operation on existing shards, for write by appends which add shards
+    private final ReadWriteLock layout = new ReentrantReadWriteLock();
+    private final List<Shard> shards = new ArrayList<>();
+    private final Object topLock = new Object();
+    // over the shard roots, null while there is a single shard
+    private MerkleTree top;
+    private int topSize;
+    private int txSize;
+
+    /**
+     * @param shardSize - leaves per shard, a power of two
+     * @throws IllegalArgumentException if builder doesn't follow NodeHashing.REHASH_CHILDREN, which the top tree
+     *                                  over the shard roots assumes
+     */
+    public ShardedMerkleTree(TreeBuilder builder, HashAlgorithm hashFn, int shardSize, List<byte[]> txs) {
+        if (shardSize < 2 || Integer.bitCount(shardSize) != 1) {
+            throw new IllegalArgumentException("shard size must be a power of two, was " + shardSize);
+        }
+        if (builder.hashing() != NodeHashing.REHASH_CHILDREN) {
+            throw new IllegalArgumentException("shards need " + NodeHashing.REHASH_CHILDREN + " nodes");
+        }
+        this.builder = builder;
+        this.hashFn = hashFn;
+        this.shardSize = shardSize;
+        this.shardHeight = Integer.numberOfTrailingZeros(shardSize);
+        this.txSize = txs.size();
+
+        int shardCount = Math.max(1, (txs.size() + shardSize - 1) / shardSize);
+        shards.addAll(IntStream.range(0, shardCount).parallel()
+                .mapToObj(i -> new Shard(txs.subList(i * shardSize, Math.min(txs.size(), (i + 1) * shardSize))))
+                .toList());
+        buildTop();
+    }
+
+    public int size() {
+        layout.readLock().lock();
+        try {
+            return txSize;
+        } finally {
+            layout.readLock().unlock();
+        }
+    }
+
+    public byte[] getRoot() {
+        layout.readLock().lock();
+        try {
+            if (shards.size() == 1) {
+                Shard shard = shards.get(0);
+                shard.lock.readLock().lock();
+                try {
+                    return shard.tree.getRoot();
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+            synchronized (topLock) {
+                refreshTop();
+                return top.getRoot();
+            }
+        } finally {
+            layout.readLock().unlock();
+        }
+    }
+
+    /**
+     * The path of hashes proving the transaction at index, the shard's path followed by the top tree's path from
+     * the shard root.
+     */
+    public List<byte[]> createProof(int index) {
+        layout.readLock().lock();
+        try {
+            Objects.checkIndex(index, txSize);
+            Shard shard = shards.get(index / shardSize);
+            shard.lock.readLock().lock();
+            try {
+                List<byte[]> proof = new ArrayList<>(shard.tree.createProof(index % shardSize));
+                // the shard can't change while its read lock is held, so the top tree includes this shard's root
+                synchronized (topLock) {
+                    if (top != null) {
+                        refreshTop();
+                        proof.addAll(top.createProof(index / shardSize));
+                    }
+                }
+                return proof;
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        } finally {
+            layout.readLock().unlock();
+        }
+    }
+
+    /**
+     * TRUE if the proof path for a given index is correct, FALSE otherwise
+     */
+    public boolean validateProof(int index, List<byte[]> proof) {
+        List<byte[]> expect = createProof(index);
+        if (expect.size() != proof.size()) return false;
+
+        for (int i = 0; i < expect.size(); i++) {
+            if (!Arrays.equals(expect.get(i), proof.get(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * TRUE if tx at index hashes up to the root of this tree through proof, see ProofVerifier.
+     */
+    public boolean validateProofTx(int index, List<byte[]> proof, byte[] tx) {
+        layout.readLock().lock();
+        try {
+            return ProofVerifier.verify(getRoot(), tx, index, txSize, proof, hashFn);
+        } finally {
+            layout.readLock().unlock();
+        }
+    }
+
+    /**
+     * Updates a single transaction, locking only its shard.
+     */
+    public void updateTx(int index, byte[] value) {
+        layout.readLock().lock();
+        try {
+            Objects.checkIndex(index, txSize);
+            shards.get(index / shardSize).update(Map.of(index % shardSize, value));
+        } finally {
+            layout.readLock().unlock();
+        }
+    }
+
+    /**
+     * Updates many transactions, each shard's share of the batch as one MerkleTree batch update, shards in parallel
+     * on the common ForkJoinPool.
+     *
+     * @param txs - new transaction values by index
+     */
+    public void updateTxs(Map<Integer, byte[]> txs) {
+        layout.readLock().lock();
+        try {
+            Map<Integer, Map<Integer, byte[]>> byShard = new HashMap<>();
+            for (Map.Entry<Integer, byte[]> tx : txs.entrySet()) {
+                int index = Objects.checkIndex(tx.getKey(), txSize);
+                byShard.computeIfAbsent(index / shardSize, s -> new HashMap<>()).put(index % shardSize, tx.getValue());
+            }
+            byShard.entrySet().parallelStream().forEach(e -> shards.get(e.getKey()).update(e.getValue()));
+        } finally {
+            layout.readLock().unlock();
+        }
+    }
+
+    public void addTx(byte[] tx) {
+        addTxs(List.of(tx));
+    }
+
+    /**
+     * Appends transactions, filling the last shard before starting new ones. Appends block every other operation
+     * while shards are added.
+     */
+    public void addTxs(List<byte[]> txs) {
+        if (txs.isEmpty()) return;
+
+        layout.writeLock().lock();
+        try {
+            int from = 0;
+            Shard last = shards.get(shards.size() - 1);
+            if (last.size < shardSize) {
+                from = Math.min(txs.size(), shardSize - last.size);
+                last.append(txs.subList(0, from));
+            }
+            for (; from < txs.size(); from += shardSize) {
+                shards.add(new Shard(txs.subList(from, Math.min(txs.size(), from + shardSize))));
+            }
+            txSize += txs.size();
+            buildTop();
+        } finally {
+            layout.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the top tree when there is none yet, otherwise brings it up to date and appends any new shard roots.
+     */
+    private void buildTop() {
+        synchronized (topLock) {
+            if (shards.size() == 1) return;
+            if (top == null) {
+                List<byte[]> roots = new ArrayList<>(shards.size());
+                for (Shard shard : shards) {
+                    shard.dirty = false;
+                    roots.add(shard.root);
+                }
+                top = new MerkleTree(builder, hashFn, roots);
+                topSize = roots.size();
+                return;
+            }
+
+            refreshTop();
+            List<byte[]> roots = new ArrayList<>();
+            for (int i = topSize; i < shards.size(); i++) {
+                shards.get(i).dirty = false;
+                roots.add(shards.get(i).root);
+            }
+            top.addTxs(roots);
+            topSize = shards.size();
+        }
+    }
+
+    /**
+     * Copies the roots of shards written since the last refresh into the top tree. Callers hold topLock.
+     */
+    private void refreshTop() {
+        Map<Integer, byte[]> roots = new HashMap<>();
+        for (int i = 0; i < topSize; i++) {
+            Shard shard = shards.get(i);
+            if (shard.dirty) {
+                // cleared before the root is read, a write racing with this leaves the shard dirty for next time
+                shard.dirty = false;
+                roots.put(i, shard.root);
+            }
+        }
+        top.updateTxs(roots);
+    }
+
+    /**
+     * Node at the full shard height above a shard's root, which is where a single tree over all the transactions
+     * has it. Only the last shard can be short of leaves, its root is combined without a sibling up to that height.
+     */
+    private byte[] liftedRoot(MerkleTree tree, int size) {
+        if (size == 0) return tree.getRoot();
+
+        byte[] node = tree.getRoot();
+        int height = TreeBuilder.levelSizes(size).length - 1;
+        if (size == 1) {
+            // a single leaf tree's root is H(tx), the node above a lone leaf is H(H(tx) || "")
+            node = hashFn.hashPair(node, new byte[0]);
+        }
+        for (; height < shardHeight; height++) {
+            node = NodeHasher.parent(hashFn, node, null);
+        }
+        return node;
+    }
+
+    private final class Shard {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final MerkleTree tree;
+        private int size;
+        private volatile byte[] root;
+        private volatile boolean dirty;
+
+        Shard(List<byte[]> txs) {
+            this.tree = new MerkleTree(builder, hashFn, txs);
+            this.size = txs.size();
+            this.root = liftedRoot(tree, size);
+        }
+
+        void update(Map<Integer, byte[]> txs) {
+            lock.writeLock().lock();
+            try {
+                tree.updateTxs(txs);
+                publish();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void append(List<byte[]> txs) {
+            lock.writeLock().lock();
+            try {
+                tree.addTxs(txs);
+                size += txs.size();
+                publish();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void publish() {
+            root = liftedRoot(tree, size);
+            dirty = true;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.philipgloyne;
+
+import java.util.List;
+
+/**
+ * Proof that a key of a SparseMerkleTree holds a value, or holds nothing when value is null. Most siblings on a
+ * path are roots of empty subtrees which a verifier can compute for itself, so only the others are included: bit h
+ * of the bitmap (least significant bit of byte 0 first) is set when the sibling at height h is in siblings, which
+ * are ordered from the leaf up.
+ */
+public final class SparseMerkleProof {
+
+    private final byte[] key;
+    private final byte[] value;
+    private final byte[] bitmap;
+    private final List<byte[]> siblings;
+
+    public SparseMerkleProof(byte[] key, byte[] value, byte[] bitmap, List<byte[]> siblings) {
+        this.key = key.clone();
+        this.value = value == null ? null : value.clone();
+        this.bitmap = bitmap.clone();
+        this.siblings = List.copyOf(siblings);
+    }
+
+    public byte[] key() {
+        return key.clone();
+    }
+
+    /**
+     * The proven value, null for a proof of non-membership.
+     */
+    public byte[] value() {
+        return value == null ? null : value.clone();
+    }
+
+    public boolean isMembership() {
+        return value != null;
+    }
+
+    public byte[] bitmap() {
+        return bitmap.clone();
+    }
+
+    public List<byte[]> siblings() {
+        return siblings;
+    }
+}
@@ -0,0 +1,319 @@
+package com.philipgloyne;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import static com.philipgloyne.SparseProofVerifier.DEPTH;
+import static com.philipgloyne.SparseProofVerifier.KEY_LENGTH;
+
+/**
+ * Merkle tree over the whole 256 bit key space, addressed by key rather than position. Every key has a leaf, almost
+ * all of them empty, and the roots of empty subtrees are precomputed (see SparseProofVerifier.defaults) so only
+ * nodes on the paths of live keys are stored, in a compact open addressing table. A put or delete rehashes the
+ * 256 nodes on its path, a batch rehashes nodes shared between its paths once. Proofs show a key's value, or that
+ * it has none.
+ * <p>
+ * Not thread safe.
+ */
+public class SparseMerkleTree {
+
+    private final HashAlgorithm hashFn;
+    private final byte[][] defaults;
+    private final NodeTable nodes;
+    private final NodeTable values;
+    private byte[] root;
+
+    public SparseMerkleTree(HashAlgorithm hashFn) {
+        this.hashFn = hashFn;
+        this.defaults = SparseProofVerifier.defaults(hashFn);
+        this.nodes = new NodeTable();
+        this.values = new NodeTable();
+        this.root = defaults[DEPTH];
+    }
+
+    public byte[] getRoot() {
+        return root.clone();
+    }
+
+    /**
+     * Number of keys with a value.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * The value of key, null if it has none.
+     */
+    public byte[] get(byte[] key) {
+        byte[] entry = values.get(0, checkKey(key));
+        return entry == null ? null : Arrays.copyOfRange(entry, NodeTable.PAYLOAD, entry.length);
+    }
+
+    public void put(byte[] key, byte[] value) {
+        putAll(List.of(key), List.of(value));
+    }
+
+    public void delete(byte[] key) {
+        putAll(List.of(key), Collections.singletonList(null));
+    }
+
+    /**
+     * Sets many keys at once, rehashing each node shared between their paths once. Values may be null to delete a
+     * key, when a key is given more than once the last value wins.
+     */
+    public void putAll(List<byte[]> keys, List<byte[]> newValues) {
+        if (keys.size() != newValues.size()) {
+            throw new IllegalArgumentException("expected a value for each of " + keys.size() + " keys");
+        }
+        if (keys.isEmpty()) return;
+
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            checkKey(keys.get(i));
+            order[i] = i;
+        }
+        // stable, so among equal keys the last given stays last
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys.get(a), keys.get(b)));
+
+        byte[][] dirty = new byte[order.length][];
+        int count = 0;
+        for (int i = 0; i < order.length; i++) {
+            byte[] key = keys.get(order[i]);
+            if (i + 1 < order.length && Arrays.equals(key, keys.get(order[i + 1]))) continue;
+
+            byte[] value = newValues.get(order[i]);
+            if (value == null) {
+                values.remove(0, key);
+                setNode(0, key, defaults[0]);
+            } else {
+                values.put(0, key, value);
+                setNode(0, key, hashFn.hash(value));
+            }
+            dirty[count++] = key.clone();
+        }
+
+        for (int height = 0; height < DEPTH; height++) {
+            // clearing the bit that picks the child turns a child's prefix into its parent's, still in order
+            int parents = 0;
+            for (int i = 0; i < count; i++) {
+                clearBit(dirty[i], height);
+                if (parents == 0 || !Arrays.equals(dirty[parents - 1], dirty[i])) {
+                    dirty[parents++] = dirty[i];
+                }
+            }
+            count = parents;
+
+            for (int i = 0; i < count; i++) {
+                byte[] left = node(height, dirty[i]);
+                setBit(dirty[i], height);
+                byte[] right = node(height, dirty[i]);
+                clearBit(dirty[i], height);
+                byte[] parent = hashFn.hashPair(left, right);
+                if (height + 1 == DEPTH) {
+                    root = parent;
+                } else {
+                    setNode(height + 1, dirty[i], parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Proof of the value of key, or of its absence when it has none, verifiable with SparseProofVerifier.
+     */
+    public SparseMerkleProof createProof(byte[] key) {
+        byte[] path = checkKey(key).clone();
+        byte[] bitmap = new byte[KEY_LENGTH];
+        List<byte[]> siblings = new ArrayList<>();
+        for (int height = 0; height < DEPTH; height++) {
+            flipBit(path, height);
+            byte[] sibling = nodes.get(height, path);
+            flipBit(path, height);
+            clearBit(path, height);
+            if (sibling != null) {
+                bitmap[height >>> 3] |= (byte) (1 << (height & 7));
+                siblings.add(Arrays.copyOfRange(sibling, NodeTable.PAYLOAD, sibling.length));
+            }
+        }
+        return new SparseMerkleProof(key, get(key), bitmap, siblings);
+    }
+
+    /**
+     * Stored nodes, for checking that memory follows the live keys.
+     */
+    int nodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Longest distance a stored node sits from its home slot, for checking that keys spread over the table.
+     */
+    int longestProbe() {
+        return nodes.longestProbe();
+    }
+
+    private byte[] node(int height, byte[] prefix) {
+        byte[] entry = nodes.get(height, prefix);
+        return entry == null ? defaults[height] : Arrays.copyOfRange(entry, NodeTable.PAYLOAD, entry.length);
+    }
+
+    private void setNode(int height, byte[] prefix, byte[] value) {
+        if (Arrays.equals(value, defaults[height])) {
+            nodes.remove(height, prefix);
+        } else {
+            nodes.put(height, prefix, value);
+        }
+    }
+
+    private static byte[] checkKey(byte[] key) {
+        Objects.requireNonNull(key, "key");
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("keys are " + KEY_LENGTH + " bytes, was " + key.length);
+        }
+        return key;
+    }
+
+    // bit h of a path is the one choosing between the children at height h, counted from the least significant
+    private static void clearBit(byte[] path, int height) {
+        path[KEY_LENGTH - 1 - (height >>> 3)] &= (byte) ~(1 << (height & 7));
+    }
+
+    private static void setBit(byte[] path, int height) {
+        path[KEY_LENGTH - 1 - (height >>> 3)] |= (byte) (1 << (height & 7));
+    }
+
+    private static void flipBit(byte[] path, int height) {
+        path[KEY_LENGTH - 1 - (height >>> 3)] ^= (byte) (1 << (height & 7));
+    }
+
+    /**
+     * Open addressing hash table from (height, key prefix) to a value, each entry a single array laid out as a 2 byte
+     * height, the 32 byte prefix and the value. Linear probing, deletes shift the rest of the run back rather than
+     * leaving tombstones.
+     */
+    private static final class NodeTable {
+
+        static final int PAYLOAD = 2 + KEY_LENGTH;
+
+        private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+        private byte[][] table = new byte[16][];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int longestProbe() {
+            int mask = table.length - 1;
+            int longest = 0;
+            for (int i = 0; i < table.length; i++) {
+                if (table[i] != null) {
+                    longest = Math.max(longest, (i - home(table[i], mask)) & mask);
+                }
+            }
+            return longest;
+        }
+
+        byte[] get(int height, byte[] prefix) {
+            int mask = table.length - 1;
+            for (int i = home(height, prefix, 0, mask); ; i = (i + 1) & mask) {
+                byte[] entry = table[i];
+                if (entry == null) return null;
+                if (matches(entry, height, prefix)) return entry;
+            }
+        }
+
+        void put(int height, byte[] prefix, byte[] value) {
+            if (2 * (size + 1) > table.length) {
+                resize();
+            }
+            byte[] entry = new byte[PAYLOAD + value.length];
+            entry[0] = (byte) (height >>> 8);
+            entry[1] = (byte) height;
+            System.arraycopy(prefix, 0, entry, 2, KEY_LENGTH);
+            System.arraycopy(value, 0, entry, PAYLOAD, value.length);
+
+            int mask = table.length - 1;
+            for (int i = home(height, prefix, 0, mask); ; i = (i + 1) & mask) {
+                if (table[i] == null) {
+                    table[i] = entry;
+                    size++;
+                    return;
+                }
+                if (matches(table[i], height, prefix)) {
+                    table[i] = entry;
+                    return;
+                }
+            }
+        }
+
+        void remove(int height, byte[] prefix) {
+            int mask = table.length - 1;
+            int i = home(height, prefix, 0, mask);
+            while (table[i] != null && !matches(table[i], height, prefix)) {
+                i = (i + 1) & mask;
+            }
+            if (table[i] == null) return;
+
+            table[i] = null;
+            size--;
+            // move back any later entry of the run whose home slot is no longer reachable past the gap
+            for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+                int home = home(table[j], mask);
+                boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!between) {
+                    table[i] = table[j];
+                    table[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize() {
+            byte[][] old = table;
+            table = new byte[old.length * 2][];
+            int mask = table.length - 1;
+            for (byte[] entry : old) {
+                if (entry == null) continue;
+                int i = home(entry, mask);
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = entry;
+            }
+        }
+
+        private static boolean matches(byte[] entry, int height, byte[] prefix) {
+            return ((entry[0] & 0xFF) << 8 | (entry[1] & 0xFF)) == height
+                    && Arrays.equals(entry, 2, PAYLOAD, prefix, 0, KEY_LENGTH);
+        }
+
+        private static int home(byte[] entry, int mask) {
+            return home((entry[0] & 0xFF) << 8 | (entry[1] & 0xFF), entry, 2, mask);
+        }
+
+        /**
+         * Slot a prefix hashes to. All 32 bytes are mixed in with the height: prefixes high in the tree are mostly
+         * zeros, and keys needn't be hashes, sequential ids differ only in their last bytes.
+         */
+        private static int home(int height, byte[] prefix, int offset, int mask) {
+            long h = height * 0x9E3779B97F4A7C15L;
+            for (int i = 0; i < KEY_LENGTH; i += 8) {
+                h = (h ^ (long) LONG.get(prefix, offset + i)) * 0xC2B2AE3D27D4EB4FL;
+                h = Long.rotateLeft(h, 31);
+            }
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            return (int) h & mask;
+        }
+    }
+}
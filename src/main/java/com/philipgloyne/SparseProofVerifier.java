@@ -0,0 +1,95 @@
+package com.philipgloyne;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Recomputes a SparseMerkleTree root from a SparseMerkleProof, without access to the tree. A leaf is the hash of its
+ * value, an empty leaf is all zeros and a parent is hashPair(left, right), so the root of an empty subtree of height
+ * h is the same everywhere and computed once per algorithm instance, see defaults.
+ */
+public final class SparseProofVerifier {
+
+    /**
+     * Height of the tree, one level per bit of a key.
+     */
+    static final int DEPTH = 256;
+
+    static final int KEY_LENGTH = DEPTH / 8;
+
+    // keyed by the instance itself, not its class, as lambdas and configured instances can't be created again and
+    // may hash differently from another instance of their class; weak so verifying with throwaway instances can't leak
+    private static final Map<HashAlgorithm, byte[][]> DEFAULTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private SparseProofVerifier() {
+    }
+
+    /**
+     * TRUE if the proof's key holds the proof's value (or nothing, for a proof of non-membership) in the tree with
+     * this root.
+     */
+    public static boolean verify(byte[] root, SparseMerkleProof proof, HashAlgorithm hashFn) {
+        byte[] key = proof.key();
+        byte[] bitmap = proof.bitmap();
+        if (key.length != KEY_LENGTH || bitmap.length != KEY_LENGTH) return false;
+
+        byte[][] defaults = defaults(hashFn);
+        List<byte[]> siblings = proof.siblings();
+        byte[] value = proof.value();
+        byte[] node = value == null ? defaults[0] : hashFn.hash(value);
+        int next = 0;
+        for (int height = 0; height < DEPTH; height++) {
+            byte[] sibling;
+            if (bit(bitmap, height)) {
+                if (next == siblings.size()) return false;
+                sibling = siblings.get(next++);
+            } else {
+                sibling = defaults[height];
+            }
+            node = isRight(key, height) ? hashFn.hashPair(sibling, node) : hashFn.hashPair(node, sibling);
+        }
+        return next == siblings.size() && Arrays.equals(root, node);
+    }
+
+    /**
+     * Roots of empty subtrees by height, the empty leaf at 0 up to the empty tree at DEPTH. Shared, don't modify.
+     *
+     * @throws IllegalArgumentException if the algorithm isn't fixed width
+     */
+    static byte[][] defaults(HashAlgorithm hashFn) {
+        if (hashFn.digestLength() <= 0) {
+            throw new IllegalArgumentException("sparse trees need a fixed width hash algorithm");
+        }
+        byte[][] defaults = DEFAULTS.get(hashFn);
+        if (defaults == null) {
+            // computed outside the lock, a race only computes the same roots twice
+            defaults = computeDefaults(hashFn);
+            DEFAULTS.put(hashFn, defaults);
+        }
+        return defaults;
+    }
+
+    /**
+     * TRUE if the node at height on the path to key is a right child.
+     */
+    static boolean isRight(byte[] key, int height) {
+        int bit = DEPTH - 1 - height;
+        return (key[bit >>> 3] & (0x80 >>> (bit & 7))) != 0;
+    }
+
+    static boolean bit(byte[] bitmap, int index) {
+        return (bitmap[index >>> 3] & (1 << (index & 7))) != 0;
+    }
+
+    private static byte[][] computeDefaults(HashAlgorithm hashFn) {
+        byte[][] defaults = new byte[DEPTH + 1][];
+        defaults[0] = new byte[hashFn.digestLength()];
+        for (int height = 1; height <= DEPTH; height++) {
+            defaults[height] = hashFn.hashPair(defaults[height - 1], defaults[height - 1]);
+        }
+        return defaults;
+    }
+}
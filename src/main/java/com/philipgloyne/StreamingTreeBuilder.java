@@ -0,0 +1,177 @@
+package com.philipgloyne;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Computes the root of a tree one transaction at a time without holding the transactions. Only the frontier is
+ * kept, at most one node per level waiting for its right sibling, so memory is O(log n) and the input can be far
+ * larger than the heap. The root matches BasicTreeBuilder over the same transactions.
+ * <p>
+ * An optional NodeSink receives every node as it's completed, e.g. a TreeFileSink to write a tree file on the way.
+ * A builder computes a single tree, it can't be reused after {@link #finish()}.
+ */
+public class StreamingTreeBuilder {
+
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Longest transaction read from a channel, the largest array the JVM reliably allocates.
+     */
+    static final int MAX_TX_BYTES = Integer.MAX_VALUE - 8;
+
+    private final HashAlgorithm hashFn;
+    private final NodeSink sink;
+    // pending.get(level) is a node whose right sibling hasn't arrived yet, or null
+    private final List<byte[]> pending = new ArrayList<>();
+    private int leafCount;
+    private boolean finished;
+
+    public StreamingTreeBuilder(HashAlgorithm hashFn) {
+        this(hashFn, null);
+    }
+
+    public StreamingTreeBuilder(HashAlgorithm hashFn, NodeSink sink) {
+        this.hashFn = hashFn;
+        this.sink = sink;
+    }
+
+    public void add(byte[] tx) {
+        if (finished) throw new IllegalStateException("the tree has already been finished");
+
+        leafCount++;
+        byte[] node = tx;
+        int level = 0;
+        emit(level, node);
+        // carry completed pairs up the tree like a binary counter
+        while (level < pending.size() && pending.get(level) != null) {
+            node = NodeHasher.parent(hashFn, pending.get(level), node);
+            pending.set(level, null);
+            emit(++level, node);
+        }
+        if (level == pending.size()) {
+            pending.add(node);
+        } else {
+            pending.set(level, node);
+        }
+    }
+
+    public void addAll(Iterator<byte[]> txs) {
+        while (txs.hasNext()) {
+            add(txs.next());
+        }
+    }
+
+    public void addAll(Stream<byte[]> txs) {
+        txs.sequential().forEachOrdered(this::add);
+    }
+
+    /**
+     * Reads transactions from channel until end of stream, each as a big endian int length followed by its bytes.
+     *
+     * @throws IOException if the channel ends part way through a transaction or holds a length no array can have
+     */
+    public void addAll(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        buf.flip();
+        while (true) {
+            if (!fill(channel, buf, Integer.BYTES)) {
+                if (buf.hasRemaining()) throw new IOException("channel ended part way through a length");
+                return;
+            }
+            int length = buf.getInt();
+            if (length < 0 || length > MAX_TX_BYTES) {
+                throw new IOException("channel holds a corrupt transaction length " + length);
+            }
+            byte[] tx = new byte[length];
+            int read = 0;
+            while (read < tx.length) {
+                if (!buf.hasRemaining() && !fill(channel, buf, 1)) {
+                    throw new IOException("channel ended part way through a transaction");
+                }
+                int n = Math.min(buf.remaining(), tx.length - read);
+                buf.get(tx, read, n);
+                read += n;
+            }
+            add(tx);
+        }
+    }
+
+    /**
+     * Completes the right edge of the tree, where nodes at the end of a level may have no sibling.
+     *
+     * @return the root
+     */
+    public byte[] finish() {
+        if (finished) throw new IllegalStateException("the tree has already been finished");
+        finished = true;
+
+        byte[] root;
+        if (leafCount == 0) {
+            root = "".getBytes();
+        } else if (leafCount == 1) {
+            root = hashFn.hash(pending.get(0));
+            emit(1, root);
+        } else {
+            int[] levelSizes = TreeBuilder.levelSizes(leafCount);
+            int top = levelSizes.length - 1;
+            byte[] carry = null;
+            for (int level = 0; level < top; level++) {
+                byte[] left = level < pending.size() ? pending.get(level) : null;
+                if (left != null) {
+                    carry = NodeHasher.parent(hashFn, left, carry);
+                } else if (carry != null) {
+                    carry = NodeHasher.parent(hashFn, carry, null);
+                } else {
+                    continue;
+                }
+                emit(level + 1, carry);
+            }
+            root = carry != null ? carry : pending.get(top);
+        }
+
+        if (sink != null) {
+            try {
+                sink.finish(leafCount);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return root;
+    }
+
+    public int leafCount() {
+        return leafCount;
+    }
+
+    private void emit(int level, byte[] node) {
+        if (sink == null) return;
+        try {
+            sink.node(level, node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Tops buf up from channel until it holds at least needed bytes, FALSE if the channel ends first.
+     */
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer buf, int needed) throws IOException {
+        if (buf.remaining() >= needed) return true;
+        buf.compact();
+        while (buf.position() < needed) {
+            if (channel.read(buf) < 0) {
+                buf.flip();
+                return false;
+            }
+        }
+        buf.flip();
+        return true;
+    }
+}
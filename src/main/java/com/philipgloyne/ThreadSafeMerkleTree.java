@@ -1,8 +1,14 @@
 package com.philipgloyne;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * Allows a MerkleTree to be shared between threads, writes/mutations will block reads & writes to
@@ -11,14 +17,26 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class ThreadSafeMerkleTree extends MerkleTree {
 
     private final ReadWriteLock lock;
+    // read before taking a lock, so kept apart from the tree's own metrics where it can be read without one
+    private volatile TreeMetrics lockMetrics = TreeMetrics.NONE;
 
     public ThreadSafeMerkleTree(TreeBuilder builder, HashAlgorithm hashFn, List<byte[]> txs) {
         super(builder, hashFn, txs);
         this.lock = new ReentrantReadWriteLock();
     }
 
+    @Override
+    public byte[] getRoot() {
+        lockRead();
+        try {
+            return super.getRoot();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     public List<byte[]> createProof(int index) {
-        lock.readLock().lock();
+        lockRead();
         try {
             return super.createProof(index);
         } finally {
@@ -26,9 +44,138 @@ public class ThreadSafeMerkleTree extends MerkleTree {
         }
     }
 
+    @Override
+    public int createProof(int index, byte[][] proof) {
+        lockRead();
+        try {
+            return super.createProof(index, proof);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void encodeProof(int index, ByteBuffer dst) {
+        lockRead();
+        try {
+            super.encodeProof(index, dst);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void encodeProofBundle(int index, ByteBuffer dst) {
+        lockRead();
+        try {
+            super.encodeProofBundle(index, dst);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Concurrent readers share the cache, updates reach it under the write lock so a proof is never assembled from
+     * two versions.
+     */
+    @Override
+    public void enableProofCache(int maxProofs) {
+        lockWrite();
+        try {
+            super.enableProofCache(maxProofs);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Also reports how long each caller waits for the read or write lock.
+     */
+    @Override
+    public void setMetrics(TreeMetrics metrics) {
+        lockWrite();
+        try {
+            super.setMetrics(metrics);
+            this.lockMetrics = metrics;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * All of reads are made under a single acquisition of the read lock.
+     */
+    @Override
+    public void read(Consumer<MerkleTree> reads) {
+        lockRead();
+        try {
+            reads.accept(view());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    int leafCount() {
+        lockRead();
+        try {
+            return super.leafCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getHeight() {
+        lockRead();
+        try {
+            return super.getHeight();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public MultiProof createMultiProof(int... indexes) {
+        lockRead();
+        try {
+            return super.createMultiProof(indexes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The root and leaf count the proof is checked against are read under one read lock, so an append between them
+     * can't pair the old root with the new count.
+     */
+    @Override
+    public boolean validateProofTx(int index, List<byte[]> proof, byte[] tx) {
+        lockRead();
+        try {
+            return super.validateProofTx(index, proof, tx);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Written under the read lock, so the file holds a single version of the tree rather than one torn across an
+     * update.
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        lockRead();
+        try {
+            super.save(path);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     @Override
     public boolean validateProof(int index, List<byte[]> proof) {
-        lock.readLock().lock();
+        lockRead();
         try {
             return super.validateProof(index, proof);
         } finally {
@@ -36,8 +183,22 @@ public class ThreadSafeMerkleTree extends MerkleTree {
         }
     }
 
+    /**
+     * Each request is answered under the read lock, a session running alongside writes sees each batch from a
+     * single version but may see different versions across batches.
+     */
+    @Override
+    public TreeSync.Response respond(TreeSync.Request request) {
+        lockRead();
+        try {
+            return super.respond(request);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     public void updateTx(int index, byte[] value) {
-        lock.writeLock().lock();
+        lockWrite();
         try {
             super.updateTx(index, value);
         } finally {
@@ -45,8 +206,21 @@ public class ThreadSafeMerkleTree extends MerkleTree {
         }
     }
 
+    /**
+     * The whole batch is applied under a single write lock.
+     */
+    @Override
+    public void updateTxs(Map<Integer, byte[]> txs, boolean parallel) {
+        lockWrite();
+        try {
+            super.updateTxs(txs, parallel);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     public void addTx(byte[] value) {
-        lock.writeLock().lock();
+        lockWrite();
         try {
             super.addTx(value);
         } finally {
@@ -54,4 +228,36 @@ public class ThreadSafeMerkleTree extends MerkleTree {
         }
     }
 
+    @Override
+    public void addTxs(List<byte[]> txs) {
+        lockWrite();
+        try {
+            super.addTxs(txs);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void lockRead() {
+        lock(lock.readLock(), false);
+    }
+
+    private void lockWrite() {
+        lock(lock.writeLock(), true);
+    }
+
+    /**
+     * Only reads the clock when metrics are set.
+     */
+    private void lock(Lock l, boolean write) {
+        TreeMetrics metrics = lockMetrics;
+        if (metrics == TreeMetrics.NONE) {
+            l.lock();
+        } else {
+            long start = System.nanoTime();
+            l.lock();
+            metrics.lockWaited(write, System.nanoTime() - start);
+        }
+    }
+
 }
@@ -0,0 +1,390 @@
+package com.philipgloyne;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node store in front of a slower one, typically a {@link MappedNodeStore} for a tree larger than memory. Every proof
+ * reads one node per level, so the top levels are shared by all proofs while the lower levels are scattered.
+ * <p>
+ * The top pinnedLevels levels above the leaves are copied onto the heap when the store is created and never read from
+ * the backing store again. The remaining internal levels are read through a CLOCK cache holding at most cacheBytes of
+ * nodes, split over segments with their own lock so concurrent readers rarely contend. Leaves are read straight from
+ * the backing store, a proof reads a single leaf and caching them would only push out the nodes above. Writes go
+ * through to the backing store and refresh whichever tier holds the node.
+ */
+public final class TieredNodeStore implements NodeStore {
+
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Rough heap cost of a cached node besides its bytes: the array header and the slot, reference and index entries.
+     */
+    static final int ENTRY_OVERHEAD = 40;
+
+    /**
+     * Largest array the JVM reliably allocates, a little under Integer.MAX_VALUE.
+     */
+    static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final NodeStore backing;
+    private final int leafCount;
+    private final int pinnedLevels;
+    private final int width;
+    private final long cacheBytes;
+    private final int pinnedStart;
+    // pinned nodes back to back when they have a fixed width, one array each otherwise
+    private final byte[] pinned;
+    private final byte[][] pinnedNodes;
+    private final Segment[] segments;
+    private final LongAdder pinnedReads = new LongAdder();
+    private final LongAdder leafReads = new LongAdder();
+
+    /**
+     * @param backing      - store holding every node, laid out densely for leafCount leaves
+     * @param width        - width of internal nodes, 0 or less if they vary
+     * @param pinnedLevels - levels to hold on the heap counting down from the root, the leaves are never pinned
+     * @param cacheBytes   - budget for caching the levels below the pinned ones, 0 reads them straight from backing
+     * @throws IllegalArgumentException if the pinned levels don't fit in one array, or together with cacheBytes
+     *                                  need more than the maximum heap
+     */
+    public TieredNodeStore(NodeStore backing, int leafCount, int width, int pinnedLevels, long cacheBytes) {
+        if (pinnedLevels < 0) throw new IllegalArgumentException("pinnedLevels must not be negative");
+        if (cacheBytes < 0) throw new IllegalArgumentException("cacheBytes must not be negative");
+        this.backing = backing;
+        this.leafCount = leafCount;
+        this.pinnedLevels = pinnedLevels;
+        this.width = width;
+        this.cacheBytes = cacheBytes;
+
+        TreeLayout layout = TreeLayout.of(leafCount);
+        int lowest = Math.max(1, layout.levels() - pinnedLevels);
+        this.pinnedStart = lowest < layout.levels() ? layout.start(lowest) : backing.size();
+
+        int count = backing.size() - pinnedStart;
+        long pinnedBytes = width > 0 ? (long) count * width : (long) count * ENTRY_OVERHEAD;
+        if (width > 0 && pinnedBytes > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException("pinning " + pinnedLevels + " levels takes " + pinnedBytes
+                    + " bytes, more than an array holds, pin fewer levels");
+        }
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        if (maxMemory != Long.MAX_VALUE && pinnedBytes + cacheBytes > maxMemory) {
+            throw new IllegalArgumentException("pinning " + pinnedLevels + " levels (" + pinnedBytes
+                    + " bytes) and caching " + cacheBytes + " bytes needs more than the " + maxMemory
+                    + " byte heap");
+        }
+        if (width > 0) {
+            this.pinned = new byte[(int) pinnedBytes];
+            this.pinnedNodes = null;
+            for (int i = 0; i < count; i++) {
+                backing.read(pinnedStart + i, pinned, i * width);
+            }
+        } else {
+            this.pinned = null;
+            this.pinnedNodes = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                pinnedNodes[i] = backing.get(pinnedStart + i);
+            }
+        }
+
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(cacheBytes / SEGMENTS);
+        }
+    }
+
+    @Override
+    public int size() {
+        return backing.size();
+    }
+
+    @Override
+    public byte[] get(int index) {
+        if (index >= pinnedStart) {
+            pinnedReads.increment();
+            int i = index - pinnedStart;
+            if (pinned == null) return pinnedNodes[i].clone();
+            byte[] value = new byte[width];
+            System.arraycopy(pinned, i * width, value, 0, width);
+            return value;
+        }
+        if (index < leafCount) {
+            leafReads.increment();
+            return backing.get(index);
+        }
+        // cached arrays are shared, hand out a copy so callers can't change them under the cache
+        return cached(index).clone();
+    }
+
+    @Override
+    public int read(int index, byte[] dst, int offset) {
+        if (index >= pinnedStart) {
+            pinnedReads.increment();
+            int i = index - pinnedStart;
+            if (pinned == null) {
+                System.arraycopy(pinnedNodes[i], 0, dst, offset, pinnedNodes[i].length);
+                return pinnedNodes[i].length;
+            }
+            System.arraycopy(pinned, i * width, dst, offset, width);
+            return width;
+        }
+        if (index < leafCount) {
+            leafReads.increment();
+            return backing.read(index, dst, offset);
+        }
+
+        byte[] value = cached(index);
+        System.arraycopy(value, 0, dst, offset, value.length);
+        return value.length;
+    }
+
+    @Override
+    public void set(int index, byte[] value) {
+        write(index, value, 0, value.length);
+    }
+
+    @Override
+    public void write(int index, byte[] src, int offset, int length) {
+        backing.write(index, src, offset, length);
+        if (index >= pinnedStart) {
+            int i = index - pinnedStart;
+            if (pinned == null) {
+                pinnedNodes[i] = Arrays.copyOfRange(src, offset, offset + length);
+            } else {
+                System.arraycopy(src, offset, pinned, i * width, length);
+            }
+        } else if (index >= leafCount) {
+            // only refresh nodes already cached, a bulk update shouldn't flush the nodes proofs are reading
+            segment(index).replace(index, src, offset, length);
+        }
+    }
+
+    @Override
+    public boolean matches(int index, byte[] value) {
+        if (index >= pinnedStart) {
+            int i = index - pinnedStart;
+            if (pinned == null) return Arrays.equals(pinnedNodes[i], value);
+            return value.length == width
+                    && Arrays.equals(pinned, i * width, (i + 1) * width, value, 0, width);
+        }
+        if (index < leafCount) return backing.matches(index, value);
+        return Arrays.equals(cached(index), value);
+    }
+
+    @Override
+    public void flush() {
+        backing.flush();
+    }
+
+    /**
+     * A tiered store over a new backing store, pinning the same number of levels with the same budget.
+     */
+    @Override
+    public NodeStore newStore(List<byte[]> leaves, int size) {
+        return new TieredNodeStore(backing.newStore(leaves, size), leaves.size(), width, pinnedLevels, cacheBytes);
+    }
+
+    /**
+     * Counts since the store was created, reads of pinned nodes and leaves are neither hits nor misses.
+     */
+    public NodeCacheStats stats() {
+        long pinnedBytes = pinned != null ? pinned.length : 0;
+        if (pinnedNodes != null) {
+            for (byte[] node : pinnedNodes) pinnedBytes += node.length;
+        }
+        long hits = 0, misses = 0, evictions = 0, cachedBytes = 0;
+        int cachedNodes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+                misses += segment.misses;
+                evictions += segment.evictions;
+                cachedBytes += segment.used;
+                cachedNodes += segment.count;
+            }
+        }
+        return new NodeCacheStats(pinnedReads.sum(), leafReads.sum(), hits, misses, evictions,
+                backing.size() - pinnedStart, pinnedBytes, cachedNodes, cachedBytes, cacheBytes);
+    }
+
+    /**
+     * Index of the first pinned node, every node from here to the root is held on the heap.
+     */
+    int pinnedStart() {
+        return pinnedStart;
+    }
+
+    private byte[] cached(int index) {
+        if (index < 0) throw new IndexOutOfBoundsException(index);
+        Segment segment = segment(index);
+        byte[] value = segment.get(index);
+        if (value != null) return value;
+
+        value = backing.get(index);
+        segment.put(index, value);
+        return value;
+    }
+
+    private Segment segment(int index) {
+        // consecutive nodes share a path, spread them over the segments
+        return segments[index * 0x9E3779B9 >>> 28];
+    }
+
+    /**
+     * CLOCK over the nodes of one segment. Each slot has a reference bit set on a hit, the hand sweeps the slots
+     * clearing bits and evicts the first node found unreferenced. A node has to be read again after the hand has
+     * passed it once to survive the next sweep, so a scan over cold leaves can't flush the nodes read by every proof.
+     * Node indexes map to slots through an open addressing table with linear probing.
+     */
+    private static final class Segment {
+
+        private final long budget;
+        // counted under the segment's lock rather than in shared counters every lookup would contend on
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long used;
+        private int count;
+        // slots up to end have been used, free ones are on the free stack
+        private int end;
+        private int hand;
+        private int[] keys = new int[16];
+        private byte[][] values = new byte[16][];
+        private boolean[] referenced = new boolean[16];
+        private int[] free = new int[16];
+        private int freeCount;
+        // slot + 1 per bucket, 0 for an empty bucket
+        private int[] table = new int[32];
+
+        Segment(long budget) {
+            this.budget = budget;
+        }
+
+        synchronized byte[] get(int index) {
+            int slot = find(index);
+            if (slot < 0) {
+                misses++;
+                return null;
+            }
+            hits++;
+            referenced[slot] = true;
+            return values[slot];
+        }
+
+        /**
+         * Caches value for index, evicting until it fits.
+         */
+        synchronized void put(int index, byte[] value) {
+            long cost = (long) value.length + ENTRY_OVERHEAD;
+            if (cost > budget) return;
+            // another reader may have loaded it since the miss
+            if (find(index) >= 0) return;
+
+            while (used + cost > budget) {
+                evict();
+            }
+
+            if ((count + 1) * 2 > table.length) rehash(table.length * 2);
+            int slot = freeCount > 0 ? free[--freeCount] : end++;
+            if (slot == keys.length) grow();
+            keys[slot] = index;
+            values[slot] = value;
+            referenced[slot] = false;
+            used += cost;
+            count++;
+            insert(slot);
+        }
+
+        /**
+         * Refreshes the cached copy of index, if there is one.
+         */
+        synchronized void replace(int index, byte[] src, int offset, int length) {
+            int slot = find(index);
+            if (slot < 0) return;
+            if (values[slot].length == length) {
+                // readers only ever get copies, the array can be written in place
+                System.arraycopy(src, offset, values[slot], 0, length);
+            } else {
+                used += length - values[slot].length;
+                values[slot] = Arrays.copyOfRange(src, offset, offset + length);
+            }
+        }
+
+        private void evict() {
+            while (true) {
+                if (hand >= end) hand = 0;
+                int slot = hand++;
+                if (values[slot] == null) continue;
+                if (referenced[slot]) {
+                    referenced[slot] = false;
+                    continue;
+                }
+
+                remove(slot);
+                used -= values[slot].length + ENTRY_OVERHEAD;
+                values[slot] = null;
+                count--;
+                evictions++;
+                free[freeCount++] = slot;
+                return;
+            }
+        }
+
+        private int find(int index) {
+            int mask = table.length - 1;
+            for (int b = bucket(index, mask); table[b] != 0; b = (b + 1) & mask) {
+                int slot = table[b] - 1;
+                if (keys[slot] == index) return slot;
+            }
+            return -1;
+        }
+
+        private void insert(int slot) {
+            int mask = table.length - 1;
+            int b = bucket(keys[slot], mask);
+            while (table[b] != 0) b = (b + 1) & mask;
+            table[b] = slot + 1;
+        }
+
+        /**
+         * Removes slot from the table, shifting later entries of the probe run back so lookups never stop early.
+         */
+        private void remove(int slot) {
+            int mask = table.length - 1;
+            int b = bucket(keys[slot], mask);
+            while (table[b] != slot + 1) b = (b + 1) & mask;
+
+            int hole = b;
+            for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+                int home = bucket(keys[table[next] - 1], mask);
+                // move the entry into the hole unless its home lies cyclically between the hole and where it sits
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    table[hole] = table[next];
+                    hole = next;
+                }
+            }
+            table[hole] = 0;
+        }
+
+        private void rehash(int buckets) {
+            table = new int[buckets];
+            for (int slot = 0; slot < end; slot++) {
+                if (values[slot] != null) insert(slot);
+            }
+        }
+
+        private void grow() {
+            int length = keys.length * 2;
+            keys = Arrays.copyOf(keys, length);
+            values = Arrays.copyOf(values, length);
+            referenced = Arrays.copyOf(referenced, length);
+            free = Arrays.copyOf(free, length);
+        }
+
+        private static int bucket(int index, int mask) {
+            int h = index * 0x9E3779B9;
+            return (h ^ h >>> 16) & mask;
+        }
+    }
+}
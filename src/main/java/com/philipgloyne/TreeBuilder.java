@@ -4,5 +4,44 @@ import java.util.List;
 
 public interface TreeBuilder {
 
-    List<byte[]> build(List<byte[]> txs);
+    NodeStore build(List<byte[]> txs);
+
+    /**
+     * The convention the built nodes follow, which trees over them keep to.
+     */
+    default NodeHashing hashing() {
+        return NodeHashing.REHASH_CHILDREN;
+    }
+
+    /**
+     * Number of nodes in each level of a tree built over leafCount leaves, leaves first. Each level is half the size
+     * of the one below, rounded up. A single leaf still gets a root above it (its hash), an empty tree is a lone root.
+     */
+    static int[] levelSizes(int leafCount) {
+        if (leafCount == 0) return new int[]{1};
+        if (leafCount == 1) return new int[]{1, 1};
+
+        int height = 1;
+        for (int size = leafCount; size > 1; size = (size + 1) >> 1) {
+            height++;
+        }
+
+        int[] sizes = new int[height];
+        sizes[0] = leafCount;
+        for (int level = 1; level < height; level++) {
+            sizes[level] = (sizes[level - 1] + 1) >> 1;
+        }
+        return sizes;
+    }
+
+    /**
+     * Total number of nodes (leaves included) in a tree built over leafCount leaves.
+     */
+    static int nodeCount(int leafCount) {
+        int count = 0;
+        for (int size : levelSizes(leafCount)) {
+            count += size;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,316 @@
+package com.philipgloyne;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On disk format of a tree, nodes are stored in the same level order as a MerkleTree's NodeStore so a file can be
+ * memory mapped and served without rebuilding. All values are big endian.
+ * <pre>
+ * int     magic 'MKLT'
+ * int     format version
+ * short   length of the hash algorithm name, followed by the name in UTF-8
+ * int     node width
+ * int     leaf count
+ * int     level count
+ * long[]  byte offset of each level
+ * ...     zero padding to a 4KB boundary
+ * leaves  the leaf table, a long per leaf: the byte offset of its record in the heap
+ * levels  every other level back to back in fixed width slots, the root last
+ * heap    a record per leaf from the end of the root: int capacity, int length and capacity bytes, a record is
+ *         moved past a 1GB boundary of the heap rather than cross it, see MappedNodeStore
+ * </pre>
+ * Keeping leaves out of line means the size of the file follows the total length of the leaves rather than the
+ * longest one, and a leaf outgrowing its record is appended to the heap.
+ */
+final class TreeFile {
+
+    static final int MAGIC = 0x4D4B4C54;
+    static final int VERSION = 1;
+
+    private static final int DATA_ALIGNMENT = 4096;
+    private static final int MAX_HEADER_BYTES = 16 * DATA_ALIGNMENT;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    final HashAlgorithm hashFn;
+    final int leafCount;
+    final MappedNodeStore store;
+
+    private TreeFile(HashAlgorithm hashFn, int leafCount, MappedNodeStore store) {
+        this.hashFn = hashFn;
+        this.leafCount = leafCount;
+        this.store = store;
+    }
+
+    static void write(Path path, HashAlgorithm hashFn, NodeStore values, TreeLayout layout) throws IOException {
+        int leafCount = layout.leafCount();
+        int width = nodeWidth(hashFn, leafCount);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = header(hashFn, width, leafCount);
+
+            long heapOffset = heapOffset(width, leafCount, buf.position());
+            long record = heapOffset;
+            for (int i = 0; i < leafCount; i++) {
+                int recordBytes = MappedNodeStore.RECORD_HEADER_BYTES + values.get(layout.node(0, i)).length;
+                record = MappedNodeStore.place(heapOffset, record, recordBytes);
+                buf = ensureRemaining(channel, buf, Long.BYTES);
+                buf.putLong(record);
+                record += recordBytes;
+            }
+
+            byte[] node = new byte[width];
+            for (int level = 1; level < layout.levels(); level++) {
+                for (int i = 0; i < layout.size(level); i++) {
+                    buf = ensureRemaining(channel, buf, width);
+                    values.read(layout.node(level, i), node, 0);
+                    buf.put(node);
+                }
+            }
+
+            long position = heapOffset;
+            for (int i = 0; i < leafCount; i++) {
+                byte[] leaf = values.get(layout.node(0, i));
+                buf = putRecord(channel, buf, heapOffset, position, leaf);
+                position = MappedNodeStore.place(heapOffset, position, MappedNodeStore.RECORD_HEADER_BYTES
+                        + leaf.length) + MappedNodeStore.RECORD_HEADER_BYTES + leaf.length;
+            }
+
+            drain(channel, buf);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes a tree file from levels spooled to separate files as they were built. The leaf file holds int length
+     * prefixed leaves, every other file the fixed width nodes of its level in order. The leaf file is read twice,
+     * once for the leaf table and once for the heap after the levels.
+     */
+    static void assemble(Path path, HashAlgorithm hashFn, int leafCount, Path[] levelFiles) throws IOException {
+        int width = nodeWidth(hashFn, leafCount);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = header(hashFn, width, leafCount);
+
+            long heapOffset = heapOffset(width, leafCount, buf.position());
+            try (DataInputStream leaves = leafFile(levelFiles[0])) {
+                long record = heapOffset;
+                for (int i = 0; i < leafCount; i++) {
+                    int length = leaves.readInt();
+                    leaves.skipNBytes(length);
+                    int recordBytes = MappedNodeStore.RECORD_HEADER_BYTES + length;
+                    record = MappedNodeStore.place(heapOffset, record, recordBytes);
+                    buf = ensureRemaining(channel, buf, Long.BYTES);
+                    buf.putLong(record);
+                    record += recordBytes;
+                }
+            }
+            drain(channel, buf);
+
+            for (int level = 1; level < levelFiles.length; level++) {
+                try (FileChannel nodes = FileChannel.open(levelFiles[level], StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < nodes.size()) {
+                        position += nodes.transferTo(position, nodes.size() - position, channel);
+                    }
+                }
+            }
+
+            try (DataInputStream leaves = leafFile(levelFiles[0])) {
+                long position = heapOffset;
+                for (int i = 0; i < leafCount; i++) {
+                    byte[] leaf = leaves.readNBytes(leaves.readInt());
+                    buf = putRecord(channel, buf, heapOffset, position, leaf);
+                    position = MappedNodeStore.place(heapOffset, position, MappedNodeStore.RECORD_HEADER_BYTES
+                            + leaf.length) + MappedNodeStore.RECORD_HEADER_BYTES + leaf.length;
+                }
+            }
+            drain(channel, buf);
+            channel.force(true);
+        }
+    }
+
+    private static DataInputStream leafFile(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), WRITE_BUFFER_BYTES));
+    }
+
+    /**
+     * Maps the file after checking its header, no node is read until it is first used. A file this process can't
+     * write is mapped read only, its nodes can then be read but writing one throws UnsupportedOperationException.
+     *
+     * @throws IOException if the file can't be read or isn't a tree file this version understands, including one
+     *                     whose header is corrupt
+     */
+    static TreeFile open(Path path) throws IOException {
+        boolean writable = Files.isWritable(path);
+        try (FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), MAX_HEADER_BYTES));
+            channel.read(header, 0);
+            header.flip();
+
+            if (header.remaining() < 10 || header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a merkle tree file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " has unsupported format version " + version);
+            }
+            try {
+                return open(path, channel, header, writable);
+            } catch (BufferUnderflowException e) {
+                throw new IOException(path + " has a truncated header", e);
+            }
+        }
+    }
+
+    private static TreeFile open(Path path, FileChannel channel, ByteBuffer header, boolean writable)
+            throws IOException {
+        int nameLength = header.getShort();
+        if (nameLength < 0 || nameLength > header.remaining()) {
+            throw new IOException(path + " has a corrupt hash algorithm name");
+        }
+        byte[] name = new byte[nameLength];
+        header.get(name);
+        HashAlgorithm hashFn;
+        try {
+            hashFn = HashAlgorithm.forName(new String(name, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(path + " uses an unknown hash algorithm", e);
+        }
+
+        int width = header.getInt();
+        int leafCount = header.getInt();
+        int levelCount = header.getInt();
+        if (width != hashFn.digestLength() || leafCount < 1) {
+            throw new IOException(path + " has an inconsistent header");
+        }
+        // checked before anything is allocated for the levels, a corrupt count must not size an array
+        int[] levelSizes = TreeBuilder.levelSizes(leafCount);
+        if (levelCount != levelSizes.length || levelCount > header.remaining() / Long.BYTES) {
+            throw new IOException(path + " has an inconsistent level count " + levelCount);
+        }
+
+        long[] levelOffsets = new long[levelCount];
+        for (int level = 0; level < levelCount; level++) {
+            levelOffsets[level] = header.getLong();
+        }
+        // levels are written back to back from the first aligned offset after the header
+        long expect = align(header.position());
+        for (int level = 0; level < levelCount; level++) {
+            if (levelOffsets[level] != expect) {
+                throw new IOException(path + " has an inconsistent offset for level " + level);
+            }
+            expect += (long) levelSizes[level] * (level == 0 ? Long.BYTES : width);
+        }
+        // expect is now the end of the root and the start of the heap, which holds at least a record per leaf
+        if (channel.size() < expect + (long) leafCount * MappedNodeStore.RECORD_HEADER_BYTES) {
+            throw new IOException(path + " is truncated");
+        }
+
+        int size = TreeBuilder.nodeCount(leafCount);
+        MappedNodeStore store = new MappedNodeStore(path, channel, levelOffsets[0], levelOffsets[1], expect,
+                leafCount, size, width, writable);
+        return new TreeFile(hashFn, leafCount, store);
+    }
+
+    private static int nodeWidth(HashAlgorithm hashFn, int leafCount) {
+        int width = hashFn.digestLength();
+        if (width <= 0) {
+            throw new IllegalArgumentException("only fixed width hash algorithms can be written to a tree file");
+        }
+        if (leafCount == 0) {
+            throw new IllegalArgumentException("an empty tree has no nodes to write");
+        }
+        return width;
+    }
+
+    /**
+     * A write buffer holding the header, positioned at the start of the leaves.
+     */
+    private static ByteBuffer header(HashAlgorithm hashFn, int width, int leafCount) {
+        byte[] name = hashFn.name().getBytes(StandardCharsets.UTF_8);
+        int[] levelSizes = TreeBuilder.levelSizes(leafCount);
+        long[] levelOffsets = new long[levelSizes.length];
+        levelOffsets[0] = align(headerLength(name.length, levelSizes.length));
+        levelOffsets[1] = levelOffsets[0] + (long) leafCount * Long.BYTES;
+        for (int level = 2; level < levelSizes.length; level++) {
+            levelOffsets[level] = levelOffsets[level - 1] + (long) levelSizes[level - 1] * width;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(WRITE_BUFFER_BYTES, (int) levelOffsets[0]));
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putShort((short) name.length);
+        buf.put(name);
+        buf.putInt(width);
+        buf.putInt(leafCount);
+        buf.putInt(levelSizes.length);
+        for (long offset : levelOffsets) {
+            buf.putLong(offset);
+        }
+        buf.position((int) levelOffsets[0]);
+        return buf;
+    }
+
+    /**
+     * Start of the heap, the end of the root, for a file whose leaf table starts at tableOffset.
+     */
+    private static long heapOffset(int width, int leafCount, long tableOffset) {
+        return tableOffset + (long) leafCount * Long.BYTES
+                + (long) (TreeBuilder.nodeCount(leafCount) - leafCount) * width;
+    }
+
+    /**
+     * Writes the record of leaf to the heap, which has been written up to position, zero padding first when the
+     * record belongs at the next chunk.
+     */
+    private static ByteBuffer putRecord(FileChannel channel, ByteBuffer buf, long heapOffset, long position,
+                                        byte[] leaf) throws IOException {
+        int recordBytes = MappedNodeStore.RECORD_HEADER_BYTES + leaf.length;
+        for (long pad = MappedNodeStore.place(heapOffset, position, recordBytes) - position; pad > 0; pad--) {
+            buf = ensureRemaining(channel, buf, 1);
+            buf.put((byte) 0);
+        }
+        buf = ensureRemaining(channel, buf, recordBytes);
+        buf.putInt(leaf.length);
+        buf.putInt(leaf.length);
+        buf.put(leaf);
+        return buf;
+    }
+
+    private static int headerLength(int nameLength, int levelCount) {
+        return 2 * Integer.BYTES + Short.BYTES + nameLength + 3 * Integer.BYTES + levelCount * Long.BYTES;
+    }
+
+    private static long align(long offset) {
+        return (offset + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+
+    private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buf, int needed) throws IOException {
+        if (buf.remaining() < needed) {
+            drain(channel, buf);
+            if (buf.capacity() < needed) return ByteBuffer.allocate(needed);
+        }
+        return buf;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
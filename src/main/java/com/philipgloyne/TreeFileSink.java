@@ -0,0 +1,98 @@
+package com.philipgloyne;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the nodes of a streamed build to a tree file that MerkleTree.open can map. The level offsets aren't known
+ * until the last leaf, so each level is spooled to its own temporary file next to the target and the tree file is
+ * assembled from them on finish.
+ * <p>
+ * The temporary files are deleted once the tree file is assembled, when writing a node or assembling fails, and on
+ * close. A build abandoned part way, e.g. because its source failed, leaves them behind unless the sink is closed, so
+ * open it in a try-with-resources block around the build.
+ */
+public class TreeFileSink implements NodeSink, Closeable {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Path path;
+    private final HashAlgorithm hashFn;
+    private final List<Path> levelFiles = new ArrayList<>();
+    private final List<DataOutputStream> levels = new ArrayList<>();
+
+    public TreeFileSink(Path path, HashAlgorithm hashFn) {
+        this.path = path;
+        this.hashFn = hashFn;
+    }
+
+    @Override
+    public void node(int level, byte[] value) throws IOException {
+        try {
+            while (levels.size() <= level) {
+                Path levelFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + ".level",
+                        "");
+                levelFiles.add(levelFile);
+                OutputStream out = Files.newOutputStream(levelFile);
+                levels.add(new DataOutputStream(new BufferedOutputStream(out, BUFFER_BYTES)));
+            }
+
+            DataOutputStream out = levels.get(level);
+            if (level == 0) out.writeInt(value.length);
+            out.write(value);
+        } catch (IOException e) {
+            closeQuietly(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void finish(int leafCount) throws IOException {
+        try {
+            for (DataOutputStream level : levels) {
+                level.close();
+            }
+            TreeFile.assemble(path, hashFn, leafCount, levelFiles.toArray(new Path[0]));
+        } catch (IOException e) {
+            closeQuietly(e);
+            throw e;
+        }
+        close();
+    }
+
+    /**
+     * Deletes the temporary level files, the tree file is left alone. Does nothing after finish.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (DataOutputStream level : levels) {
+                level.close();
+            }
+        } finally {
+            levels.clear();
+            try {
+                for (Path levelFile : levelFiles) {
+                    Files.deleteIfExists(levelFile);
+                }
+            } finally {
+                levelFiles.clear();
+            }
+        }
+    }
+
+    private void closeQuietly(IOException cause) {
+        try {
+            close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+}
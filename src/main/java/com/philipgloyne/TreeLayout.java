@@ -0,0 +1,140 @@
+package com.philipgloyne;
+
+/**
+ * Shape of a tree in its level ordered NodeStore: how many nodes each level holds and where each level starts.
+ * Levels may be laid out with room for more leaves than the tree has (capacity), so appending leaves changes the sizes
+ * but never moves a level. The capacity may need more levels than the leaves do, the root is then the top of the
+ * levels in use and the slots above it stay empty until the tree grows into them.
+ * <p>
+ * Immutable, a tree swaps in a new layout when its shape changes and otherwise reads the current one with plain int
+ * arithmetic on every proof or update.
+ */
+final class TreeLayout {
+
+    private final int leafCount;
+    private final int capacity;
+    private final int[] sizes;
+    private final int[] starts;
+    private final int nodeCount;
+
+    private TreeLayout(int leafCount, int capacity, int[] sizes, int[] starts, int nodeCount) {
+        this.leafCount = leafCount;
+        this.capacity = capacity;
+        this.sizes = sizes;
+        this.starts = starts;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Layout of a tree with exactly leafCount leaves and no spare room, as the builders produce.
+     */
+    static TreeLayout of(int leafCount) {
+        return of(leafCount, leafCount);
+    }
+
+    /**
+     * Layout of leafCount leaves in levels with room for capacity leaves.
+     */
+    static TreeLayout of(int leafCount, int capacity) {
+        if (leafCount > capacity) {
+            throw new IllegalArgumentException(leafCount + " leaves don't fit a capacity of " + capacity);
+        }
+        int[] capacities = TreeBuilder.levelSizes(capacity);
+        int[] starts = new int[capacities.length];
+        for (int level = 1; level < capacities.length; level++) {
+            starts[level] = starts[level - 1] + capacities[level - 1];
+        }
+        return new TreeLayout(leafCount, capacity, TreeBuilder.levelSizes(leafCount), starts,
+                starts[starts.length - 1] + 1);
+    }
+
+    /**
+     * The same levels holding leafCount leaves.
+     */
+    TreeLayout withLeafCount(int leafCount) {
+        if (leafCount > capacity) {
+            throw new IllegalArgumentException(leafCount + " leaves don't fit a capacity of " + capacity);
+        }
+        return new TreeLayout(leafCount, capacity, TreeBuilder.levelSizes(leafCount), starts, nodeCount);
+    }
+
+    int leafCount() {
+        return leafCount;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of levels, leaves and root included.
+     */
+    int levels() {
+        return sizes.length;
+    }
+
+    /**
+     * Levels above the leaves, the most nodes a single proof can hold.
+     */
+    int height() {
+        return sizes.length - 1;
+    }
+
+    int size(int level) {
+        return sizes[level];
+    }
+
+    int start(int level) {
+        return starts[level];
+    }
+
+    /**
+     * Position in the store of the node at index of level.
+     */
+    int node(int level, int index) {
+        return starts[level] + index;
+    }
+
+    /**
+     * Position in the store of the root.
+     */
+    int root() {
+        return starts[sizes.length - 1];
+    }
+
+    /**
+     * Nodes the store needs room for, spare capacity included.
+     */
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Writes the store positions of the proof for leaf index into dst, from the leaf's sibling up.
+     *
+     * @return number of positions written, levels where the path has no sibling are skipped
+     */
+    int proofNodes(int index, int[] dst) {
+        int count = 0;
+        for (int level = 0; level < sizes.length - 1; level++) {
+            int sibling = index ^ 1;
+            if (sibling < sizes[level]) {
+                dst[count++] = starts[level] + sibling;
+            }
+            index >>= 1;
+        }
+        return count;
+    }
+
+    /**
+     * Number of nodes in the proof for leaf index.
+     */
+    int proofLength(int index) {
+        int count = 0;
+        for (int level = 0; level < sizes.length - 1; level++) {
+            if ((index ^ 1) < sizes[level]) count++;
+            index >>= 1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,246 @@
+package com.philipgloyne;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * A segment of a DurableMerkleTree's write-ahead log, an append only file of leaf mutations. Records are buffered
+ * until {@link #commit()} writes the whole buffer and forces it to disk with one fsync, so a batch of mutations costs
+ * a single sync however many records it holds. All values are big endian.
+ * <pre>
+ * int     magic 'MKWL'
+ * int     format version
+ * short   length of the hash algorithm name, followed by the name in UTF-8
+ * long    sequence number of the segment's first record
+ * records each: int length of the body, int CRC32C of the body, then the body:
+ *         byte type, long sequence number, int leaf index, the leaf's new value
+ * </pre>
+ * The records of a batch are flagged in their type as continued, all but the last. A crash can leave a partly written
+ * record, or part of a batch, at the end. Reading stops at the first record that is short or fails its checksum and
+ * only whole batches are read back, everything before them was committed in order.
+ */
+final class TreeLog implements Closeable {
+
+    static final int MAGIC = 0x4D4B574C;
+    static final int VERSION = 1;
+
+    static final byte UPDATE = 1;
+    static final byte APPEND = 2;
+
+    // set on the type of every record of a batch but the last
+    private static final byte CONTINUED = 0x10;
+
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+    private static final int BODY_HEADER = 1 + Long.BYTES + Integer.BYTES;
+    private static final int BUFFER_BYTES = 1 << 16;
+    // a length past this is a torn or corrupt record rather than a huge leaf
+    private static final int MAX_BODY_BYTES = 1 << 30;
+
+    private final FileChannel channel;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private int pending;
+
+    private TreeLog(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Starts a new segment at path whose first record will be firstSequence, the header is forced before returning.
+     */
+    static TreeLog create(Path path, String algorithm, long firstSequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            byte[] name = algorithm.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + Short.BYTES + name.length + Long.BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putShort((short) name.length).put(name).putLong(firstSequence);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+            return new TreeLog(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reopens a segment for appending after its last good record at end, cutting off anything after it.
+     */
+    static TreeLog reopen(Path path, long end) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() > end) {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            channel.position(end);
+            return new TreeLog(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Buffers a record, nothing reaches the file until the next commit.
+     *
+     * @param last - the record ends its batch, a single mutation is a batch of one
+     */
+    void add(byte type, long sequence, int index, byte[] value, boolean last) {
+        int body = BODY_HEADER + value.length;
+        if (buffer.remaining() < RECORD_HEADER + body) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + RECORD_HEADER
+                    + body));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        int start = buffer.position();
+        buffer.putInt(body);
+        buffer.putInt(0);
+        buffer.put(last ? type : (byte) (type | CONTINUED)).putLong(sequence).putInt(index).put(value);
+        crc.reset();
+        crc.update(buffer.array(), start + RECORD_HEADER, body);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+        pending++;
+    }
+
+    /**
+     * Records buffered since the last commit.
+     */
+    int pending() {
+        return pending;
+    }
+
+    /**
+     * Writes the buffered records and forces them to disk, a no-op when there are none.
+     */
+    void commit() throws IOException {
+        if (pending == 0) return;
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        if (buffer.capacity() > BUFFER_BYTES) {
+            buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        } else {
+            buffer.clear();
+        }
+        pending = 0;
+    }
+
+    /**
+     * Closes the segment, dropping any records not yet committed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Receives the records of a segment in order.
+     */
+    interface Replay {
+
+        void apply(byte type, long sequence, int index, byte[] value) throws IOException;
+    }
+
+    /**
+     * The header of a segment along with where its last whole batch ends.
+     */
+    static final class Segment {
+
+        final String algorithm;
+        final long firstSequence;
+        final long end;
+
+        private Segment(String algorithm, long firstSequence, long end) {
+            this.algorithm = algorithm;
+            this.firstSequence = firstSequence;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Name of the hash algorithm recorded in the header of the segment at path.
+     */
+    static String algorithm(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            if (in.readInt() != MAGIC) throw new IOException(path + " is not a tree log");
+            in.readInt();
+            return new String(in.readNBytes(in.readShort()), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads the segment at path, handing the records of each whole batch to replay until the first torn or corrupt
+     * record.
+     *
+     * @throws IOException if the file can't be read or isn't a log segment this version understands
+     */
+    static Segment read(Path path, Replay replay) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC) throw new IOException(path + " is not a tree log");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException(path + " has unsupported format version " + version);
+            byte[] name = in.readNBytes(in.readShort());
+            long firstSequence = in.readLong();
+            long end = 2L * Integer.BYTES + Short.BYTES + name.length + Long.BYTES;
+
+            CRC32C crc = new CRC32C();
+            List<byte[]> batch = new ArrayList<>();
+            long batchBytes = 0;
+            while (true) {
+                byte[] body;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < BODY_HEADER || length > MAX_BODY_BYTES) break;
+                    body = in.readNBytes(length);
+                    if (body.length < length) break;
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != checksum) break;
+                } catch (EOFException e) {
+                    break;
+                }
+
+                batch.add(body);
+                batchBytes += RECORD_HEADER + body.length;
+                if ((body[0] & CONTINUED) != 0) continue;
+
+                for (byte[] next : batch) {
+                    ByteBuffer record = ByteBuffer.wrap(next);
+                    byte type = record.get();
+                    long sequence = record.getLong();
+                    int index = record.getInt();
+                    byte[] value = new byte[record.remaining()];
+                    record.get(value);
+                    replay.apply((byte) (type & ~CONTINUED), sequence, index, value);
+                }
+                end += batchBytes;
+                batch.clear();
+                batchBytes = 0;
+            }
+            return new Segment(new String(name, StandardCharsets.UTF_8), firstSequence, end);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.philipgloyne;
+
+/**
+ * Instrumentation hooks for builders and trees: where build time goes level by level, how many digests reads and
+ * writes cost, and how long callers of a ThreadSafeMerkleTree wait for its locks. Every hook defaults to doing
+ * nothing, implement the ones of interest, or use {@link MetricsRecorder} to keep them in memory.
+ * <p>
+ * Hooks are called on the thread doing the work, possibly many threads at once, so implementations must be thread
+ * safe and should be cheap. Times are in nanoseconds from System.nanoTime. With {@link #NONE}, the default
+ * everywhere, instrumented code skips reading the clock altogether and the empty calls are inlined away.
+ */
+public interface TreeMetrics {
+
+    /**
+     * Records nothing.
+     */
+    TreeMetrics NONE = new TreeMetrics() {
+    };
+
+    /**
+     * A builder computed the nodes of level (1 being the parents of the leaves). Builders that don't complete a level
+     * before starting the next, such as ForkJoinTreeBuilder, only report {@link #treeBuilt}.
+     */
+    default void levelBuilt(int level, int nodes, long nanos) {
+    }
+
+    /**
+     * A builder finished a tree over leaves leaves.
+     */
+    default void treeBuilt(int leaves, long nanos) {
+    }
+
+    /**
+     * A proof was created, served from the proof cache or read from the tree.
+     */
+    default void proofCreated(long nanos) {
+    }
+
+    /**
+     * An updateTx or updateTxs call changed leaves leaves, computing hashes digests to bring the root up to date.
+     */
+    default void updated(int leaves, long hashes, long nanos) {
+    }
+
+    /**
+     * An addTx or addTxs call appended leaves leaves, computing hashes digests along the new right edge.
+     */
+    default void appended(int leaves, long hashes, long nanos) {
+    }
+
+    /**
+     * A caller waited nanos for the read or write lock of a ThreadSafeMerkleTree, close to 0 when it was free.
+     */
+    default void lockWaited(boolean write, long nanos) {
+    }
+}
@@ -0,0 +1,290 @@
+package com.philipgloyne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Anti-entropy between two replicas of a tree: finds the leaves that differ by exchanging node hashes, descending
+ * only into subtrees whose hashes differ, so the cost grows with the number of differences k (O(k log n) hashes)
+ * rather than with the size of the trees.
+ * <p>
+ * The replica looking for differences runs a {@link Session}, which produces {@link Request}s for batches of node
+ * positions one level at a time. The other replica answers each with {@link MerkleTree#respond(Request)}, and the
+ * session compares the {@link Response} against its own tree to pick the next batch. Messages are plain immutable
+ * objects, so they can be queued, handed between threads or serialised by whatever carries them.
+ * <p>
+ * Trees of different sizes are compared over the leaves they share, the extra leaves of the larger are reported as
+ * different. Leaves are compared by hash, so both trees must use the same hash algorithm.
+ */
+public final class TreeSync {
+
+    private TreeSync() {
+    }
+
+    /**
+     * Runs a session against a tree in the same process, in batches of at most batchSize nodes.
+     *
+     * @return the finished session, see {@link Session#differences()}
+     */
+    public static Session reconcile(MerkleTree local, MerkleTree remote, int batchSize) {
+        Session session = new Session(local, batchSize);
+        for (Request request = session.next(); request != null; request = session.next()) {
+            session.receive(remote.respond(request));
+        }
+        return session;
+    }
+
+    /**
+     * Asks for the hashes of the nodes at indexes of level, or for the root when level is -1. Leaves (level 0) are
+     * answered with their hashes rather than the leaves themselves.
+     */
+    public static final class Request {
+
+        static final int ROOT = -1;
+
+        private final int level;
+        private final int[] indexes;
+
+        public Request(int level, int[] indexes) {
+            this.level = level;
+            this.indexes = indexes.clone();
+        }
+
+        static Request root() {
+            return new Request(ROOT, new int[]{0});
+        }
+
+        public boolean isRoot() {
+            return level == ROOT;
+        }
+
+        public int level() {
+            return level;
+        }
+
+        public int[] indexes() {
+            return indexes.clone();
+        }
+
+        int[] indexesUnsafe() {
+            return indexes;
+        }
+    }
+
+    /**
+     * The hashes asked for by a request, in the order asked, along with the responding tree's leaf count and hash
+     * algorithm.
+     */
+    public static final class Response {
+
+        private final String algorithm;
+        private final int leafCount;
+        private final List<byte[]> hashes;
+
+        public Response(String algorithm, int leafCount, List<byte[]> hashes) {
+            this.algorithm = algorithm;
+            this.leafCount = leafCount;
+            this.hashes = List.copyOf(hashes);
+        }
+
+        public String algorithm() {
+            return algorithm;
+        }
+
+        public int leafCount() {
+            return leafCount;
+        }
+
+        public List<byte[]> hashes() {
+            return hashes;
+        }
+    }
+
+    /**
+     * The comparing side of an exchange. Starts by asking for the root, then walks the levels down breadth first.
+     * Positions that match are dropped, the children of those that don't make up the next level, and mismatched
+     * leaves are collected as differences. Not thread safe, one session serves one exchange.
+     */
+    public static final class Session {
+
+        private final MerkleTree local;
+        private final int batchSize;
+        private final List<LeafRange> differences = new ArrayList<>();
+        private int[] localSizes;
+        private int[] remoteSizes;
+        // positions left to ask for in the current level, and the children found to differ so far for the next
+        private int level = Request.ROOT;
+        private int[] pending = new int[0];
+        private int pendingCount;
+        private int cursor;
+        private int[] next = new int[16];
+        private int nextCount;
+        private Request outstanding;
+        // leaves only the larger tree has
+        private LeafRange extra;
+        private boolean done;
+        private int messages;
+        private long hashesReceived;
+
+        public Session(MerkleTree local, int batchSize) {
+            if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+            this.local = local;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * The next request to send, null once the session is done.
+         *
+         * @throws IllegalStateException if the response to the last request hasn't been received
+         */
+        public Request next() {
+            if (done) return null;
+            if (outstanding != null) throw new IllegalStateException("waiting for a response");
+
+            if (level == Request.ROOT) {
+                outstanding = Request.root();
+            } else {
+                int count = Math.min(batchSize, pendingCount - cursor);
+                outstanding = new Request(level, Arrays.copyOfRange(pending, cursor, cursor + count));
+                cursor += count;
+            }
+            return outstanding;
+        }
+
+        /**
+         * Compares the response to the last request against the local tree.
+         *
+         * @throws IllegalArgumentException if the response doesn't answer the request or comes from a tree hashed
+         *                                  with another algorithm
+         */
+        public void receive(Response response) {
+            if (outstanding == null) throw new IllegalStateException("no request outstanding");
+            Request request = outstanding;
+            outstanding = null;
+            messages++;
+            hashesReceived += response.hashes().size();
+
+            Response own = local.respond(request);
+            if (!own.algorithm().equals(response.algorithm())) {
+                throw new IllegalArgumentException("trees are hashed with " + own.algorithm() + " and "
+                        + response.algorithm());
+            }
+            if (response.hashes().size() != request.indexesUnsafe().length) {
+                throw new IllegalArgumentException("expected " + request.indexesUnsafe().length + " hashes but got "
+                        + response.hashes().size());
+            }
+
+            if (request.isRoot()) {
+                start(own, response);
+            } else {
+                compare(request.indexesUnsafe(), own.hashes(), response.hashes());
+            }
+            advance();
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Leaves that differ between the trees, as ascending non-adjacent ranges.
+         *
+         * @throws IllegalStateException if the session isn't done
+         */
+        public List<LeafRange> differences() {
+            if (!done) throw new IllegalStateException("session isn't done");
+            return Collections.unmodifiableList(differences);
+        }
+
+        /**
+         * Request and response pairs exchanged so far.
+         */
+        public int messages() {
+            return messages;
+        }
+
+        public long hashesReceived() {
+            return hashesReceived;
+        }
+
+        private void start(Response own, Response remote) {
+            int localCount = own.leafCount();
+            int remoteCount = remote.leafCount();
+            int common = Math.min(localCount, remoteCount);
+            if (common < Math.max(localCount, remoteCount)) {
+                extra = new LeafRange(common, Math.max(localCount, remoteCount));
+            }
+            if (common == 0 || (localCount == remoteCount
+                    && Arrays.equals(own.hashes().get(0), remote.hashes().get(0)))) {
+                return;
+            }
+
+            localSizes = TreeBuilder.levelSizes(localCount);
+            remoteSizes = TreeBuilder.levelSizes(remoteCount);
+            // the smaller tree's root level is the lowest whose node 0 covers every shared leaf in both trees. Of
+            // equal sized trees that is the root already compared, so go straight to its children
+            int top = Math.min(localSizes.length, remoteSizes.length) - 1;
+            if (localCount == remoteCount) {
+                level = top;
+                compare(new int[]{0}, List.of(own.hashes().get(0)), List.of(remote.hashes().get(0)));
+            } else {
+                level = top + 1;
+                add(0);
+            }
+        }
+
+        private void compare(int[] indexes, List<byte[]> own, List<byte[]> remote) {
+            int childLimit = level == 0 ? 0 : Math.min(localSizes[level - 1], remoteSizes[level - 1]);
+            for (int i = 0; i < indexes.length; i++) {
+                if (Arrays.equals(own.get(i), remote.get(i))) continue;
+
+                int index = indexes[i];
+                if (level == 0) {
+                    addDifference(index, index + 1);
+                } else {
+                    if (2 * index < childLimit) add(2 * index);
+                    if (2 * index + 1 < childLimit) add(2 * index + 1);
+                }
+            }
+        }
+
+        /**
+         * Moves to the next level once the current one has been asked for in full, finishing when nothing is left.
+         */
+        private void advance() {
+            if (cursor < pendingCount) return;
+            if (nextCount == 0 || level == 0) {
+                if (extra != null) addDifference(extra.start(), extra.end());
+                done = true;
+                return;
+            }
+
+            int[] swap = pending;
+            pending = next;
+            pendingCount = nextCount;
+            next = swap.length > 0 ? swap : new int[16];
+            nextCount = 0;
+            cursor = 0;
+            level--;
+        }
+
+        private void add(int index) {
+            if (nextCount == next.length) next = Arrays.copyOf(next, next.length * 2);
+            next[nextCount++] = index;
+        }
+
+        /**
+         * Differences are found in ascending order, so a range either extends the last one or starts a new one.
+         */
+        private void addDifference(int start, int end) {
+            int last = differences.size() - 1;
+            if (last >= 0 && differences.get(last).end() == start) {
+                differences.set(last, new LeafRange(differences.get(last).start(), end));
+            } else {
+                differences.add(new LeafRange(start, end));
+            }
+        }
+    }
+}
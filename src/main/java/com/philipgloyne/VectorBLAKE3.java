@@ -0,0 +1,253 @@
+package com.philipgloyne;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * BLAKE3 of many equal length messages at once, one message per lane of the widest int vector the CPU has (4 to 16
+ * lanes). Only messages of a single chunk (up to 1024 bytes) are batched, which covers every node: two 32 byte
+ * children are one block, so a level of LANES nodes costs about one scalar compression.
+ * <p>
+ * Uses the incubating jdk.incubator.vector module, callers must check it is in the boot layer before this class is
+ * loaded, see BLAKE3.
+ */
+final class VectorBLAKE3 {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Messages hashed per compression, 0 when vectors are too narrow to be worth it.
+     */
+    static final int LANES = SPECIES.length() >= 4 ? SPECIES.length() : 0;
+
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_LEN = 1024;
+
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 2;
+    private static final int ROOT = 8;
+
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // chaining value and message block word by word, each word holding one value per lane
+    private static final ThreadLocal<int[][]> SCRATCH =
+            ThreadLocal.withInitial(() -> new int[][]{new int[8 * LANES], new int[16 * LANES]});
+
+    private VectorBLAKE3() {
+    }
+
+    /**
+     * Hashes as many whole groups of LANES messages as there are among count, the rest are left to the caller, as
+     * are messages longer than a chunk.
+     *
+     * @return number of messages hashed
+     */
+    static int digestAll(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int count) {
+        if (LANES == 0 || length > CHUNK_LEN) return 0;
+
+        int[][] scratch = SCRATCH.get();
+        int[] cv = scratch[0];
+        int[] m = scratch[1];
+        int blocks = Math.max(1, (length + BLOCK_LEN - 1) / BLOCK_LEN);
+        int groups = count / LANES;
+        for (int g = 0; g < groups; g++) {
+            int first = g * LANES;
+            for (int i = 0; i < 8; i++) {
+                Arrays.fill(cv, i * LANES, (i + 1) * LANES, IV[i]);
+            }
+
+            for (int block = 0; block < blocks; block++) {
+                loadBlock(src, srcOffset + first * length, length, block, m);
+                int flags = block == 0 ? CHUNK_START : 0;
+                if (block == blocks - 1) {
+                    flags |= CHUNK_END | ROOT;
+                }
+                compress(cv, m, Math.min(BLOCK_LEN, length - block * BLOCK_LEN), flags);
+            }
+
+            for (int lane = 0; lane < LANES; lane++) {
+                int out = dstOffset + (first + lane) * 32;
+                for (int i = 0; i < 8; i++) {
+                    INT.set(dst, out + i * 4, cv[i * LANES + lane]);
+                }
+            }
+        }
+        return groups * LANES;
+    }
+
+    /**
+     * Fills the message with a block of each lane's message, zero padded past its end. Messages are length bytes
+     * each and laid out back to back from offset.
+     */
+    private static void loadBlock(byte[] src, int offset, int length, int block, int[] m) {
+        for (int t = 0; t < 16; t++) {
+            int pos = block * BLOCK_LEN + t * 4;
+            int row = t * LANES;
+            if (pos + 4 <= length) {
+                for (int lane = 0; lane < LANES; lane++) {
+                    m[row + lane] = (int) INT.get(src, offset + lane * length + pos);
+                }
+            } else if (pos >= length) {
+                Arrays.fill(m, row, row + LANES, 0);
+            } else {
+                // the word holding the last bytes of each message
+                for (int lane = 0; lane < LANES; lane++) {
+                    int word = 0;
+                    for (int b = 0; pos + b < length; b++) {
+                        word |= (src[offset + lane * length + pos + b] & 0xFF) << (8 * b);
+                    }
+                    m[row + lane] = word;
+                }
+            }
+        }
+    }
+
+    /**
+     * The compression function of every lane, leaving each lane's next chaining value in cv. The counter is always
+     * 0 as only the first chunk is hashed.
+     * <p>
+     * The rounds are a loop permuting the message words rather than unrolled as in BLAKE3, the unrolled form is too
+     * large for C2 to keep in vector registers and ran an order of magnitude slower.
+     */
+    private static void compress(int[] cv, int[] m, int blockLen, int flags) {
+        IntVector s0 = IntVector.fromArray(SPECIES, cv, 0);
+        IntVector s1 = IntVector.fromArray(SPECIES, cv, LANES);
+        IntVector s2 = IntVector.fromArray(SPECIES, cv, 2 * LANES);
+        IntVector s3 = IntVector.fromArray(SPECIES, cv, 3 * LANES);
+        IntVector s4 = IntVector.fromArray(SPECIES, cv, 4 * LANES);
+        IntVector s5 = IntVector.fromArray(SPECIES, cv, 5 * LANES);
+        IntVector s6 = IntVector.fromArray(SPECIES, cv, 6 * LANES);
+        IntVector s7 = IntVector.fromArray(SPECIES, cv, 7 * LANES);
+        IntVector s8 = IntVector.broadcast(SPECIES, IV[0]);
+        IntVector s9 = IntVector.broadcast(SPECIES, IV[1]);
+        IntVector s10 = IntVector.broadcast(SPECIES, IV[2]);
+        IntVector s11 = IntVector.broadcast(SPECIES, IV[3]);
+        IntVector s12 = IntVector.zero(SPECIES);
+        IntVector s13 = IntVector.zero(SPECIES);
+        IntVector s14 = IntVector.broadcast(SPECIES, blockLen);
+        IntVector s15 = IntVector.broadcast(SPECIES, flags);
+
+        IntVector m0 = IntVector.fromArray(SPECIES, m, 0);
+        IntVector m1 = IntVector.fromArray(SPECIES, m, LANES);
+        IntVector m2 = IntVector.fromArray(SPECIES, m, 2 * LANES);
+        IntVector m3 = IntVector.fromArray(SPECIES, m, 3 * LANES);
+        IntVector m4 = IntVector.fromArray(SPECIES, m, 4 * LANES);
+        IntVector m5 = IntVector.fromArray(SPECIES, m, 5 * LANES);
+        IntVector m6 = IntVector.fromArray(SPECIES, m, 6 * LANES);
+        IntVector m7 = IntVector.fromArray(SPECIES, m, 7 * LANES);
+        IntVector m8 = IntVector.fromArray(SPECIES, m, 8 * LANES);
+        IntVector m9 = IntVector.fromArray(SPECIES, m, 9 * LANES);
+        IntVector m10 = IntVector.fromArray(SPECIES, m, 10 * LANES);
+        IntVector m11 = IntVector.fromArray(SPECIES, m, 11 * LANES);
+        IntVector m12 = IntVector.fromArray(SPECIES, m, 12 * LANES);
+        IntVector m13 = IntVector.fromArray(SPECIES, m, 13 * LANES);
+        IntVector m14 = IntVector.fromArray(SPECIES, m, 14 * LANES);
+        IntVector m15 = IntVector.fromArray(SPECIES, m, 15 * LANES);
+
+        for (int round = 0; round < 7; round++) {
+            s0 = s0.add(s4).add(m0);
+            s12 = s12.lanewise(VectorOperators.XOR, s0).lanewise(VectorOperators.ROR, 16);
+            s8 = s8.add(s12);
+            s4 = s4.lanewise(VectorOperators.XOR, s8).lanewise(VectorOperators.ROR, 12);
+            s0 = s0.add(s4).add(m1);
+            s12 = s12.lanewise(VectorOperators.XOR, s0).lanewise(VectorOperators.ROR, 8);
+            s8 = s8.add(s12);
+            s4 = s4.lanewise(VectorOperators.XOR, s8).lanewise(VectorOperators.ROR, 7);
+            s1 = s1.add(s5).add(m2);
+            s13 = s13.lanewise(VectorOperators.XOR, s1).lanewise(VectorOperators.ROR, 16);
+            s9 = s9.add(s13);
+            s5 = s5.lanewise(VectorOperators.XOR, s9).lanewise(VectorOperators.ROR, 12);
+            s1 = s1.add(s5).add(m3);
+            s13 = s13.lanewise(VectorOperators.XOR, s1).lanewise(VectorOperators.ROR, 8);
+            s9 = s9.add(s13);
+            s5 = s5.lanewise(VectorOperators.XOR, s9).lanewise(VectorOperators.ROR, 7);
+            s2 = s2.add(s6).add(m4);
+            s14 = s14.lanewise(VectorOperators.XOR, s2).lanewise(VectorOperators.ROR, 16);
+            s10 = s10.add(s14);
+            s6 = s6.lanewise(VectorOperators.XOR, s10).lanewise(VectorOperators.ROR, 12);
+            s2 = s2.add(s6).add(m5);
+            s14 = s14.lanewise(VectorOperators.XOR, s2).lanewise(VectorOperators.ROR, 8);
+            s10 = s10.add(s14);
+            s6 = s6.lanewise(VectorOperators.XOR, s10).lanewise(VectorOperators.ROR, 7);
+            s3 = s3.add(s7).add(m6);
+            s15 = s15.lanewise(VectorOperators.XOR, s3).lanewise(VectorOperators.ROR, 16);
+            s11 = s11.add(s15);
+            s7 = s7.lanewise(VectorOperators.XOR, s11).lanewise(VectorOperators.ROR, 12);
+            s3 = s3.add(s7).add(m7);
+            s15 = s15.lanewise(VectorOperators.XOR, s3).lanewise(VectorOperators.ROR, 8);
+            s11 = s11.add(s15);
+            s7 = s7.lanewise(VectorOperators.XOR, s11).lanewise(VectorOperators.ROR, 7);
+            s0 = s0.add(s5).add(m8);
+            s15 = s15.lanewise(VectorOperators.XOR, s0).lanewise(VectorOperators.ROR, 16);
+            s10 = s10.add(s15);
+            s5 = s5.lanewise(VectorOperators.XOR, s10).lanewise(VectorOperators.ROR, 12);
+            s0 = s0.add(s5).add(m9);
+            s15 = s15.lanewise(VectorOperators.XOR, s0).lanewise(VectorOperators.ROR, 8);
+            s10 = s10.add(s15);
+            s5 = s5.lanewise(VectorOperators.XOR, s10).lanewise(VectorOperators.ROR, 7);
+            s1 = s1.add(s6).add(m10);
+            s12 = s12.lanewise(VectorOperators.XOR, s1).lanewise(VectorOperators.ROR, 16);
+            s11 = s11.add(s12);
+            s6 = s6.lanewise(VectorOperators.XOR, s11).lanewise(VectorOperators.ROR, 12);
+            s1 = s1.add(s6).add(m11);
+            s12 = s12.lanewise(VectorOperators.XOR, s1).lanewise(VectorOperators.ROR, 8);
+            s11 = s11.add(s12);
+            s6 = s6.lanewise(VectorOperators.XOR, s11).lanewise(VectorOperators.ROR, 7);
+            s2 = s2.add(s7).add(m12);
+            s13 = s13.lanewise(VectorOperators.XOR, s2).lanewise(VectorOperators.ROR, 16);
+            s8 = s8.add(s13);
+            s7 = s7.lanewise(VectorOperators.XOR, s8).lanewise(VectorOperators.ROR, 12);
+            s2 = s2.add(s7).add(m13);
+            s13 = s13.lanewise(VectorOperators.XOR, s2).lanewise(VectorOperators.ROR, 8);
+            s8 = s8.add(s13);
+            s7 = s7.lanewise(VectorOperators.XOR, s8).lanewise(VectorOperators.ROR, 7);
+            s3 = s3.add(s4).add(m14);
+            s14 = s14.lanewise(VectorOperators.XOR, s3).lanewise(VectorOperators.ROR, 16);
+            s9 = s9.add(s14);
+            s4 = s4.lanewise(VectorOperators.XOR, s9).lanewise(VectorOperators.ROR, 12);
+            s3 = s3.add(s4).add(m15);
+            s14 = s14.lanewise(VectorOperators.XOR, s3).lanewise(VectorOperators.ROR, 8);
+            s9 = s9.add(s14);
+            s4 = s4.lanewise(VectorOperators.XOR, s9).lanewise(VectorOperators.ROR, 7);
+
+            // the next round reads the words in permuted order
+            IntVector t0 = m0, t1 = m1, t2 = m2, t3 = m3, t4 = m4, t5 = m5, t6 = m6, t7 = m7;
+            IntVector t8 = m8, t9 = m9, t10 = m10, t11 = m11, t12 = m12, t13 = m13, t14 = m14, t15 = m15;
+            m0 = t2;
+            m1 = t6;
+            m2 = t3;
+            m3 = t10;
+            m4 = t7;
+            m5 = t0;
+            m6 = t4;
+            m7 = t13;
+            m8 = t1;
+            m9 = t11;
+            m10 = t12;
+            m11 = t5;
+            m12 = t9;
+            m13 = t14;
+            m14 = t15;
+            m15 = t8;
+        }
+
+        s0.lanewise(VectorOperators.XOR, s8).intoArray(cv, 0);
+        s1.lanewise(VectorOperators.XOR, s9).intoArray(cv, LANES);
+        s2.lanewise(VectorOperators.XOR, s10).intoArray(cv, 2 * LANES);
+        s3.lanewise(VectorOperators.XOR, s11).intoArray(cv, 3 * LANES);
+        s4.lanewise(VectorOperators.XOR, s12).intoArray(cv, 4 * LANES);
+        s5.lanewise(VectorOperators.XOR, s13).intoArray(cv, 5 * LANES);
+        s6.lanewise(VectorOperators.XOR, s14).intoArray(cv, 6 * LANES);
+        s7.lanewise(VectorOperators.XOR, s15).intoArray(cv, 7 * LANES);
+    }
+}
@@ -0,0 +1,194 @@
+package com.philipgloyne;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * SHA-256 of many equal length messages at once, one message per lane of the widest int vector the CPU has (4 to 16
+ * lanes). Every lane runs the same rounds on its own message, so a batch of LANES messages costs about as much as
+ * one message through the scalar compression.
+ * <p>
+ * Uses the incubating jdk.incubator.vector module, callers must check it is in the boot layer before this class is
+ * loaded, see SHA256.
+ */
+final class VectorSHA256 {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Messages hashed per compression, 0 when vectors are too narrow to be worth it.
+     */
+    static final int LANES = SPECIES.length() >= 4 ? SPECIES.length() : 0;
+
+    private static final int[] H0 = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    // state and message schedule word by word, each word holding one value per lane
+    private static final ThreadLocal<int[][]> SCRATCH =
+            ThreadLocal.withInitial(() -> new int[][]{new int[8 * LANES], new int[64 * LANES]});
+
+    private VectorSHA256() {
+    }
+
+    /**
+     * Hashes as many whole groups of LANES messages as there are among count, the rest are left to the caller.
+     *
+     * @param twice - hash each digest again, SHA256D
+     * @return number of messages hashed
+     */
+    static int digestAll(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int count,
+                         boolean twice) {
+        if (LANES == 0) return 0;
+
+        int[][] scratch = SCRATCH.get();
+        int[] state = scratch[0];
+        int[] w = scratch[1];
+        int groups = count / LANES;
+        for (int g = 0; g < groups; g++) {
+            int first = g * LANES;
+            for (int i = 0; i < 8; i++) {
+                Arrays.fill(state, i * LANES, (i + 1) * LANES, H0[i]);
+            }
+
+            int blocks = (length + 8) / 64 + 1;
+            for (int block = 0; block < blocks; block++) {
+                loadBlock(src, srcOffset + first * length, length, block, w);
+                compress(state, w);
+            }
+            if (twice) {
+                // the digest is a one block message of its own: 8 words, the padding bit and a 256 bit length
+                System.arraycopy(state, 0, w, 0, 8 * LANES);
+                Arrays.fill(w, 8 * LANES, 16 * LANES, 0);
+                Arrays.fill(w, 8 * LANES, 9 * LANES, 0x80000000);
+                Arrays.fill(w, 15 * LANES, 16 * LANES, 256);
+                for (int i = 0; i < 8; i++) {
+                    Arrays.fill(state, i * LANES, (i + 1) * LANES, H0[i]);
+                }
+                compress(state, w);
+            }
+
+            for (int lane = 0; lane < LANES; lane++) {
+                int out = dstOffset + (first + lane) * 32;
+                for (int i = 0; i < 8; i++) {
+                    INT.set(dst, out + i * 4, state[i * LANES + lane]);
+                }
+            }
+        }
+        return groups * LANES;
+    }
+
+    /**
+     * Fills the first 16 words of the schedule with a block of each lane's padded message, messages are length bytes
+     * each and laid out back to back from offset.
+     */
+    private static void loadBlock(byte[] src, int offset, int length, int block, int[] w) {
+        long bitLength = (long) length * 8;
+        int paddedLength = ((length + 8) / 64 + 1) * 64;
+        for (int t = 0; t < 16; t++) {
+            int pos = block * 64 + t * 4;
+            int row = t * LANES;
+            if (pos + 4 <= length) {
+                for (int lane = 0; lane < LANES; lane++) {
+                    w[row + lane] = (int) INT.get(src, offset + lane * length + pos);
+                }
+            } else if (pos >= length) {
+                // padding is the same for every lane
+                int word = 0;
+                if (pos == paddedLength - 8) {
+                    word = (int) (bitLength >>> 32);
+                } else if (pos == paddedLength - 4) {
+                    word = (int) bitLength;
+                } else if (pos == (length & ~3)) {
+                    word = 0x80000000 >>> (8 * (length & 3));
+                }
+                Arrays.fill(w, row, row + LANES, word);
+            } else {
+                // the word holding the last bytes of each message and the padding bit
+                for (int lane = 0; lane < LANES; lane++) {
+                    int word = 0;
+                    for (int b = 0; b < 4; b++) {
+                        int at = pos + b;
+                        int value = at < length ? src[offset + lane * length + at] & 0xFF : (at == length ? 0x80 : 0);
+                        word |= value << (24 - 8 * b);
+                    }
+                    w[row + lane] = word;
+                }
+            }
+        }
+    }
+
+    private static void compress(int[] state, int[] w) {
+        for (int t = 16; t < 64; t++) {
+            IntVector w2 = IntVector.fromArray(SPECIES, w, (t - 2) * LANES);
+            IntVector w15 = IntVector.fromArray(SPECIES, w, (t - 15) * LANES);
+            IntVector s1 = w2.lanewise(VectorOperators.ROR, 17)
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.ROR, 19))
+                    .lanewise(VectorOperators.XOR, w2.lanewise(VectorOperators.LSHR, 10));
+            IntVector s0 = w15.lanewise(VectorOperators.ROR, 7)
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.ROR, 18))
+                    .lanewise(VectorOperators.XOR, w15.lanewise(VectorOperators.LSHR, 3));
+            s1.add(IntVector.fromArray(SPECIES, w, (t - 7) * LANES))
+                    .add(s0)
+                    .add(IntVector.fromArray(SPECIES, w, (t - 16) * LANES))
+                    .intoArray(w, t * LANES);
+        }
+
+        IntVector a = IntVector.fromArray(SPECIES, state, 0);
+        IntVector b = IntVector.fromArray(SPECIES, state, LANES);
+        IntVector c = IntVector.fromArray(SPECIES, state, 2 * LANES);
+        IntVector d = IntVector.fromArray(SPECIES, state, 3 * LANES);
+        IntVector e = IntVector.fromArray(SPECIES, state, 4 * LANES);
+        IntVector f = IntVector.fromArray(SPECIES, state, 5 * LANES);
+        IntVector g = IntVector.fromArray(SPECIES, state, 6 * LANES);
+        IntVector h = IntVector.fromArray(SPECIES, state, 7 * LANES);
+
+        for (int t = 0; t < 64; t++) {
+            IntVector sigma1 = e.lanewise(VectorOperators.ROR, 6)
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 11))
+                    .lanewise(VectorOperators.XOR, e.lanewise(VectorOperators.ROR, 25));
+            IntVector ch = g.lanewise(VectorOperators.XOR, e.and(f.lanewise(VectorOperators.XOR, g)));
+            IntVector t1 = h.add(sigma1).add(ch).add(K[t]).add(IntVector.fromArray(SPECIES, w, t * LANES));
+            IntVector sigma0 = a.lanewise(VectorOperators.ROR, 2)
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 13))
+                    .lanewise(VectorOperators.XOR, a.lanewise(VectorOperators.ROR, 22));
+            IntVector maj = a.and(b).or(c.and(a.or(b)));
+            h = g;
+            g = f;
+            f = e;
+            e = d.add(t1);
+            d = c;
+            c = b;
+            b = a;
+            a = t1.add(sigma0).add(maj);
+        }
+
+        a.add(IntVector.fromArray(SPECIES, state, 0)).intoArray(state, 0);
+        b.add(IntVector.fromArray(SPECIES, state, LANES)).intoArray(state, LANES);
+        c.add(IntVector.fromArray(SPECIES, state, 2 * LANES)).intoArray(state, 2 * LANES);
+        d.add(IntVector.fromArray(SPECIES, state, 3 * LANES)).intoArray(state, 3 * LANES);
+        e.add(IntVector.fromArray(SPECIES, state, 4 * LANES)).intoArray(state, 4 * LANES);
+        f.add(IntVector.fromArray(SPECIES, state, 5 * LANES)).intoArray(state, 5 * LANES);
+        g.add(IntVector.fromArray(SPECIES, state, 6 * LANES)).intoArray(state, 6 * LANES);
+        h.add(IntVector.fromArray(SPECIES, state, 7 * LANES)).intoArray(state, 7 * LANES);
+    }
+}
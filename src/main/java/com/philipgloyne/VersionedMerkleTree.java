@@ -0,0 +1,139 @@
+package com.philipgloyne;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A MerkleTree that keeps its past states. The tree as built is version 0 and every mutation (an update, a batch
+ * update or an append) publishes the next version, whose root and proofs stay available until it's pruned.
+ * <p>
+ * Nodes are kept in a PersistentNodeStore, so a version shares every node it didn't rewrite with the one before it:
+ * an update copies only the pages on its path, O(log n) nodes, rather than the tree. An append that outgrows the
+ * tree's capacity reallocates the head, as for any tree, which the versions before it don't share.
+ * <p>
+ * Writes must come from one thread at a time, as for MerkleTree. Past versions are immutable and can be read from
+ * any thread while the tree is written.
+ */
+public class VersionedMerkleTree extends MerkleTree {
+
+    private final NavigableMap<Long, MerkleTree> versions = new ConcurrentSkipListMap<>();
+    private volatile long version;
+    // set while a batch is applied so its single updates don't each publish a version
+    private boolean inBatch;
+
+    public VersionedMerkleTree(TreeBuilder builder, HashAlgorithm hashFn, List<byte[]> txs) {
+        super(PersistentNodeStore.persistent(builder, hashFn), hashFn, txs);
+        versions.put(0L, super.snapshot());
+    }
+
+    /**
+     * The latest version, the number of mutations since the tree was built.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The oldest version not yet pruned.
+     */
+    public long getOldestVersion() {
+        return versions.firstKey();
+    }
+
+    /**
+     * The tree as it was at version, read only. Its proofs, multiproofs and leaf count are those of that state.
+     *
+     * @throws IllegalArgumentException if version hasn't been published yet or was pruned
+     */
+    public MerkleTree atVersion(long version) {
+        MerkleTree tree = versions.get(version);
+        if (tree != null) return tree;
+        if (version < 0 || version > this.version) {
+            throw new IllegalArgumentException("no version " + version + ", latest is " + this.version);
+        }
+        throw new IllegalArgumentException("version " + version + " was pruned");
+    }
+
+    /**
+     * Root of the tree at version.
+     *
+     * @throws IllegalArgumentException if version hasn't been published yet or was pruned
+     */
+    public byte[] getRoot(long version) {
+        return atVersion(version).getRoot();
+    }
+
+    /**
+     * Proof of the transaction at index against the root of version, verifiable with ProofVerifier given
+     * getLeafCount(version).
+     *
+     * @throws IllegalArgumentException if version hasn't been published yet or was pruned
+     */
+    public List<byte[]> createProof(int index, long version) {
+        return atVersion(version).createProof(index);
+    }
+
+    /**
+     * Number of transactions in the tree at version.
+     *
+     * @throws IllegalArgumentException if version hasn't been published yet or was pruned
+     */
+    public int getLeafCount(long version) {
+        return atVersion(version).leafCount();
+    }
+
+    /**
+     * Drops every version older than before, their nodes are freed once no version still shares them. The latest
+     * version is always kept.
+     *
+     * @return number of versions dropped
+     * @throws IllegalArgumentException if before is later than the latest version
+     */
+    public int prune(long before) {
+        if (before > version) {
+            throw new IllegalArgumentException("can't prune past the latest version " + version);
+        }
+        Map<Long, MerkleTree> pruned = versions.headMap(before);
+        int count = pruned.size();
+        pruned.clear();
+        return count;
+    }
+
+    @Override
+    public void updateTx(int index, byte[] value) {
+        super.updateTx(index, value);
+        if (!inBatch) publish();
+    }
+
+    /**
+     * The whole batch is published as one version.
+     */
+    @Override
+    public void updateTxs(Map<Integer, byte[]> txs, boolean parallel) {
+        if (txs.isEmpty()) return;
+        inBatch = true;
+        try {
+            super.updateTxs(txs, parallel);
+        } finally {
+            inBatch = false;
+        }
+        publish();
+    }
+
+    /**
+     * The whole batch is published as one version.
+     */
+    @Override
+    public void addTxs(List<byte[]> txs) {
+        if (txs.isEmpty()) return;
+        super.addTxs(txs);
+        publish();
+    }
+
+    private void publish() {
+        versions.put(version + 1, super.snapshot());
+        version++;
+    }
+}
@@ -0,0 +1,270 @@
+package com.philipgloyne;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.HexFormat;
+
+/**
+ * XXH3 128 bit (xxHash3-128) with the default secret and seed 0, in plain Java. Not a cryptographic hash, so only
+ * for trees whose leaves aren't chosen by an adversary, but the cheapest per node of the built in algorithms.
+ * Digests are the canonical big endian form, high 64 bits first.
+ */
+public class XXH128 implements HashAlgorithm {
+
+    private static final int DIGEST_LENGTH = 16;
+
+    private static final long PRIME32_1 = 0x9E3779B1L;
+    private static final long PRIME32_2 = 0x85EBCA77L;
+    private static final long PRIME32_3 = 0xC2B2AE3DL;
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final long PRIME_MX1 = 0x165667919E3779F9L;
+    private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final byte[] SECRET = HexFormat.of().parseHex(
+            "b8fe6c3923a44bbe7c01812cf721ad1cded46de9839097db7240a4a4b7b3671f"
+                    + "cb79e64eccc0e578825ad07dccff7221b8084674f743248ee03590e6813a264c"
+                    + "3c2852bb91c300cb88d0658b1b532ea371644897a20df94e3819ef46a9deacd8"
+                    + "a8fa763fe39c343ff9dcbbc7c70b4f1d8a51e04bcdb45931c89f7ec9d9787364"
+                    + "eac5ac8334d3ebc3c581a0fffa1363eb170ddd51b7f0da49d316552629d4689e"
+                    + "2b16be587d47a1fc8ff8b8d17ad031ce45cb3a8f95160428afd7fbcabb4b407e");
+    private static final int STRIPE_LEN = 64;
+    private static final int STRIPES_PER_BLOCK = (SECRET.length - STRIPE_LEN) / 8;
+    private static final int BLOCK_LEN = STRIPE_LEN * STRIPES_PER_BLOCK;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // pairs are hashed as one input, concatenated here
+    private static final ThreadLocal<byte[]> PAIR = ThreadLocal.withInitial(() -> new byte[2 * DIGEST_LENGTH]);
+
+    @Override
+    public byte[] hash(byte[] input) {
+        byte[] out = new byte[DIGEST_LENGTH];
+        digestInto(input, 0, input.length, out, 0);
+        return out;
+    }
+
+    @Override
+    public int digestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public byte[] hashPair(byte[] left, byte[] right) {
+        byte[] out = new byte[DIGEST_LENGTH];
+        hashPairInto(left, 0, left.length, right, 0, right.length, out, 0);
+        return out;
+    }
+
+    @Override
+    public int digestInto(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        if (length <= 16) {
+            hashUpTo16(input, offset, length, out, outOffset);
+        } else if (length <= 128) {
+            hashUpTo128(input, offset, length, out, outOffset);
+        } else if (length <= 240) {
+            hashUpTo240(input, offset, length, out, outOffset);
+        } else {
+            hashLong(input, offset, length, out, outOffset);
+        }
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    public int hashPairInto(byte[] left, int leftOffset, int leftLength,
+                            byte[] right, int rightOffset, int rightLength,
+                            byte[] out, int outOffset) {
+        byte[] pair = PAIR.get();
+        if (pair.length < leftLength + rightLength) {
+            pair = new byte[leftLength + rightLength];
+            PAIR.set(pair);
+        }
+        System.arraycopy(left, leftOffset, pair, 0, leftLength);
+        System.arraycopy(right, rightOffset, pair, leftLength, rightLength);
+        return digestInto(pair, 0, leftLength + rightLength, out, outOffset);
+    }
+
+    private static void hashUpTo16(byte[] in, int off, int len, byte[] out, int outOffset) {
+        if (len > 8) {
+            long bitflipl = read64(SECRET, 32) ^ read64(SECRET, 40);
+            long bitfliph = read64(SECRET, 48) ^ read64(SECRET, 56);
+            long inputLo = read64(in, off);
+            long inputHi = read64(in, off + len - 8);
+            long mixed = inputLo ^ inputHi ^ bitflipl;
+            long mLo = mixed * PRIME64_1;
+            long mHi = multiplyHigh(mixed, PRIME64_1);
+            mLo += (long) (len - 1) << 54;
+            inputHi ^= bitfliph;
+            mHi += inputHi + (inputHi & 0xFFFFFFFFL) * (PRIME32_2 - 1);
+            mLo ^= Long.reverseBytes(mHi);
+            long hLo = mLo * PRIME64_2;
+            long hHi = multiplyHigh(mLo, PRIME64_2) + mHi * PRIME64_2;
+            write(out, outOffset, avalanche(hLo), avalanche(hHi));
+        } else if (len >= 4) {
+            long inputLo = read32(in, off);
+            long inputHi = read32(in, off + len - 4);
+            long keyed = (inputLo + (inputHi << 32)) ^ (read64(SECRET, 16) ^ read64(SECRET, 24));
+            long prime = PRIME64_1 + ((long) len << 2);
+            long mLo = keyed * prime;
+            long mHi = multiplyHigh(keyed, prime);
+            mHi += mLo << 1;
+            mLo ^= mHi >>> 3;
+            mLo ^= mLo >>> 35;
+            mLo *= PRIME_MX2;
+            mLo ^= mLo >>> 28;
+            write(out, outOffset, mLo, avalanche(mHi));
+        } else if (len > 0) {
+            int c1 = in[off] & 0xFF;
+            int c2 = in[off + (len >> 1)] & 0xFF;
+            int c3 = in[off + len - 1] & 0xFF;
+            int combinedl = (c1 << 16) | (c2 << 24) | c3 | (len << 8);
+            int combinedh = Integer.rotateLeft(Integer.reverseBytes(combinedl), 13);
+            long bitflipl = read32(SECRET, 0) ^ read32(SECRET, 4);
+            long bitfliph = read32(SECRET, 8) ^ read32(SECRET, 12);
+            write(out, outOffset, xxh64Avalanche((combinedl & 0xFFFFFFFFL) ^ bitflipl),
+                    xxh64Avalanche((combinedh & 0xFFFFFFFFL) ^ bitfliph));
+        } else {
+            write(out, outOffset, xxh64Avalanche(read64(SECRET, 64) ^ read64(SECRET, 72)),
+                    xxh64Avalanche(read64(SECRET, 80) ^ read64(SECRET, 88)));
+        }
+    }
+
+    private static void hashUpTo128(byte[] in, int off, int len, byte[] out, int outOffset) {
+        long[] acc = {len * PRIME64_1, 0};
+        if (len > 32) {
+            if (len > 64) {
+                if (len > 96) {
+                    mix32(acc, in, off + 48, off + len - 64, 96);
+                }
+                mix32(acc, in, off + 32, off + len - 48, 64);
+            }
+            mix32(acc, in, off + 16, off + len - 32, 32);
+        }
+        mix32(acc, in, off, off + len - 16, 0);
+        finish(acc, len, out, outOffset);
+    }
+
+    private static void hashUpTo240(byte[] in, int off, int len, byte[] out, int outOffset) {
+        long[] acc = {len * PRIME64_1, 0};
+        for (int i = 32; i < 160; i += 32) {
+            mix32(acc, in, off + i - 32, off + i - 16, i - 32);
+        }
+        acc[0] = avalanche(acc[0]);
+        acc[1] = avalanche(acc[1]);
+        for (int i = 160; i <= len; i += 32) {
+            mix32(acc, in, off + i - 32, off + i - 16, 3 + i - 160);
+        }
+        mix32(acc, in, off + len - 16, off + len - 32, 136 - 17 - 16);
+        finish(acc, len, out, outOffset);
+    }
+
+    private static void hashLong(byte[] in, int off, int len, byte[] out, int outOffset) {
+        long[] acc = {PRIME32_3, PRIME64_1, PRIME64_2, PRIME64_3, PRIME64_4, PRIME32_2, PRIME64_5, PRIME32_1};
+        int blocks = (len - 1) / BLOCK_LEN;
+        for (int n = 0; n < blocks; n++) {
+            accumulate(acc, in, off + n * BLOCK_LEN, STRIPES_PER_BLOCK);
+            scramble(acc, SECRET.length - STRIPE_LEN);
+        }
+        int stripes = ((len - 1) - BLOCK_LEN * blocks) / STRIPE_LEN;
+        accumulate(acc, in, off + blocks * BLOCK_LEN, stripes);
+        accumulate512(acc, in, off + len - STRIPE_LEN, SECRET.length - STRIPE_LEN - 7);
+
+        long lo = mergeAccs(acc, 11, len * PRIME64_1);
+        long hi = mergeAccs(acc, SECRET.length - STRIPE_LEN - 11, ~(len * PRIME64_2));
+        write(out, outOffset, lo, hi);
+    }
+
+    private static void finish(long[] acc, int len, byte[] out, int outOffset) {
+        long lo = acc[0] + acc[1];
+        long hi = acc[0] * PRIME64_1 + acc[1] * PRIME64_4 + len * PRIME64_2;
+        write(out, outOffset, avalanche(lo), -avalanche(hi));
+    }
+
+    private static void mix32(long[] acc, byte[] in, int first, int second, int secret) {
+        acc[0] += mix16(in, first, secret);
+        acc[0] ^= read64(in, second) + read64(in, second + 8);
+        acc[1] += mix16(in, second, secret + 16);
+        acc[1] ^= read64(in, first) + read64(in, first + 8);
+    }
+
+    private static long mix16(byte[] in, int off, int secret) {
+        return fold(read64(in, off) ^ read64(SECRET, secret), read64(in, off + 8) ^ read64(SECRET, secret + 8));
+    }
+
+    private static void accumulate(long[] acc, byte[] in, int off, int stripes) {
+        for (int n = 0; n < stripes; n++) {
+            accumulate512(acc, in, off + n * STRIPE_LEN, n * 8);
+        }
+    }
+
+    private static void accumulate512(long[] acc, byte[] in, int off, int secret) {
+        for (int i = 0; i < 8; i++) {
+            long data = read64(in, off + 8 * i);
+            long key = data ^ read64(SECRET, secret + 8 * i);
+            acc[i ^ 1] += data;
+            acc[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+        }
+    }
+
+    private static void scramble(long[] acc, int secret) {
+        for (int i = 0; i < 8; i++) {
+            long a = acc[i];
+            a ^= a >>> 47;
+            a ^= read64(SECRET, secret + 8 * i);
+            acc[i] = a * PRIME32_1;
+        }
+    }
+
+    private static long mergeAccs(long[] acc, int secret, long start) {
+        long result = start;
+        for (int i = 0; i < 4; i++) {
+            result += fold(acc[2 * i] ^ read64(SECRET, secret + 16 * i),
+                    acc[2 * i + 1] ^ read64(SECRET, secret + 16 * i + 8));
+        }
+        return avalanche(result);
+    }
+
+    /**
+     * Low and high halves of the unsigned 128 bit product, xored together.
+     */
+    private static long fold(long a, long b) {
+        return (a * b) ^ multiplyHigh(a, b);
+    }
+
+    private static long multiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long xxh64Avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+
+    private static long read64(byte[] src, int offset) {
+        return (long) LONG.get(src, offset);
+    }
+
+    private static long read32(byte[] src, int offset) {
+        return (int) INT.get(src, offset) & 0xFFFFFFFFL;
+    }
+
+    private static void write(byte[] out, int offset, long lo, long hi) {
+        LONG_BE.set(out, offset, hi);
+        LONG_BE.set(out, offset + 8, lo);
+    }
+}
@@ -0,0 +1,110 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentMerkleTreeTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testMatchesPlainTreeThroughUpdatesAndAppends() {
+        for (int size = 0; size <= 40; size++) {
+            MerkleTree plain = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(0, size));
+            MerkleTree concurrent = new ConcurrentMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(0, size));
+            assertArrayEquals(plain.getRoot(), concurrent.getRoot(), "size " + size);
+
+            plain.addTxs(transactions(size, 45));
+            concurrent.addTxs(transactions(size, 45));
+            Map<Integer, byte[]> updates = new HashMap<>();
+            for (int i = 0; i < 45; i += 3) {
+                updates.put(i, ("updated" + i).getBytes());
+            }
+            plain.updateTxs(updates);
+            concurrent.updateTxs(updates);
+            plain.updateTx(44, "last".getBytes());
+            concurrent.updateTx(44, "last".getBytes());
+
+            assertArrayEquals(plain.getRoot(), concurrent.getRoot(), "size " + size);
+            for (int i = 0; i < 45; i++) {
+                List<byte[]> proof = concurrent.createProof(i);
+                assertTrue(plain.validateProof(i, proof), "size " + size + " index " + i);
+            }
+        }
+    }
+
+    @Test
+    void testVariableWidthHash() {
+        HashAlgorithm identity = s -> s;
+        MerkleTree plain = new MerkleTree(new BasicTreeBuilder(identity), identity, transactions(0, 5));
+        MerkleTree concurrent = new ConcurrentMerkleTree(new BasicTreeBuilder(identity), identity, transactions(0, 5));
+        plain.updateTx(3, "X".getBytes());
+        concurrent.updateTx(3, "X".getBytes());
+
+        assertArrayEquals(plain.getRoot(), concurrent.getRoot());
+    }
+
+    @Test
+    void testSnapshotIsUnaffectedByLaterWrites() {
+        List<byte[]> transactions = transactions(0, 100);
+        ConcurrentMerkleTree tree = new ConcurrentMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        MerkleTree snapshot = tree.snapshot();
+        byte[] root = snapshot.getRoot();
+        List<byte[]> proof = snapshot.createProof(42);
+
+        tree.updateTx(42, "changed".getBytes());
+        tree.addTxs(transactions(100, 300));
+
+        assertArrayEquals(root, snapshot.getRoot());
+        assertTrue(snapshot.validateProof(42, proof));
+        assertTrue(snapshot.validateProofTx(42, proof, transactions.get(42)));
+        assertFalse(tree.validateProof(42, proof));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.updateTx(0, "no".getBytes()));
+    }
+
+    @Test
+    void testReadersAlwaysSeeConsistentVersions() throws Exception {
+        int size = 1000;
+        List<byte[]> transactions = transactions(0, size);
+        ConcurrentMerkleTree tree = new ConcurrentMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> reader = executor.submit(() -> {
+                int reads = 0;
+                while (!done.get() || reads == 0) {
+                    MerkleTree snapshot = tree.snapshot();
+                    int index = reads++ % size;
+                    List<byte[]> proof = snapshot.createProof(index);
+                    // the leaf alternates between two values, one of them must hash to this snapshot's root
+                    assertTrue(snapshot.validateProofTx(index, proof, transactions.get(index))
+                            || snapshot.validateProofTx(index, proof, ("even" + index).getBytes()));
+                }
+                return reads;
+            });
+
+            for (int round = 0; round < 20; round++) {
+                Map<Integer, byte[]> updates = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    updates.put(i, round % 2 == 0 ? ("even" + i).getBytes() : transactions.get(i));
+                }
+                tree.updateTxs(updates, true);
+            }
+            done.set(true);
+
+            assertTrue(reader.get() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
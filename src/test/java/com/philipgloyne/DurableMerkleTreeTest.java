@@ -0,0 +1,198 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DurableMerkleTreeTest {
+
+    @TempDir
+    Path dir;
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testRecoversEveryCommittedMutation() throws IOException {
+        List<byte[]> expect = new ArrayList<>(transactions(100));
+        DurableMerkleTree tree = DurableMerkleTree.create(dir, new BasicTreeBuilder(hashFn), hashFn, expect, 1,
+                Integer.MAX_VALUE);
+        mutate(tree, expect, new Random(5), 200);
+
+        // no close, as if the process died
+        DurableMerkleTree recovered = DurableMerkleTree.open(dir, 1, Integer.MAX_VALUE);
+        assertSameTree(expect, recovered);
+        assertEquals(tree.getSequence(), recovered.getSequence());
+
+        mutate(recovered, expect, new Random(6), 50);
+        recovered.close();
+        assertSameTree(expect, DurableMerkleTree.open(dir, 1, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testCheckpointsReplaceOlderFiles() throws IOException {
+        List<byte[]> expect = new ArrayList<>(transactions(64));
+        DurableMerkleTree tree = DurableMerkleTree.create(dir, new BasicTreeBuilder(hashFn), hashFn, expect, 4, 10);
+        for (int i = 0; i < 35; i++) {
+            expect.set(i, ("u" + i).getBytes());
+            tree.updateTx(i, expect.get(i));
+        }
+        assertEquals(30, tree.getCheckpointSequence());
+        assertEquals(List.of("checkpoint-30", "log-31"), fileNames());
+
+        tree.sync();
+        DurableMerkleTree recovered = DurableMerkleTree.open(dir, 4, 10);
+        assertSameTree(expect, recovered);
+        assertEquals(35, recovered.getSequence());
+        assertEquals(30, recovered.getCheckpointSequence());
+
+        recovered.checkpoint();
+        recovered.checkpoint();
+        assertEquals(List.of("checkpoint-35", "log-36"), fileNames());
+        assertSameTree(expect, DurableMerkleTree.open(dir, 4, 10));
+    }
+
+    @Test
+    void testTornTailDropsItsWholeBatch() throws IOException {
+        List<byte[]> expect = new ArrayList<>(transactions(20));
+        DurableMerkleTree tree = DurableMerkleTree.create(dir, new BasicTreeBuilder(hashFn), hashFn, expect, 1,
+                Integer.MAX_VALUE);
+        mutate(tree, expect, new Random(7), 30);
+        long sequence = tree.getSequence();
+        tree.updateTxs(Map.of(1, "a".getBytes(), 2, "b".getBytes(), 3, "c".getBytes()));
+        tree.close();
+
+        // cut into the last record of the batch
+        Path log = dir.resolve("log-1");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        DurableMerkleTree recovered = DurableMerkleTree.open(dir, 1, Integer.MAX_VALUE);
+        assertEquals(sequence, recovered.getSequence());
+        assertSameTree(expect, recovered);
+
+        // the torn batch is cut off, so records written after it are read back
+        recovered.addTx("after".getBytes());
+        expect.add("after".getBytes());
+        recovered.close();
+        assertSameTree(expect, DurableMerkleTree.open(dir, 1, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testUncommittedGroupLostOnCrash() throws IOException {
+        List<byte[]> txs = transactions(10);
+        DurableMerkleTree tree = DurableMerkleTree.create(dir, new BasicTreeBuilder(hashFn), hashFn, txs, 8,
+                Integer.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            tree.updateTx(i, ("lost" + i).getBytes());
+        }
+
+        DurableMerkleTree recovered = DurableMerkleTree.open(dir, 8, Integer.MAX_VALUE);
+        assertEquals(0, recovered.getSequence());
+        assertSameTree(txs, recovered);
+
+        List<byte[]> expect = new ArrayList<>(txs);
+        expect.set(9, "kept".getBytes());
+        recovered.updateTx(9, expect.get(9));
+        recovered.sync();
+        assertSameTree(expect, DurableMerkleTree.open(dir, 8, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testEmptyTreeAndStaleSegments() throws IOException {
+        List<byte[]> expect = new ArrayList<>();
+        DurableMerkleTree tree = DurableMerkleTree.create(dir, new BasicTreeBuilder(hashFn), hashFn, expect, 1,
+                Integer.MAX_VALUE);
+        mutate(tree, expect, new Random(8), 20);
+        assertSameTree(expect, DurableMerkleTree.open(dir, 1, Integer.MAX_VALUE));
+
+        // a crash between a checkpoint and the deletion of the segment it replaces leaves the old segment behind
+        byte[] stale = Files.readAllBytes(dir.resolve("log-1"));
+        tree.checkpoint();
+        Files.write(dir.resolve("log-1"), stale);
+        DurableMerkleTree recovered = DurableMerkleTree.open(dir, 1, Integer.MAX_VALUE);
+        assertSameTree(expect, recovered);
+        assertEquals(tree.getSequence(), recovered.getSequence());
+    }
+
+    @Test
+    void testRejectsMisuse() throws IOException {
+        assertThrows(IOException.class, () -> DurableMerkleTree.open(dir, 1, 1));
+        DurableMerkleTree tree = DurableMerkleTree.create(dir, new BasicTreeBuilder(hashFn), hashFn,
+                transactions(4), 1, 1);
+        assertThrows(IOException.class, () -> DurableMerkleTree.create(dir, new BasicTreeBuilder(hashFn), hashFn,
+                transactions(4), 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> DurableMerkleTree.open(dir, 0, 1));
+        HashAlgorithm identity = s -> s;
+        assertThrows(IllegalArgumentException.class, () -> DurableMerkleTree.create(dir.resolve("identity"),
+                new BasicTreeBuilder(identity), identity, transactions(4), 1, 1));
+
+        // nothing is logged for a mutation that fails
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.updateTx(4, "x".getBytes()));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.updateTxs(Map.of(0, "y".getBytes(), 9,
+                "z".getBytes())));
+        assertEquals(0, tree.getSequence());
+    }
+
+    /**
+     * Applies random updates, batch updates and appends to tree and to expect alike.
+     */
+    private void mutate(DurableMerkleTree tree, List<byte[]> expect, Random random, int steps) {
+        for (int step = 0; step < steps; step++) {
+            int choice = expect.isEmpty() ? 3 : random.nextInt(4);
+            byte[] tx = ("m" + step + "-" + random.nextInt()).getBytes();
+            switch (choice) {
+                case 0 -> {
+                    int index = random.nextInt(expect.size());
+                    expect.set(index, tx);
+                    tree.updateTx(index, tx);
+                }
+                case 1 -> {
+                    Map<Integer, byte[]> txs = new HashMap<>();
+                    for (int i = 0; i < 5; i++) {
+                        txs.put(random.nextInt(expect.size()), (i + "-" + step).getBytes());
+                    }
+                    txs.forEach(expect::set);
+                    tree.updateTxs(txs);
+                }
+                case 2 -> {
+                    expect.add(tx);
+                    tree.addTx(tx);
+                }
+                default -> {
+                    List<byte[]> txs = List.of(tx, (step + "b").getBytes());
+                    expect.addAll(txs);
+                    tree.addTxs(txs);
+                }
+            }
+        }
+    }
+
+    private void assertSameTree(List<byte[]> expect, MerkleTree actual) {
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, expect);
+        assertArrayEquals(tree.getRoot(), actual.getRoot());
+        for (int i = 0; i < expect.size(); i += Math.max(1, expect.size() / 7)) {
+            assertTrue(actual.validateProofTx(i, actual.createProof(i), expect.get(i)));
+        }
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
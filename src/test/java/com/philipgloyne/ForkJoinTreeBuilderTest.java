@@ -0,0 +1,139 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ForkJoinTreeBuilderTest {
+
+    @Test
+    void testSameLayoutAsBasicTreeBuilder() {
+        SHA256D hashFn = new SHA256D();
+        BasicTreeBuilder basic = new BasicTreeBuilder(hashFn);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        // split down to single leaves so every branch of the task recursion is exercised
+        ForkJoinTreeBuilder forkJoin = new ForkJoinTreeBuilder(hashFn, pool, false, 1);
+
+        for (int size = 0; size <= 70; size++) {
+            List<byte[]> txs = transactions(size);
+            NodeStore expect = basic.build(txs);
+            NodeStore actual = forkJoin.build(txs);
+
+            assertEquals(expect.size(), actual.size(), "size " + size);
+            for (int i = 0; i < expect.size(); i++) {
+                assertArrayEquals(expect.get(i), actual.get(i), "size " + size + " node " + i);
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    void testDefaultBuilderMatchesBasicRoot() {
+        SHA256D hashFn = new SHA256D();
+        List<byte[]> txs = transactions(10000);
+
+        NodeStore expect = new BasicTreeBuilder(hashFn).build(txs);
+        NodeStore actual = new ForkJoinTreeBuilder(hashFn).build(txs);
+
+        assertArrayEquals(expect.get(expect.size() - 1), actual.get(actual.size() - 1));
+    }
+
+    @Test
+    void testHashFailureIsRethrown() {
+        HashAlgorithm failing = input -> {
+            throw new IllegalStateException("hash failed");
+        };
+        ForkJoinTreeBuilder forkJoin = new ForkJoinTreeBuilder(failing, ForkJoinPool.commonPool(), false, 1);
+
+        // a failure on another worker is rethrown as a copy wrapping the original
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> forkJoin.build(transactions(8)));
+        assertTrue(e.getMessage().contains("hash failed"));
+    }
+
+    @Test
+    void testHashLeavesOnceMatchesReference() {
+        SHA256D hashFn = new SHA256D();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ForkJoinTreeBuilder forkJoin = new ForkJoinTreeBuilder(hashFn, pool, false, 1, NodeHashing.HASH_LEAVES_ONCE);
+        assertEquals(NodeHashing.HASH_LEAVES_ONCE, forkJoin.hashing());
+        assertArrayEquals("".getBytes(), forkJoin.build(List.of()).get(0));
+
+        for (int size = 1; size <= 70; size++) {
+            List<byte[]> txs = transactions(size);
+            NodeStore actual = forkJoin.build(txs);
+
+            assertEquals(TreeBuilder.nodeCount(size), actual.size(), "size " + size);
+            assertArrayEquals(hashFn.hash(txs.get(size - 1)), actual.get(size - 1), "size " + size);
+            assertArrayEquals(hashLeavesOnceRoot(hashFn, txs), actual.get(actual.size() - 1), "size " + size);
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    void testHashLeavesOnceComputesOneDigestPerNode() {
+        CountingHash rehash = new CountingHash();
+        CountingHash once = new CountingHash();
+        // a power of two, batches also hash the unused pair of a parent lacking a right child
+        List<byte[]> txs = transactions(1024);
+
+        new ForkJoinTreeBuilder(rehash, ForkJoinPool.commonPool(), false, NodeHashing.REHASH_CHILDREN).build(txs);
+        new ForkJoinTreeBuilder(once, ForkJoinPool.commonPool(), false, NodeHashing.HASH_LEAVES_ONCE).build(txs);
+
+        // every node above the leaves is hashed once as a parent and again as a child, except the root
+        int nodes = TreeBuilder.nodeCount(txs.size());
+        assertEquals((nodes - txs.size()) + (nodes - 1), rehash.digests.get());
+        assertEquals(nodes, once.digests.get());
+    }
+
+    @Test
+    void testHashLeavesOnceReportsBuildsToMetrics() {
+        SHA256D hashFn = new SHA256D();
+        MetricsRecorder metrics = new MetricsRecorder();
+        List<byte[]> txs = transactions(1000);
+        ForkJoinTreeBuilder forkJoin = new ForkJoinTreeBuilder(hashFn, ForkJoinPool.commonPool(), false,
+                NodeHashing.HASH_LEAVES_ONCE, metrics);
+
+        assertEquals(NodeHashing.HASH_LEAVES_ONCE, forkJoin.hashing());
+        assertArrayEquals(hashLeavesOnceRoot(hashFn, txs), new MerkleTree(forkJoin, hashFn, txs).getRoot());
+        assertEquals(1, metrics.builds().count());
+    }
+
+    private byte[] hashLeavesOnceRoot(HashAlgorithm hashFn, List<byte[]> txs) {
+        List<byte[]> level = txs.stream().map(hashFn::hash).toList();
+        do {
+            List<byte[]> parents = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2) {
+                byte[] right = i + 1 < level.size() ? level.get(i + 1) : new byte[0];
+                parents.add(hashFn.hashPair(level.get(i), right));
+            }
+            level = parents;
+        } while (level.size() > 1);
+        return level.get(0);
+    }
+
+    /**
+     * SHA256D counting its digests, every default batch and pair method comes down to hash.
+     */
+    private static class CountingHash implements HashAlgorithm {
+
+        private final SHA256D sha256d = new SHA256D();
+        private final AtomicLong digests = new AtomicLong();
+
+        @Override
+        public byte[] hash(byte[] input) {
+            digests.incrementAndGet();
+            return sha256d.hash(input);
+        }
+
+        @Override
+        public int digestLength() {
+            return sha256d.digestLength();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.philipgloyne;
+
+import net.openhft.hashing.LongTupleHashFunction;
+import org.apache.commons.codec.digest.Blake3;
+import org.apache.commons.lang3.ArrayUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashAlgorithmTest {
+
+    @TempDir
+    Path dir;
+
+    // every length up to a few BLAKE3 chunks and XXH3 blocks, covering each size class of both
+    private static final int MAX_LENGTH = 4200;
+
+    @Test
+    void testSha256IsSingleSha256() throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        SHA256 hashFn = new SHA256();
+
+        assertArrayEquals(md.digest("A".getBytes()), hashFn.hash("A".getBytes()));
+        assertArrayEquals(md.digest(new byte[0]), hashFn.hash(new byte[0]));
+    }
+
+    @Test
+    void testBlake3MatchesReference() {
+        BLAKE3 hashFn = new BLAKE3();
+        assertEquals("af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262", hex(hashFn.hash(new byte[0])));
+
+        byte[] input = randomBytes(MAX_LENGTH);
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            byte[] tx = Arrays.copyOf(input, length);
+            assertArrayEquals(Blake3.hash(tx), hashFn.hash(tx), "length " + length);
+        }
+    }
+
+    @Test
+    void testBlake3BatchesMatchSingleDigests() {
+        byte[] src = randomBytes(5 + 40 * 1100);
+        BLAKE3 hashFn = new BLAKE3();
+        for (int length : new int[]{0, 1, 31, 63, 64, 65, 200, 1023, 1024, 1025}) {
+            for (int count : new int[]{0, 1, 15, 16, 17, 40}) {
+                byte[] dst = new byte[count * 32 + 3];
+                hashFn.digestAll(src, 5, length, dst, 3, count);
+                for (int i = 0; i < count; i++) {
+                    byte[] expect = Blake3.hash(Arrays.copyOfRange(src, 5 + i * length, 5 + (i + 1) * length));
+                    assertArrayEquals(expect, Arrays.copyOfRange(dst, 3 + i * 32, 3 + (i + 1) * 32),
+                            "length " + length + " count " + count + " message " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testBlake3ScalarAndVectorBatchesBuildSameTree() {
+        List<byte[]> transactions = transactions(1001);
+        BLAKE3 scalar = new BLAKE3(false);
+        BLAKE3 hashFn = new BLAKE3();
+
+        byte[] expect = new MerkleTree(new BasicTreeBuilder(scalar), scalar, transactions).getRoot();
+        for (TreeBuilder builder : List.of(new BasicTreeBuilder(hashFn), new ForkJoinTreeBuilder(hashFn),
+                new FastTreeBuilder(hashFn))) {
+            assertArrayEquals(expect, new MerkleTree(builder, hashFn, transactions).getRoot());
+        }
+    }
+
+    @Test
+    void testXxh128MatchesReference() {
+        XXH128 hashFn = new XXH128();
+        byte[] input = randomBytes(MAX_LENGTH);
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            byte[] tx = Arrays.copyOf(input, length);
+            long[] expect = LongTupleHashFunction.xx128().hashBytes(tx);
+            byte[] canonical = ByteBuffer.allocate(16).putLong(expect[1]).putLong(expect[0]).array();
+            assertArrayEquals(canonical, hashFn.hash(tx), "length " + length);
+        }
+    }
+
+    @Test
+    void testPairAndIntoVariantsMatchHash() {
+        byte[] input = randomBytes(300);
+        for (HashAlgorithm hashFn : List.of(new SHA256(), new BLAKE3(), new XXH128())) {
+            for (int split : new int[]{0, 1, 16, 32, 64, 150}) {
+                byte[] left = Arrays.copyOfRange(input, 0, split);
+                byte[] right = Arrays.copyOfRange(input, split, 2 * split + 7);
+                byte[] expect = hashFn.hash(ArrayUtils.addAll(left, right));
+                byte[] out = new byte[hashFn.digestLength() + 5];
+
+                assertArrayEquals(expect, hashFn.hashPair(left, right), hashFn.name() + " split " + split);
+                hashFn.hashPairInto(left, 0, left.length, right, 0, right.length, out, 5);
+                assertArrayEquals(expect, Arrays.copyOfRange(out, 5, out.length), hashFn.name() + " split " + split);
+                hashFn.digestInto(input, 3, split, out, 5);
+                assertArrayEquals(hashFn.hash(Arrays.copyOfRange(input, 3, 3 + split)),
+                        Arrays.copyOfRange(out, 5, out.length), hashFn.name() + " split " + split);
+            }
+        }
+    }
+
+    @Test
+    void testSavedTreeIsReopenedWithItsAlgorithm() throws Exception {
+        List<byte[]> transactions = transactions(100);
+        for (String name : List.of("SHA256D", "SHA256", "BLAKE3", "XXH128")) {
+            HashAlgorithm hashFn = HashAlgorithm.forName(name);
+            assertEquals(name, hashFn.name());
+
+            MerkleTree tree = new MerkleTree(new ForkJoinTreeBuilder(hashFn), hashFn, transactions);
+            MerkleTree basic = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+            assertArrayEquals(basic.getRoot(), tree.getRoot(), name);
+            assertTrue(tree.validateProofTx(42, tree.createProof(42), transactions.get(42)), name);
+
+            Path file = dir.resolve(name);
+            tree.save(file);
+            MerkleTree opened = MerkleTree.open(file);
+            assertEquals(name, opened.getHashAlgorithm().name());
+            assertArrayEquals(tree.getRoot(), opened.getRoot(), name);
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new SplittableRandom(7).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+}
@@ -1,12 +1,19 @@
 package com.philipgloyne;
 
-import org.apache.commons.lang3.SerializationUtils;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
+import static com.philipgloyne.TestTrees.transactions;
 import static org.junit.jupiter.api.Assertions.*;
 
 
@@ -169,6 +176,184 @@ class MerkleTreeTest {
         assertTrue(idTree.validateProof(4, toListByteArray("ABCD")));
     }
 
+    @Test
+    void testAddTxMatchesFullRebuild() {
+        SHA256D hashFn = new SHA256D();
+        List<byte[]> transactions = new ArrayList<>();
+        MerkleTree appended = basicSha256Tree(List.of());
+
+        for (int i = 0; i < 40; i++) {
+            byte[] tx = ("tx" + i).getBytes();
+            transactions.add(tx);
+            appended.addTx(tx);
+
+            MerkleTree rebuilt = basicSha256Tree(transactions);
+            assertArrayEquals(rebuilt.getRoot(), appended.getRoot(), "after " + transactions.size() + " txs");
+            for (int j = 0; j < transactions.size(); j++) {
+                assertListByteArray(rebuilt.createProof(j), appended.createProof(j));
+            }
+        }
+
+        MerkleTree offHeap = new MerkleTree(new BasicTreeBuilder(hashFn, true), hashFn, transactions.subList(0, 3));
+        offHeap.addTxs(transactions.subList(3, transactions.size()));
+        assertArrayEquals(basicSha256Tree(transactions).getRoot(), offHeap.getRoot());
+    }
+
+    @Test
+    void testUpdateTxMatchesFullRebuild() {
+        List<byte[]> transactions = new ArrayList<>(toListByteArray("A", "B", "C", "D", "E", "F", "G", "H", "I"));
+        MerkleTree sha256Tree = basicSha256Tree(transactions);
+
+        for (int i = 0; i < transactions.size(); i++) {
+            transactions.set(i, ("updated" + i).getBytes());
+            sha256Tree.updateTx(i, transactions.get(i));
+
+            assertArrayEquals(basicSha256Tree(transactions).getRoot(), sha256Tree.getRoot());
+        }
+    }
+
+    @Test
+    void testUpdateTxsMatchesSingleUpdates() {
+        List<byte[]> transactions = transactions(5000);
+        MerkleTree single = basicSha256Tree(transactions);
+        MerkleTree batch = basicSha256Tree(transactions);
+        MerkleTree parallelBatch = basicSha256Tree(transactions);
+
+        Map<Integer, byte[]> updates = new HashMap<>();
+        for (int i = 0; i < transactions.size(); i += 3) {
+            updates.put(i, ("updated" + i).getBytes());
+        }
+        updates.forEach(single::updateTx);
+        batch.updateTxs(updates);
+        parallelBatch.updateTxs(updates, true);
+
+        assertArrayEquals(single.getRoot(), batch.getRoot());
+        assertArrayEquals(single.getRoot(), parallelBatch.getRoot());
+        assertListByteArray(single.createProof(4999), batch.createProof(4999));
+    }
+
+    @Test
+    void testUpdateTxsWithABadIndexLeavesTreeUnchanged() {
+        List<byte[]> transactions = transactions(100);
+        MerkleTree tree = basicSha256Tree(transactions);
+        byte[] root = tree.getRoot();
+        List<byte[]> proof = tree.createProof(0);
+        List<byte[]> other = tree.createProof(50);
+
+        Map<Integer, byte[]> updates = new LinkedHashMap<>();
+        updates.put(0, "updated".getBytes());
+        updates.put(50, "updated".getBytes());
+        updates.put(100, "updated".getBytes());
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.updateTxs(updates));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.updateTxs(updates, true));
+
+        assertArrayEquals(root, tree.getRoot());
+        assertListByteArray(proof, tree.createProof(0));
+        assertListByteArray(other, tree.createProof(50));
+    }
+
+    @Test
+    void testCreateProofIntoReusesEntries() {
+        List<byte[]> transactions = transactions(1000);
+        MerkleTree tree = basicSha256Tree(transactions);
+        assertEquals(10, tree.getHeight());
+
+        byte[][] proof = new byte[tree.getHeight()][32];
+        byte[] second = proof[1];
+        for (int i = 0; i < transactions.size(); i++) {
+            int length = tree.createProof(i, proof);
+            List<byte[]> expect = tree.createProof(i);
+            assertListByteArray(expect, List.of(proof).subList(0, length));
+            assertTrue(tree.validateProofTx(i, List.of(proof).subList(0, length), transactions.get(i)));
+        }
+        assertSame(second, proof[1]);
+
+        assertThrows(IllegalArgumentException.class, () -> tree.createProof(0, new byte[9][]));
+        assertEquals(0, basicSha256Tree(List.of()).getHeight());
+        assertEquals(0, basicSha256Tree(toListByteArray("A")).createProof(0, new byte[0][]));
+    }
+
+    @Test
+    void testOffHeapNodeStoreMatchesHeapTree() {
+        List<byte[]> transactions = toListByteArray("A", "B", "C", "D", "E", "F", "G", "H", "I");
+
+        SHA256D hashFn = new SHA256D();
+        MerkleTree heapTree = basicSha256Tree(transactions);
+        MerkleTree offHeapTree = new MerkleTree(new BasicTreeBuilder(hashFn, true), hashFn, transactions);
+
+        assertArrayEquals(heapTree.getRoot(), offHeapTree.getRoot());
+        for (int i = 0; i < transactions.size(); i++) {
+            assertListByteArray(heapTree.createProof(i), offHeapTree.createProof(i));
+            assertTrue(offHeapTree.validateProof(i, heapTree.createProof(i)));
+        }
+    }
+
+    @Test
+    void testHashLeavesOnceProofsVerify() {
+        SHA256D hashFn = new SHA256D();
+        List<byte[]> transactions = transactions(1000);
+        MerkleTree tree = hashLeavesOnceTree(transactions);
+        assertEquals(NodeHashing.HASH_LEAVES_ONCE, tree.getNodeHashing());
+
+        ByteBuffer buf = ByteBuffer.allocate(ProofCodec.maxLength(transactions.size(), 32, 32));
+        for (int i = 0; i < transactions.size(); i += 7) {
+            List<byte[]> proof = tree.createProof(i);
+            proof.forEach(entry -> assertEquals(32, entry.length));
+            assertTrue(tree.validateProofTx(i, proof, transactions.get(i)));
+            assertTrue(tree.validateProof(i, proof));
+            assertFalse(ProofVerifier.verify(tree.getRoot(), transactions.get(i), i, transactions.size(), proof,
+                    hashFn));
+
+            buf.clear();
+            tree.encodeProof(i, buf);
+            EncodedProof encoded = ProofCodec.decode(buf.flip());
+            assertTrue(ProofVerifier.verify(tree.getRoot(), transactions.get(i), encoded, hashFn,
+                    NodeHashing.HASH_LEAVES_ONCE));
+        }
+
+        MultiProof multiProof = tree.createMultiProof(3, 4, 999);
+        assertTrue(MultiProofVerifier.verify(tree.getRoot(), List.of(transactions.get(3), transactions.get(4),
+                transactions.get(999)), multiProof, hashFn, NodeHashing.HASH_LEAVES_ONCE));
+
+        MerkleTree single = hashLeavesOnceTree(toListByteArray("A"));
+        assertArrayEquals(hashFn.hashPair(hashFn.hash("A".getBytes()), new byte[0]), single.getRoot());
+        assertTrue(single.validateProofTx(0, List.of(), "A".getBytes()));
+
+        assertThrows(UnsupportedOperationException.class, () -> tree.save(Path.of("unused")));
+        assertThrows(UnsupportedOperationException.class, () -> tree.encodeProofBundle(0, ByteBuffer.allocate(4096)));
+    }
+
+    @Test
+    void testHashLeavesOnceWritesMatchFullRebuild() {
+        List<byte[]> transactions = new ArrayList<>();
+        MerkleTree appended = hashLeavesOnceTree(List.of());
+        for (int i = 0; i < 40; i++) {
+            transactions.add(("tx" + i).getBytes());
+            appended.addTx(transactions.get(i));
+
+            MerkleTree rebuilt = hashLeavesOnceTree(transactions);
+            assertArrayEquals(rebuilt.getRoot(), appended.getRoot(), "after " + transactions.size() + " txs");
+            for (int j = 0; j < transactions.size(); j++) {
+                assertListByteArray(rebuilt.createProof(j), appended.createProof(j));
+            }
+        }
+
+        MerkleTree single = hashLeavesOnceTree(new ArrayList<>(transactions.subList(0, 1)));
+        single.updateTx(0, "updated".getBytes());
+        assertArrayEquals(hashLeavesOnceTree(toListByteArray("updated")).getRoot(), single.getRoot());
+
+        Map<Integer, byte[]> updates = new HashMap<>();
+        for (int i = 0; i < transactions.size(); i += 3) {
+            transactions.set(i, ("updated" + i).getBytes());
+            updates.put(i, transactions.get(i));
+            appended.updateTx(i, transactions.get(i));
+        }
+        MerkleTree batch = hashLeavesOnceTree(transactions.subList(0, 40));
+        batch.updateTxs(updates);
+        assertArrayEquals(hashLeavesOnceTree(transactions).getRoot(), appended.getRoot());
+        assertArrayEquals(appended.getRoot(), batch.getRoot());
+    }
+
     private class IdentityHash implements HashAlgorithm {
         @Override
         public byte[] hash(byte[] s) {
@@ -199,5 +384,12 @@ class MerkleTreeTest {
         return new MerkleTree(builder, hashFn, txs);
     }
 
+    private MerkleTree hashLeavesOnceTree(List<byte[]> txs) {
+        SHA256D hashFn = new SHA256D();
+        ForkJoinTreeBuilder builder = new ForkJoinTreeBuilder(hashFn, ForkJoinPool.commonPool(), false,
+                NodeHashing.HASH_LEAVES_ONCE);
+        return new MerkleTree(builder, hashFn, txs);
+    }
+
 
 }
@@ -0,0 +1,146 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRecorderTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testBuildersReportEachLevel() {
+        for (boolean fast : new boolean[]{false, true}) {
+            MetricsRecorder metrics = new MetricsRecorder();
+            TreeBuilder builder = fast ? new FastTreeBuilder(hashFn, false, metrics)
+                    : new BasicTreeBuilder(hashFn, false, metrics);
+            MerkleTree tree = new MerkleTree(builder, hashFn, transactions(1000));
+
+            assertEquals(1, metrics.builds().count());
+            int[] sizes = TreeBuilder.levelSizes(1000);
+            for (int level = 1; level < sizes.length; level++) {
+                assertEquals(sizes[level], metrics.levelNodes(level), "level " + level);
+            }
+            assertEquals(0, metrics.levelNodes(sizes.length));
+            assertArrayEquals(new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(1000)).getRoot(),
+                    tree.getRoot());
+        }
+
+        MetricsRecorder metrics = new MetricsRecorder();
+        new MerkleTree(new ForkJoinTreeBuilder(hashFn, ForkJoinPool.commonPool(), false, metrics), hashFn,
+                transactions(1000));
+        assertEquals(1, metrics.builds().count());
+        assertEquals(0, metrics.levelNodes(1));
+    }
+
+    @Test
+    void testUpdatesCountDigests() {
+        MetricsRecorder metrics = new MetricsRecorder();
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(8));
+        tree.setMetrics(metrics);
+
+        // three levels above the leaves, each parent hashing its two children and then the pair
+        tree.updateTx(3, "x".getBytes());
+        assertEquals(9, metrics.updateHashes());
+
+        // leaves 0 and 1 share every ancestor
+        tree.updateTxs(Map.of(0, "a".getBytes(), 1, "b".getBytes()));
+        assertEquals(18, metrics.updateHashes());
+        assertEquals(3, metrics.updatedLeaves());
+        assertEquals(2, metrics.updates().count());
+
+        // the ninth leaf's ancestors have no siblings until the new root, which hashes two children
+        tree.addTx("appended".getBytes());
+        assertEquals(2 + 2 + 2 + 3, metrics.appendHashes());
+        assertEquals(1, metrics.appendedLeaves());
+
+        MerkleTree single = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(1));
+        single.setMetrics(metrics);
+        single.updateTx(0, "y".getBytes());
+        assertEquals(19, metrics.updateHashes());
+    }
+
+    @Test
+    void testProofsRecordedOnEveryTree() {
+        MetricsRecorder metrics = new MetricsRecorder();
+        List<byte[]> txs = transactions(100);
+        MerkleTree plain = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        ThreadSafeMerkleTree threadSafe = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        ConcurrentMerkleTree concurrent = new ConcurrentMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        byte[][] buffer = new byte[plain.getHeight()][];
+
+        for (MerkleTree tree : List.of(plain, threadSafe, concurrent)) {
+            tree.setMetrics(metrics);
+            tree.createProof(5);
+            tree.createProof(6, buffer);
+            tree.updateTx(7, "z".getBytes());
+            assertTrue(tree.validateProofTx(7, tree.createProof(7), "z".getBytes()));
+        }
+        assertEquals(9, metrics.proofs().count());
+        assertEquals(3, metrics.updates().count());
+        assertTrue(metrics.proofs().percentile(99) > 0);
+
+        plain.setMetrics(TreeMetrics.NONE);
+        plain.createProof(5);
+        assertEquals(9, metrics.proofs().count());
+        assertThrows(NullPointerException.class, () -> plain.setMetrics(null));
+    }
+
+    @Test
+    void testLockWaitsRecorded() throws Exception {
+        MetricsRecorder metrics = new MetricsRecorder();
+        ThreadSafeMerkleTree tree = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(500));
+        tree.setMetrics(metrics);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> reader = executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    tree.createProof(i % 500);
+                }
+            });
+            for (int i = 0; i < 200; i++) {
+                tree.updateTx(i, ("w" + i).getBytes());
+            }
+            reader.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(2000, metrics.readLockWaits().count());
+        assertEquals(200, metrics.writeLockWaits().count());
+        assertEquals(2000, metrics.proofs().count());
+        assertTrue(metrics.toString().contains("readLockWaits={count=2000"));
+    }
+
+    @Test
+    void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+
+        assertEquals(1001, histogram.count());
+        assertEquals(1000, histogram.max());
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(1000, histogram.percentile(100));
+        long p50 = histogram.percentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125, "p50 " + p50);
+        long p99 = histogram.percentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000, "p99 " + p99);
+        for (long value : new long[]{0, 7, 8, 15, 16, 17, 1000, Long.MAX_VALUE}) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.bucket(value));
+            assertTrue(upper >= value && upper - value <= value / 8, value + " in bucket up to " + upper);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiProofVerifierTest {
+
+    @Test
+    void testMultiProofOmitsDerivableSiblings() {
+        // A, B, C, D, E, F, G, H, I, | AB, CD, EF, GH, I, | ABCD, EFGH, I, | ABCDEFGH, I, | ABCDEFGHI
+        List<byte[]> transactions = Stream.of("A", "B", "C", "D", "E", "F", "G", "H", "I").map(String::getBytes).toList();
+        IdentityHash hashFn = new IdentityHash();
+        MerkleTree idTree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+
+        MultiProof proof = idTree.createMultiProof(3, 0, 1);
+
+        assertArrayEquals(new int[]{0, 1, 3}, proof.indexes());
+        assertEquals(List.of("C", "EFGH", "I"), proof.hashes().stream().map(String::new).toList());
+        assertArrayEquals(new boolean[]{true, false, true, false, false}, proof.flags());
+        assertTrue(MultiProofVerifier.verify(idTree.getRoot(), toLeaves(transactions, 0, 1, 3), proof, hashFn));
+    }
+
+    @Test
+    void testVerifyRandomLeafSets() {
+        SHA256D hashFn = new SHA256D();
+        Random random = new Random(1);
+
+        for (int size : new int[]{1, 2, 3, 7, 64, 1000}) {
+            List<byte[]> transactions = transactions(size);
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+
+            for (int attempt = 0; attempt < 10; attempt++) {
+                int[] indexes = random.ints(1 + random.nextInt(Math.min(size, 50)), 0, size).sorted().distinct().toArray();
+                MultiProof proof = tree.createMultiProof(indexes);
+                List<byte[]> leaves = toLeaves(transactions, indexes);
+
+                assertTrue(MultiProofVerifier.verify(tree.getRoot(), leaves, proof, hashFn), "size " + size);
+                assertFalse(MultiProofVerifier.verify(hashFn.hash("other".getBytes()), leaves, proof, hashFn));
+            }
+        }
+    }
+
+    @Test
+    void testTamperedLeafFailsVerification() {
+        SHA256D hashFn = new SHA256D();
+        List<byte[]> transactions = transactions(100);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        MultiProof proof = tree.createMultiProof(5, 17, 18, 99);
+
+        List<byte[]> tampered = List.of(transactions.get(5), "tx71".getBytes(), transactions.get(18), transactions.get(99));
+
+        assertTrue(MultiProofVerifier.verify(tree.getRoot(), toLeaves(transactions, 5, 17, 18, 99), proof, hashFn));
+        assertFalse(MultiProofVerifier.verify(tree.getRoot(), tampered, proof, hashFn));
+        assertFalse(MultiProofVerifier.verify(tree.getRoot(), toLeaves(transactions, 5, 17, 18), proof, hashFn));
+    }
+
+    private List<byte[]> toLeaves(List<byte[]> transactions, int... indexes) {
+        return IntStream.of(indexes).mapToObj(transactions::get).toList();
+    }
+
+    private static class IdentityHash implements HashAlgorithm {
+        @Override
+        public byte[] hash(byte[] s) {
+            return s;
+        }
+    }
+}
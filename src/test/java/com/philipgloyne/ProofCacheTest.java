@@ -0,0 +1,177 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.philipgloyne.TestTrees.assertProofsEqual;
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProofCacheTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testCachedProofsMatchUncachedThroughWrites() {
+        HashAlgorithm identity = s -> s;
+        for (HashAlgorithm algorithm : List.of(hashFn, identity)) {
+            Random random = new Random(3);
+            for (int size : new int[]{1, 2, 7, 64, 300}) {
+                List<byte[]> transactions = transactions(size);
+                MerkleTree plain = new MerkleTree(new BasicTreeBuilder(algorithm), algorithm, transactions);
+                MerkleTree cached = new MerkleTree(new BasicTreeBuilder(algorithm), algorithm, transactions);
+                cached.enableProofCache(64);
+
+                int count = size;
+                for (int step = 0; step < 400; step++) {
+                    int index = random.nextInt(count);
+                    switch (random.nextInt(10)) {
+                        case 0 -> {
+                            byte[] tx = ("u" + step).getBytes();
+                            plain.updateTx(index, tx);
+                            cached.updateTx(index, tx);
+                        }
+                        case 1 -> {
+                            Map<Integer, byte[]> txs = new HashMap<>();
+                            txs.put(0, ("z" + step).getBytes());
+                            txs.put(index, ("b" + step).getBytes());
+                            plain.updateTxs(txs);
+                            cached.updateTxs(txs);
+                        }
+                        case 2 -> {
+                            plain.addTx(("a" + step).getBytes());
+                            cached.addTx(("a" + step).getBytes());
+                            count++;
+                        }
+                        default -> assertProofsEqual(plain.createProof(index), cached.createProof(index));
+                    }
+                }
+                assertTrue(cached.getProofCache().hits() > 0);
+            }
+        }
+    }
+
+    @Test
+    void testUpdatesRefreshOnlyTouchedLevels() {
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(1024));
+        tree.enableProofCache(1024);
+        ProofCache cache = tree.getProofCache();
+
+        List<byte[]> before = tree.createProof(5);
+        assertEquals(1, cache.misses());
+        assertSame(before, tree.createProof(5));
+        assertEquals(1, cache.hits());
+        assertEquals(0, cache.refreshes());
+
+        // leaf 600 meets leaf 5 below the root, only the proof's top entry changes
+        tree.updateTx(600, "x".getBytes());
+        List<byte[]> after = tree.createProof(5);
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.refreshes());
+        for (int i = 0; i < before.size() - 1; i++) {
+            assertSame(before.get(i), after.get(i));
+        }
+        assertFalse(Arrays.equals(before.get(9), after.get(9)));
+
+        // a leaf's own update leaves its proof alone
+        tree.updateTx(5, "y".getBytes());
+        assertSame(after.get(9), tree.createProof(5).get(9));
+        assertEquals(1, cache.refreshes());
+        assertTrue(tree.validateProofTx(5, tree.createProof(5), "y".getBytes()));
+    }
+
+    @Test
+    void testOldProofsAreReadAgain() {
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(100));
+        tree.enableProofCache(16);
+        tree.createProof(1);
+
+        for (int i = 0; i <= ProofCache.LOG_SIZE; i++) {
+            tree.updateTx(50, ("u" + i).getBytes());
+        }
+        assertTrue(tree.validateProof(1, tree.createProof(1)));
+        assertEquals(2, tree.getProofCache().misses());
+
+        tree.addTx("appended".getBytes());
+        assertTrue(tree.validateProof(1, tree.createProof(1)));
+        assertEquals(3, tree.getProofCache().misses());
+        assertEquals(0, tree.getProofCache().hits());
+    }
+
+    @Test
+    void testBoundedAndCopiedIntoCallersArrays() {
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(5000));
+        tree.enableProofCache(256);
+        for (int i = 0; i < 5000; i++) {
+            tree.createProof(i);
+        }
+        assertTrue(tree.getProofCache().size() <= 256);
+
+        List<byte[]> proof = tree.createProof(4999);
+        assertThrows(UnsupportedOperationException.class, () -> proof.set(0, new byte[0]));
+
+        byte[][] buffer = new byte[tree.getHeight()][32];
+        byte[] reused = buffer[1];
+        int length = tree.createProof(4999, buffer);
+        assertProofsEqual(proof, List.of(buffer).subList(0, length));
+        assertSame(reused, buffer[1]);
+        buffer[1][0] ^= 1;
+        assertTrue(tree.validateProof(4999, tree.createProof(4999)));
+        assertThrows(UnsupportedOperationException.class, () ->
+                new ConcurrentMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(4)).enableProofCache(8));
+    }
+
+    @Test
+    void testThreadSafeTreeReadersDuringWrites() throws Exception {
+        List<byte[]> transactions = new ArrayList<>(transactions(2000));
+        ThreadSafeMerkleTree tree = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        tree.enableProofCache(128);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                int seed = r;
+                readers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    while (writing.get()) {
+                        // a skewed mix, most reads go to a handful of leaves
+                        int index = random.nextInt(10) < 8 ? random.nextInt(20) : random.nextInt(2000);
+                        assertFalse(tree.createProof(index).isEmpty());
+                    }
+                }));
+            }
+
+            Random random = new Random(9);
+            for (int i = 0; i < 2000; i++) {
+                int index = random.nextInt(2000);
+                byte[] tx = ("w" + i).getBytes();
+                transactions.set(index, tx);
+                tree.updateTx(index, tx);
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        MerkleTree expect = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        for (int i = 0; i < 2000; i++) {
+            assertProofsEqual(expect.createProof(i), tree.createProof(i));
+        }
+        assertTrue(tree.getProofCache().hitRate() > 0);
+    }
+}
@@ -0,0 +1,165 @@
+package com.philipgloyne;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.philipgloyne.TestTrees.assertProofsEqual;
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProofCodecTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testEveryProofRoundTrips() {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * ProofCodec.maxLength(70, 32, 8));
+        for (int size = 1; size <= 70; size++) {
+            List<byte[]> transactions = transactions(size);
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+
+            for (int i = 0; i < size; i++) {
+                List<byte[]> proof = tree.createProof(i);
+                buffer.clear();
+                tree.encodeProof(i, buffer);
+                int length = buffer.position();
+                ProofCodec.encode(buffer, i, size, proof, hashFn);
+                assertEquals(buffer.slice(0, length), buffer.slice(length, length), "size " + size + " index " + i);
+
+                buffer.flip();
+                EncodedProof encoded = ProofCodec.decode(buffer);
+                assertEquals(length, buffer.position());
+                assertEquals(length, encoded.length());
+                assertEquals(i, encoded.index());
+                assertEquals(size, encoded.leafCount());
+                assertFalse(encoded.isBundle());
+                assertEquals(proof.size(), encoded.size());
+                assertProofsEqual(proof, encoded.proof());
+                assertTrue(ProofVerifier.verify(tree.getRoot(), transactions.get(i), encoded, hashFn));
+            }
+        }
+    }
+
+    @Test
+    void testBundleVerifiesOnItsOwn() {
+        List<byte[]> transactions = transactions(1000);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn, true), hashFn, transactions);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(ProofCodec.maxLength(1000, 32, 8));
+        tree.encodeProofBundle(617, buffer);
+        buffer.flip();
+
+        // direct buffers are copied, so the view outlives the buffer's contents
+        EncodedProof bundle = ProofCodec.decode(buffer);
+        buffer.clear();
+        tree.encodeProofBundle(0, buffer);
+        assertTrue(bundle.isBundle());
+        assertArrayEquals(tree.getRoot(), bundle.root());
+        assertArrayEquals(transactions.get(617), bundle.leaf());
+        assertProofsEqual(tree.createProof(617), bundle.proof());
+        assertTrue(ProofVerifier.verify(bundle, hashFn));
+
+        ByteBuffer copy = ByteBuffer.allocate(ProofCodec.maxLength(1000, 32, 8));
+        ProofCodec.encodeBundle(copy, bundle.root(), "forged".getBytes(), 617, 1000, bundle.proof(), hashFn);
+        assertFalse(ProofVerifier.verify(ProofCodec.decode(copy.flip()), hashFn));
+
+        MerkleTree single = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(1));
+        ByteBuffer one = ByteBuffer.allocate(64);
+        single.encodeProofBundle(0, one);
+        assertTrue(ProofVerifier.verify(ProofCodec.decode(one.flip()), hashFn));
+    }
+
+    @Test
+    void testMultiProofRoundTrips() {
+        List<byte[]> transactions = transactions(300);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        MultiProof proof = tree.createMultiProof(299, 0, 1, 150, 17);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ProofCodec.encodeMultiProof(buffer, proof, hashFn);
+        buffer.flip();
+
+        MultiProof decoded = ProofCodec.decodeMultiProof(buffer.duplicate());
+        assertEquals(300, decoded.leafCount());
+        assertArrayEquals(proof.indexes(), decoded.indexes());
+        assertArrayEquals(proof.flags(), decoded.flags());
+        assertProofsEqual(proof.hashes(), decoded.hashes());
+        List<byte[]> leaves = IntStream.of(decoded.indexes()).mapToObj(transactions::get).toList();
+        assertTrue(MultiProofVerifier.verify(tree.getRoot(), leaves, decoded, hashFn));
+
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.decodeMultiProof(buffer.slice(0,
+                buffer.limit() - 1)));
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.decode(buffer.duplicate()));
+    }
+
+    @Test
+    void testTamperedProofFails() {
+        List<byte[]> transactions = transactions(9);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        tree.encodeProof(2, buffer);
+        buffer.flip();
+        byte[] root = tree.getRoot();
+
+        assertTrue(ProofVerifier.verify(root, transactions.get(2), ProofCodec.decode(buffer.duplicate()), hashFn));
+        assertFalse(ProofVerifier.verify(root, transactions.get(3), ProofCodec.decode(buffer.duplicate()), hashFn));
+        buffer.put(buffer.limit() - 1, (byte) (buffer.get(buffer.limit() - 1) ^ 1));
+        assertFalse(ProofVerifier.verify(root, transactions.get(2), ProofCodec.decode(buffer.duplicate()), hashFn));
+        assertFalse(ProofVerifier.verify(root, transactions.get(2), ProofCodec.decode(buffer.duplicate()),
+                new SHA256()));
+    }
+
+    @Test
+    void testRejectsMalformedInput() {
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(100));
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        tree.encodeProof(50, buffer);
+        buffer.flip();
+
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.decode(buffer.slice(0, buffer.limit() - 1)));
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.decode(buffer.slice(0, 4)));
+        ByteBuffer version = ByteBuffer.allocate(buffer.limit()).put(buffer.duplicate()).put(0, (byte) 2).flip();
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.decode(version));
+        ByteBuffer kind = ByteBuffer.allocate(buffer.limit()).put(buffer.duplicate()).put(1, (byte) 3).flip();
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.decode(kind));
+        ByteBuffer varint = ByteBuffer.wrap(new byte[]{1, 1, 32, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0});
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.decode(varint));
+
+        List<byte[]> proof = tree.createProof(50);
+        assertThrows(IllegalArgumentException.class, () -> ProofCodec.encode(ByteBuffer.allocate(512), 51, 100,
+                proof.subList(1, proof.size()), hashFn));
+        HashAlgorithm identity = s -> s;
+        MerkleTree variable = new MerkleTree(new BasicTreeBuilder(identity), identity, transactions(4));
+        assertThrows(IllegalArgumentException.class, () -> variable.encodeProof(1, ByteBuffer.allocate(512)));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.encodeProof(100, ByteBuffer.allocate(512)));
+    }
+
+    @Test
+    void testOverflowLeavesBufferUnchanged() {
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(100));
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.position(10);
+        assertThrows(BufferOverflowException.class, () -> tree.encodeProof(3, buffer));
+        assertEquals(10, buffer.position());
+        assertThrows(BufferOverflowException.class, () -> ProofCodec.encode(buffer, 3, 100, tree.createProof(3),
+                hashFn));
+        assertEquals(10, buffer.position());
+    }
+
+    @Test
+    void testSmallerThanJavaSerialization() {
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(1 << 16));
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        tree.encodeProof(12345, buffer);
+        byte[] serialized = SerializationUtils.serialize(new ArrayList<>(tree.createProof(12345)));
+
+        // 3 byte header, 3 + 2 byte varints, 1 + 7 byte leaf, 15 hashes of 32 bytes
+        assertEquals(3 + 5 + 8 + 15 * 32, buffer.position());
+        assertTrue(buffer.position() < serialized.length);
+    }
+}
@@ -0,0 +1,184 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProofServerTest {
+
+    private final SHA256D hashFn = new SHA256D();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @Test
+    void testServesRootProofsAndMultiProofs() throws Exception {
+        List<byte[]> transactions = transactions(1000);
+        ThreadSafeMerkleTree tree = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        try (ProofServer server = ProofServer.start(new InetSocketAddress("localhost", 0), tree, 64)) {
+            HttpResponse<byte[]> root = get(server, "/root");
+            assertEquals(200, root.statusCode());
+            assertArrayEquals(tree.getRoot(), root.body());
+            assertEquals("1000", root.headers().firstValue("Leaf-Count").orElseThrow());
+
+            EncodedProof bundle = ProofCodec.decode(ByteBuffer.wrap(get(server, "/proof?index=617").body()));
+            assertArrayEquals(tree.getRoot(), bundle.root());
+            assertArrayEquals(transactions.get(617), bundle.leaf());
+            assertTrue(ProofVerifier.verify(bundle, hashFn));
+
+            MultiProof multiProof = ProofCodec.decodeMultiProof(ByteBuffer.wrap(
+                    get(server, "/multiproof?index=999,3,500,4").body()));
+            assertArrayEquals(new int[]{3, 4, 500, 999}, multiProof.indexes());
+            List<byte[]> leaves = List.of(transactions.get(3), transactions.get(4), transactions.get(500),
+                    transactions.get(999));
+            assertTrue(MultiProofVerifier.verify(tree.getRoot(), leaves, multiProof, hashFn));
+
+            tree.updateTx(617, "changed".getBytes());
+            bundle = ProofCodec.decode(ByteBuffer.wrap(get(server, "/proof?index=617").body()));
+            assertArrayEquals(tree.getRoot(), bundle.root());
+            assertTrue(ProofVerifier.verify(bundle, hashFn));
+
+            assertEquals(404, get(server, "/proof?index=1000").statusCode());
+            assertEquals(404, get(server, "/multiproof?index=1,-1").statusCode());
+            assertEquals(400, get(server, "/proof?index=x").statusCode());
+            assertEquals(400, get(server, "/proof?index=1,2").statusCode());
+            assertEquals(400, get(server, "/proof").statusCode());
+            assertEquals(404, get(server, "/leaves").statusCode());
+            // malformed requests are turned away before they reach the batcher
+            assertEquals(6, server.requestCount());
+        }
+    }
+
+    @Test
+    void testRequestsArrivingTogetherShareABatch() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        List<byte[]> transactions = transactions(100);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions) {
+            @Override
+            public void read(Consumer<MerkleTree> reads) {
+                entered.countDown();
+                try {
+                    firstBatch.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.read(reads);
+            }
+        };
+
+        try (ProofServer server = ProofServer.start(new InetSocketAddress("localhost", 0), tree, 64)) {
+            // the first request holds the batcher while the rest queue up behind it
+            List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+            responses.add(getAsync(server, "/proof?index=0"));
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i <= 10; i++) {
+                responses.add(getAsync(server, "/proof?index=" + i));
+            }
+            awaitWaiting(server, 10);
+            firstBatch.countDown();
+
+            for (int i = 0; i < responses.size(); i++) {
+                EncodedProof bundle = ProofCodec.decode(ByteBuffer.wrap(responses.get(i).get(10, TimeUnit.SECONDS)
+                        .body()));
+                assertEquals(i, bundle.index());
+                assertTrue(ProofVerifier.verify(tree.getRoot(), transactions.get(i), bundle, hashFn));
+            }
+            assertEquals(11, server.requestCount());
+            assertEquals(2, server.batchCount());
+        }
+    }
+
+    @Test
+    void testManyConcurrentClients() throws Exception {
+        List<byte[]> transactions = transactions(4096);
+        ThreadSafeMerkleTree tree = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        try (ProofServer server = ProofServer.start(new InetSocketAddress("localhost", 0), tree, 64)) {
+            List<CompletableFuture<HttpResponse<byte[]>>> responses = IntStream.range(0, 200)
+                    .mapToObj(i -> getAsync(server, "/proof?index=" + (i * 19 % 4096))).toList();
+            byte[] root = tree.getRoot();
+            for (int i = 0; i < responses.size(); i++) {
+                EncodedProof bundle = ProofCodec.decode(ByteBuffer.wrap(responses.get(i).get(30, TimeUnit.SECONDS)
+                        .body()));
+                assertArrayEquals(root, bundle.root());
+                assertArrayEquals(transactions.get(i * 19 % 4096), bundle.leaf());
+                assertTrue(ProofVerifier.verify(bundle, hashFn));
+            }
+            assertEquals(200, server.requestCount());
+            assertTrue(server.batchCount() <= 200);
+        }
+    }
+
+    @Test
+    void testFailedPassFailsItsBatchAndServingCarriesOn() throws Exception {
+        AtomicInteger passes = new AtomicInteger();
+        List<byte[]> transactions = transactions(100);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions) {
+            @Override
+            public void read(Consumer<MerkleTree> reads) {
+                switch (passes.incrementAndGet()) {
+                    case 1 -> throw new IllegalStateException("read failed");
+                    case 2 -> throw new OutOfMemoryError("no room for the answer");
+                    default -> super.read(reads);
+                }
+            }
+        };
+
+        try (ProofServer server = ProofServer.start(new InetSocketAddress("localhost", 0), tree, 64)) {
+            assertEquals(503, get(server, "/proof?index=1").statusCode());
+            assertEquals(500, get(server, "/proof?index=2").statusCode());
+
+            EncodedProof bundle = ProofCodec.decode(ByteBuffer.wrap(get(server, "/proof?index=3").body()));
+            assertTrue(ProofVerifier.verify(tree.getRoot(), transactions.get(3), bundle, hashFn));
+            assertEquals(3, server.batchCount());
+        }
+    }
+
+    @Test
+    void testRejectsVariableWidthAndStopsOnClose() throws IOException {
+        HashAlgorithm identity = s -> s;
+        MerkleTree variable = new MerkleTree(new BasicTreeBuilder(identity), identity, transactions(4));
+        assertThrows(IllegalArgumentException.class, () -> ProofServer.start(new InetSocketAddress("localhost", 0),
+                variable, 64));
+
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(4));
+        ProofServer server = ProofServer.start(new InetSocketAddress("localhost", 0), tree, 64);
+        server.close();
+        assertThrows(IOException.class, () -> get(server, "/root"));
+    }
+
+    private void awaitWaiting(ProofServer server, int waiting) throws InterruptedException {
+        for (int i = 0; i < 1000 && server.waiting() < waiting; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(waiting, server.waiting());
+    }
+
+    private HttpResponse<byte[]> get(ProofServer server, String path) throws IOException, InterruptedException {
+        return client.send(request(server, path), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> getAsync(ProofServer server, String path) {
+        return client.sendAsync(request(server, path), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpRequest request(ProofServer server, String path) {
+        InetSocketAddress address = server.address();
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + address.getPort() + path)).build();
+    }
+}
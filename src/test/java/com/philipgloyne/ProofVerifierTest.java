@@ -0,0 +1,62 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProofVerifierTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testEveryProofRecomputesRoot() {
+        for (int size = 1; size <= 70; size++) {
+            List<byte[]> transactions = transactions(size);
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+
+            for (int i = 0; i < size; i++) {
+                List<byte[]> proof = tree.createProof(i);
+                assertTrue(ProofVerifier.verify(tree.getRoot(), transactions.get(i), i, size, proof, hashFn),
+                        "size " + size + " index " + i);
+                assertTrue(tree.validateProofTx(i, proof, transactions.get(i)));
+            }
+        }
+    }
+
+    @Test
+    void testWrongLeafIndexOrCountFails() {
+        List<byte[]> transactions = transactions(9);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        List<byte[]> proof = tree.createProof(2);
+        byte[] root = tree.getRoot();
+
+        assertTrue(ProofVerifier.verify(root, transactions.get(2), 2, 9, proof, hashFn));
+        assertFalse(ProofVerifier.verify(root, transactions.get(3), 2, 9, proof, hashFn));
+        assertFalse(ProofVerifier.verify(root, transactions.get(2), 3, 9, proof, hashFn));
+        assertFalse(ProofVerifier.verify(root, transactions.get(2), 2, 8, proof, hashFn));
+        assertFalse(ProofVerifier.verify(root, transactions.get(2), 2, 9, proof.subList(0, 2), hashFn));
+        assertFalse(ProofVerifier.verify(root, transactions.get(2), 9, 9, proof, hashFn));
+    }
+
+    @Test
+    void testVerifyAll() {
+        List<byte[]> transactions = transactions(1000);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        int[] indexes = {0, 17, 500, 999};
+        List<byte[]> leaves = new ArrayList<>();
+        List<List<byte[]>> proofs = new ArrayList<>();
+        for (int index : indexes) {
+            leaves.add(transactions.get(index));
+            proofs.add(tree.createProof(index));
+        }
+        leaves.set(2, "forged".getBytes());
+
+        boolean[] valid = ProofVerifier.verifyAll(tree.getRoot(), 1000, leaves, indexes, proofs, hashFn);
+
+        assertArrayEquals(new boolean[]{true, true, false, true}, valid);
+    }
+}
@@ -0,0 +1,78 @@
+package com.philipgloyne;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SHA256DTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testHashIsDoubleSha256() throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+        assertArrayEquals(md.digest(md.digest("A".getBytes())), hashFn.hash("A".getBytes()));
+        assertArrayEquals(md.digest(md.digest("B".getBytes())), hashFn.hash("B".getBytes()));
+    }
+
+    @Test
+    void testHashPairMatchesConcatenatedHash() {
+        byte[] left = hashFn.hash("A".getBytes());
+        byte[] right = hashFn.hash("B".getBytes());
+
+        assertArrayEquals(hashFn.hash(ArrayUtils.addAll(left, right)), hashFn.hashPair(left, right));
+    }
+
+    @Test
+    void testIntoVariantsWriteAtOffset() {
+        byte[] left = hashFn.hash("A".getBytes());
+        byte[] right = hashFn.hash("B".getBytes());
+        byte[] src = ArrayUtils.addAll(left, right);
+        byte[] out = new byte[40];
+
+        assertEquals(32, hashFn.digestInto(src, 0, 64, out, 8));
+        assertArrayEquals(hashFn.hash(src), Arrays.copyOfRange(out, 8, 40));
+
+        assertEquals(32, hashFn.hashPairInto(src, 0, 32, src, 32, 32, out, 4));
+        assertArrayEquals(hashFn.hashPair(left, right), Arrays.copyOfRange(out, 4, 36));
+    }
+
+    @Test
+    void testBatchesMatchSingleDigests() {
+        byte[] src = new byte[5 + 200 * 40];
+        new SplittableRandom(3).nextBytes(src);
+        for (SHA256 batched : new SHA256[]{new SHA256D(), new SHA256()}) {
+            for (int length : new int[]{0, 1, 31, 32, 55, 56, 63, 64, 65, 119, 120, 200}) {
+                for (int count : new int[]{0, 1, 15, 16, 17, 40}) {
+                    byte[] dst = new byte[count * 32 + 3];
+                    batched.digestAll(src, 5, length, dst, 3, count);
+                    for (int i = 0; i < count; i++) {
+                        byte[] expect = batched.hash(Arrays.copyOfRange(src, 5 + i * length, 5 + (i + 1) * length));
+                        assertArrayEquals(expect, Arrays.copyOfRange(dst, 3 + i * 32, 3 + (i + 1) * 32),
+                                batched.name() + " length " + length + " count " + count + " message " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testScalarAndVectorBatchesBuildSameTree() {
+        List<byte[]> transactions = transactions(1001);
+        SHA256D scalar = new SHA256D(false);
+
+        byte[] expect = new MerkleTree(new BasicTreeBuilder(scalar), scalar, transactions).getRoot();
+        for (TreeBuilder builder : List.of(new BasicTreeBuilder(hashFn), new ForkJoinTreeBuilder(hashFn),
+                new FastTreeBuilder(hashFn))) {
+            assertArrayEquals(expect, new MerkleTree(builder, hashFn, transactions).getRoot());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedMerkleTreeTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testRootAndProofsMatchSingleTree() {
+        for (int shardSize : new int[]{2, 4, 8}) {
+            for (int size = 0; size <= 40; size++) {
+                List<byte[]> transactions = transactions(0, size);
+                MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+                ShardedMerkleTree sharded = new ShardedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, shardSize,
+                        transactions);
+                String message = "shard size " + shardSize + " size " + size;
+
+                assertArrayEquals(tree.getRoot(), sharded.getRoot(), message);
+                for (int i = 0; i < size; i++) {
+                    List<byte[]> proof = sharded.createProof(i);
+                    assertTrue(tree.validateProof(i, proof), message + " index " + i);
+                    assertTrue(sharded.validateProofTx(i, proof, transactions.get(i)), message + " index " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testUpdatesAndAppendsMatchSingleTree() {
+        for (int size = 0; size <= 20; size++) {
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(0, size));
+            ShardedMerkleTree sharded = new ShardedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, 4,
+                    transactions(0, size));
+
+            tree.addTx("one".getBytes());
+            sharded.addTx("one".getBytes());
+            tree.addTxs(transactions(100, 111));
+            sharded.addTxs(transactions(100, 111));
+            assertArrayEquals(tree.getRoot(), sharded.getRoot(), "size " + size);
+
+            Map<Integer, byte[]> updates = new HashMap<>();
+            for (int i = 0; i < sharded.size(); i += 3) {
+                updates.put(i, ("updated" + i).getBytes());
+            }
+            tree.updateTxs(updates);
+            sharded.updateTxs(updates);
+            tree.updateTx(sharded.size() - 1, "last".getBytes());
+            sharded.updateTx(sharded.size() - 1, "last".getBytes());
+
+            assertArrayEquals(tree.getRoot(), sharded.getRoot(), "size " + size);
+            for (int i = 0; i < sharded.size(); i++) {
+                assertTrue(tree.validateProof(i, sharded.createProof(i)), "size " + size + " index " + i);
+            }
+        }
+    }
+
+    @Test
+    void testParallelWritersToDifferentShards() throws Exception {
+        int size = 4096;
+        List<byte[]> transactions = transactions(0, size);
+        ShardedMerkleTree sharded = new ShardedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, 256, transactions);
+        List<byte[]> expected = new ArrayList<>(transactions);
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            writers.add(new Thread(() -> {
+                for (int i = writer; i < size; i += 4) {
+                    sharded.updateTx(i, ("w" + i).getBytes());
+                    if (i % 64 == 0) {
+                        sharded.createProof(i);
+                    }
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        for (int i = 0; i < size; i++) {
+            expected.set(i, ("w" + i).getBytes());
+        }
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, expected);
+        assertArrayEquals(tree.getRoot(), sharded.getRoot());
+    }
+
+    @Test
+    void testShardSizeMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, 6, transactions(0, 10)));
+    }
+}
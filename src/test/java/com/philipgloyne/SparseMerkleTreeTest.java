@@ -0,0 +1,186 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SparseMerkleTreeTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testEmptyTreeRootIsEmptySubtree() {
+        SparseMerkleTree tree = new SparseMerkleTree(hashFn);
+        byte[] node = new byte[32];
+        for (int height = 0; height < 256; height++) {
+            node = hashFn.hashPair(node, node);
+        }
+
+        assertArrayEquals(node, tree.getRoot());
+        assertEquals(0, tree.size());
+    }
+
+    @Test
+    void testPutGetDelete() {
+        SparseMerkleTree tree = new SparseMerkleTree(hashFn);
+        byte[] empty = tree.getRoot();
+        byte[] key = key(1);
+
+        tree.put(key, "value".getBytes());
+        assertArrayEquals("value".getBytes(), tree.get(key));
+        assertNull(tree.get(key(2)));
+        assertFalse(Arrays.equals(empty, tree.getRoot()));
+
+        tree.delete(key);
+        assertNull(tree.get(key));
+        assertArrayEquals(empty, tree.getRoot());
+        assertEquals(0, tree.nodeCount());
+    }
+
+    @Test
+    void testRootDoesNotDependOnOrderAndMemoryFollowsLiveKeys() {
+        SparseMerkleTree forward = new SparseMerkleTree(hashFn);
+        SparseMerkleTree backward = new SparseMerkleTree(hashFn);
+        for (int i = 0; i < 50; i++) {
+            forward.put(key(i), ("v" + i).getBytes());
+            backward.put(key(49 - i), ("v" + (49 - i)).getBytes());
+        }
+        assertArrayEquals(forward.getRoot(), backward.getRoot());
+        assertEquals(50, forward.size());
+        assertTrue(forward.nodeCount() <= 50 * 256);
+
+        for (int i = 0; i < 50; i++) {
+            forward.delete(key(i));
+        }
+        assertEquals(0, forward.size());
+        assertEquals(0, forward.nodeCount());
+    }
+
+    @Test
+    void testMembershipAndNonMembershipProofs() {
+        SparseMerkleTree tree = new SparseMerkleTree(hashFn);
+        for (int i = 0; i < 20; i++) {
+            tree.put(key(i), ("v" + i).getBytes());
+        }
+        byte[] root = tree.getRoot();
+
+        SparseMerkleProof member = tree.createProof(key(7));
+        assertTrue(member.isMembership());
+        assertArrayEquals("v7".getBytes(), member.value());
+        assertTrue(SparseProofVerifier.verify(root, member, hashFn));
+
+        SparseMerkleProof absent = tree.createProof(key(100));
+        assertFalse(absent.isMembership());
+        assertTrue(SparseProofVerifier.verify(root, absent, hashFn));
+
+        // claiming a different value, or that a present key is absent, fails
+        SparseMerkleProof forged = new SparseMerkleProof(key(7), "v8".getBytes(), member.bitmap(), member.siblings());
+        assertFalse(SparseProofVerifier.verify(root, forged, hashFn));
+        SparseMerkleProof hidden = new SparseMerkleProof(key(7), null, member.bitmap(), member.siblings());
+        assertFalse(SparseProofVerifier.verify(root, hidden, hashFn));
+        SparseMerkleProof moved = new SparseMerkleProof(key(8), "v7".getBytes(), member.bitmap(), member.siblings());
+        assertFalse(SparseProofVerifier.verify(root, moved, hashFn));
+    }
+
+    @Test
+    void testBatchMatchesSingleUpdates() {
+        SparseMerkleTree single = new SparseMerkleTree(hashFn);
+        SparseMerkleTree batch = new SparseMerkleTree(hashFn);
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(key(i));
+            values.add(("v" + i).getBytes());
+            single.put(key(i), ("v" + i).getBytes());
+        }
+        batch.putAll(keys, values);
+        assertArrayEquals(single.getRoot(), batch.getRoot());
+
+        // deletes, overwrites and a key given twice where the last value wins
+        keys = new ArrayList<>(List.of(key(3), key(4), key(5), key(5)));
+        values = new ArrayList<>(Arrays.asList(null, "new".getBytes(), "first".getBytes(), "second".getBytes()));
+        batch.putAll(keys, values);
+        single.delete(key(3));
+        single.put(key(4), "new".getBytes());
+        single.put(key(5), "second".getBytes());
+
+        assertArrayEquals(single.getRoot(), batch.getRoot());
+        assertArrayEquals("second".getBytes(), batch.get(key(5)));
+        assertEquals(single.nodeCount(), batch.nodeCount());
+    }
+
+    @Test
+    void testSequentialKeysSpreadOverTheTable() {
+        // ids differing only in their last bytes share every prefix byte a weak slot hash might read
+        SparseMerkleTree tree = new SparseMerkleTree(hashFn);
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            byte[] key = new byte[32];
+            key[28] = (byte) (i >>> 24);
+            key[29] = (byte) (i >>> 16);
+            key[30] = (byte) (i >>> 8);
+            key[31] = (byte) i;
+            keys.add(key);
+            values.add(("v" + i).getBytes());
+        }
+        tree.putAll(keys, values);
+
+        assertEquals(4096, tree.size());
+        assertArrayEquals("v4095".getBytes(), tree.get(keys.get(4095)));
+        assertTrue(tree.longestProbe() < 64, "longest probe " + tree.longestProbe());
+    }
+
+    @Test
+    void testProofsVerifyWithConfiguredAlgorithmInstances() {
+        // two instances of one class without a no-arg constructor, hashing differently
+        HashAlgorithm saltA = salted((byte) 1);
+        HashAlgorithm saltB = salted((byte) 2);
+        SparseMerkleTree a = new SparseMerkleTree(saltA);
+        SparseMerkleTree b = new SparseMerkleTree(saltB);
+        for (int i = 0; i < 10; i++) {
+            a.put(key(i), ("v" + i).getBytes());
+            b.put(key(i), ("v" + i).getBytes());
+        }
+        assertFalse(Arrays.equals(a.getRoot(), b.getRoot()));
+
+        for (int i : new int[]{3, 50}) {
+            assertTrue(SparseProofVerifier.verify(a.getRoot(), a.createProof(key(i)), saltA));
+            assertTrue(SparseProofVerifier.verify(b.getRoot(), b.createProof(key(i)), saltB));
+            assertFalse(SparseProofVerifier.verify(a.getRoot(), a.createProof(key(i)), saltB));
+        }
+    }
+
+    @Test
+    void testKeysMustBe32Bytes() {
+        SparseMerkleTree tree = new SparseMerkleTree(hashFn);
+        assertThrows(IllegalArgumentException.class, () -> tree.put(new byte[31], "v".getBytes()));
+    }
+
+    private HashAlgorithm salted(byte salt) {
+        return new HashAlgorithm() {
+            @Override
+            public byte[] hash(byte[] input) {
+                byte[] digest = hashFn.hash(input);
+                digest[0] ^= salt;
+                return digest;
+            }
+
+            @Override
+            public int digestLength() {
+                return 32;
+            }
+        };
+    }
+
+    private byte[] key(int seed) {
+        byte[] key = new byte[32];
+        new SplittableRandom(seed).nextBytes(key);
+        return key;
+    }
+}
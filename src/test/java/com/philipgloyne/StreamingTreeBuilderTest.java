@@ -0,0 +1,101 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingTreeBuilderTest {
+
+    @TempDir
+    Path dir;
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testRootMatchesBasicTreeBuilder() {
+        for (int size = 0; size <= 70; size++) {
+            List<byte[]> transactions = transactions(size);
+            StreamingTreeBuilder streaming = new StreamingTreeBuilder(hashFn);
+            streaming.addAll(transactions.iterator());
+
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+            assertArrayEquals(tree.getRoot(), streaming.finish(), "size " + size);
+        }
+    }
+
+    @Test
+    void testReadsLengthPrefixedChannel() throws IOException {
+        List<byte[]> transactions = transactions(1000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (byte[] tx : transactions) {
+            out.writeInt(tx.length);
+            out.write(tx);
+        }
+
+        StreamingTreeBuilder streaming = new StreamingTreeBuilder(hashFn);
+        streaming.addAll(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(1000, streaming.leafCount());
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        assertArrayEquals(tree.getRoot(), streaming.finish());
+    }
+
+    @Test
+    void testTreeFileSinkWritesOpenableTree() throws IOException {
+        for (int size : new int[]{1, 2, 5, 1000}) {
+            List<byte[]> transactions = transactions(size);
+            Path file = dir.resolve("streamed-" + size);
+            StreamingTreeBuilder streaming = new StreamingTreeBuilder(hashFn, new TreeFileSink(file, hashFn));
+            streaming.addAll(transactions.stream());
+            byte[] root = streaming.finish();
+
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+            Path saved = dir.resolve("saved-" + size);
+            tree.save(saved);
+
+            assertArrayEquals(Files.readAllBytes(saved), Files.readAllBytes(file));
+            assertArrayEquals(root, MerkleTree.open(file).getRoot());
+            try (var files = Files.list(dir)) {
+                assertTrue(files.noneMatch(f -> f.getFileName().toString().contains(".level")));
+            }
+        }
+    }
+
+    @Test
+    void testRejectsCorruptLengths() {
+        for (int length : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            byte[] bytes = ByteBuffer.allocate(Integer.BYTES).putInt(length).array();
+            StreamingTreeBuilder streaming = new StreamingTreeBuilder(hashFn);
+            assertThrows(IOException.class,
+                    () -> streaming.addAll(Channels.newChannel(new ByteArrayInputStream(bytes))), "length " + length);
+        }
+    }
+
+    @Test
+    void testClosingAnAbandonedSinkDeletesLevelFiles() throws IOException {
+        Path file = dir.resolve("abandoned");
+        try (TreeFileSink sink = new TreeFileSink(file, hashFn)) {
+            StreamingTreeBuilder streaming = new StreamingTreeBuilder(hashFn, sink);
+            streaming.addAll(transactions(100).stream());
+            try (var files = Files.list(dir)) {
+                assertTrue(files.anyMatch(f -> f.getFileName().toString().contains(".level")));
+            }
+        }
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
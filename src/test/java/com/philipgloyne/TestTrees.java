@@ -0,0 +1,37 @@
+package com.philipgloyne;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Fixtures shared by the tests.
+ */
+final class TestTrees {
+
+    private TestTrees() {
+    }
+
+    /**
+     * Transactions "tx0" up to "tx(size - 1)".
+     */
+    static List<byte[]> transactions(int size) {
+        return transactions(0, size);
+    }
+
+    /**
+     * Transactions "tx(from)" up to "tx(to - 1)", the same bytes transactions(to) has at those indexes.
+     */
+    static List<byte[]> transactions(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> ("tx" + i).getBytes()).toList();
+    }
+
+    static void assertProofsEqual(List<byte[]> expect, List<byte[]> actual) {
+        assertEquals(expect.size(), actual.size());
+        for (int i = 0; i < expect.size(); i++) {
+            assertArrayEquals(expect.get(i), actual.get(i), "proof node " + i);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.philipgloyne.TestTrees.assertProofsEqual;
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TieredNodeStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testServesSameRootAndProofsAsFlatTree() throws IOException {
+        for (int size : new int[]{1, 2, 9, 1000}) {
+            List<byte[]> transactions = transactions(size);
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+            Path file = dir.resolve("tree-" + size);
+            tree.save(file);
+
+            for (int pinnedLevels : new int[]{0, 1, 4, 64}) {
+                for (long cacheBytes : new long[]{0, 2048, 1 << 20}) {
+                    MerkleTree opened = MerkleTree.open(file, pinnedLevels, cacheBytes);
+
+                    assertArrayEquals(tree.getRoot(), opened.getRoot());
+                    for (int i = 0; i < size; i++) {
+                        assertProofsEqual(tree.createProof(i), opened.createProof(i));
+                        assertTrue(opened.validateProofTx(i, opened.createProof(i), transactions.get(i)));
+                    }
+                    assertTrue(opened.getCacheStats().cachedBytes() <= cacheBytes);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testTopLevelsArePinnedAndLeavesBypassCache() throws IOException {
+        Path file = save(transactions(1024));
+        MerkleTree opened = MerkleTree.open(file, 4, 1 << 20);
+
+        // 1024 leaves give 11 levels, the top 4 hold 8 + 4 + 2 + 1 nodes
+        NodeCacheStats stats = opened.getCacheStats();
+        assertEquals(15, stats.pinnedNodes());
+        assertEquals(15 * hashFn.digestLength(), stats.pinnedBytes());
+        assertEquals(0, stats.hits() + stats.misses());
+
+        for (int i = 0; i < 1024; i++) {
+            opened.createProof(i);
+        }
+        NodeCacheStats cold = opened.getCacheStats();
+        assertTrue(cold.pinnedReads() > 0);
+        assertEquals(1024, cold.leafReads());
+        assertTrue(cold.misses() > 0);
+        assertEquals(0, cold.evictions());
+
+        // every internal node below the pinned levels fits the budget, so a second pass never reaches the file
+        for (int i = 0; i < 1024; i++) {
+            opened.createProof(i);
+        }
+        NodeCacheStats warm = opened.getCacheStats();
+        assertEquals(cold.misses(), warm.misses());
+        assertEquals(512 + 256 + 128 + 64 + 32 + 16, warm.cachedNodes());
+        assertTrue(warm.hits() > cold.hits());
+        assertTrue(warm.hitRate() > cold.hitRate());
+    }
+
+    @Test
+    void testEvictsWithinBudget() throws IOException {
+        Path file = save(transactions(4096));
+        long budget = 16 * 1024;
+        MerkleTree opened = MerkleTree.open(file, 2, budget);
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4096; i += 7) {
+                opened.createProof(i);
+                assertTrue(opened.getCacheStats().cachedBytes() <= budget);
+            }
+        }
+        NodeCacheStats stats = opened.getCacheStats();
+        assertTrue(stats.evictions() > 0);
+        assertTrue(stats.cachedNodes() > 0);
+    }
+
+    @Test
+    void testUpdatesRefreshEveryTier() throws IOException {
+        List<byte[]> transactions = new ArrayList<>(transactions(500));
+        Path file = save(transactions);
+        MerkleTree opened = MerkleTree.open(file, 3, 1 << 20);
+        for (int i = 0; i < 500; i++) {
+            opened.createProof(i);
+        }
+
+        for (int i : new int[]{0, 42, 255, 499}) {
+            transactions.set(i, ("TX" + i).getBytes());
+            opened.updateTx(i, transactions.get(i));
+        }
+
+        MerkleTree expect = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        assertArrayEquals(expect.getRoot(), opened.getRoot());
+        for (int i = 0; i < 500; i++) {
+            assertProofsEqual(expect.createProof(i), opened.createProof(i));
+        }
+        assertArrayEquals(expect.getRoot(), MerkleTree.open(file).getRoot());
+    }
+
+    @Test
+    void testConcurrentReaders() throws IOException {
+        List<byte[]> transactions = transactions(2000);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        Path file = dir.resolve("tree");
+        tree.save(file);
+        MerkleTree opened = MerkleTree.open(file, 3, 8 * 1024);
+
+        IntStream.range(0, 20_000).parallel().forEach(n -> {
+            int i = n % 2000;
+            assertProofsEqual(tree.createProof(i), opened.createProof(i));
+        });
+        assertTrue(opened.getCacheStats().cachedBytes() <= 8 * 1024);
+    }
+
+    @Test
+    void testRejectsPinningMoreThanFits() throws IOException {
+        Path file = save(transactions(1024));
+        TreeFile tree = TreeFile.open(file);
+
+        // 1023 internal nodes of 4 MB each overflow an int sized array
+        assertThrows(IllegalArgumentException.class, () -> new TieredNodeStore(tree.store, 1024, 1 << 22, 64, 0));
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.open(file, 4, Long.MAX_VALUE / 2));
+        assertNotNull(MerkleTree.open(file, 64, 0).getCacheStats());
+    }
+
+    @Test
+    void testInMemoryTreesHaveNoCache() {
+        assertNull(new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(10)).getCacheStats());
+    }
+
+    private Path save(List<byte[]> transactions) throws IOException {
+        Path file = dir.resolve("tree-" + transactions.size());
+        new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions).save(file);
+        return file;
+    }
+}
@@ -0,0 +1,162 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class TreeFileTest {
+
+    @TempDir
+    Path dir;
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testOpenedTreeServesSameRootAndProofs() throws IOException {
+        for (int size : new int[]{1, 2, 9, 1000}) {
+            List<byte[]> transactions = transactions(size);
+            MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+            Path file = dir.resolve("tree-" + size);
+            tree.save(file);
+
+            MerkleTree opened = MerkleTree.open(file);
+
+            assertArrayEquals(tree.getRoot(), opened.getRoot());
+            for (int i = 0; i < size; i++) {
+                List<byte[]> expect = tree.createProof(i);
+                List<byte[]> actual = opened.createProof(i);
+                assertEquals(expect.size(), actual.size());
+                for (int j = 0; j < expect.size(); j++) {
+                    assertArrayEquals(expect.get(j), actual.get(j));
+                }
+                assertTrue(opened.validateProofTx(i, actual, transactions.get(i)));
+            }
+        }
+    }
+
+    @Test
+    void testUpdatesAreWrittenInPlace() throws IOException {
+        List<byte[]> transactions = new ArrayList<>(transactions(100));
+        Path file = dir.resolve("tree");
+        new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions).save(file);
+
+        MerkleTree opened = MerkleTree.open(file);
+        transactions.set(42, "TX42".getBytes());
+        opened.updateTx(42, transactions.get(42));
+
+        byte[] expect = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions).getRoot();
+        assertArrayEquals(expect, opened.getRoot());
+        assertArrayEquals(expect, MerkleTree.open(file).getRoot());
+
+        assertThrows(UnsupportedOperationException.class, () -> opened.addTx("tx100".getBytes()));
+    }
+
+    @Test
+    void testLeavesOfAnyLengthAreUpdated() throws IOException {
+        List<byte[]> transactions = new ArrayList<>(transactions(100));
+        Path file = dir.resolve("tree");
+        new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions).save(file);
+        long size = Files.size(file);
+
+        // a leaf longer than any in the file moves to the end of the heap, a shorter one stays in its record
+        MerkleTree opened = MerkleTree.open(file);
+        transactions.set(7, new byte[10_000]);
+        transactions.set(8, "t".getBytes());
+        opened.updateTx(7, transactions.get(7));
+        opened.updateTx(8, transactions.get(8));
+        assertEquals(size + 2 * Integer.BYTES + 10_000, Files.size(file));
+
+        byte[] expect = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions).getRoot();
+        assertArrayEquals(expect, opened.getRoot());
+        MerkleTree reopened = MerkleTree.open(file);
+        assertArrayEquals(expect, reopened.getRoot());
+        assertTrue(reopened.validateProofTx(7, reopened.createProof(7), transactions.get(7)));
+        assertTrue(reopened.validateProofTx(8, reopened.createProof(8), transactions.get(8)));
+
+        // the file holds each leaf once, so one large leaf doesn't widen the others
+        Path saved = dir.resolve("saved");
+        reopened.save(saved);
+        assertTrue(Files.size(saved) < size + 2 * 10_000);
+    }
+
+    @Test
+    void testRejectsFilesThatAreNotTrees() throws IOException {
+        Path file = dir.resolve("not-a-tree");
+        Files.write(file, "hello world".getBytes());
+
+        assertThrows(IOException.class, () -> MerkleTree.open(file));
+    }
+
+    @Test
+    void testRejectsCorruptHeaders() throws IOException {
+        Path file = dir.resolve("tree");
+        new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(100)).save(file);
+        byte[] bytes = Files.readAllBytes(file);
+        // magic, version, name length, "SHA256D", node width, leaf count, level count, level offsets
+        int name = 10;
+        int fields = name + hashFn.name().length();
+        int offsets = fields + 3 * Integer.BYTES;
+
+        assertCorrupt(bytes, buf -> buf.putShort(8, (short) -1));
+        assertCorrupt(bytes, buf -> buf.putShort(8, Short.MAX_VALUE));
+        assertCorrupt(bytes, buf -> buf.put(name, (byte) 'X'));
+        assertCorrupt(bytes, buf -> buf.putInt(fields, -32));
+        assertCorrupt(bytes, buf -> buf.putInt(fields + 4, -1));
+        assertCorrupt(bytes, buf -> buf.putInt(fields + 4, 0));
+        for (int levelCount : new int[]{0, 1, 6, Integer.MAX_VALUE}) {
+            assertCorrupt(bytes, buf -> buf.putInt(fields + 8, levelCount));
+        }
+        assertCorrupt(bytes, buf -> buf.putLong(offsets, 0));
+        assertCorrupt(bytes, buf -> buf.putLong(offsets + Long.BYTES, Long.MAX_VALUE));
+
+        // the heap after the root holds a record per leaf of at least its capacity and length
+        long heap = ByteBuffer.wrap(bytes).getLong(offsets) + 100 * Long.BYTES + 99 * hashFn.digestLength();
+        Path truncated = dir.resolve("truncated");
+        Files.write(truncated, Arrays.copyOf(bytes, (int) heap + 100 * 2 * Integer.BYTES - 1));
+        assertThrows(IOException.class, () -> MerkleTree.open(truncated));
+        Files.write(truncated, Arrays.copyOf(bytes, offsets));
+        assertThrows(IOException.class, () -> MerkleTree.open(truncated));
+
+        // leaves are only checked as they are read, the header is all open reads
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+        MerkleTree cut = MerkleTree.open(truncated);
+        assertThrows(IllegalStateException.class, () -> cut.createProof(98));
+        assertTrue(cut.validateProof(0, cut.createProof(0)));
+    }
+
+    @Test
+    void testReadOnlyFileOpensForReads() throws IOException {
+        List<byte[]> transactions = transactions(9);
+        MerkleTree tree = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions);
+        Path file = dir.resolve("read-only");
+        tree.save(file);
+        assertTrue(file.toFile().setWritable(false));
+        // root may write anything, in which case the file is opened read-write as usual
+        assumeFalse(Files.isWritable(file));
+
+        MerkleTree opened = MerkleTree.open(file);
+        assertArrayEquals(tree.getRoot(), opened.getRoot());
+        assertTrue(opened.validateProofTx(3, opened.createProof(3), transactions.get(3)));
+        assertThrows(UnsupportedOperationException.class, () -> opened.updateTx(3, "tx".getBytes()));
+    }
+
+    private void assertCorrupt(byte[] bytes, Consumer<ByteBuffer> corruption) throws IOException {
+        byte[] corrupt = bytes.clone();
+        corruption.accept(ByteBuffer.wrap(corrupt));
+        Path file = dir.resolve("corrupt");
+        Files.write(file, corrupt);
+        assertThrows(IOException.class, () -> MerkleTree.open(file));
+    }
+}
@@ -0,0 +1,122 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeSyncTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testIdenticalTreesNeedOneMessage() {
+        for (int size : new int[]{0, 1, 2, 7, 1000}) {
+            MerkleTree a = tree(transactions(size));
+            MerkleTree b = tree(transactions(size));
+
+            TreeSync.Session session = TreeSync.reconcile(a, b, 16);
+            assertTrue(session.differences().isEmpty());
+            assertEquals(1, session.messages());
+            assertTrue(a.diff(b).isEmpty());
+        }
+    }
+
+    @Test
+    void testFindsChangedLeavesAgainstBruteForce() {
+        Random random = new Random(17);
+        for (int localSize = 0; localSize <= 40; localSize++) {
+            for (int remoteSize : new int[]{0, 1, localSize / 2, localSize, localSize + 1, localSize + 9}) {
+                List<byte[]> local = new ArrayList<>(transactions(localSize));
+                List<byte[]> remote = new ArrayList<>(transactions(remoteSize));
+                for (int i = 0; i < remote.size(); i++) {
+                    if (random.nextInt(5) == 0) remote.set(i, ("changed" + i).getBytes());
+                }
+
+                List<LeafRange> expect = bruteForce(local, remote);
+                for (int batchSize : new int[]{1, 3, 1024}) {
+                    TreeSync.Session session = TreeSync.reconcile(tree(local), tree(remote), batchSize);
+                    assertEquals(expect, session.differences(), local.size() + " vs " + remote.size());
+                }
+                assertEquals(expect, tree(remote).diff(tree(local)));
+            }
+        }
+    }
+
+    @Test
+    void testCostScalesWithDifferences() {
+        List<byte[]> local = transactions(1 << 16);
+        List<byte[]> remote = new ArrayList<>(local);
+        remote.set(5, "a".getBytes());
+        remote.set(40_000, "b".getBytes());
+        remote.set(40_001, "c".getBytes());
+
+        TreeSync.Session session = TreeSync.reconcile(tree(local), tree(remote), 64);
+        assertEquals(List.of(new LeafRange(5, 6), new LeafRange(40_000, 40_002)), session.differences());
+        // the root, then both children of at most three differing nodes per level
+        assertTrue(session.hashesReceived() <= 1 + 16 * 3 * 2, "received " + session.hashesReceived());
+        assertEquals(1 + 16, session.messages());
+        assertEquals(1, TreeSync.reconcile(tree(local), tree(local), 64).messages());
+    }
+
+    @Test
+    void testSessionAcrossThreadSafeTrees() {
+        List<byte[]> txs = transactions(300);
+        ConcurrentMerkleTree local = new ConcurrentMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        ThreadSafeMerkleTree remote = new ThreadSafeMerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+        remote.updateTx(100, "x".getBytes());
+        local.updateTx(299, "y".getBytes());
+
+        // messages are exchanged by hand, as they would be over a transport
+        TreeSync.Session session = new TreeSync.Session(local, 8);
+        for (TreeSync.Request request = session.next(); request != null; request = session.next()) {
+            TreeSync.Response response = remote.respond(request);
+            session.receive(new TreeSync.Response(response.algorithm(), response.leafCount(), response.hashes()));
+        }
+        assertTrue(session.isDone());
+        assertEquals(List.of(new LeafRange(100, 101), new LeafRange(299, 300)), session.differences());
+        assertEquals(session.differences(), remote.diff(local));
+    }
+
+    @Test
+    void testRejectsMisuse() {
+        MerkleTree a = tree(transactions(10));
+        HashAlgorithm sha256 = new SHA256();
+        MerkleTree b = new MerkleTree(new BasicTreeBuilder(sha256), sha256, transactions(10));
+        assertThrows(IllegalArgumentException.class, () -> a.diff(b));
+
+        TreeSync.Session session = new TreeSync.Session(a, 4);
+        TreeSync.Request request = session.next();
+        assertThrows(IllegalStateException.class, session::next);
+        assertThrows(IllegalStateException.class, session::differences);
+        assertThrows(IllegalArgumentException.class,
+                () -> session.receive(new TreeSync.Response(hashFn.name(), 10, List.of())));
+        assertThrows(IndexOutOfBoundsException.class, () -> a.respond(new TreeSync.Request(0, new int[]{10})));
+        assertThrows(IllegalArgumentException.class, () -> new TreeSync.Session(a, 0));
+        assertTrue(request.isRoot());
+    }
+
+    private static List<LeafRange> bruteForce(List<byte[]> a, List<byte[]> b) {
+        List<LeafRange> ranges = new ArrayList<>();
+        int size = Math.max(a.size(), b.size());
+        int start = -1;
+        for (int i = 0; i <= size; i++) {
+            boolean differs = i < size && (i >= a.size() || i >= b.size() || !Arrays.equals(a.get(i), b.get(i)));
+            if (differs && start < 0) start = i;
+            if (!differs && start >= 0) {
+                ranges.add(new LeafRange(start, i));
+                start = -1;
+            }
+        }
+        return ranges;
+    }
+
+    private MerkleTree tree(List<byte[]> txs) {
+        return new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, txs);
+    }
+}
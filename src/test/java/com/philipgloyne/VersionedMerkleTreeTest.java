@@ -0,0 +1,93 @@
+package com.philipgloyne;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.philipgloyne.TestTrees.transactions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionedMerkleTreeTest {
+
+    private final SHA256D hashFn = new SHA256D();
+
+    @Test
+    void testEveryVersionMatchesARebuildOfItsState() {
+        VersionedMerkleTree tree = new VersionedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, List.of());
+        List<List<byte[]>> states = new ArrayList<>();
+        List<byte[]> transactions = new ArrayList<>();
+        states.add(List.copyOf(transactions));
+
+        for (int i = 0; i < 20; i++) {
+            transactions.add(("tx" + i).getBytes());
+            tree.addTx(transactions.get(i));
+            states.add(List.copyOf(transactions));
+        }
+        tree.addTxs(transactions(20, 40));
+        transactions.addAll(transactions(20, 40));
+        states.add(List.copyOf(transactions));
+        for (int i = 0; i < 40; i += 7) {
+            transactions.set(i, ("updated" + i).getBytes());
+            tree.updateTx(i, transactions.get(i));
+            states.add(List.copyOf(transactions));
+        }
+        Map<Integer, byte[]> updates = new HashMap<>();
+        for (int i = 1; i < 40; i += 3) {
+            transactions.set(i, ("batch" + i).getBytes());
+            updates.put(i, transactions.get(i));
+        }
+        tree.updateTxs(updates);
+        states.add(List.copyOf(transactions));
+
+        assertEquals(states.size() - 1, tree.getVersion());
+        assertArrayEquals(tree.getRoot(), tree.getRoot(tree.getVersion()));
+        for (int version = 0; version < states.size(); version++) {
+            List<byte[]> state = states.get(version);
+            MerkleTree rebuilt = new MerkleTree(new BasicTreeBuilder(hashFn), hashFn, state);
+            assertArrayEquals(rebuilt.getRoot(), tree.getRoot(version), "version " + version);
+            assertEquals(state.size(), tree.getLeafCount(version));
+            for (int i = 0; i < state.size(); i++) {
+                List<byte[]> proof = tree.createProof(i, version);
+                assertTrue(ProofVerifier.verify(tree.getRoot(version), state.get(i), i, state.size(), proof, hashFn),
+                        "version " + version + " index " + i);
+            }
+        }
+    }
+
+    @Test
+    void testBatchesPublishOneVersion() {
+        VersionedMerkleTree tree = new VersionedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(0, 1));
+        tree.updateTxs(Map.of(0, "A".getBytes()));
+        tree.updateTxs(Map.of());
+        tree.addTxs(transactions(1, 10));
+        tree.addTxs(List.of());
+
+        assertEquals(2, tree.getVersion());
+        assertArrayEquals(hashFn.hash("A".getBytes()), tree.getRoot(1));
+        assertEquals(10, tree.getLeafCount(2));
+    }
+
+    @Test
+    void testPruneDropsOlderVersions() {
+        VersionedMerkleTree tree = new VersionedMerkleTree(new BasicTreeBuilder(hashFn), hashFn, transactions(0, 100));
+        for (int i = 0; i < 10; i++) {
+            tree.updateTx(i, ("updated" + i).getBytes());
+        }
+        byte[] root = tree.getRoot(7);
+
+        assertEquals(5, tree.prune(5));
+        assertEquals(5, tree.getOldestVersion());
+        assertEquals(0, tree.prune(3));
+        assertThrows(IllegalArgumentException.class, () -> tree.getRoot(4));
+        assertThrows(IllegalArgumentException.class, () -> tree.createProof(0, 11));
+        assertArrayEquals(root, tree.getRoot(7));
+
+        assertEquals(5, tree.prune(10));
+        assertThrows(IllegalArgumentException.class, () -> tree.prune(11));
+        assertArrayEquals(tree.getRoot(), tree.getRoot(10));
+        assertTrue(tree.validateProof(99, tree.createProof(99, 10)));
+    }
+}